@@ -0,0 +1,100 @@
+package phd.research.benchmark;
+
+import org.jf.dexlib2.DexFileFactory;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.DexFile;
+import org.jf.dexlib2.iface.Method;
+import org.jf.dexlib2.iface.MultiDexContainer;
+import soot.RefType;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.Type;
+import soot.dexpler.DexType;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Input files of the benchmarks. Relative paths are resolved against the working directory, the defaults expect the
+ * benchmarks to be run from the benchmarks directory.
+ *
+ * @author Jordan Doyle
+ */
+
+public class BenchmarkInput {
+
+    public static final String SAMPLE_APK = "../samples/Activity_Lifecycle_1.apk";
+
+    /**
+     * JVM option of forked benchmark runs, only warnings and errors are logged.
+     */
+    public static final String QUIET_LOGGING = "-Dlog4j.configurationFile=log4j2-benchmark.xml";
+
+    /**
+     * @return the canonical APK file, Soot fails to write the output APK if the path of the input APK has '..' in it.
+     */
+    public static File getApkFile(String path) throws IOException {
+        File apkFile = new File(path).getCanonicalFile();
+        if (!apkFile.isFile()) {
+            throw new IOException("APK file does not exist or is not a file (" + apkFile.getAbsolutePath() + ").");
+        }
+        return apkFile;
+    }
+
+    /**
+     * @param path the Android platform directory, or empty for the platforms directory of the Android SDK given by
+     *             the ANDROID_HOME environment variable.
+     */
+    public static File getPlatformDirectory(String path) throws IOException {
+        File platformDirectory;
+        if (path.isEmpty()) {
+            String androidHome = System.getenv("ANDROID_HOME");
+            if (androidHome == null) {
+                throw new IOException("No platform directory given and the ANDROID_HOME variable is not set.");
+            }
+            platformDirectory = new File(androidHome, "platforms");
+        } else {
+            platformDirectory = new File(path);
+        }
+
+        if (!platformDirectory.isDirectory()) {
+            throw new IOException("Platform directory does not exist or is not a directory (" +
+                    platformDirectory.getAbsolutePath() + ").");
+        }
+        return platformDirectory;
+    }
+
+    /**
+     * Creates a Soot class with the name and methods (names and signatures, without bodies) of every class in the APK,
+     * so name based code can be benchmarked on the class and package name distribution of a real app.
+     */
+    public static List<SootClass> loadClassNames(File apkFile) throws IOException {
+        List<SootClass> classes = new ArrayList<>();
+        MultiDexContainer<? extends DexFile> container = DexFileFactory.loadDexContainer(apkFile,
+                Opcodes.getDefault());
+        for (String entryName : container.getDexEntryNames()) {
+            MultiDexContainer.DexEntry<? extends DexFile> entry = container.getEntry(entryName);
+            if (entry == null) {
+                continue;
+            }
+
+            for (ClassDef classDef : entry.getDexFile().getClasses()) {
+                SootClass clazz = new SootClass(((RefType) DexType.toSoot(classDef.getType())).getClassName(),
+                        classDef.getAccessFlags());
+                for (Method method : classDef.getMethods()) {
+                    List<Type> parameterTypes = new ArrayList<>();
+                    for (CharSequence parameterType : method.getParameterTypes()) {
+                        parameterTypes.add(DexType.toSoot(parameterType.toString()));
+                    }
+                    clazz.addMethod(new SootMethod(method.getName(), parameterTypes,
+                            DexType.toSoot(method.getReturnType()), method.getAccessFlags()));
+                }
+                classes.add(clazz);
+            }
+        }
+        return classes;
+    }
+}
@@ -0,0 +1,76 @@
+package phd.research.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Properties;
+
+/**
+ * Runs the benchmarks with the JMH command line options. Unless a result file or format is given, results are written
+ * as JSON to {@code results/jmh-<version>-<timestamp>.json}, where the version is the DroidInstrument build
+ * benchmarked, so the results of different builds can be compared.
+ *
+ * @author Jordan Doyle
+ */
+
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        CommandLineOptions commandLineOptions;
+        try {
+            commandLineOptions = new CommandLineOptions(args);
+        } catch (CommandLineOptionException e) {
+            System.err.println("Error parsing command line: " + e.getMessage());
+            System.exit(10);
+            return;
+        }
+
+        if (commandLineOptions.shouldHelp() || commandLineOptions.shouldList() ||
+                commandLineOptions.shouldListWithParams() || commandLineOptions.shouldListProfilers() ||
+                commandLineOptions.shouldListResultFormats()) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLineOptions);
+        if (!commandLineOptions.getResult().hasValue() && !commandLineOptions.getResultFormat().hasValue()) {
+            File resultFile = BenchmarkRunner.createResultFile("jmh", ".json");
+            options.resultFormat(ResultFormatType.JSON).result(resultFile.getPath());
+        }
+
+        new Runner(options.build()).run();
+    }
+
+    /**
+     * @return {@code results/<prefix>-<version>-<timestamp><extension>}, the results directory is created if missing.
+     */
+    static File createResultFile(String prefix, String extension) throws IOException {
+        File resultDirectory = new File("results");
+        if (!resultDirectory.isDirectory() && !resultDirectory.mkdirs()) {
+            throw new IOException("Failed to create result directory (" + resultDirectory.getAbsolutePath() + ").");
+        }
+
+        String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        return new File(resultDirectory, prefix + "-" + BenchmarkRunner.getVersion() + "-" + timestamp + extension);
+    }
+
+    private static String getVersion() throws IOException {
+        Properties properties = new Properties();
+        try (InputStream stream = BenchmarkRunner.class.getResourceAsStream("/benchmark.properties")) {
+            if (stream != null) {
+                properties.load(stream);
+            }
+        }
+        return properties.getProperty("version", "unknown");
+    }
+}
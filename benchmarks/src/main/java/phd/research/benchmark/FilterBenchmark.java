@@ -0,0 +1,67 @@
+package phd.research.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import phd.research.filter.FilterEngine;
+import phd.research.filter.FilterRule;
+import phd.research.utility.Filter;
+import soot.G;
+import soot.SootClass;
+import soot.SootMethod;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link Filter#isValidMethod(SootMethod)} over every method of an APK, i.e. over the class and package
+ * name distribution of a real app (mostly library packages such as {@code androidx.} next to a few app packages). The
+ * filter memoizes its decisions, so the memoized benchmark measures lookups of decided methods and the uncached
+ * benchmark measures compiling the rules and deciding every method once, as in an instrumentation run.
+ *
+ * @author Jordan Doyle
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = BenchmarkInput.QUIET_LOGGING)
+public class FilterBenchmark {
+
+    @Param(BenchmarkInput.SAMPLE_APK)
+    public String apk;
+
+    private List<SootMethod> methods;
+    private List<FilterRule> rules;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        G.reset();
+        Filter.configure(Collections.emptyList());
+        this.rules = Filter.getEngine().getRules();
+
+        this.methods = new ArrayList<>();
+        for (SootClass clazz : BenchmarkInput.loadClassNames(BenchmarkInput.getApkFile(this.apk))) {
+            this.methods.addAll(clazz.getMethods());
+        }
+    }
+
+    @Benchmark
+    public void isValidMethodMemoized(Blackhole blackhole) {
+        for (SootMethod method : this.methods) {
+            blackhole.consume(Filter.isValidMethod(method));
+        }
+    }
+
+    @Benchmark
+    public void isValidMethodUncached(Blackhole blackhole) {
+        FilterEngine engine = FilterEngine.compile(this.rules);
+        for (SootMethod method : this.methods) {
+            blackhole.consume(engine.isValidMethod(method));
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package phd.research.benchmark;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+import phd.research.main.Main;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks instrumenting an APK end to end (loading, transforming and writing the output APK) through
+ * {@link Main#run(String[])}, each invocation writes to a new temporary output directory.
+ *
+ * @author Jordan Doyle
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx3g", BenchmarkInput.QUIET_LOGGING})
+public class InstrumentBenchmark {
+
+    @Param(BenchmarkInput.SAMPLE_APK)
+    public String apk;
+
+    /**
+     * The Android platform directory, empty for the platforms of the Android SDK given by ANDROID_HOME.
+     */
+    @Param("")
+    public String platforms;
+
+    @Param("lean")
+    public String pipeline;
+
+    @Param("full")
+    public String outputMode;
+
+    private File apkFile;
+    private File platformDirectory;
+    private File outputDirectory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.apkFile = BenchmarkInput.getApkFile(this.apk);
+        this.platformDirectory = BenchmarkInput.getPlatformDirectory(this.platforms);
+    }
+
+    @Setup(Level.Invocation)
+    public void createOutputDirectory() throws IOException {
+        this.outputDirectory = Files.createTempDirectory("droid-instrument-benchmark").toFile();
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteOutputDirectory() throws IOException {
+        FileUtils.deleteDirectory(this.outputDirectory);
+    }
+
+    @Benchmark
+    public int instrument() {
+        Main.resetSingletons();
+        int status = Main.run(new String[]{"-a", this.apkFile.getAbsolutePath(), "-p",
+                this.platformDirectory.getAbsolutePath(), "-o", this.outputDirectory.getAbsolutePath(), "--pipeline",
+                this.pipeline, "--output-mode", this.outputMode});
+        if (status != 0) {
+            throw new IllegalStateException("Instrumentation failed with exit code " + status + ".");
+        }
+        return status;
+    }
+}
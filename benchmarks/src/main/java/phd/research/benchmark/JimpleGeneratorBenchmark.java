@@ -0,0 +1,159 @@
+package phd.research.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import phd.research.jimple.JimpleGenerator;
+import phd.research.singleton.ClassRoles;
+import soot.*;
+import soot.jimple.IntConstant;
+import soot.jimple.Jimple;
+import soot.jimple.JimpleBody;
+import soot.jimple.NullConstant;
+import soot.options.Options;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link JimpleGenerator#generateInstrumentUnits()} for each kind of probe, on a synthetic method body
+ * (identity statements and a return statement) of a class loaded next to the Android platform classes, extending the
+ * Activity or Fragment class or implementing the listener interface of its probe, and declaring a number of unused
+ * locals, as large method bodies do. The generator adds locals to the body, so every call works on a fresh copy of the
+ * body, the body copy benchmark is the baseline to subtract.
+ *
+ * @author Jordan Doyle
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = BenchmarkInput.QUIET_LOGGING)
+public class JimpleGeneratorBenchmark {
+
+    private static final List<String> PLATFORM_CLASSES = Arrays.asList("java.io.PrintStream", "java.lang.System",
+            "java.lang.Object", "java.lang.Class", "java.lang.String", "java.lang.StringBuilder",
+            "android.app.Activity", "android.app.Fragment", "android.os.Bundle", "android.view.LayoutInflater",
+            "android.view.View", "android.view.ViewGroup", "android.view.MenuItem", "android.view.View$OnClickListener",
+            "android.view.MenuItem$OnMenuItemClickListener");
+
+    @Param({"ACTIVITY", "FRAGMENT", "VIEW_LISTENER", "MENU_ITEM_LISTENER", "METHOD"})
+    public String probe;
+
+    /**
+     * Locals of the method besides this and its parameters.
+     */
+    @Param({"0", "4000"})
+    public int locals;
+
+    @Param(BenchmarkInput.SAMPLE_APK)
+    public String apk;
+
+    /**
+     * The Android platform directory, empty for the platforms of the Android SDK given by ANDROID_HOME.
+     */
+    @Param("")
+    public String platforms;
+
+    private JimpleBody body;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        File apkFile = BenchmarkInput.getApkFile(this.apk);
+        File platformDirectory = BenchmarkInput.getPlatformDirectory(this.platforms);
+
+        G.reset();
+        ClassRoles.reset();
+        Options.v().set_allow_phantom_refs(true);
+        Options.v().set_soot_classpath(Scene.v().getAndroidJarPath(platformDirectory.getAbsolutePath(),
+                apkFile.getAbsolutePath()));
+        for (String className : PLATFORM_CLASSES) {
+            Scene.v().addBasicClass(className, SootClass.SIGNATURES);
+        }
+        Scene.v().loadNecessaryClasses();
+
+        RefType bundle = RefType.v("android.os.Bundle");
+        switch (this.probe) {
+            case "ACTIVITY":
+                this.body = JimpleGeneratorBenchmark.createBody("android.app.Activity", null, "onCreate",
+                        Collections.singletonList(bundle), VoidType.v());
+                break;
+            case "FRAGMENT":
+                this.body = JimpleGeneratorBenchmark.createBody("android.app.Fragment", null, "onCreateView",
+                        Arrays.asList(RefType.v("android.view.LayoutInflater"), RefType.v("android.view.ViewGroup"),
+                                bundle), RefType.v("android.view.View"));
+                break;
+            case "VIEW_LISTENER":
+                this.body = JimpleGeneratorBenchmark.createBody("java.lang.Object",
+                        "android.view.View$OnClickListener", "onClick",
+                        Collections.singletonList(RefType.v("android.view.View")), VoidType.v());
+                break;
+            case "MENU_ITEM_LISTENER":
+                this.body = JimpleGeneratorBenchmark.createBody("java.lang.Object",
+                        "android.view.MenuItem$OnMenuItemClickListener", "onMenuItemClick",
+                        Collections.singletonList(RefType.v("android.view.MenuItem")), BooleanType.v());
+                break;
+            default:
+                this.body = JimpleGeneratorBenchmark.createBody("java.lang.Object", null, "compute",
+                        Arrays.asList(IntType.v(), IntType.v()), IntType.v());
+        }
+        for (int i = 0; i < this.locals; i++) {
+            this.body.getLocals().add(Jimple.v().newLocal("l" + i, IntType.v()));
+        }
+    }
+
+    /**
+     * Creates a method with identity statements for this and the parameters, returning null, zero or nothing, in a
+     * new application class extending the given class and implementing the given interface (if not null).
+     */
+    private static JimpleBody createBody(String superclass, String interfaceName, String name,
+            List<Type> parameterTypes, Type returnType) {
+        SootClass clazz = new SootClass("phd.research.benchmark.Sample" + Character.toUpperCase(name.charAt(0)) +
+                name.substring(1), Modifier.PUBLIC);
+        clazz.setSuperclass(Scene.v().getSootClass(superclass));
+        if (interfaceName != null) {
+            clazz.addInterface(Scene.v().getSootClass(interfaceName));
+        }
+        Scene.v().addClass(clazz);
+        clazz.setApplicationClass();
+
+        SootMethod method = new SootMethod(name, parameterTypes, returnType, Modifier.PUBLIC);
+        clazz.addMethod(method);
+        JimpleBody body = Jimple.v().newBody(method);
+        method.setActiveBody(body);
+
+        Local thisLocal = Jimple.v().newLocal("this", clazz.getType());
+        body.getLocals().add(thisLocal);
+        body.getUnits().add(Jimple.v().newIdentityStmt(thisLocal, Jimple.v().newThisRef(clazz.getType())));
+        for (int i = 0; i < parameterTypes.size(); i++) {
+            Local parameterLocal = Jimple.v().newLocal("p" + i, parameterTypes.get(i));
+            body.getLocals().add(parameterLocal);
+            body.getUnits().add(Jimple.v().newIdentityStmt(parameterLocal,
+                    Jimple.v().newParameterRef(parameterTypes.get(i), i)));
+        }
+
+        if (returnType instanceof VoidType) {
+            body.getUnits().add(Jimple.v().newReturnVoidStmt());
+        } else {
+            body.getUnits().add(Jimple.v().newReturnStmt(returnType instanceof RefType ? NullConstant.v() :
+                    IntConstant.v(0)));
+        }
+        return body;
+    }
+
+    @Benchmark
+    public JimpleBody copyBody() {
+        return (JimpleBody) this.body.clone();
+    }
+
+    @Benchmark
+    public List<Unit> generateInstrumentUnits() {
+        JimpleGenerator generator = new JimpleGenerator((JimpleBody) this.body.clone());
+        generator.generateInstrumentUnits();
+        return generator.getUnits();
+    }
+}
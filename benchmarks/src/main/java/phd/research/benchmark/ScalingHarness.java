@@ -0,0 +1,324 @@
+package phd.research.benchmark;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.apache.commons.cli.*;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import phd.research.main.Main;
+import phd.research.metrics.Phase;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Command line harness instrumenting synthetic APKs of growing size (see {@link SyntheticApkGenerator}), to show how
+ * the run time and peak heap of DroidInstrument grow with the size of the input. For each scale factor an APK is
+ * generated and instrumented the given number of times, each time in a new JVM, and the run with the shortest total
+ * time is kept. The time of each phase and the peak heap are taken from the metrics report of the run.
+ * <p>
+ * Between two scales the growth exponent is the slope of the total time and of the peak heap against the number of
+ * methods of the APK on a log-log scale: 1 for linear growth, 2 for quadratic growth. The results are written as CSV
+ * to {@code results/scaling-<version>-<timestamp>.csv}. With a maximum exponent the harness exits with code 100 if the
+ * total time of any step grows faster, so a superlinear regression fails the run. Small APKs are dominated by the
+ * fixed cost of loading the platform classes, the exponents of the first steps are lower than the ones of later steps.
+ *
+ * @author Jordan Doyle
+ */
+
+public class ScalingHarness {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ScalingHarness.class);
+
+    private final CommandLine cmd;
+    private final File templateFile;
+    private final File platformDirectory;
+    private final File workDirectory;
+    private final List<String> instrumentArguments;
+
+    public ScalingHarness(CommandLine cmd, File templateFile, File platformDirectory, File workDirectory) {
+        this.cmd = cmd;
+        this.templateFile = templateFile;
+        this.platformDirectory = platformDirectory;
+        this.workDirectory = workDirectory;
+        this.instrumentArguments = new ArrayList<>();
+        if (cmd.hasOption("instrument-args")) {
+            for (String argument : cmd.getOptionValue("instrument-args").trim().split("\\s+")) {
+                if (!argument.isEmpty()) {
+                    this.instrumentArguments.add(argument);
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        int status = ScalingHarness.run(args);
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    public static Options createOptions() {
+        Options options = new Options();
+        options.addOption(Option.builder("p").longOpt("platforms").hasArg().numberOfArgs(1).argName("DIRECTORY")
+                .desc("Android platform directory (default: the platforms of ANDROID_HOME).").build());
+        options.addOption(Option.builder("s").longOpt("scales").hasArg().numberOfArgs(1).argName("LIST")
+                .desc("Comma separated scale factors of the sizes (default: 1,2,4,8).").build());
+        options.addOption(Option.builder().longOpt("repeat").hasArg().numberOfArgs(1).argName("COUNT")
+                .desc("Runs of each scale, the fastest is kept (default: 1).").build());
+        options.addOption(Option.builder().longOpt("heap").hasArg().numberOfArgs(1).argName("SIZE")
+                .desc("Maximum heap of the instrumenting JVMs (default: 3g).").build());
+        options.addOption(Option.builder().longOpt("instrument-args").hasArg().numberOfArgs(1).argName("ARGUMENTS")
+                .desc("Further DroidInstrument arguments, separated by spaces, e.g. '--pipeline lean'.").build());
+        options.addOption(Option.builder().longOpt("max-exponent").hasArg().numberOfArgs(1).argName("EXPONENT")
+                .desc("Fail if the total time grows faster than methods to this power between two scales.").build());
+        options.addOption(Option.builder("w").longOpt("work-directory").hasArg().numberOfArgs(1).argName("DIRECTORY")
+                .desc("Directory kept for the generated APKs and the outputs (default: a deleted temporary one).")
+                .build());
+        options.addOption(Option.builder("r").longOpt("result").hasArg().numberOfArgs(1).argName("FILE")
+                .desc("CSV result file (default: results/scaling-<version>-<timestamp>.csv).").build());
+        SyntheticApkGenerator.addSizeOptions(options);
+        options.addOption(Option.builder("h").longOpt("help").desc("Display help.").build());
+        return options;
+    }
+
+    public static int run(String[] args) {
+        Options options = ScalingHarness.createOptions();
+
+        CommandLine cmd;
+        try {
+            cmd = new DefaultParser().parse(options, args);
+        } catch (ParseException e) {
+            LOGGER.error("Error parsing command line arguments: {}", e.getMessage());
+            new HelpFormatter().printHelp("ScalingHarness", options);
+            return 10;
+        }
+
+        if (cmd.hasOption("h")) {
+            new HelpFormatter().printHelp("ScalingHarness", options);
+            return 0;
+        }
+
+        Set<Integer> scales = new TreeSet<>();
+        int repeat;
+        double maxExponent;
+        try {
+            for (String scale : cmd.getOptionValue("scales", "1,2,4,8").split(",")) {
+                scales.add(Integer.parseInt(scale.trim()));
+            }
+            repeat = Integer.parseInt(cmd.getOptionValue("repeat", "1"));
+            maxExponent = Double.parseDouble(cmd.getOptionValue("max-exponent", "Infinity"));
+            // Checks the sizes before the first run.
+            new SyntheticApkGenerator(cmd, 1);
+        } catch (IllegalArgumentException e) {
+            LOGGER.error("Invalid argument: {}", e.getMessage());
+            return 10;
+        }
+        if (scales.isEmpty() || scales.stream().anyMatch(scale -> scale < 1) || repeat < 1) {
+            LOGGER.error("Scales and repetitions must be at least one.");
+            return 10;
+        }
+
+        File templateFile;
+        File platformDirectory;
+        try {
+            templateFile = SyntheticApkGenerator.getTemplateFile(cmd);
+            platformDirectory = BenchmarkInput.getPlatformDirectory(cmd.getOptionValue("platforms", ""));
+        } catch (IOException e) {
+            LOGGER.error("Input missing: {}", e.getMessage());
+            return 20;
+        }
+
+        File workDirectory = null;
+        try {
+            workDirectory = cmd.hasOption("work-directory") ? new File(cmd.getOptionValue("work-directory")) :
+                    Files.createTempDirectory("droid-instrument-scaling").toFile();
+            Files.createDirectories(workDirectory.toPath());
+            File resultFile = cmd.hasOption("result") ? new File(cmd.getOptionValue("result")) :
+                    BenchmarkRunner.createResultFile("scaling", ".csv");
+
+            ScalingHarness harness = new ScalingHarness(cmd, templateFile, platformDirectory, workDirectory);
+            List<Point> points = new ArrayList<>();
+            for (int scale : scales) {
+                Point point = harness.measure(scale, repeat);
+                if (point == null) {
+                    return 80;
+                }
+                if (!points.isEmpty()) {
+                    point.setExponents(points.get(points.size() - 1));
+                }
+                points.add(point);
+                LOGGER.info("{}", point);
+            }
+
+            ScalingHarness.writeResults(resultFile, points);
+            LOGGER.info("Scaling results written to '{}'.", resultFile.getAbsolutePath());
+            for (Point point : points) {
+                if (point.timeExponent > maxExponent) {
+                    LOGGER.error("Total time grows with methods to the power of {} up to scale {}, more than {}.",
+                            String.format(Locale.ROOT, "%.2f", point.timeExponent), point.scale, maxExponent);
+                    return 100;
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.error("Failed to generate APK or write results: {}", e.getMessage());
+            return 60;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 70;
+        } finally {
+            if (workDirectory != null && !cmd.hasOption("work-directory")) {
+                FileUtils.deleteQuietly(workDirectory);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the fastest run of the scale, or null if a run failed.
+     */
+    private Point measure(int scale, int repeat) throws IOException, InterruptedException {
+        SyntheticApkGenerator generator = new SyntheticApkGenerator(this.cmd, scale);
+        File apkFile = new File(this.workDirectory, "synthetic-" + scale + ".apk");
+        if (!apkFile.isFile()) {
+            generator.generate(this.templateFile, apkFile);
+        }
+
+        Point fastest = null;
+        for (int i = 0; i < repeat; i++) {
+            File outputDirectory = new File(this.workDirectory, "output-" + scale + "-" + i);
+            FileUtils.deleteDirectory(outputDirectory);
+            Files.createDirectories(outputDirectory.toPath());
+            File logFile = new File(this.workDirectory, "output-" + scale + "-" + i + ".log");
+
+            long start = System.nanoTime();
+            int exitCode = this.instrument(apkFile, outputDirectory, logFile);
+            long wallNanos = System.nanoTime() - start;
+            if (exitCode != 0) {
+                LOGGER.error("Instrumenting scale {} failed with exit code {}, see '{}'.", scale, exitCode, logFile);
+                return null;
+            }
+
+            File metricsFile = new File(outputDirectory, apkFile.getName().replace(".apk", "-metrics.json"));
+            Point point = new Point(scale, generator, apkFile.length(), wallNanos, metricsFile);
+            if (fastest == null || point.totalNanos < fastest.totalNanos) {
+                fastest = point;
+            }
+        }
+        return fastest;
+    }
+
+    private int instrument(File apkFile, File outputDirectory, File logFile) throws IOException,
+            InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-Xmx" + this.cmd.getOptionValue("heap", "3g"));
+        command.add(BenchmarkInput.QUIET_LOGGING);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Main.class.getName());
+        command.addAll(Arrays.asList("-a", apkFile.getAbsolutePath(), "-p", this.platformDirectory.getAbsolutePath(),
+                "-o", outputDirectory.getAbsolutePath()));
+        command.addAll(this.instrumentArguments);
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(logFile).start();
+        return process.waitFor();
+    }
+
+    private static void writeResults(File resultFile, List<Point> points) throws IOException {
+        try (PrintWriter writer = new PrintWriter(
+                new OutputStreamWriter(new FileOutputStream(resultFile), StandardCharsets.UTF_8))) {
+            StringJoiner header = new StringJoiner(",");
+            header.add("scale,classes,methods,instrumented_methods,dex_files,apk_bytes,wall_ms,total_ms");
+            for (Phase phase : Phase.values()) {
+                header.add(phase.getName().replace('-', '_') + "_ms");
+            }
+            header.add("peak_heap_mb,gc_ms,time_exponent,heap_exponent");
+            writer.println(header);
+
+            for (Point point : points) {
+                StringJoiner row = new StringJoiner(",");
+                row.add(String.valueOf(point.scale)).add(String.valueOf(point.classes))
+                        .add(String.valueOf(point.methods)).add(String.valueOf(point.instrumentedMethods))
+                        .add(String.valueOf(point.dexFiles)).add(String.valueOf(point.apkBytes))
+                        .add(String.valueOf(point.wallNanos / 1000000)).add(String.valueOf(point.totalNanos / 1000000));
+                for (Phase phase : Phase.values()) {
+                    row.add(String.valueOf(point.phaseNanos.getOrDefault(phase.getName(), 0L) / 1000000));
+                }
+                row.add(String.format(Locale.ROOT, "%.1f", point.peakHeapBytes / 1024.0 / 1024.0))
+                        .add(String.valueOf(point.gcMillis))
+                        .add(ScalingHarness.formatExponent(point.timeExponent))
+                        .add(ScalingHarness.formatExponent(point.heapExponent));
+                writer.println(row);
+            }
+        }
+    }
+
+    /**
+     * @return the exponent, or an empty string for the first scale.
+     */
+    private static String formatExponent(double exponent) {
+        return Double.isNaN(exponent) ? "" : String.format(Locale.ROOT, "%.3f", exponent);
+    }
+
+    private static class Point {
+        private final int scale;
+        private final int dexFiles;
+        private final long apkBytes;
+        private final long wallNanos;
+        private final long totalNanos;
+        private final Map<String, Long> phaseNanos;
+        private final long classes;
+        private final long methods;
+        private final long instrumentedMethods;
+        private final long peakHeapBytes;
+        private final long gcMillis;
+        private double timeExponent = Double.NaN;
+        private double heapExponent = Double.NaN;
+
+        Point(int scale, SyntheticApkGenerator generator, long apkBytes, long wallNanos, File metricsFile)
+                throws IOException {
+            this.scale = scale;
+            this.dexFiles = generator.getDexFiles();
+            this.apkBytes = apkBytes;
+            this.wallNanos = wallNanos;
+            this.phaseNanos = new HashMap<>();
+
+            try (Reader reader = Files.newBufferedReader(metricsFile.toPath(), StandardCharsets.UTF_8)) {
+                JsonObject metrics = JsonParser.parseReader(reader).getAsJsonObject();
+                this.totalNanos = metrics.get("totalNanos").getAsLong();
+                metrics.getAsJsonObject("phaseNanos").entrySet()
+                        .forEach(entry -> this.phaseNanos.put(entry.getKey(), entry.getValue().getAsLong()));
+                this.classes = metrics.getAsJsonObject("classes").get("seen").getAsLong();
+                this.methods = metrics.getAsJsonObject("methods").get("seen").getAsLong();
+                this.instrumentedMethods = metrics.getAsJsonObject("methods").get("instrumented").getAsLong();
+                this.peakHeapBytes = metrics.get("peakHeapBytes").getAsLong();
+                this.gcMillis = metrics.get("gcMillis").getAsLong();
+            } catch (RuntimeException e) {
+                throw new IOException("Malformed metrics report " + metricsFile + ": " + e.getMessage(), e);
+            }
+        }
+
+        private static double getExponent(double size, double previousSize, double value, double previousValue) {
+            return Math.log(value / previousValue) / Math.log(size / previousSize);
+        }
+
+        void setExponents(Point previous) {
+            this.timeExponent = Point.getExponent(this.methods, previous.methods, this.totalNanos,
+                    previous.totalNanos);
+            this.heapExponent = Point.getExponent(this.methods, previous.methods, this.peakHeapBytes,
+                    previous.peakHeapBytes);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "Scale %d: %d methods, %.3f s, peak heap %.1f MB, " +
+                            "time exponent %s, heap exponent %s", this.scale, this.methods, this.totalNanos / 1e9,
+                    this.peakHeapBytes / 1024.0 / 1024.0, ScalingHarness.formatExponent(this.timeExponent),
+                    ScalingHarness.formatExponent(this.heapExponent));
+        }
+    }
+}
@@ -0,0 +1,469 @@
+package phd.research.benchmark;
+
+import org.apache.commons.cli.*;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.io.FileUtils;
+import org.jf.dexlib2.AccessFlags;
+import org.jf.dexlib2.DexFileFactory;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.builder.MethodImplementationBuilder;
+import org.jf.dexlib2.builder.instruction.*;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.Field;
+import org.jf.dexlib2.iface.Method;
+import org.jf.dexlib2.iface.MethodImplementation;
+import org.jf.dexlib2.iface.reference.FieldReference;
+import org.jf.dexlib2.iface.reference.MethodReference;
+import org.jf.dexlib2.immutable.*;
+import org.jf.dexlib2.immutable.reference.ImmutableFieldReference;
+import org.jf.dexlib2.immutable.reference.ImmutableMethodReference;
+import org.jf.dexlib2.immutable.reference.ImmutableTypeReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import phd.research.dex.ApkRepacker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Command line generator of synthetic APKs for scalability testing. The app package holds Activities (with lifecycle
+ * methods and View click methods), Fragments, View and MenuItem listeners, and helper classes of plain methods that
+ * call each other, some of them from inside a loop. Library packages hold helper classes in packages of the bundled
+ * blacklist ({@code com.google.}, {@code androidx.} and {@code org.apache.}), which are copied to the output unchanged.
+ * Classes are spread over the dex files in turn. Everything but the dex files (manifest, resources and assets) is
+ * copied from a template APK, the sample APK by default, the signature files are dropped.
+ * <p>
+ * The same sizes always generate the same dex files. Sizes are multiplied by a scale factor (see
+ * {@link ScalingHarness}), except the plain methods per class, the number of library packages and the number of dex
+ * files, which is raised if a dex file would hold more than {@value #MAX_METHODS_PER_DEX} methods.
+ *
+ * @author Jordan Doyle
+ */
+
+public class SyntheticApkGenerator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SyntheticApkGenerator.class);
+
+    public static final int MAX_METHODS_PER_DEX = 50000;
+
+    private static final String[] LIBRARY_ROOTS = {"com.google.synthetic", "androidx.synthetic",
+            "org.apache.synthetic"};
+    private static final String OBJECT = "Ljava/lang/Object;";
+    private static final String VIEW = "Landroid/view/View;";
+    private static final String MENU_ITEM = "Landroid/view/MenuItem;";
+    private static final String BUNDLE = "Landroid/os/Bundle;";
+
+    private final String packageName;
+    private final int activities;
+    private final int fragments;
+    private final int listeners;
+    private final int methods;
+    private final int methodsPerClass;
+    private final int libraryPackages;
+    private final int libraryClasses;
+    private final int dexFiles;
+
+    public SyntheticApkGenerator(CommandLine cmd, int scale) {
+        this.packageName = cmd.getOptionValue("package", "com.example.synthetic");
+        this.activities = SyntheticApkGenerator.getSize(cmd, "activities", 10) * scale;
+        this.fragments = SyntheticApkGenerator.getSize(cmd, "fragments", 10) * scale;
+        this.listeners = SyntheticApkGenerator.getSize(cmd, "listeners", 20) * scale;
+        this.methods = SyntheticApkGenerator.getSize(cmd, "methods", 2000) * scale;
+        this.methodsPerClass = Math.max(1, SyntheticApkGenerator.getSize(cmd, "methods-per-class", 20));
+        this.libraryPackages = SyntheticApkGenerator.getSize(cmd, "library-packages", 3);
+        this.libraryClasses = this.libraryPackages == 0 ? 0 :
+                SyntheticApkGenerator.getSize(cmd, "library-classes", 100) * scale;
+
+        int estimatedMethods = this.activities * 6 + this.fragments * 2 + this.listeners * 2 +
+                (this.getHelperClasses() + this.libraryClasses) * (this.methodsPerClass + 3);
+        int requiredDexFiles = (estimatedMethods + MAX_METHODS_PER_DEX - 1) / MAX_METHODS_PER_DEX;
+        this.dexFiles = Math.max(Math.max(1, SyntheticApkGenerator.getSize(cmd, "dex-files", 1)), requiredDexFiles);
+    }
+
+    public static void main(String[] args) {
+        int status = SyntheticApkGenerator.run(args);
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    /**
+     * Adds the size options, shared with the {@link ScalingHarness}.
+     */
+    public static void addSizeOptions(Options options) {
+        options.addOption(Option.builder().longOpt("package").hasArg().numberOfArgs(1).argName("NAME")
+                .desc("Package of the app classes (default: com.example.synthetic).").build());
+        options.addOption(Option.builder().longOpt("activities").hasArg().numberOfArgs(1).argName("COUNT")
+                .desc("Number of Activities (default: 10).").build());
+        options.addOption(Option.builder().longOpt("fragments").hasArg().numberOfArgs(1).argName("COUNT")
+                .desc("Number of Fragments (default: 10).").build());
+        options.addOption(Option.builder().longOpt("listeners").hasArg().numberOfArgs(1).argName("COUNT")
+                .desc("Number of View and MenuItem listeners, half of each (default: 20).").build());
+        options.addOption(Option.builder().longOpt("methods").hasArg().numberOfArgs(1).argName("COUNT")
+                .desc("Number of plain methods of the app (default: 2000).").build());
+        options.addOption(Option.builder().longOpt("methods-per-class").hasArg().numberOfArgs(1).argName("COUNT")
+                .desc("Plain methods per helper class, not scaled (default: 20).").build());
+        options.addOption(Option.builder().longOpt("library-packages").hasArg().numberOfArgs(1).argName("COUNT")
+                .desc("Number of blacklisted library packages, not scaled (default: 3).").build());
+        options.addOption(Option.builder().longOpt("library-classes").hasArg().numberOfArgs(1).argName("COUNT")
+                .desc("Number of classes of the library packages (default: 100).").build());
+        options.addOption(Option.builder().longOpt("dex-files").hasArg().numberOfArgs(1).argName("COUNT")
+                .desc("Number of dex files, raised if too small for the methods, not scaled (default: 1).").build());
+        options.addOption(Option.builder("t").longOpt("template").hasArg().numberOfArgs(1).argName("FILE")
+                .desc("APK the manifest and resources are copied from (default: " + BenchmarkInput.SAMPLE_APK + ").")
+                .build());
+    }
+
+    public static Options createOptions() {
+        Options options = new Options();
+        options.addOption(Option.builder("o").longOpt("output").required().hasArg().numberOfArgs(1).argName("FILE")
+                .desc("APK file to generate.").build());
+        SyntheticApkGenerator.addSizeOptions(options);
+        options.addOption(Option.builder("h").longOpt("help").desc("Display help.").build());
+        return options;
+    }
+
+    public static int run(String[] args) {
+        Options options = SyntheticApkGenerator.createOptions();
+
+        CommandLine cmd;
+        try {
+            cmd = new DefaultParser().parse(options, args);
+        } catch (ParseException e) {
+            LOGGER.error("Error parsing command line arguments: {}", e.getMessage());
+            new HelpFormatter().printHelp("SyntheticApkGenerator", options);
+            return 10;
+        }
+
+        if (cmd.hasOption("h")) {
+            new HelpFormatter().printHelp("SyntheticApkGenerator", options);
+            return 0;
+        }
+
+        SyntheticApkGenerator generator;
+        File templateFile;
+        try {
+            generator = new SyntheticApkGenerator(cmd, 1);
+            templateFile = SyntheticApkGenerator.getTemplateFile(cmd);
+        } catch (IllegalArgumentException e) {
+            LOGGER.error("Invalid size: {}", e.getMessage());
+            return 10;
+        } catch (IOException e) {
+            LOGGER.error("Template APK missing: {}", e.getMessage());
+            return 20;
+        }
+
+        File outputFile = new File(cmd.getOptionValue("output"));
+        if (outputFile.exists()) {
+            LOGGER.error("Output file exists ({}).", outputFile);
+            return 40;
+        }
+
+        try {
+            generator.generate(templateFile, outputFile);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Failed to generate APK: {}", e.getMessage(), e);
+            return 60;
+        }
+        return 0;
+    }
+
+    private static int getSize(CommandLine cmd, String option, int defaultSize) {
+        if (!cmd.hasOption(option)) {
+            return defaultSize;
+        }
+
+        int size = Integer.parseInt(cmd.getOptionValue(option));
+        if (size < 0) {
+            throw new IllegalArgumentException("Size of '" + option + "' must not be negative (" + size + ").");
+        }
+        return size;
+    }
+
+    public static File getTemplateFile(CommandLine cmd) throws IOException {
+        return BenchmarkInput.getApkFile(cmd.getOptionValue("template", BenchmarkInput.SAMPLE_APK));
+    }
+
+    private static String toType(String className) {
+        return "L" + className.replace('.', '/') + ";";
+    }
+
+    private static MethodReference methodRef(String definingClass, String name, String returnType,
+            String... parameterTypes) {
+        return new ImmutableMethodReference(definingClass, name, Arrays.asList(parameterTypes), returnType);
+    }
+
+    private static Method method(String definingClass, String name, String returnType, int accessFlags,
+            MethodImplementation implementation, String... parameterTypes) {
+        List<ImmutableMethodParameter> parameters = new ArrayList<>();
+        for (String parameterType : parameterTypes) {
+            parameters.add(new ImmutableMethodParameter(parameterType, null, null));
+        }
+        return new ImmutableMethod(definingClass, name, parameters, returnType, accessFlags, null, null,
+                implementation);
+    }
+
+    private static ClassDef classDef(String type, String superclass, List<String> interfaces, List<Field> fields,
+            List<Method> methods) {
+        return new ImmutableClassDef(type, AccessFlags.PUBLIC.getValue(), superclass, interfaces, null, null, fields,
+                methods);
+    }
+
+    /**
+     * @return a constructor calling the constructor of the superclass.
+     */
+    private static Method constructor(String type, String superclass) {
+        MethodImplementationBuilder builder = new MethodImplementationBuilder(1);
+        builder.addInstruction(new BuilderInstruction35c(Opcode.INVOKE_DIRECT, 1, 0, 0, 0, 0, 0,
+                SyntheticApkGenerator.methodRef(superclass, "<init>", "V")));
+        builder.addInstruction(new BuilderInstruction10x(Opcode.RETURN_VOID));
+        return SyntheticApkGenerator.method(type, "<init>", "V",
+                AccessFlags.PUBLIC.getValue() | AccessFlags.CONSTRUCTOR.getValue(),
+                builder.getMethodImplementation());
+    }
+
+    public int getDexFiles() {
+        return this.dexFiles;
+    }
+
+    private int getHelperClasses() {
+        return (this.methods + this.methodsPerClass - 1) / this.methodsPerClass;
+    }
+
+    /**
+     * @return the number of classes generated.
+     */
+    public int getClassCount() {
+        return this.activities + this.fragments + this.listeners + this.getHelperClasses() + this.libraryClasses;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%d activities, %d fragments, %d listeners, %d methods in %d classes, " +
+                        "%d library classes in %d packages, %d dex file(s)", this.activities, this.fragments,
+                this.listeners, this.methods, this.getHelperClasses(), this.libraryClasses, this.libraryPackages,
+                this.dexFiles);
+    }
+
+    /**
+     * Writes the APK, from the template APK and the generated dex files.
+     */
+    public void generate(File templateFile, File outputFile) throws IOException {
+        List<ClassDef> classes = this.createClasses();
+        List<List<ClassDef>> dexClasses = new ArrayList<>();
+        for (int i = 0; i < this.dexFiles; i++) {
+            dexClasses.add(new ArrayList<>());
+        }
+        for (int i = 0; i < classes.size(); i++) {
+            dexClasses.get(i % this.dexFiles).add(classes.get(i));
+        }
+
+        Set<String> templateDexEntries = new HashSet<>();
+        try (ZipFile template = ZipFile.builder().setFile(templateFile).get()) {
+            for (ZipArchiveEntry entry : Collections.list(template.getEntries())) {
+                if (ApkRepacker.getDexIndex(entry.getName()) > 0) {
+                    templateDexEntries.add(entry.getName());
+                }
+            }
+        }
+
+        File dexDirectory = Files.createTempDirectory("droid-instrument-synthetic").toFile();
+        try {
+            List<File> dexFiles = new ArrayList<>();
+            for (int i = 0; i < this.dexFiles; i++) {
+                File dexFile = new File(dexDirectory, "classes" + (i + 1) + ".dex");
+                DexFileFactory.writeDexFile(dexFile.getPath(),
+                        new ImmutableDexFile(Opcodes.getDefault(), dexClasses.get(i)));
+                dexFiles.add(dexFile);
+            }
+            ApkRepacker.repack(templateFile, outputFile, templateDexEntries, dexFiles);
+        } finally {
+            FileUtils.deleteQuietly(dexDirectory);
+        }
+        LOGGER.info("Generated {} classes ({}) into '{}'.", classes.size(), this, outputFile);
+    }
+
+    private List<ClassDef> createClasses() {
+        List<ClassDef> classes = new ArrayList<>();
+        List<String> helperTypes = new ArrayList<>();
+        for (int i = 0, remaining = this.methods; remaining > 0; i++, remaining -= this.methodsPerClass) {
+            String type = SyntheticApkGenerator.toType(this.packageName + ".util.Helper" + i);
+            helperTypes.add(type);
+            classes.add(this.createHelper(type, Math.min(remaining, this.methodsPerClass)));
+        }
+
+        for (int i = 0; i < this.activities; i++) {
+            classes.add(this.createActivity(SyntheticApkGenerator.toType(this.packageName + ".ui.Activity" + i),
+                    helperTypes.isEmpty() ? null : helperTypes.get(i % helperTypes.size())));
+        }
+        for (int i = 0; i < this.fragments; i++) {
+            classes.add(this.createFragment(SyntheticApkGenerator.toType(this.packageName + ".ui.Fragment" + i),
+                    helperTypes.isEmpty() ? null : helperTypes.get(i % helperTypes.size())));
+        }
+        for (int i = 0; i < this.listeners; i++) {
+            classes.add(this.createListener(SyntheticApkGenerator.toType(this.packageName + ".ui.Listener" + i),
+                    i % 2 == 0, helperTypes.isEmpty() ? null : helperTypes.get(i % helperTypes.size())));
+        }
+
+        for (int i = 0; i < this.libraryClasses; i++) {
+            int libraryPackage = i % this.libraryPackages;
+            String type = SyntheticApkGenerator.toType(LIBRARY_ROOTS[libraryPackage % LIBRARY_ROOTS.length] + ".lib" +
+                    libraryPackage + ".Library" + i);
+            classes.add(this.createHelper(type, this.methodsPerClass));
+        }
+        return classes;
+    }
+
+    /**
+     * Adds {@code new Helper().m0(1)} to the builder, using registers v0 and v1.
+     */
+    private static void addHelperCall(MethodImplementationBuilder builder, String helperType) {
+        if (helperType == null) {
+            return;
+        }
+        builder.addInstruction(new BuilderInstruction21c(Opcode.NEW_INSTANCE, 0,
+                new ImmutableTypeReference(helperType)));
+        builder.addInstruction(new BuilderInstruction35c(Opcode.INVOKE_DIRECT, 1, 0, 0, 0, 0, 0,
+                SyntheticApkGenerator.methodRef(helperType, "<init>", "V")));
+        builder.addInstruction(new BuilderInstruction11n(Opcode.CONST_4, 1, 1));
+        builder.addInstruction(new BuilderInstruction35c(Opcode.INVOKE_VIRTUAL, 2, 0, 1, 0, 0, 0,
+                SyntheticApkGenerator.methodRef(helperType, "m0", "I", "I")));
+    }
+
+    /**
+     * @return a method calling the method of the superclass with one parameter and returning void, registers v0 and v1
+     * are free for a helper call.
+     */
+    private static Method superCall(String type, String superclass, String name, String helperType,
+            String... parameterTypes) {
+        int parameters = parameterTypes.length;
+        MethodImplementationBuilder builder = new MethodImplementationBuilder(3 + parameters);
+        builder.addInstruction(new BuilderInstruction35c(Opcode.INVOKE_SUPER, 1 + parameters, 2, 3, 0, 0, 0,
+                SyntheticApkGenerator.methodRef(superclass, name, "V", parameterTypes)));
+        SyntheticApkGenerator.addHelperCall(builder, helperType);
+        builder.addInstruction(new BuilderInstruction10x(Opcode.RETURN_VOID));
+        return SyntheticApkGenerator.method(type, name, "V", AccessFlags.PUBLIC.getValue(),
+                builder.getMethodImplementation(), parameterTypes);
+    }
+
+    private ClassDef createActivity(String type, String helperType) {
+        String superclass = "Landroid/app/Activity;";
+        List<Method> methods = new ArrayList<>();
+        methods.add(SyntheticApkGenerator.constructor(type, superclass));
+        methods.add(SyntheticApkGenerator.superCall(type, superclass, "onCreate", helperType, BUNDLE));
+        methods.add(SyntheticApkGenerator.superCall(type, superclass, "onStart", null));
+        methods.add(SyntheticApkGenerator.superCall(type, superclass, "onResume", null));
+        methods.add(SyntheticApkGenerator.superCall(type, superclass, "onPause", null));
+        for (int i = 0; i < 2; i++) {
+            MethodImplementationBuilder builder = new MethodImplementationBuilder(4);
+            SyntheticApkGenerator.addHelperCall(builder, helperType);
+            builder.addInstruction(new BuilderInstruction10x(Opcode.RETURN_VOID));
+            methods.add(SyntheticApkGenerator.method(type, "onButton" + i + "Click", "V",
+                    AccessFlags.PUBLIC.getValue(), builder.getMethodImplementation(), VIEW));
+        }
+        return SyntheticApkGenerator.classDef(type, superclass, Collections.emptyList(), Collections.emptyList(),
+                methods);
+    }
+
+    private ClassDef createFragment(String type, String helperType) {
+        String superclass = "Landroid/app/Fragment;";
+        MethodImplementationBuilder builder = new MethodImplementationBuilder(6);
+        SyntheticApkGenerator.addHelperCall(builder, helperType);
+        builder.addInstruction(new BuilderInstruction11n(Opcode.CONST_4, 0, 0));
+        builder.addInstruction(new BuilderInstruction11x(Opcode.RETURN_OBJECT, 0));
+
+        List<Method> methods = new ArrayList<>();
+        methods.add(SyntheticApkGenerator.constructor(type, superclass));
+        methods.add(SyntheticApkGenerator.method(type, "onCreateView", VIEW, AccessFlags.PUBLIC.getValue(),
+                builder.getMethodImplementation(), "Landroid/view/LayoutInflater;", "Landroid/view/ViewGroup;",
+                BUNDLE));
+        return SyntheticApkGenerator.classDef(type, superclass, Collections.emptyList(), Collections.emptyList(),
+                methods);
+    }
+
+    private ClassDef createListener(String type, boolean viewListener, String helperType) {
+        MethodImplementationBuilder builder = new MethodImplementationBuilder(4);
+        SyntheticApkGenerator.addHelperCall(builder, helperType);
+
+        List<Method> methods = new ArrayList<>();
+        methods.add(SyntheticApkGenerator.constructor(type, OBJECT));
+        String listenerInterface;
+        if (viewListener) {
+            listenerInterface = "Landroid/view/View$OnClickListener;";
+            builder.addInstruction(new BuilderInstruction10x(Opcode.RETURN_VOID));
+            methods.add(SyntheticApkGenerator.method(type, "onClick", "V", AccessFlags.PUBLIC.getValue(),
+                    builder.getMethodImplementation(), VIEW));
+        } else {
+            listenerInterface = "Landroid/view/MenuItem$OnMenuItemClickListener;";
+            builder.addInstruction(new BuilderInstruction11n(Opcode.CONST_4, 0, 1));
+            builder.addInstruction(new BuilderInstruction11x(Opcode.RETURN, 0));
+            methods.add(SyntheticApkGenerator.method(type, "onMenuItemClick", "Z", AccessFlags.PUBLIC.getValue(),
+                    builder.getMethodImplementation(), MENU_ITEM));
+        }
+        return SyntheticApkGenerator.classDef(type, OBJECT, Collections.singletonList(listenerInterface),
+                Collections.emptyList(), methods);
+    }
+
+    /**
+     * @return a class with an int field and its getter and setter, and plain methods {@code int mN(int)} each calling
+     * the next one, every fourth one from inside a loop.
+     */
+    private ClassDef createHelper(String type, int methodCount) {
+        FieldReference valueField = new ImmutableFieldReference(type, "value", "I");
+        List<Method> methods = new ArrayList<>();
+        methods.add(SyntheticApkGenerator.constructor(type, OBJECT));
+
+        MethodImplementationBuilder getter = new MethodImplementationBuilder(2);
+        getter.addInstruction(new BuilderInstruction22c(Opcode.IGET, 0, 1, valueField));
+        getter.addInstruction(new BuilderInstruction11x(Opcode.RETURN, 0));
+        methods.add(SyntheticApkGenerator.method(type, "getValue", "I", AccessFlags.PUBLIC.getValue(),
+                getter.getMethodImplementation()));
+
+        MethodImplementationBuilder setter = new MethodImplementationBuilder(2);
+        setter.addInstruction(new BuilderInstruction22c(Opcode.IPUT, 1, 0, valueField));
+        setter.addInstruction(new BuilderInstruction10x(Opcode.RETURN_VOID));
+        methods.add(SyntheticApkGenerator.method(type, "setValue", "V", AccessFlags.PUBLIC.getValue(),
+                setter.getMethodImplementation(), "I"));
+
+        for (int i = 0; i < methodCount; i++) {
+            // v0 and v1 are locals, p0 (this) is v2 and p1 (x) is v3.
+            MethodReference next = i + 1 < methodCount ?
+                    SyntheticApkGenerator.methodRef(type, "m" + (i + 1), "I", "I") : null;
+            MethodImplementationBuilder builder = new MethodImplementationBuilder(4);
+            if (i % 4 == 0) {
+                builder.addInstruction(new BuilderInstruction11n(Opcode.CONST_4, 0, 0));
+                builder.addInstruction(new BuilderInstruction11n(Opcode.CONST_4, 1, 0));
+                builder.addLabel("loop");
+                builder.addInstruction(new BuilderInstruction22t(Opcode.IF_GE, 1, 3, builder.getLabel("end")));
+                if (next != null) {
+                    builder.addInstruction(new BuilderInstruction35c(Opcode.INVOKE_VIRTUAL, 2, 2, 1, 0, 0, 0, next));
+                    builder.addInstruction(new BuilderInstruction11x(Opcode.MOVE_RESULT, 0));
+                } else {
+                    builder.addInstruction(new BuilderInstruction12x(Opcode.ADD_INT_2ADDR, 0, 1));
+                }
+                builder.addInstruction(new BuilderInstruction22b(Opcode.ADD_INT_LIT8, 1, 1, 1));
+                builder.addInstruction(new BuilderInstruction10t(Opcode.GOTO, builder.getLabel("loop")));
+            } else {
+                builder.addInstruction(new BuilderInstruction22b(Opcode.ADD_INT_LIT8, 0, 3, i % 100));
+                builder.addInstruction(new BuilderInstruction22b(Opcode.MUL_INT_LIT8, 0, 0, 3));
+                if (next != null) {
+                    builder.addInstruction(new BuilderInstruction21t(Opcode.IF_LEZ, 0, builder.getLabel("end")));
+                    builder.addInstruction(new BuilderInstruction35c(Opcode.INVOKE_VIRTUAL, 2, 2, 0, 0, 0, 0, next));
+                    builder.addInstruction(new BuilderInstruction11x(Opcode.MOVE_RESULT, 0));
+                }
+            }
+            builder.addLabel("end");
+            builder.addInstruction(new BuilderInstruction11x(Opcode.RETURN, 0));
+            methods.add(SyntheticApkGenerator.method(type, "m" + i, "I", AccessFlags.PUBLIC.getValue(),
+                    builder.getMethodImplementation(), "I"));
+        }
+
+        List<Field> fields = Collections.singletonList(
+                new ImmutableField(type, "value", "I", AccessFlags.PRIVATE.getValue(), null, null, null));
+        return SyntheticApkGenerator.classDef(type, OBJECT, Collections.emptyList(), fields, methods);
+    }
+}
@@ -0,0 +1,244 @@
+package phd.research.batch;
+
+import org.apache.commons.cli.CommandLine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import phd.research.main.Main;
+import phd.research.singleton.InstrumentSettings;
+import phd.research.utility.Csv;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Instruments many APK files with a bounded pool of warm {@link Worker} JVMs. Soot keeps its state in process-wide
+ * singletons (see {@link soot.G}), so APK files are isolated from each other in separate worker processes. Each worker
+ * JVM processes jobs one after the other and is replaced if it dies, so a single bad APK file cannot stop the batch.
+ * One status record per input APK is written to {@value #STATUS_FILE} in the output directory.
+ *
+ * @author Jordan Doyle
+ */
+
+public class BatchInstrument {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchInstrument.class);
+
+    public static final String STATUS_FILE = "batch-status.csv";
+
+    // Options handled by the batch parent, the platform and output directory are passed on explicitly.
+    private static final Set<String> PARENT_OPTIONS = new HashSet<>(Arrays.asList("apk", "batch", "jobs", "job-timeout",
+            "clean-directory", "help", "android-platform", "output-directory"));
+
+    private final CommandLine cmd;
+
+    public BatchInstrument(CommandLine cmd) {
+        this.cmd = cmd;
+    }
+
+    public static List<File> collectApkFiles(File batchInput) throws IOException {
+        if (batchInput.isDirectory()) {
+            File[] files = batchInput.listFiles((dir, name) -> name.toLowerCase().endsWith(".apk"));
+            if (files == null) {
+                throw new IOException("Failed to list directory (" + batchInput + ").");
+            }
+            return Arrays.stream(files).filter(File::isFile).sorted().collect(Collectors.toList());
+        }
+
+        List<File> apkFiles = new ArrayList<>();
+        File baseDirectory = batchInput.getAbsoluteFile().getParentFile();
+        for (String line : Files.readAllLines(batchInput.toPath(), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            File apkFile = new File(line);
+            apkFiles.add(apkFile.isAbsolute() ? apkFile : new File(baseDirectory, line));
+        }
+        return apkFiles;
+    }
+
+    public static String describeExitCode(int exitCode) {
+        switch (exitCode) {
+            case 0:
+                return "Instrumented";
+            case 10:
+                return "Invalid arguments";
+            case 20:
+                return "APK file missing";
+            case 30:
+                return "Platform files missing";
+            case 40:
+                return "Output directory missing";
+            case 50:
+                return "Files missing";
+            case 60:
+                return "Failed to write instrumented APK";
+            case Worker.UNEXPECTED_ERROR:
+                return "Unexpected error";
+            case 80:
+                return "Some APK files of the batch failed";
+            case 90:
+                return "Output differs from the single threaded run";
+            case 100:
+                return "Job queue full";
+            case Worker.JOB_TIMEOUT:
+                return "Job timed out";
+            default:
+                return "Unknown exit code";
+        }
+    }
+
+    public int run() {
+        InstrumentSettings settings = InstrumentSettings.v();
+
+        List<File> apkFiles;
+        try {
+            apkFiles = BatchInstrument.collectApkFiles(settings.getBatchInput());
+        } catch (IOException e) {
+            LOGGER.error("Failed to read batch input: {}", e.getMessage());
+            return 20;
+        }
+
+        if (apkFiles.isEmpty()) {
+            LOGGER.warn("No APK files found in batch input '{}'.", settings.getBatchInput());
+            return 0;
+        }
+
+        File statusFile = new File(settings.getOutputDirectory(), STATUS_FILE);
+        File logDirectory = new File(settings.getOutputDirectory(), "logs");
+        List<String> sharedArguments = this.workerArguments(settings);
+        int jobs = Math.min(settings.getJobs(), apkFiles.size());
+        LOGGER.info("Instrumenting {} APK file(s) with {} worker(s).", apkFiles.size(), jobs);
+
+        AtomicInteger failures = new AtomicInteger();
+        try (PrintWriter statusWriter = new PrintWriter(
+                new OutputStreamWriter(new FileOutputStream(statusFile), StandardCharsets.UTF_8))) {
+            statusWriter.println("apk,status,exit_code,seconds,output,message");
+            statusWriter.flush();
+
+            BlockingQueue<File> queue = new LinkedBlockingQueue<>();
+            Set<String> outputNames = new HashSet<>();
+            for (File apkFile : apkFiles) {
+                if (!outputNames.add(apkFile.getName())) {
+                    // Every output APK is written to the output directory under its input file name.
+                    BatchInstrument.record(statusWriter,
+                            new JobStatus(apkFile, 20, 0, "Duplicate APK file name in batch."), null);
+                    failures.incrementAndGet();
+                } else {
+                    queue.add(apkFile);
+                }
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(jobs);
+            for (int i = 0; i < jobs; i++) {
+                final int id = i;
+                executor.execute(() -> {
+                    File workerLogs = new File(logDirectory, "worker-" + id);
+                    int failed = BatchInstrument.work(id, workerLogs, queue, sharedArguments, settings.getJobTimeout(),
+                            statusWriter);
+                    failures.addAndGet(failed);
+                });
+            }
+
+            executor.shutdown();
+            try {
+                // With a job timeout no job holds a worker for longer, its worker is destroyed and replaced.
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        } catch (IOException e) {
+            LOGGER.error("Failed to write batch status file ({}): {}", statusFile, e.getMessage());
+            return 60;
+        }
+
+        LOGGER.info("Batch finished: {} of {} APK file(s) instrumented, status written to '{}'.",
+                apkFiles.size() - failures.get(), apkFiles.size(), statusFile);
+        return failures.get() == 0 ? 0 : 80;
+    }
+
+    private static int work(int id, File logDirectory, BlockingQueue<File> queue, List<String> sharedArguments,
+            long jobTimeout, PrintWriter statusWriter) {
+        int failures = 0;
+        WorkerProcess worker = null;
+
+        File apkFile;
+        while ((apkFile = queue.poll()) != null) {
+            List<String> arguments = new ArrayList<>(sharedArguments);
+            arguments.add("--apk");
+            arguments.add(apkFile.getAbsolutePath());
+
+            JobStatus status;
+            try {
+                if (worker == null || !worker.isAlive()) {
+                    worker = new WorkerProcess(id, logDirectory);
+                    worker.start();
+                }
+                LOGGER.info("Worker {} processing '{}'.", id, apkFile);
+                status = worker.submit(apkFile, arguments, jobTimeout);
+            } catch (IOException e) {
+                status = new JobStatus(apkFile, Worker.UNEXPECTED_ERROR, 0, "Worker failed: " + e.getMessage());
+                if (worker != null) {
+                    worker.stop();
+                }
+                worker = null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+
+            if (!status.isSuccess()) {
+                failures++;
+                LOGGER.warn("Failed to instrument '{}': {} {}", apkFile, BatchInstrument.describeExitCode(
+                        status.getExitCode()), status.getMessage());
+            }
+
+            File outputFile = new File(InstrumentSettings.v().getOutputDirectory(), apkFile.getName());
+            BatchInstrument.record(statusWriter, status, status.isSuccess() ? outputFile : null);
+        }
+
+        if (worker != null) {
+            worker.stop();
+        }
+        return failures;
+    }
+
+    private static void record(PrintWriter statusWriter, JobStatus status, File outputFile) {
+        String message = status.getMessage().isEmpty() ? BatchInstrument.describeExitCode(status.getExitCode()) :
+                status.getMessage();
+        String line = String.join(",", Csv.escape(status.getApkFile().getPath()),
+                BatchInstrument.describeState(status), String.valueOf(status.getExitCode()),
+                String.format(Locale.ROOT, "%.3f", status.getNanoseconds() / 1e9),
+                Csv.escape(outputFile != null ? outputFile.getPath() : ""), Csv.escape(message));
+
+        synchronized (statusWriter) {
+            statusWriter.println(line);
+            statusWriter.flush();
+        }
+    }
+
+    private static String describeState(JobStatus status) {
+        if (status.isSuccess()) {
+            return "SUCCESS";
+        }
+        return status.getExitCode() == Worker.JOB_TIMEOUT ? "TIMEOUT" : "FAILED";
+    }
+
+    private List<String> workerArguments(InstrumentSettings settings) {
+        List<String> arguments = new ArrayList<>();
+        arguments.add("--android-platform");
+        arguments.add(settings.getPlatformDirectory().getAbsolutePath());
+        arguments.add("--output-directory");
+        arguments.add(settings.getOutputDirectory().getAbsolutePath());
+
+        arguments.addAll(Main.toArguments(this.cmd, PARENT_OPTIONS));
+        return arguments;
+    }
+}
@@ -0,0 +1,44 @@
+package phd.research.batch;
+
+import java.io.File;
+
+/**
+ * Outcome of instrumenting a single APK file in batch mode.
+ *
+ * @author Jordan Doyle
+ */
+
+public class JobStatus {
+
+    private final File apkFile;
+    private final int exitCode;
+    private final long nanoseconds;
+    private final String message;
+
+    public JobStatus(File apkFile, int exitCode, long nanoseconds, String message) {
+        this.apkFile = apkFile;
+        this.exitCode = exitCode;
+        this.nanoseconds = nanoseconds;
+        this.message = message == null ? "" : message;
+    }
+
+    public File getApkFile() {
+        return this.apkFile;
+    }
+
+    public int getExitCode() {
+        return this.exitCode;
+    }
+
+    public long getNanoseconds() {
+        return this.nanoseconds;
+    }
+
+    public String getMessage() {
+        return this.message;
+    }
+
+    public boolean isSuccess() {
+        return this.exitCode == 0;
+    }
+}
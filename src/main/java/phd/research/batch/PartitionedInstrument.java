@@ -0,0 +1,207 @@
+package phd.research.batch;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import phd.research.dex.DexPartition;
+import phd.research.main.Main;
+import phd.research.metrics.Phase;
+import phd.research.singleton.InstrumentMetrics;
+import phd.research.singleton.InstrumentSettings;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Instruments the dex files of one APK in parallel. The dex files are grouped into {@link DexPartition}s and each
+ * partition is instrumented by its own {@link Worker} JVM, with its own Soot instance, then the dex files of the
+ * workers are merged into the output APK. Every worker loads the classes of all dex files, so probe kinds and method
+ * IDs are the same as when instrumenting the APK in one JVM, but only jimplifies, transforms and writes the classes of
+ * its partition, which is most of the run time of a large APK.
+ * <p>
+ * The probe dictionary and the filter report cover the whole APK in every worker and are taken from the first worker,
+ * the cost and scope reports are merged, and the metrics report sums the counts and phase times of the workers.
+ *
+ * @author Jordan Doyle
+ */
+
+public class PartitionedInstrument {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PartitionedInstrument.class);
+
+    // Options handled by the parent, the APK is signed while the dex files are merged.
+    private static final Set<String> PARENT_OPTIONS = new HashSet<>(Arrays.asList("dex-workers", "threads",
+            "output-directory", "clean-directory", "check-determinism", "help", "keystore", "key-alias",
+            "keystore-pass"));
+
+    private final CommandLine cmd;
+    private final List<DexPartition> partitions;
+
+    public PartitionedInstrument(CommandLine cmd, List<DexPartition> partitions) {
+        this.cmd = cmd;
+        this.partitions = partitions;
+    }
+
+    @SuppressWarnings("try")
+    public int run() {
+        InstrumentSettings settings = InstrumentSettings.v();
+        InstrumentMetrics metrics = InstrumentMetrics.v();
+        metrics.start(settings.getApkFile());
+        LOGGER.info("Processing: {}", settings.getApkFile());
+
+        // The cores are shared by the workers unless the number of threads per worker is given.
+        int threads = settings.getThreads() > 0 ? settings.getThreads() :
+                Math.max(1, Runtime.getRuntime().availableProcessors() / this.partitions.size());
+        File workDirectory = null;
+        try {
+            workDirectory = Files.createTempDirectory("droid-instrument-partitions").toFile();
+            List<File> outputDirectories = new ArrayList<>();
+            for (int i = 0; i < this.partitions.size(); i++) {
+                File outputDirectory = new File(workDirectory, "partition-" + i);
+                Files.createDirectories(outputDirectory.toPath());
+                outputDirectories.add(outputDirectory);
+            }
+
+            int status = this.instrumentPartitions(workDirectory, outputDirectories, threads);
+            if (status != 0) {
+                return status;
+            }
+
+            try (InstrumentMetrics.PhaseTimer ignored = metrics.time(Phase.OUTPUT)) {
+                DexPartition.merge(settings.getApkFile(), settings.getOutputApkFile(), outputDirectories,
+                        settings.getApkSigning());
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error("Problem merging dex files into APK ({}): {}", settings.getApkFile(), e.getMessage(), e);
+                return 60;
+            }
+
+            try (InstrumentMetrics.PhaseTimer ignored = metrics.time(Phase.REPORTS)) {
+                metrics.countOutput(settings.getOutputApkFile());
+                for (File outputDirectory : outputDirectories) {
+                    metrics.addWorkerReport(PartitionedInstrument.getArtifact(outputDirectory, "-metrics.json"));
+                }
+                PartitionedInstrument.copyArtifact(outputDirectories.get(0), "-probes.tsv");
+                PartitionedInstrument.copyArtifact(outputDirectories.get(0), "-filter-report.csv");
+                PartitionedInstrument.mergeReports(outputDirectories, "-cost-report.csv");
+                PartitionedInstrument.mergeReports(outputDirectories, "-scope-report.csv");
+            }
+            metrics.logSummary();
+            metrics.writeReport(settings.getOutputArtifact("-metrics.json"));
+        } catch (IOException e) {
+            LOGGER.error("Problem writing instrumentation report: {}", e.getMessage());
+            return 60;
+        } finally {
+            FileUtils.deleteQuietly(workDirectory);
+        }
+        return 0;
+    }
+
+    /**
+     * @return zero if every partition was instrumented, else the exit code of the first failed partition.
+     */
+    private int instrumentPartitions(File workDirectory, List<File> outputDirectories, int threads) {
+        LOGGER.info("Instrumenting {} dex partition(s) with {} thread(s) each: {}", this.partitions.size(), threads,
+                this.describePartitions());
+
+        ExecutorService executor = Executors.newFixedThreadPool(this.partitions.size());
+        List<Future<JobStatus>> results = new ArrayList<>();
+        for (int i = 0; i < this.partitions.size(); i++) {
+            List<String> arguments = Main.toArguments(this.cmd, PARENT_OPTIONS);
+            arguments.addAll(Arrays.asList("--output-directory", outputDirectories.get(i).getAbsolutePath(),
+                    "--threads", String.valueOf(threads), "--dex-partition",
+                    String.join(",", this.partitions.get(i).getEntryNames())));
+            WorkerProcess worker = new WorkerProcess(i, new File(workDirectory, "logs-" + i));
+            results.add(executor.submit(() -> PartitionedInstrument.instrumentPartition(worker, arguments)));
+        }
+        executor.shutdown();
+
+        int status = 0;
+        for (int i = 0; i < results.size(); i++) {
+            JobStatus result;
+            try {
+                result = results.get(i).get();
+            } catch (ExecutionException e) {
+                result = new JobStatus(InstrumentSettings.v().getApkFile(), Worker.UNEXPECTED_ERROR, 0,
+                        "Worker failed: " + e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+                return Worker.UNEXPECTED_ERROR;
+            }
+
+            if (result.isSuccess()) {
+                LOGGER.info("Dex partition {} instrumented in {} second(s).", this.partitions.get(i).getEntryNames(),
+                        String.format(Locale.ROOT, "%.3f", result.getNanoseconds() / 1e9));
+            } else {
+                LOGGER.error("Failed to instrument dex partition {}: {} {}", this.partitions.get(i).getEntryNames(),
+                        BatchInstrument.describeExitCode(result.getExitCode()), result.getMessage());
+                if (status == 0) {
+                    status = result.getExitCode();
+                }
+            }
+        }
+        return status;
+    }
+
+    private static JobStatus instrumentPartition(WorkerProcess worker, List<String> arguments) throws IOException,
+            InterruptedException {
+        try {
+            worker.start();
+            return worker.submit(InstrumentSettings.v().getApkFile(), arguments);
+        } finally {
+            worker.stop();
+        }
+    }
+
+    private String describePartitions() {
+        StringJoiner description = new StringJoiner(", ");
+        for (DexPartition partition : this.partitions) {
+            description.add(partition.getEntryNames() + " (" + partition.getSize() / 1024 + " KB)");
+        }
+        return description.toString();
+    }
+
+    private static File getArtifact(File outputDirectory, String suffix) {
+        File artifact = InstrumentSettings.v().getOutputArtifact(suffix);
+        return new File(outputDirectory, artifact.getName());
+    }
+
+    private static void copyArtifact(File outputDirectory, String suffix) throws IOException {
+        File artifact = PartitionedInstrument.getArtifact(outputDirectory, suffix);
+        if (artifact.isFile()) {
+            Files.copy(artifact.toPath(), InstrumentSettings.v().getOutputArtifact(suffix).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Merges the cost or scope reports of the partitions, which rate the methods of their own classes, by method
+     * signature.
+     */
+    private static void mergeReports(List<File> outputDirectories, String suffix) throws IOException {
+        String header = null;
+        List<String> rows = new ArrayList<>();
+        for (File outputDirectory : outputDirectories) {
+            File report = PartitionedInstrument.getArtifact(outputDirectory, suffix);
+            if (report.isFile()) {
+                List<String> lines = Files.readAllLines(report.toPath(), StandardCharsets.UTF_8);
+                header = lines.get(0);
+                rows.addAll(lines.subList(1, lines.size()));
+            }
+        }
+        if (header == null) {
+            return;
+        }
+
+        // Rows start with the signature, quoted if it holds a comma, signatures hold no quotes.
+        rows.sort(Comparator.comparing(row -> row.startsWith("\"") ? row.substring(1) : row));
+        rows.add(0, header);
+        Files.write(InstrumentSettings.v().getOutputArtifact(suffix).toPath(), rows, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,62 @@
+package phd.research.batch;
+
+import phd.research.main.Main;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Entry point of a batch worker JVM. The worker reads one job per line from standard input, runs the job through
+ * {@link Main#run(String[])} in this (warm) JVM and answers with a single status line on standard output. Soot keeps
+ * its state in process-wide singletons, so jobs within one worker always run one after the other.
+ *
+ * @author Jordan Doyle
+ */
+
+public class Worker {
+
+    public static final String STATUS_PREFIX = "@@DROID-INSTRUMENT-STATUS@@";
+    public static final String ARGUMENT_SEPARATOR = "\t";
+
+    public static final int UNEXPECTED_ERROR = 70;
+    public static final int JOB_TIMEOUT = 110;
+
+    public static void main(String[] args) throws IOException {
+        PrintStream statusStream = System.out;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+
+        String job;
+        while ((job = reader.readLine()) != null) {
+            if (job.isEmpty()) {
+                continue;
+            }
+
+            Main.resetSingletons();
+
+            long start = System.nanoTime();
+            int status;
+            String message = "";
+            boolean healthy = true;
+            try {
+                status = Main.run(job.split(ARGUMENT_SEPARATOR));
+            } catch (Throwable e) {
+                status = UNEXPECTED_ERROR;
+                message = e.getClass().getName() + ": " + e.getMessage();
+                // Errors (e.g. OutOfMemoryError) may leave the JVM unusable, let the pool start a fresh worker.
+                healthy = e instanceof Exception;
+            }
+            long nanoseconds = System.nanoTime() - start;
+
+            statusStream.println(STATUS_PREFIX + status + ARGUMENT_SEPARATOR + nanoseconds + ARGUMENT_SEPARATOR +
+                    message.replaceAll("\\s+", " "));
+            statusStream.flush();
+
+            if (!healthy) {
+                System.exit(status);
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package phd.research.batch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import phd.research.dex.ApkSigning;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parent side handle of a forked {@link Worker} JVM. The child JVM is started with the class path and JVM arguments of
+ * this process and stays alive between jobs, so JIT compiled code and loaded classes are reused by later jobs.
+ *
+ * @author Jordan Doyle
+ */
+
+public class WorkerProcess {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WorkerProcess.class);
+
+    private static final String END_OF_STREAM = "";
+
+    private final int id;
+    private final File logDirectory;
+    private final BlockingQueue<String> statusLines;
+
+    private Process process;
+    private Writer input;
+
+    public WorkerProcess(int id, File logDirectory) {
+        this.id = id;
+        this.logDirectory = logDirectory;
+        this.statusLines = new LinkedBlockingQueue<>();
+    }
+
+    public void start() throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            // A second debugger agent would fail to bind to the parents debug port.
+            if (!argument.startsWith("-agentlib:jdwp")) {
+                command.add(argument);
+            }
+        }
+        if (!System.getProperty("java.specification.version").startsWith("1.")) {
+            // Exported by the jar manifest for the parent only, the signer needs them in the workers too.
+            for (String internalPackage : ApkSigning.INTERNAL_PACKAGES) {
+                command.add("--add-exports=java.base/" + internalPackage + "=ALL-UNNAMED");
+            }
+        }
+        command.add("-Ddroidinstrument.log.dir=" + this.logDirectory.getAbsolutePath());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Worker.class.getName());
+
+        LOGGER.debug("Starting worker {}: {}", this.id, command);
+        this.process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        this.input = new BufferedWriter(new OutputStreamWriter(this.process.getOutputStream(), StandardCharsets.UTF_8));
+
+        Thread reader = new Thread(this::readOutput, "worker-" + this.id + "-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    public boolean isAlive() {
+        return this.process != null && this.process.isAlive();
+    }
+
+    public JobStatus submit(File apkFile, List<String> arguments) throws IOException, InterruptedException {
+        return this.submit(apkFile, arguments, 0);
+    }
+
+    /**
+     * Runs a job on the worker and waits for its status. If the job does not finish within the timeout the worker
+     * process is destroyed, the job ends with exit code {@value Worker#JOB_TIMEOUT} and the caller must start a new
+     * worker.
+     *
+     * @param timeoutSeconds Seconds to wait for the job, zero to wait until the job finished.
+     */
+    public JobStatus submit(File apkFile, List<String> arguments, long timeoutSeconds)
+            throws IOException, InterruptedException {
+        this.input.write(String.join(Worker.ARGUMENT_SEPARATOR, arguments));
+        this.input.write(System.lineSeparator());
+        this.input.flush();
+
+        String line = timeoutSeconds > 0 ? this.statusLines.poll(timeoutSeconds, TimeUnit.SECONDS) :
+                this.statusLines.take();
+        if (line == null) {
+            LOGGER.warn("Job on worker {} timed out after {} second(s), destroying worker.", this.id, timeoutSeconds);
+            this.destroy();
+            return new JobStatus(apkFile, Worker.JOB_TIMEOUT, TimeUnit.SECONDS.toNanos(timeoutSeconds),
+                    "Job timed out after " + timeoutSeconds + " second(s).");
+        }
+        if (line.equals(END_OF_STREAM)) {
+            int exitCode = this.process.waitFor();
+            return new JobStatus(apkFile, exitCode == 0 ? Worker.UNEXPECTED_ERROR : exitCode, 0,
+                    "Worker " + this.id + " terminated unexpectedly (exit code " + exitCode + ").");
+        }
+
+        String[] fields = line.split(Worker.ARGUMENT_SEPARATOR, 3);
+        return new JobStatus(apkFile, Integer.parseInt(fields[0]), Long.parseLong(fields[1]),
+                fields.length > 2 ? fields[2] : "");
+    }
+
+    public void stop() {
+        if (this.process == null) {
+            return;
+        }
+
+        try {
+            this.input.close();
+            if (!this.process.waitFor(30, TimeUnit.SECONDS)) {
+                LOGGER.warn("Worker {} did not stop, destroying process.", this.id);
+                this.process.destroyForcibly();
+            }
+        } catch (IOException e) {
+            this.process.destroyForcibly();
+        } catch (InterruptedException e) {
+            this.process.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Kills the worker process without waiting for its current job.
+     */
+    public void destroy() throws InterruptedException {
+        if (this.process == null) {
+            return;
+        }
+
+        this.process.destroyForcibly();
+        this.process.waitFor();
+    }
+
+    private void readOutput() {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(this.process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(Worker.STATUS_PREFIX)) {
+                    this.statusLines.add(line.substring(Worker.STATUS_PREFIX.length()));
+                } else {
+                    LOGGER.debug("[worker-{}] {}", this.id, line);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Lost output of worker {}: {}", this.id, e.getMessage());
+        } finally {
+            this.statusLines.add(END_OF_STREAM);
+        }
+    }
+}
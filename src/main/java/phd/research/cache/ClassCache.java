@@ -0,0 +1,219 @@
+package phd.research.cache;
+
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.writer.io.MemoryDataStore;
+import org.jf.dexlib2.writer.pool.DexPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * On-disk store of instrumented classes. Each entry is a dex file holding a single class, stored under its key in a
+ * two level directory tree ({@code <directory>/<first two key characters>/<key>.dex}). Entries are written to a
+ * temporary file and moved into place, so concurrent runs sharing the directory never read a partial entry, and an
+ * entry removed by another run while it is being read counts as a miss. Reading an entry updates its modification
+ * time, eviction removes the least recently used entries once the store grows past its size limit.
+ *
+ * @author Jordan Doyle
+ */
+
+public class ClassCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClassCache.class);
+
+    private static final String ENTRY_SUFFIX = ".dex";
+    private static final String LOCK_FILE = "cache.lock";
+    // Eviction removes entries until the store is below this share of its size limit, so it does not run every time.
+    private static final double EVICTION_TARGET = 0.9;
+
+    private final File directory;
+    private final long maximumSize;
+    private final Opcodes opcodes;
+
+    private final AtomicInteger hits;
+    private final AtomicInteger misses;
+    private final AtomicInteger stores;
+    private int evictions;
+
+    public ClassCache(File directory, long maximumSize, Opcodes opcodes) {
+        this.directory = directory;
+        this.maximumSize = maximumSize;
+        this.opcodes = opcodes;
+        this.hits = new AtomicInteger();
+        this.misses = new AtomicInteger();
+        this.stores = new AtomicInteger();
+        this.evictions = 0;
+    }
+
+    private File getEntryFile(String key) {
+        return new File(new File(this.directory, key.substring(0, 2)), key + ENTRY_SUFFIX);
+    }
+
+    /**
+     * @return the instrumented class stored under the key, or null if there is no such entry.
+     */
+    public ClassDef load(String key) {
+        File entryFile = this.getEntryFile(key);
+        try {
+            byte[] data = Files.readAllBytes(entryFile.toPath());
+            DexBackedDexFile dexFile = new DexBackedDexFile(this.opcodes, data);
+            Iterator<? extends ClassDef> classes = dexFile.getClasses().iterator();
+            if (!classes.hasNext()) {
+                throw new IOException("Entry holds no class.");
+            }
+
+            ClassDef classDef = classes.next();
+            if (!entryFile.setLastModified(System.currentTimeMillis())) {
+                LOGGER.debug("Failed to update modification time of cache entry '{}'.", entryFile);
+            }
+            this.hits.incrementAndGet();
+            return classDef;
+        } catch (NoSuchFileException e) {
+            this.misses.incrementAndGet();
+            return null;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Ignoring unreadable cache entry '{}': {}", entryFile, e.getMessage());
+            this.misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    public void store(String key, ClassDef classDef) throws IOException {
+        File entryFile = this.getEntryFile(key);
+        File entryDirectory = entryFile.getParentFile();
+        if (!entryDirectory.isDirectory() && !entryDirectory.mkdirs() && !entryDirectory.isDirectory()) {
+            throw new IOException("Failed to create cache directory " + entryDirectory + ".");
+        }
+
+        DexPool dexPool = new DexPool(this.opcodes);
+        dexPool.internClass(classDef);
+        MemoryDataStore dataStore = new MemoryDataStore();
+        dexPool.writeTo(dataStore);
+
+        Path temporaryFile = Files.createTempFile(entryDirectory.toPath(), key, ".tmp");
+        try {
+            Files.write(temporaryFile, dataStore.getData());
+            try {
+                Files.move(temporaryFile, entryFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporaryFile, entryFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+        this.stores.incrementAndGet();
+    }
+
+    /**
+     * Removes the least recently used entries if the store is larger than its size limit. Only one run evicts at a
+     * time, a run finding the store locked leaves eviction to the run holding the lock.
+     */
+    public void evict() throws IOException {
+        File lockFile = new File(this.directory, LOCK_FILE);
+        try (RandomAccessFile file = new RandomAccessFile(lockFile, "rw"); FileChannel channel = file.getChannel()) {
+            FileLock lock;
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                lock = null;
+            }
+            if (lock == null) {
+                LOGGER.info("Class cache is being evicted by another run.");
+                return;
+            }
+
+            try {
+                this.evictEntries();
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    private void evictEntries() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(this.directory.toPath(), 2)) {
+            Iterator<Path> iterator = paths.iterator();
+            while (iterator.hasNext()) {
+                Path path = iterator.next();
+                if (!path.getFileName().toString().endsWith(ENTRY_SUFFIX)) {
+                    continue;
+                }
+
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    entries.add(new Entry(path, attributes.size(), attributes.lastModifiedTime().toMillis()));
+                } catch (NoSuchFileException e) {
+                    // Replaced by another run.
+                }
+            }
+        }
+
+        long size = entries.stream().mapToLong(entry -> entry.size).sum();
+        if (size <= this.maximumSize) {
+            LOGGER.info("Class cache holds {} entries ({} KB of {} KB).", entries.size(), size / 1024,
+                    this.maximumSize / 1024);
+            return;
+        }
+
+        entries.sort(Comparator.comparingLong(entry -> entry.lastModified));
+        long target = (long) (this.maximumSize * EVICTION_TARGET);
+        for (Entry entry : entries) {
+            if (size <= target) {
+                break;
+            }
+            if (Files.deleteIfExists(entry.path)) {
+                this.evictions++;
+            }
+            size -= entry.size;
+        }
+
+        LOGGER.info("Evicted {} class cache entries, the cache holds {} KB of {} KB.", this.evictions, size / 1024,
+                this.maximumSize / 1024);
+    }
+
+    public int getHits() {
+        return this.hits.get();
+    }
+
+    public int getMisses() {
+        return this.misses.get();
+    }
+
+    public int getStores() {
+        return this.stores.get();
+    }
+
+    public int getEvictions() {
+        return this.evictions;
+    }
+
+    private static class Entry {
+        private final Path path;
+        private final long size;
+        private final long lastModified;
+
+        Entry(Path path, long size, long lastModified) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+}
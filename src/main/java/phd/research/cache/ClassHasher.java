@@ -0,0 +1,267 @@
+package phd.research.cache;
+
+import org.jf.dexlib2.formatter.DexFormatter;
+import org.jf.dexlib2.iface.*;
+import org.jf.dexlib2.iface.debug.*;
+import org.jf.dexlib2.iface.instruction.*;
+import org.jf.dexlib2.iface.instruction.formats.ArrayPayload;
+import org.jf.dexlib2.iface.reference.FieldReference;
+import org.jf.dexlib2.iface.reference.MethodReference;
+import org.jf.dexlib2.iface.reference.Reference;
+import org.jf.dexlib2.iface.reference.StringReference;
+import org.jf.dexlib2.iface.reference.TypeReference;
+import org.jf.dexlib2.iface.value.EncodedValue;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+
+/**
+ * Computes a SHA-256 hash of the content of a dex class definition. The hash covers everything the class definition
+ * holds (flags, types, fields, methods, instructions, try blocks, annotations and debug information) with references
+ * written out by name, so it does not depend on where the class sits in its dex file or on the other classes of the
+ * dex file.
+ *
+ * @author Jordan Doyle
+ */
+
+public class ClassHasher {
+
+    private static final DexFormatter FORMATTER = DexFormatter.INSTANCE;
+
+    private final MessageDigest messageDigest;
+    private final DataOutputStream output;
+
+    public ClassHasher() {
+        try {
+            this.messageDigest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not supported by this JVM.", e);
+        }
+
+        OutputStream discard = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+        this.output = new DataOutputStream(
+                new BufferedOutputStream(new DigestOutputStream(discard, this.messageDigest), 8192));
+    }
+
+    public static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * @return the hex encoded hash of the class definition. A hasher is not thread-safe, use one per thread.
+     */
+    public String hash(ClassDef classDef) {
+        try {
+            this.writeClass(classDef);
+            this.output.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to hash class " + classDef.getType() + ".", e);
+        }
+        return ClassHasher.toHex(this.messageDigest.digest());
+    }
+
+    private void writeClass(ClassDef classDef) throws IOException {
+        this.writeString(classDef.getType());
+        this.output.writeInt(classDef.getAccessFlags());
+        this.writeString(classDef.getSuperclass());
+        this.output.writeInt(classDef.getInterfaces().size());
+        for (String interfaceType : classDef.getInterfaces()) {
+            this.writeString(interfaceType);
+        }
+        this.writeString(classDef.getSourceFile());
+        this.writeAnnotations(classDef.getAnnotations());
+
+        for (Field field : classDef.getFields()) {
+            this.output.writeByte('F');
+            this.writeField(field);
+            this.output.writeInt(field.getAccessFlags());
+            EncodedValue initialValue = field.getInitialValue();
+            this.writeString(initialValue != null ? FORMATTER.getEncodedValue(initialValue) : null);
+            this.writeAnnotations(field.getAnnotations());
+        }
+
+        for (Method method : classDef.getMethods()) {
+            this.output.writeByte('M');
+            this.writeMethod(method);
+            this.output.writeInt(method.getAccessFlags());
+            for (MethodParameter parameter : method.getParameters()) {
+                this.writeString(parameter.getName());
+                this.writeAnnotations(parameter.getAnnotations());
+            }
+            this.writeAnnotations(method.getAnnotations());
+
+            MethodImplementation implementation = method.getImplementation();
+            if (implementation != null) {
+                this.writeImplementation(implementation);
+            }
+        }
+        this.output.writeByte('E');
+    }
+
+    private void writeImplementation(MethodImplementation implementation) throws IOException {
+        this.output.writeByte('I');
+        this.output.writeInt(implementation.getRegisterCount());
+        for (Instruction instruction : implementation.getInstructions()) {
+            this.writeInstruction(instruction);
+        }
+
+        for (TryBlock<? extends ExceptionHandler> tryBlock : implementation.getTryBlocks()) {
+            this.output.writeByte('T');
+            this.output.writeInt(tryBlock.getStartCodeAddress());
+            this.output.writeInt(tryBlock.getCodeUnitCount());
+            for (ExceptionHandler handler : tryBlock.getExceptionHandlers()) {
+                this.writeString(handler.getExceptionType());
+                this.output.writeInt(handler.getHandlerCodeAddress());
+            }
+        }
+
+        for (DebugItem debugItem : implementation.getDebugItems()) {
+            this.writeDebugItem(debugItem);
+        }
+    }
+
+    private void writeInstruction(Instruction instruction) throws IOException {
+        this.output.writeShort(instruction.getOpcode().ordinal());
+        if (instruction instanceof OneRegisterInstruction) {
+            this.output.writeInt(((OneRegisterInstruction) instruction).getRegisterA());
+        }
+        if (instruction instanceof TwoRegisterInstruction) {
+            this.output.writeInt(((TwoRegisterInstruction) instruction).getRegisterB());
+        }
+        if (instruction instanceof ThreeRegisterInstruction) {
+            this.output.writeInt(((ThreeRegisterInstruction) instruction).getRegisterC());
+        }
+        if (instruction instanceof FiveRegisterInstruction) {
+            FiveRegisterInstruction registers = (FiveRegisterInstruction) instruction;
+            this.output.writeInt(registers.getRegisterCount());
+            this.output.writeInt(registers.getRegisterC());
+            this.output.writeInt(registers.getRegisterD());
+            this.output.writeInt(registers.getRegisterE());
+            this.output.writeInt(registers.getRegisterF());
+            this.output.writeInt(registers.getRegisterG());
+        }
+        if (instruction instanceof RegisterRangeInstruction) {
+            RegisterRangeInstruction registers = (RegisterRangeInstruction) instruction;
+            this.output.writeInt(registers.getStartRegister());
+            this.output.writeInt(registers.getRegisterCount());
+        }
+        if (instruction instanceof WideLiteralInstruction) {
+            this.output.writeLong(((WideLiteralInstruction) instruction).getWideLiteral());
+        }
+        if (instruction instanceof OffsetInstruction) {
+            this.output.writeInt(((OffsetInstruction) instruction).getCodeOffset());
+        }
+        if (instruction instanceof ReferenceInstruction) {
+            this.writeReference(((ReferenceInstruction) instruction).getReference());
+        }
+        if (instruction instanceof DualReferenceInstruction) {
+            this.writeReference(((DualReferenceInstruction) instruction).getReference2());
+        }
+        if (instruction instanceof SwitchPayload) {
+            for (SwitchElement element : ((SwitchPayload) instruction).getSwitchElements()) {
+                this.output.writeInt(element.getKey());
+                this.output.writeInt(element.getOffset());
+            }
+        }
+        if (instruction instanceof ArrayPayload) {
+            ArrayPayload payload = (ArrayPayload) instruction;
+            this.output.writeInt(payload.getElementWidth());
+            for (Number element : payload.getArrayElements()) {
+                this.output.writeLong(element.longValue());
+            }
+        }
+    }
+
+    private void writeDebugItem(DebugItem debugItem) throws IOException {
+        this.output.writeByte('D');
+        this.output.writeInt(debugItem.getDebugItemType());
+        this.output.writeInt(debugItem.getCodeAddress());
+        if (debugItem instanceof LineNumber) {
+            this.output.writeInt(((LineNumber) debugItem).getLineNumber());
+        } else if (debugItem instanceof StartLocal) {
+            StartLocal startLocal = (StartLocal) debugItem;
+            this.output.writeInt(startLocal.getRegister());
+            this.writeString(startLocal.getName());
+            this.writeString(startLocal.getType());
+            this.writeString(startLocal.getSignature());
+        } else if (debugItem instanceof EndLocal) {
+            this.output.writeInt(((EndLocal) debugItem).getRegister());
+        } else if (debugItem instanceof RestartLocal) {
+            this.output.writeInt(((RestartLocal) debugItem).getRegister());
+        } else if (debugItem instanceof SetSourceFile) {
+            this.writeString(((SetSourceFile) debugItem).getSourceFile());
+        }
+    }
+
+    private void writeAnnotations(Collection<? extends Annotation> annotations) throws IOException {
+        this.output.writeInt(annotations.size());
+        for (Annotation annotation : annotations) {
+            this.output.writeInt(annotation.getVisibility());
+            this.writeString(annotation.getType());
+            for (AnnotationElement element : annotation.getElements()) {
+                this.writeString(element.getName());
+                this.writeString(FORMATTER.getEncodedValue(element.getValue()));
+            }
+        }
+    }
+
+    private void writeReference(Reference reference) throws IOException {
+        if (reference instanceof StringReference) {
+            this.writeString(((StringReference) reference).getString());
+        } else if (reference instanceof TypeReference) {
+            this.writeString(((TypeReference) reference).getType());
+        } else if (reference instanceof FieldReference) {
+            this.writeField((FieldReference) reference);
+        } else if (reference instanceof MethodReference) {
+            this.writeMethod((MethodReference) reference);
+        } else {
+            this.writeString(FORMATTER.getReference(reference));
+        }
+    }
+
+    private void writeField(FieldReference field) throws IOException {
+        this.writeString(field.getDefiningClass());
+        this.writeString(field.getName());
+        this.writeString(field.getType());
+    }
+
+    private void writeMethod(MethodReference method) throws IOException {
+        this.writeString(method.getDefiningClass());
+        this.writeString(method.getName());
+        this.output.writeInt(method.getParameterTypes().size());
+        for (CharSequence parameterType : method.getParameterTypes()) {
+            this.writeString(parameterType);
+        }
+        this.writeString(method.getReturnType());
+    }
+
+    private void writeString(CharSequence value) throws IOException {
+        if (value == null) {
+            this.output.writeInt(-1);
+            return;
+        }
+
+        byte[] bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+        this.output.writeInt(bytes.length);
+        this.output.write(bytes);
+    }
+}
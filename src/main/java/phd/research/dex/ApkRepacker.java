@@ -0,0 +1,173 @@
+package phd.research.dex;
+
+import com.android.apksig.ApkSignerEngine;
+import org.apache.commons.compress.archivers.zip.ResourceAlignmentExtraField;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import soot.options.Options;
+import soot.toDex.DexPrinter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Writes an output APK from an input APK and a set of rewritten dex files. Entries are copied as raw zip entries,
+ * without decompressing and compressing them again, except for the signature files, which are dropped, and the dex
+ * files that were rewritten, which are replaced. The dex files keep the order of the input APK, the rewritten dex files
+ * take the places of the dex files they replace (surplus dex files are appended) and all dex files are numbered again
+ * from {@code classes.dex}, as the runtime stops loading at the first missing number.
+ * <p>
+ * The data of uncompressed entries is aligned as by zipalign, to 4 bytes and to 4096 bytes for native libraries. Given
+ * a signing key, the APK is signed while it is written (see {@link ApkSigning}).
+ *
+ * @author Jordan Doyle
+ */
+
+public class ApkRepacker {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ApkRepacker.class);
+
+    private static final Pattern DEX_ENTRY_PATTERN = Pattern.compile("classes(\\d*)\\.dex");
+
+    /**
+     * @return the dex index of a dex file in the root of an APK (1 for {@code classes.dex}, 2 for
+     * {@code classes2.dex}, ...), or -1 if the entry is not one.
+     */
+    public static int getDexIndex(String entryName) {
+        Matcher matcher = DEX_ENTRY_PATTERN.matcher(entryName);
+        if (!matcher.matches()) {
+            return -1;
+        }
+        return matcher.group(1).isEmpty() ? 1 : Integer.parseInt(matcher.group(1));
+    }
+
+    private static String getDexEntryName(int index) {
+        return "classes" + (index == 1 ? "" : String.valueOf(index)) + ".dex";
+    }
+
+    /**
+     * @param replacedEntries the names of the dex files of the input APK that were rewritten.
+     * @param dexFiles        the rewritten dex files, in order.
+     */
+    public static void repack(File inputApk, File outputApk, Set<String> replacedEntries, List<File> dexFiles)
+            throws IOException {
+        ApkRepacker.repack(inputApk, outputApk, replacedEntries, dexFiles, null);
+    }
+
+    /**
+     * @param replacedEntries the names of the dex files of the input APK that were rewritten.
+     * @param dexFiles        the rewritten dex files, in order.
+     * @param signing         the key signing the output APK, or null to leave it unsigned.
+     */
+    public static void repack(File inputApk, File outputApk, Set<String> replacedEntries, List<File> dexFiles,
+            ApkSigning signing) throws IOException {
+        if (outputApk.exists()) {
+            if (!Options.v().force_overwrite()) {
+                throw new IOException("Output file \"" + outputApk + "\" exists. Not overwriting.");
+            }
+            Files.delete(outputApk.toPath());
+        }
+
+        try (ZipFile input = ZipFile.builder().setFile(inputApk).get();
+             ApkSigning.Session session = signing != null ? signing.start(input, outputApk) : null) {
+            try (ZipArchiveOutputStream output = new ZipArchiveOutputStream(outputApk)) {
+                ApkRepacker.writeEntries(input, output, replacedEntries, dexFiles, session);
+                if (session != null) {
+                    for (ApkSignerEngine.OutputJarSignatureRequest.JarEntry entry : session.signEntries()) {
+                        ApkRepacker.addData(entry.getData(), entry.getName(), output);
+                    }
+                }
+            }
+            if (session != null) {
+                session.signZipSections();
+            }
+        }
+        LOGGER.info("Wrote APK to '{}'.", outputApk);
+    }
+
+    private static void writeEntries(ZipFile input, ZipArchiveOutputStream output, Set<String> replacedEntries,
+            List<File> dexFiles, ApkSigning.Session session) throws IOException {
+        List<ZipArchiveEntry> dexEntries = new ArrayList<>();
+        for (ZipArchiveEntry entry : Collections.list(input.getEntries())) {
+            if (ApkRepacker.getDexIndex(entry.getName()) > 0) {
+                dexEntries.add(entry);
+            } else if (!DexPrinter.SIGNATURE_FILE_PATTERN.matcher(entry.getName()).matches() &&
+                    (session == null || session.accept(input, entry))) {
+                ApkRepacker.copyRaw(input, entry, entry.getName(), output, session);
+            }
+        }
+        dexEntries.sort(Comparator.comparingInt(entry -> ApkRepacker.getDexIndex(entry.getName())));
+
+        Deque<File> remainingDexFiles = new ArrayDeque<>(dexFiles);
+        int index = 1;
+        int copied = 0;
+        for (ZipArchiveEntry entry : dexEntries) {
+            if (!replacedEntries.contains(entry.getName())) {
+                ApkRepacker.copyRaw(input, entry, ApkRepacker.getDexEntryName(index++), output, session);
+                copied++;
+            } else if (!remainingDexFiles.isEmpty()) {
+                ApkRepacker.addFile(remainingDexFiles.poll(), ApkRepacker.getDexEntryName(index++), output, session);
+            }
+        }
+        while (!remainingDexFiles.isEmpty()) {
+            ApkRepacker.addFile(remainingDexFiles.poll(), ApkRepacker.getDexEntryName(index++), output, session);
+        }
+
+        LOGGER.info("Copied {} of {} dex file(s) unchanged, wrote {} rewritten dex file(s).", copied,
+                dexEntries.size(), dexFiles.size());
+    }
+
+    private static void copyRaw(ZipFile input, ZipArchiveEntry entry, String name, ZipArchiveOutputStream output,
+            ApkSigning.Session session) throws IOException {
+        // A new entry drops the extra fields of the input, including any alignment padding, which is added again.
+        ZipArchiveEntry copy = new ZipArchiveEntry(name);
+        copy.setMethod(entry.getMethod());
+        if (entry.getMethod() == ZipArchiveEntry.STORED) {
+            // Raw entries are copied with their extra fields but not their alignment setting.
+            copy.addExtraField(new ResourceAlignmentExtraField(name.endsWith(".so") ? 4096 : 4));
+        }
+        copy.setCrc(entry.getCrc());
+        copy.setSize(entry.getSize());
+        copy.setCompressedSize(entry.getCompressedSize());
+        copy.setTime(entry.getTime());
+        try (InputStream rawData = input.getRawInputStream(entry)) {
+            output.addRawArchiveEntry(copy, rawData);
+        }
+        if (session != null) {
+            // The signature digests the uncompressed data.
+            try (InputStream data = input.getInputStream(entry)) {
+                session.inspect(name, data);
+            }
+        }
+    }
+
+    private static void addFile(File file, String name, ZipArchiveOutputStream output, ApkSigning.Session session)
+            throws IOException {
+        ZipArchiveEntry entry = new ZipArchiveEntry(name);
+        entry.setMethod(ZipArchiveEntry.DEFLATED);
+        output.putArchiveEntry(entry);
+        Files.copy(file.toPath(), output);
+        output.closeArchiveEntry();
+        if (session != null) {
+            try (InputStream data = Files.newInputStream(file.toPath())) {
+                session.inspect(name, data);
+            }
+        }
+    }
+
+    private static void addData(byte[] data, String name, ZipArchiveOutputStream output) throws IOException {
+        ZipArchiveEntry entry = new ZipArchiveEntry(name);
+        entry.setMethod(ZipArchiveEntry.DEFLATED);
+        output.putArchiveEntry(entry);
+        output.write(data);
+        output.closeArchiveEntry();
+    }
+}
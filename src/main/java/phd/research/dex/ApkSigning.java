@@ -0,0 +1,259 @@
+package phd.research.dex;
+
+import com.android.apksig.ApkSignerEngine;
+import com.android.apksig.DefaultApkSignerEngine;
+import com.android.apksig.apk.ApkFormatException;
+import com.android.apksig.apk.ApkUtils;
+import com.android.apksig.util.DataSink;
+import com.android.apksig.util.DataSources;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Aligns and signs output APKs in process, in place of zipalign and apksigner. The APK is signed while
+ * {@link ApkRepacker} writes it: the uncompressed data of every entry is digested for the v1 (JAR) signature as the
+ * entry is written, the v1 signature files are appended to the entries, and the v2 (APK signature scheme) signing
+ * block is inserted before the central directory once the entries are written. The entries are written once, only the
+ * central directory is written again after the signing block.
+ * <p>
+ * The signer creates v1 signatures with JDK internal classes, which Java 9 and later only allow with the packages of
+ * {@link #INTERNAL_PACKAGES} exported. The jar manifest exports them, worker processes export them on the command
+ * line.
+ *
+ * @author Jordan Doyle
+ */
+
+public class ApkSigning {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ApkSigning.class);
+
+    public static final List<String> INTERNAL_PACKAGES = Collections.unmodifiableList(
+            Arrays.asList("sun.security.pkcs", "sun.security.util", "sun.security.x509"));
+
+    private static final String SIGNER_NAME = "CERT";
+    private static final String MANIFEST_ENTRY = "AndroidManifest.xml";
+
+    private static final int EOCD_SIZE = 22;
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int EOCD_CENTRAL_DIRECTORY_SIZE_OFFSET = 12;
+    private static final int EOCD_CENTRAL_DIRECTORY_OFFSET_OFFSET = 16;
+
+    private final String alias;
+    private final DefaultApkSignerEngine.SignerConfig signerConfig;
+
+    private ApkSigning(String alias, DefaultApkSignerEngine.SignerConfig signerConfig) {
+        this.alias = alias;
+        this.signerConfig = signerConfig;
+    }
+
+    /**
+     * Loads the signing key from a keystore, the key password is the keystore password.
+     *
+     * @param alias the alias of the key, or null if the keystore holds exactly one key.
+     */
+    public static ApkSigning load(File keystoreFile, String alias, char[] password) throws IOException {
+        try {
+            KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+            try (InputStream keystoreStream = Files.newInputStream(keystoreFile.toPath())) {
+                keyStore.load(keystoreStream, password);
+            }
+
+            if (alias == null) {
+                List<String> keyAliases = new ArrayList<>();
+                for (String entryAlias : Collections.list(keyStore.aliases())) {
+                    if (keyStore.isKeyEntry(entryAlias)) {
+                        keyAliases.add(entryAlias);
+                    }
+                }
+                if (keyAliases.size() != 1) {
+                    throw new IOException("Keystore holds " + keyAliases.size() + " keys, a key alias is required.");
+                }
+                alias = keyAliases.get(0);
+            }
+
+            Key key = keyStore.getKey(alias, password);
+            if (!(key instanceof PrivateKey)) {
+                throw new IOException("Keystore has no private key with alias '" + alias + "'.");
+            }
+            List<X509Certificate> certificates = new ArrayList<>();
+            for (Certificate certificate : keyStore.getCertificateChain(alias)) {
+                certificates.add((X509Certificate) certificate);
+            }
+
+            return new ApkSigning(alias, new DefaultApkSignerEngine.SignerConfig.Builder(SIGNER_NAME, (PrivateKey) key,
+                    certificates).build());
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to load key from keystore (" + keystoreFile + "): " + e.getMessage(), e);
+        }
+    }
+
+    public String getAlias() {
+        return this.alias;
+    }
+
+    /**
+     * Starts signing an APK written from the given input APK, the entries of the input APK are only copied if
+     * {@link Session#accept} allows it. The minimum SDK version of the input APK decides the digest algorithms of the
+     * v1 signature.
+     */
+    public Session start(ZipFile inputApk, File outputApk) throws IOException {
+        ZipArchiveEntry manifestEntry = inputApk.getEntry(MANIFEST_ENTRY);
+        if (manifestEntry == null) {
+            throw new IOException("Failed to sign APK (" + outputApk + "), the input APK has no " + MANIFEST_ENTRY +
+                    ".");
+        }
+
+        try (InputStream manifestStream = inputApk.getInputStream(manifestEntry)) {
+            int minSdkVersion = ApkUtils.getMinSdkVersionFromBinaryAndroidManifest(
+                    ByteBuffer.wrap(IOUtils.toByteArray(manifestStream)));
+            ApkSignerEngine engine = new DefaultApkSignerEngine.Builder(Collections.singletonList(this.signerConfig),
+                    minSdkVersion).setV1SigningEnabled(true).setV2SigningEnabled(true)
+                    .setOtherSignersSignaturesPreserved(false).build();
+            return new Session(engine, outputApk);
+        } catch (ApkFormatException | GeneralSecurityException e) {
+            throw new IOException("Failed to sign APK (" + outputApk + "): " + e.getMessage(), e);
+        }
+    }
+
+    private static void consume(ApkSignerEngine.InspectJarEntryRequest request, InputStream data) throws IOException {
+        DataSink sink = request.getDataSink();
+        byte[] buffer = new byte[65536];
+        int read;
+        while ((read = data.read(buffer)) >= 0) {
+            sink.consume(buffer, 0, read);
+        }
+        request.done();
+    }
+
+    /**
+     * Signature of one APK, fed with the entries in the order they are written.
+     */
+    public class Session implements Closeable {
+
+        private final ApkSignerEngine engine;
+        private final File outputApk;
+
+        private Session(ApkSignerEngine engine, File outputApk) {
+            this.engine = engine;
+            this.outputApk = outputApk;
+        }
+
+        /**
+         * @return whether the entry of the input APK is written to the APK. Entries the signature writes itself (the
+         * JAR manifest) are read by the signature instead, previous signatures are dropped.
+         */
+        public boolean accept(ZipFile inputApk, ZipArchiveEntry entry) throws IOException {
+            ApkSignerEngine.InputJarEntryInstructions instructions = this.engine.inputJarEntry(entry.getName());
+            ApkSignerEngine.InspectJarEntryRequest request = instructions.getInspectJarEntryRequest();
+            if (request != null) {
+                try (InputStream data = inputApk.getInputStream(entry)) {
+                    ApkSigning.consume(request, data);
+                }
+            }
+            return instructions.getOutputPolicy() == ApkSignerEngine.InputJarEntryInstructions.OutputPolicy.OUTPUT;
+        }
+
+        /**
+         * Digests the uncompressed data of an entry written to the APK.
+         */
+        public void inspect(String name, InputStream data) throws IOException {
+            ApkSignerEngine.InspectJarEntryRequest request = this.engine.outputJarEntry(name);
+            if (request != null) {
+                ApkSigning.consume(request, data);
+            }
+        }
+
+        /**
+         * @return the names and data of the v1 signature files, to be written after every other entry.
+         */
+        public List<ApkSignerEngine.OutputJarSignatureRequest.JarEntry> signEntries() throws IOException {
+            try {
+                ApkSignerEngine.OutputJarSignatureRequest request = this.engine.outputJarEntries();
+                if (request == null) {
+                    return Collections.emptyList();
+                }
+
+                List<ApkSignerEngine.OutputJarSignatureRequest.JarEntry> entries = request.getAdditionalJarEntries();
+                for (ApkSignerEngine.OutputJarSignatureRequest.JarEntry entry : entries) {
+                    this.inspect(entry.getName(), new ByteArrayInputStream(entry.getData()));
+                }
+                request.done();
+                return entries;
+            } catch (ApkFormatException | GeneralSecurityException e) {
+                throw new IOException("Failed to sign APK (" + this.outputApk + "): " + e.getMessage(), e);
+            } catch (IllegalAccessError e) {
+                throw new IOException("Failed to sign APK (" + this.outputApk + "), the JVM must export " +
+                        INTERNAL_PACKAGES + " (e.g. --add-exports java.base/sun.security.pkcs=ALL-UNNAMED).", e);
+            }
+        }
+
+        /**
+         * Inserts the v2 signing block between the entries and the central directory of the written APK, which must
+         * end with a central directory and end of central directory record without comment.
+         */
+        public void signZipSections() throws IOException {
+            try (RandomAccessFile file = new RandomAccessFile(this.outputApk, "rw")) {
+                long length = file.length();
+                byte[] eocd = new byte[EOCD_SIZE];
+                if (length >= EOCD_SIZE) {
+                    file.seek(length - EOCD_SIZE);
+                    file.readFully(eocd);
+                }
+                ByteBuffer eocdBuffer = ByteBuffer.wrap(eocd).order(ByteOrder.LITTLE_ENDIAN);
+                long centralDirectorySize = eocdBuffer.getInt(EOCD_CENTRAL_DIRECTORY_SIZE_OFFSET) & 0xffffffffL;
+                long centralDirectoryOffset = eocdBuffer.getInt(EOCD_CENTRAL_DIRECTORY_OFFSET_OFFSET) & 0xffffffffL;
+                if (eocdBuffer.getInt(0) != EOCD_SIGNATURE ||
+                        centralDirectoryOffset + centralDirectorySize != length - EOCD_SIZE) {
+                    throw new IOException("Failed to sign APK (" + this.outputApk + "), unexpected end of zip file.");
+                }
+
+                byte[] centralDirectory = new byte[(int) centralDirectorySize];
+                file.seek(centralDirectoryOffset);
+                file.readFully(centralDirectory);
+
+                ApkSignerEngine.OutputApkSigningBlockRequest request = this.engine.outputZipSections(
+                        DataSources.asDataSource(file, 0, centralDirectoryOffset),
+                        DataSources.asDataSource(ByteBuffer.wrap(centralDirectory)),
+                        DataSources.asDataSource(ByteBuffer.wrap(eocd.clone())));
+                if (request != null) {
+                    byte[] signingBlock = request.getApkSigningBlock();
+                    eocdBuffer.putInt(EOCD_CENTRAL_DIRECTORY_OFFSET_OFFSET,
+                            (int) (centralDirectoryOffset + signingBlock.length));
+                    file.seek(centralDirectoryOffset);
+                    file.write(signingBlock);
+                    file.write(centralDirectory);
+                    file.write(eocd);
+                    request.done();
+                }
+                this.engine.outputDone();
+            } catch (ApkFormatException | GeneralSecurityException e) {
+                throw new IOException("Failed to sign APK (" + this.outputApk + "): " + e.getMessage(), e);
+            }
+
+            LOGGER.info("Aligned and signed '{}' with key '{}'.", this.outputApk, ApkSigning.this.alias);
+        }
+
+        @Override
+        public void close() {
+            this.engine.close();
+        }
+    }
+}
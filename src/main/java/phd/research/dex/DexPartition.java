@@ -0,0 +1,152 @@
+package phd.research.dex;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * A group of dex files of an APK, instrumented on its own by a dex worker. A dex worker instruments and writes only the
+ * classes of the dex files of its partition, and writes its dex files and the names of the input dex files they
+ * replace to its output directory instead of an APK. The partitions are then merged into the output APK (see
+ * {@link ApkRepacker}), in the order of their first input dex file. Classes generated by the instrumentation (e.g. the
+ * runtime classes) are only written by the primary partition, the one holding {@value #PRIMARY_ENTRY}.
+ *
+ * @author Jordan Doyle
+ */
+
+public class DexPartition {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DexPartition.class);
+
+    public static final String PRIMARY_ENTRY = "classes.dex";
+    public static final String DEX_DIRECTORY = "partition-dex";
+    public static final String ENTRIES_FILE = "partition-entries.txt";
+
+    private final List<String> entryNames;
+    private long size;
+
+    private DexPartition() {
+        this.entryNames = new ArrayList<>();
+    }
+
+    /**
+     * Groups the dex files of the APK into at most the given number of partitions of about the same uncompressed size,
+     * each dex file going to the smallest partition so far, from the largest dex file down.
+     *
+     * @return the partitions in the order of their first dex file, fewer than asked for if the APK has fewer dex files.
+     */
+    public static List<DexPartition> plan(File apkFile, int count) throws IOException {
+        List<ZipArchiveEntry> dexEntries = new ArrayList<>();
+        try (ZipFile apk = ZipFile.builder().setFile(apkFile).get()) {
+            for (ZipArchiveEntry entry : Collections.list(apk.getEntries())) {
+                if (ApkRepacker.getDexIndex(entry.getName()) > 0) {
+                    dexEntries.add(entry);
+                }
+            }
+        }
+        if (dexEntries.isEmpty()) {
+            throw new IOException("No dex file in APK (" + apkFile + ").");
+        }
+        dexEntries.sort(Comparator.comparingLong(ZipArchiveEntry::getSize).reversed()
+                .thenComparingInt(entry -> ApkRepacker.getDexIndex(entry.getName())));
+
+        PriorityQueue<DexPartition> partitions = new PriorityQueue<>(
+                Comparator.comparingLong((DexPartition partition) -> partition.size)
+                        .thenComparingInt(partition -> partition.entryNames.size()));
+        for (int i = 0; i < Math.min(count, dexEntries.size()); i++) {
+            partitions.add(new DexPartition());
+        }
+        for (ZipArchiveEntry entry : dexEntries) {
+            DexPartition partition = partitions.poll();
+            partition.entryNames.add(entry.getName());
+            partition.size += entry.getSize();
+            partitions.add(partition);
+        }
+
+        List<DexPartition> plan = new ArrayList<>(partitions);
+        for (DexPartition partition : plan) {
+            partition.entryNames.sort(Comparator.comparingInt(ApkRepacker::getDexIndex));
+        }
+        plan.sort(Comparator.comparingInt(partition -> ApkRepacker.getDexIndex(partition.entryNames.get(0))));
+        return plan;
+    }
+
+    /**
+     * @return the names of the dex files of the partition, in order.
+     */
+    public List<String> getEntryNames() {
+        return Collections.unmodifiableList(this.entryNames);
+    }
+
+    /**
+     * @return the uncompressed size of the dex files of the partition in bytes.
+     */
+    public long getSize() {
+        return this.size;
+    }
+
+    /**
+     * @return true if the partition of the given dex files writes the classes generated by the instrumentation.
+     */
+    public static boolean isPrimary(Collection<String> entryNames) {
+        return entryNames.contains(PRIMARY_ENTRY);
+    }
+
+    /**
+     * Writes the output of a dex worker to its output directory.
+     *
+     * @param rewrittenEntries the names of the input dex files replaced by the dex files.
+     * @param dexFiles         the dex files written by the worker, in order.
+     */
+    public static void writeOutput(File outputDirectory, Collection<String> rewrittenEntries, List<File> dexFiles)
+            throws IOException {
+        File dexDirectory = new File(outputDirectory, DEX_DIRECTORY);
+        Files.createDirectories(dexDirectory.toPath());
+        for (File dexFile : dexFiles) {
+            Files.copy(dexFile.toPath(), new File(dexDirectory, dexFile.getName()).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.write(new File(outputDirectory, ENTRIES_FILE).toPath(), rewrittenEntries, StandardCharsets.UTF_8);
+        LOGGER.info("Wrote {} dex file(s) replacing {} of the partition to '{}'.", dexFiles.size(),
+                rewrittenEntries, dexDirectory);
+    }
+
+    /**
+     * Writes the output APK from the input APK and the outputs of the dex workers.
+     *
+     * @param outputDirectories the output directories of the dex workers, in the order of their partitions.
+     * @param signing           the key signing the output APK, or null to leave it unsigned.
+     */
+    public static void merge(File inputApk, File outputApk, List<File> outputDirectories, ApkSigning signing)
+            throws IOException {
+        Set<String> rewrittenEntries = new LinkedHashSet<>();
+        List<File> dexFiles = new ArrayList<>();
+        for (File outputDirectory : outputDirectories) {
+            File entriesFile = new File(outputDirectory, ENTRIES_FILE);
+            if (!entriesFile.isFile()) {
+                throw new IOException("Missing dex worker output in " + outputDirectory + ".");
+            }
+            rewrittenEntries.addAll(Files.readAllLines(entriesFile.toPath(), StandardCharsets.UTF_8));
+
+            File[] partitionDexFiles = new File(outputDirectory, DEX_DIRECTORY).listFiles(
+                    (directory, name) -> ApkRepacker.getDexIndex(name) > 0);
+            if (partitionDexFiles != null) {
+                dexFiles.addAll(Arrays.stream(partitionDexFiles)
+                        .sorted(Comparator.comparingInt(file -> ApkRepacker.getDexIndex(file.getName())))
+                        .collect(Collectors.toList()));
+            }
+        }
+
+        LOGGER.info("Merging {} dex file(s) of {} partition(s).", dexFiles.size(), outputDirectories.size());
+        ApkRepacker.repack(inputApk, outputApk, rewrittenEntries, dexFiles, signing);
+    }
+}
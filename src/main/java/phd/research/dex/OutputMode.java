@@ -0,0 +1,13 @@
+package phd.research.dex;
+
+/**
+ * How the output APK is written. {@link #FULL} writes every class into new dex files. {@link #PARTIAL} only rewrites
+ * the dex files holding a modified class and copies the other dex files byte for byte. The other entries of the input
+ * APK are copied byte for byte in both modes (see {@link ApkRepacker}).
+ *
+ * @author Jordan Doyle
+ */
+
+public enum OutputMode {
+    FULL, PARTIAL
+}
@@ -0,0 +1,131 @@
+package phd.research.dex;
+
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.writer.io.FileDataStore;
+import org.jf.dexlib2.writer.pool.DexPool;
+import soot.Scene;
+import soot.toDex.DexPrinter;
+import soot.toDex.MultiDexBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+
+/**
+ * Dex printer that also writes ready-made dex class definitions (classes passed through unchanged or taken from the
+ * class cache) next to the classes Soot transformed, and keeps the class definitions built for the classes Soot wrote.
+ * Dex files are written to the dex directory as soon as they are full, so only the last dex file is held in memory.
+ *
+ * @author Jordan Doyle
+ */
+
+public class SplicingDexPrinter extends DexPrinter {
+
+    private final Map<String, ClassDef> writtenClasses;
+    private final List<File> dexFiles;
+    private final File dexDirectory;
+    private int classCount;
+
+    public SplicingDexPrinter(File originalApk, File dexDirectory) {
+        super();
+        this.writtenClasses = new HashMap<>();
+        this.dexFiles = new ArrayList<>();
+        this.dexDirectory = dexDirectory;
+        this.originalApk = originalApk;
+    }
+
+    /**
+     * Dex files are named as by Soot: {@code classes.dex}, {@code classes2.dex}, etc.
+     */
+    private File writeDexFile(DexPool dexPool) throws IOException {
+        int count = this.dexFiles.size();
+        File dexFile = new File(this.dexDirectory, "classes" + (count == 0 ? "" : count + 1) + ".dex");
+        FileDataStore dataStore = new FileDataStore(dexFile);
+        try {
+            dexPool.writeTo(dataStore);
+        } finally {
+            dataStore.close();
+        }
+        this.dexFiles.add(dexFile);
+        return dexFile;
+    }
+
+    /**
+     * @return the opcodes of the output dex files, chosen the same way as by Soot's dex printer.
+     */
+    public static Opcodes getOpcodes() {
+        Scene.AndroidVersionInfo versionInfo = Scene.v().getAndroidSDKVersionInfo();
+        int apiLevel = versionInfo == null ? Scene.v().getAndroidAPIVersion() :
+                Math.min(versionInfo.minSdkVersion, versionInfo.sdkTargetVersion);
+        return Opcodes.forApi(apiLevel);
+    }
+
+    @Override
+    protected MultiDexBuilder createDexBuilder() {
+        // Called by the super constructor, the builder reads the fields of this printer only once classes are added.
+        return new MultiDexBuilder(SplicingDexPrinter.getOpcodes()) {
+            @Override
+            protected void newDexPool() {
+                // The current pool overflowed and is full, it is null when called by the builder constructor.
+                if (this.curPool != null) {
+                    try {
+                        SplicingDexPrinter.this.writeDexFile(this.curPool);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("Failed to write full dex file.", e);
+                    }
+                    this.dexPools.remove(this.curPool);
+                }
+                super.newDexPool();
+            }
+
+            @Override
+            public void internClass(ClassDef classDef) {
+                super.internClass(classDef);
+                SplicingDexPrinter.this.writtenClasses.put(classDef.getType(), classDef);
+                SplicingDexPrinter.this.classCount++;
+            }
+
+            @Override
+            public List<File> writeTo(String folder) throws IOException {
+                for (DexPool dexPool : this.dexPools) {
+                    SplicingDexPrinter.this.writeDexFile(dexPool);
+                }
+                this.dexPools.clear();
+                return SplicingDexPrinter.this.dexFiles;
+            }
+        };
+    }
+
+    public void addClassDef(ClassDef classDef) {
+        this.dexBuilder.internClass(classDef);
+    }
+
+    /**
+     * Writes the dex file of the classes added since the last full dex file to the dex directory, instead of printing
+     * an APK.
+     *
+     * @return every dex file written, none if no class was added.
+     */
+    public List<File> writeDexFiles() throws IOException {
+        if (this.classCount == 0) {
+            return Collections.emptyList();
+        }
+        return this.dexBuilder.writeTo(this.dexDirectory.getPath());
+    }
+
+    /**
+     * Drops the class definitions kept for the classes written so far, see {@link #getWrittenClass(String)}.
+     */
+    public void clearWrittenClasses() {
+        this.writtenClasses.clear();
+    }
+
+    /**
+     * @return the dex class definition written for the type (e.g. {@code Lcom/example/Main;}), or null.
+     */
+    public ClassDef getWrittenClass(String type) {
+        return this.writtenClasses.get(type);
+    }
+}
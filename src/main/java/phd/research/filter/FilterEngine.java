@@ -0,0 +1,282 @@
+package phd.research.filter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import phd.research.jimple.RuntimeInjector;
+import phd.research.utility.Csv;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.tagkit.AnnotationTag;
+import soot.tagkit.Host;
+import soot.tagkit.Tag;
+import soot.tagkit.VisibilityAnnotationTag;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Filter rules compiled for lookup. Package and contains rules are held in character tries, so a package name is
+ * matched in one pass whatever the number of rules, exact class, method and annotation names are held in hash maps and
+ * only glob patterns are tried one by one. The decision for each class and method is computed once and memoized, and
+ * the rules that matched count the class or method.
+ * <p>
+ * The most specific rules matching a class or method decide it (see {@link FilterRule}), among them include rules win
+ * over exclude rules. Classes of the injected runtime package ({@value RuntimeInjector#RUNTIME_PACKAGE}) and their
+ * methods are rejected before any rule is consulted, so no include rule can instrument them.
+ *
+ * @author Jordan Doyle
+ */
+
+public class FilterEngine {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FilterEngine.class);
+
+    private final List<FilterRule> rules;
+    private final TrieNode packageRules;
+    private final TrieNode containsRules;
+    private final Map<String, List<FilterRule>> classNames;
+    private final Map<String, List<FilterRule>> methodNames;
+    private final Map<String, List<FilterRule>> annotations;
+    private final List<GlobRule> classGlobs;
+    private final List<GlobRule> methodGlobs;
+
+    private final Map<SootClass, ClassDecision> classDecisions;
+    private final Map<SootMethod, Boolean> methodDecisions;
+
+    private FilterEngine(List<FilterRule> rules) {
+        this.rules = new ArrayList<>(rules);
+        this.packageRules = new TrieNode();
+        this.containsRules = new TrieNode();
+        this.classNames = new HashMap<>();
+        this.methodNames = new HashMap<>();
+        this.annotations = new HashMap<>();
+        this.classGlobs = new ArrayList<>();
+        this.methodGlobs = new ArrayList<>();
+        this.classDecisions = new ConcurrentHashMap<>();
+        this.methodDecisions = new ConcurrentHashMap<>();
+    }
+
+    public static FilterEngine compile(List<FilterRule> rules) {
+        FilterEngine engine = new FilterEngine(rules);
+        for (FilterRule rule : rules) {
+            String pattern = rule.getPattern();
+            switch (rule.getKind()) {
+                case PACKAGE:
+                    engine.packageRules.add(pattern, rule);
+                    break;
+                case CONTAINS:
+                    engine.containsRules.add(pattern, rule);
+                    break;
+                case CLASS:
+                    if (FilterRule.isGlob(pattern)) {
+                        engine.classGlobs.add(new GlobRule(rule));
+                    } else {
+                        engine.classNames.computeIfAbsent(pattern, k -> new ArrayList<>()).add(rule);
+                    }
+                    break;
+                case METHOD:
+                    if (FilterRule.isGlob(pattern)) {
+                        engine.methodGlobs.add(new GlobRule(rule));
+                    } else {
+                        engine.methodNames.computeIfAbsent(pattern, k -> new ArrayList<>()).add(rule);
+                    }
+                    break;
+                case ANNOTATION:
+                    engine.annotations.computeIfAbsent(pattern, k -> new ArrayList<>()).add(rule);
+                    break;
+            }
+        }
+        return engine;
+    }
+
+    /**
+     * Reads a rule file with one rule per line, blank lines and lines starting with '#' are skipped.
+     */
+    public static List<FilterRule> load(File ruleFile) throws IOException {
+        List<FilterRule> rules = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(ruleFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (!line.trim().isEmpty() && !line.trim().startsWith("#")) {
+                    rules.add(FilterRule.parse(line, ruleFile.getName() + ":" + lineNumber));
+                }
+            }
+        }
+        return rules;
+    }
+
+    private static boolean isRuntimeClass(SootClass clazz) {
+        String packageName = clazz.getPackageName();
+        return packageName.equals(RuntimeInjector.RUNTIME_PACKAGE) ||
+                packageName.startsWith(RuntimeInjector.RUNTIME_PACKAGE + ".");
+    }
+
+    private static boolean decide(List<FilterRule> matched) {
+        boolean excluded = false;
+        for (FilterRule rule : matched) {
+            if (rule.getAction() == FilterRule.Action.INCLUDE) {
+                return true;
+            }
+            excluded = true;
+        }
+        return !excluded;
+    }
+
+    public boolean isValidClass(SootClass clazz) {
+        return this.getClassDecision(clazz).valid;
+    }
+
+    public boolean isValidMethod(SootMethod method) {
+        return this.methodDecisions.computeIfAbsent(method, this::decideMethod);
+    }
+
+    private ClassDecision getClassDecision(SootClass clazz) {
+        return this.classDecisions.computeIfAbsent(clazz, this::decideClass);
+    }
+
+    private ClassDecision decideClass(SootClass clazz) {
+        if (FilterEngine.isRuntimeClass(clazz)) {
+            return new ClassDecision(false, Collections.emptyList());
+        }
+
+        // Package names are matched with a trailing dot, so 'androidx.fragment.app.' matches the package itself.
+        List<FilterRule> packageMatched = new ArrayList<>();
+        String packageName = clazz.getPackageName().isEmpty() ? "" : clazz.getPackageName() + ".";
+        this.packageRules.collect(packageName, 0, packageMatched);
+        for (int i = packageName.indexOf('.'); i >= 0; i = packageName.indexOf('.', i + 1)) {
+            this.containsRules.collect(packageName, i, packageMatched);
+        }
+
+        List<FilterRule> classMatched = new ArrayList<>();
+        classMatched.addAll(this.classNames.getOrDefault(clazz.getName(), Collections.emptyList()));
+        classMatched.addAll(this.classNames.getOrDefault(clazz.getShortName(), Collections.emptyList()));
+        for (GlobRule glob : this.classGlobs) {
+            String name = glob.rule.getPattern().indexOf('.') >= 0 ? clazz.getName() : clazz.getShortName();
+            if (glob.pattern.matcher(name).matches()) {
+                classMatched.add(glob.rule);
+            }
+        }
+        this.collectAnnotations(clazz, classMatched);
+
+        List<FilterRule> matched = new ArrayList<>(packageMatched);
+        matched.addAll(classMatched);
+        matched.forEach(FilterRule::countClass);
+        boolean valid = classMatched.isEmpty() ? FilterEngine.decide(packageMatched) :
+                FilterEngine.decide(classMatched);
+        return new ClassDecision(valid, matched);
+    }
+
+    private boolean decideMethod(SootMethod method) {
+        if (FilterEngine.isRuntimeClass(method.getDeclaringClass())) {
+            return false;
+        }
+
+        ClassDecision classDecision = this.getClassDecision(method.getDeclaringClass());
+        List<FilterRule> methodMatched = new ArrayList<>();
+        methodMatched.addAll(this.methodNames.getOrDefault(method.getName(), Collections.emptyList()));
+        for (GlobRule glob : this.methodGlobs) {
+            if (glob.pattern.matcher(method.getName()).matches()) {
+                methodMatched.add(glob.rule);
+            }
+        }
+        this.collectAnnotations(method, methodMatched);
+
+        classDecision.matched.forEach(FilterRule::countMethod);
+        methodMatched.forEach(FilterRule::countMethod);
+        return methodMatched.isEmpty() ? classDecision.valid : FilterEngine.decide(methodMatched);
+    }
+
+    private void collectAnnotations(Host host, List<FilterRule> matched) {
+        if (this.annotations.isEmpty()) {
+            return;
+        }
+
+        for (Tag tag : host.getTags()) {
+            if (tag instanceof VisibilityAnnotationTag && ((VisibilityAnnotationTag) tag).hasAnnotations()) {
+                for (AnnotationTag annotation : ((VisibilityAnnotationTag) tag).getAnnotations()) {
+                    matched.addAll(this.annotations.getOrDefault(annotation.getType(), Collections.emptyList()));
+                }
+            }
+        }
+    }
+
+    public List<FilterRule> getRules() {
+        return Collections.unmodifiableList(this.rules);
+    }
+
+    public void logSummary() {
+        for (FilterRule rule : this.rules) {
+            if (rule.getClassCount() > 0 || rule.getMethodCount() > 0) {
+                LOGGER.info("Filter rule '{}' ({}) matched {} class(es) and {} method(s).", rule, rule.getSource(),
+                        rule.getClassCount(), rule.getMethodCount());
+            }
+        }
+    }
+
+    public void writeReport(File reportFile) throws IOException {
+        try (PrintWriter writer = new PrintWriter(
+                new OutputStreamWriter(new FileOutputStream(reportFile), StandardCharsets.UTF_8))) {
+            writer.println("rule,source,classes,methods");
+            for (FilterRule rule : this.rules) {
+                writer.println(String.join(",", Csv.escape(rule.toString()), Csv.escape(rule.getSource()),
+                        String.valueOf(rule.getClassCount()), String.valueOf(rule.getMethodCount())));
+            }
+        }
+
+        LOGGER.info("Filter report written to '{}'.", reportFile.getAbsolutePath());
+    }
+
+    private static class TrieNode {
+        private final Map<Character, TrieNode> children = new HashMap<>();
+        private final List<FilterRule> rules = new ArrayList<>();
+
+        void add(String key, FilterRule rule) {
+            TrieNode node = this;
+            for (int i = 0; i < key.length(); i++) {
+                node = node.children.computeIfAbsent(key.charAt(i), c -> new TrieNode());
+            }
+            node.rules.add(rule);
+        }
+
+        /**
+         * Adds the rules of every key that is a prefix of the text starting at the given index.
+         */
+        void collect(String text, int from, List<FilterRule> matched) {
+            TrieNode node = this;
+            matched.addAll(node.rules);
+            for (int i = from; i < text.length(); i++) {
+                node = node.children.get(text.charAt(i));
+                if (node == null) {
+                    return;
+                }
+                matched.addAll(node.rules);
+            }
+        }
+    }
+
+    private static class GlobRule {
+        private final FilterRule rule;
+        private final Pattern pattern;
+
+        GlobRule(FilterRule rule) {
+            this.rule = rule;
+            this.pattern = FilterRule.compileGlob(rule.getPattern());
+        }
+    }
+
+    private static class ClassDecision {
+        private final boolean valid;
+        private final List<FilterRule> matched;
+
+        ClassDecision(boolean valid, List<FilterRule> matched) {
+            this.valid = valid;
+            this.matched = matched;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package phd.research.filter;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * A rule deciding whether classes or methods are instrumented. Rules are written one per line as
+ * {@code <include|exclude> <kind> <pattern>}, where the kind is one of:
+ * <ul>
+ *     <li>{@code package}: the package name followed by a dot starts with the pattern (e.g. {@code androidx.}
+ *     matches {@code androidx} and its sub packages).</li>
+ *     <li>{@code contains}: the package name contains the pattern, which starts with a dot (e.g.
+ *     {@code .databinding}).</li>
+ *     <li>{@code class}: the class name matches the glob pattern ({@code *} and {@code ?} wildcards). Patterns
+ *     without a dot are matched against the short class name (e.g. {@code R$*}).</li>
+ *     <li>{@code method}: the method name matches the glob pattern (e.g. {@code access$*}).</li>
+ *     <li>{@code annotation}: the class or method carries the annotation (e.g. {@code kotlin.Metadata}).</li>
+ * </ul>
+ * The most specific rules matching a class or method decide it: rules matching the method (method rules and method
+ * annotations) decide before rules matching its class (class rules and class annotations), which decide before package
+ * and contains rules. Only among rules of the same level include rules win over exclude rules, so e.g.
+ * {@code include package androidx.fragment.app.} does not include the {@code R$*} classes or {@code access$*} methods
+ * excluded by the bundled rules. Each rule counts the classes and methods it matched.
+ *
+ * @author Jordan Doyle
+ */
+
+public class FilterRule {
+
+    private final Action action;
+    private final Kind kind;
+    private final String pattern;
+    private final String source;
+    private final AtomicInteger classes;
+    private final AtomicInteger methods;
+
+    public FilterRule(Action action, Kind kind, String pattern, String source) {
+        this.action = action;
+        this.kind = kind;
+        this.pattern = pattern;
+        this.source = source;
+        this.classes = new AtomicInteger();
+        this.methods = new AtomicInteger();
+    }
+
+    /**
+     * @param source where the rule was read from, e.g. {@code rules.txt:3}.
+     */
+    public static FilterRule parse(String rule, String source) {
+        String[] parts = rule.trim().split("\\s+");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Filter rule must be '<include|exclude> <kind> <pattern>' (" + source +
+                    ": " + rule + ").");
+        }
+
+        Action action;
+        Kind kind;
+        try {
+            action = Action.valueOf(parts[0].toUpperCase(Locale.ROOT));
+            kind = Kind.valueOf(parts[1].toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown filter rule action or kind (" + source + ": " + rule + ").");
+        }
+
+        String pattern = parts[2];
+        if (kind == Kind.CONTAINS && !pattern.startsWith(".")) {
+            throw new IllegalArgumentException("Filter rule 'contains' pattern must start with a dot (" + source +
+                    ": " + rule + ").");
+        }
+        if (kind == Kind.ANNOTATION && !pattern.startsWith("L")) {
+            pattern = "L" + pattern.replace('.', '/') + ";";
+        }
+        return new FilterRule(action, kind, pattern, source);
+    }
+
+    public static boolean isGlob(String pattern) {
+        return pattern.indexOf('*') >= 0 || pattern.indexOf('?') >= 0;
+    }
+
+    public static Pattern compileGlob(String glob) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (char c : glob.toCharArray()) {
+            if (c == '*' || c == '?') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '*' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    public Action getAction() {
+        return this.action;
+    }
+
+    public Kind getKind() {
+        return this.kind;
+    }
+
+    public String getPattern() {
+        return this.pattern;
+    }
+
+    public String getSource() {
+        return this.source;
+    }
+
+    public void countClass() {
+        this.classes.incrementAndGet();
+    }
+
+    public void countMethod() {
+        this.methods.incrementAndGet();
+    }
+
+    public int getClassCount() {
+        return this.classes.get();
+    }
+
+    public int getMethodCount() {
+        return this.methods.get();
+    }
+
+    @Override
+    public String toString() {
+        return this.action.name().toLowerCase(Locale.ROOT) + " " + this.kind.name().toLowerCase(Locale.ROOT) + " " +
+                this.pattern;
+    }
+
+    public enum Action {
+        INCLUDE, EXCLUDE
+    }
+
+    public enum Kind {
+        PACKAGE, CONTAINS, CLASS, METHOD, ANNOTATION
+    }
+}
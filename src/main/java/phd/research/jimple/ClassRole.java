@@ -0,0 +1,13 @@
+package phd.research.jimple;
+
+/**
+ * The role of an application class in the UI of the app, resolved from its class hierarchy (see
+ * {@link phd.research.singleton.ClassRoles}). A class with several roles has the first of them, e.g. an Activity
+ * implementing a View listener is an {@link #ACTIVITY}.
+ *
+ * @author Jordan Doyle
+ */
+
+public enum ClassRole {
+    ACTIVITY, FRAGMENT, VIEW_LISTENER, MENU_LISTENER, NONE
+}
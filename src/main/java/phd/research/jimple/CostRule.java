@@ -0,0 +1,127 @@
+package phd.research.jimple;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A rule of the static cost model (see {@link phd.research.singleton.CostModel}), matching methods whose probe costs
+ * more than it tells. Rules are written as a comma separated list of {@code accessor}, {@code small:N} (fewer than N
+ * statements after the parameter assignments), {@code loop-callee} (called from inside a loop of another app method)
+ * and {@code hot:N} (more than N calls per run in the scope input, see {@link phd.research.trace.CallRates}), each
+ * optionally followed by {@code =skip} (no probe) or {@code =downgrade} (probe limited by the downgrade policy).
+ * Accessors and small methods are skipped by default, loop callees and hot methods are downgraded.
+ *
+ * @author Jordan Doyle
+ */
+
+public class CostRule {
+
+    private final Type type;
+    private final int threshold;
+    private final Action action;
+
+    public CostRule(Type type, int threshold, Action action) {
+        this.type = type;
+        this.threshold = threshold;
+        this.action = action;
+    }
+
+    public static List<CostRule> parseAll(String rules) {
+        List<CostRule> costRules = new ArrayList<>();
+        for (String rule : rules.split(",")) {
+            if (!rule.trim().isEmpty()) {
+                costRules.add(CostRule.parse(rule.trim()));
+            }
+        }
+        return costRules;
+    }
+
+    public static CostRule parse(String rule) {
+        String[] parts = rule.toLowerCase(Locale.ROOT).split("=", 2);
+        String[] nameAndValue = parts[0].split(":", 2);
+
+        Type type;
+        switch (nameAndValue[0]) {
+            case "accessor":
+                type = Type.ACCESSOR;
+                break;
+            case "small":
+                type = Type.SMALL;
+                break;
+            case "loop-callee":
+                type = Type.LOOP_CALLEE;
+                break;
+            case "hot":
+                type = Type.HOT;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown cost rule (" + rule + ").");
+        }
+
+        int threshold = 0;
+        if (type == Type.SMALL) {
+            if (nameAndValue.length != 2) {
+                throw new IllegalArgumentException("Cost rule 'small' requires a size, e.g. 'small:3' (" + rule + ").");
+            }
+            threshold = Integer.parseInt(nameAndValue[1]);
+            if (threshold < 1) {
+                throw new IllegalArgumentException("Cost rule size must be at least one (" + rule + ").");
+            }
+        } else if (type == Type.HOT) {
+            if (nameAndValue.length != 2) {
+                throw new IllegalArgumentException("Cost rule 'hot' requires a call count, e.g. 'hot:1000' (" + rule +
+                        ").");
+            }
+            threshold = Integer.parseInt(nameAndValue[1]);
+            if (threshold < 0) {
+                throw new IllegalArgumentException("Cost rule call count must not be negative (" + rule + ").");
+            }
+        } else if (nameAndValue.length != 1) {
+            throw new IllegalArgumentException("Cost rule '" + nameAndValue[0] + "' takes no value (" + rule + ").");
+        }
+
+        Action action = type == Type.LOOP_CALLEE || type == Type.HOT ? Action.DOWNGRADE : Action.SKIP;
+        if (parts.length == 2) {
+            try {
+                action = Action.valueOf(parts[1].toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown cost rule action (" + rule + ").");
+            }
+        }
+        return new CostRule(type, threshold, action);
+    }
+
+    public Type getType() {
+        return this.type;
+    }
+
+    public int getThreshold() {
+        return this.threshold;
+    }
+
+    public Action getAction() {
+        return this.action;
+    }
+
+    /**
+     * @return the rule as written on the command line, without the action.
+     */
+    public String getName() {
+        String name = this.type.name().toLowerCase(Locale.ROOT).replace('_', '-');
+        return this.type == Type.SMALL || this.type == Type.HOT ? name + ":" + this.threshold : name;
+    }
+
+    @Override
+    public String toString() {
+        return this.getName() + "=" + this.action.name().toLowerCase(Locale.ROOT);
+    }
+
+    public enum Type {
+        ACCESSOR, SMALL, LOOP_CALLEE, HOT
+    }
+
+    public enum Action {
+        SKIP, DOWNGRADE
+    }
+}
@@ -0,0 +1,74 @@
+package phd.research.jimple;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import phd.research.singleton.CostModel;
+import phd.research.singleton.InstrumentMetrics;
+import phd.research.singleton.InstrumentSettings;
+import phd.research.singleton.ProbeRegistry;
+import soot.Body;
+import soot.BodyTransformer;
+import soot.Unit;
+import soot.jimple.JimpleBody;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Inserts the instrumentation units generated by {@link JimpleGenerator} at the start of each valid method body. Soot
+ * runs the body packs of several classes at the same time (see {@link soot.options.Options#num_threads()}), so the
+ * transformer keeps no state of its own and only reads from the Scene. Every class referenced by the generated units is
+ * resolved by {@link phd.research.singleton.SootAnalysis} before the packs run.
+ *
+ * @author Jordan Doyle
+ */
+
+public class InstrumentTransformer extends BodyTransformer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InstrumentTransformer.class);
+
+    public static final String PHASE_NAME = "jtp.instrument";
+
+    @Override
+    @SuppressWarnings("try")
+    protected void internalTransform(Body b, String phaseName, Map<String, String> options) {
+        JimpleBody body = (JimpleBody) b;
+        // Registered methods are the valid methods of the application classes when the instrumentation started.
+        if (!ProbeRegistry.v().isRegistered(body.getMethod())) {
+            return;
+        }
+
+        CostRule.Action costAction = CostModel.v().getAction(body.getMethod());
+        if (costAction == CostRule.Action.SKIP) {
+            LOGGER.debug("Skipping {} (cost model)", body.getMethod().getSignature());
+            InstrumentMetrics.v().recordSkipped();
+            return;
+        }
+
+        LOGGER.debug("Instrumenting {}", body.getMethod().getSignature());
+        JimpleGenerator jimpleGenerator = new JimpleGenerator(body);
+        ProbeMode probeMode = InstrumentSettings.v().getProbeMode();
+        if (probeMode == ProbeMode.TRACE) {
+            jimpleGenerator.generateTraceUnits();
+        } else if (probeMode == ProbeMode.PROFILE) {
+            jimpleGenerator.generateProfileUnits();
+        } else if (InstrumentSettings.v().isProbeHelper()) {
+            jimpleGenerator.generateHelperUnits();
+        } else {
+            jimpleGenerator.generateInstrumentUnits();
+        }
+        jimpleGenerator.generatePolicyGuard(costAction == CostRule.Action.DOWNGRADE ?
+                InstrumentSettings.v().getDowngradePolicy() : InstrumentSettings.v().getProbePolicy());
+        List<Unit> units = jimpleGenerator.getUnits();
+        Unit firstStmt = body.getFirstNonIdentityStmt();
+        body.getUnits().insertBefore(units, firstStmt);
+        int unitCount = units.size();
+        if (probeMode == ProbeMode.PROFILE) {
+            unitCount += jimpleGenerator.generateProfileExits(firstStmt);
+        }
+        InstrumentMetrics.v().recordProbe(body.getMethod(), ProbeKind.of(body.getMethod()), unitCount);
+        try (InstrumentMetrics.PhaseTimer ignored = InstrumentMetrics.v().timeValidation(body.getMethod())) {
+            body.validate();
+        }
+    }
+}
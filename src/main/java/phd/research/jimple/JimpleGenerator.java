@@ -1,9 +1,11 @@
 package phd.research.jimple;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import phd.research.runtime.PrintRuntime;
+import phd.research.runtime.ProfileRuntime;
+import phd.research.runtime.TraceRuntime;
+import phd.research.singleton.ClassRoles;
+import phd.research.singleton.ProbeRegistry;
 import soot.*;
-import soot.javaToJimple.DefaultLocalGenerator;
 import soot.jimple.*;
 
 import java.util.ArrayList;
@@ -15,8 +17,6 @@ import java.util.List;
 
 public class JimpleGenerator {
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(JimpleGenerator.class);
-
     public static final String A_TAG = "<ACTIVITY>";
     public static final String F_TAG = "<FRAGMENT>";
     public static final String M_TAG = "<METHOD>";
@@ -24,183 +24,357 @@ public class JimpleGenerator {
 
     private final JimpleBody body;
     private final List<Unit> units;
-
+    private final ProbeReferences refs;
+    private final ProbeLocals locals;
+    private Local startLocal;
+
+    /**
+     * Types, methods and fields of the probes are read from {@link ProbeReferences} and the locals of the probes are
+     * allocated by {@link ProbeLocals}, so generating a probe neither resolves signatures nor scans the locals of the
+     * body.
+     */
     public JimpleGenerator(JimpleBody body) {
         this.body = body;
         this.units = new ArrayList<>();
+        this.refs = ProbeReferences.v();
+        this.locals = new ProbeLocals(body);
     }
 
     public List<Unit> getUnits() {
         return this.units;
     }
 
+    /**
+     * Generates the print probe of the method. Parts of the message known when instrumenting are constants: the name
+     * of the declaring class stands for the runtime class name when no other class of the APK extends it, and the
+     * remaining parts are joined with {@link String#concat(String)} rather than a StringBuilder.
+     */
     public void generateInstrumentUnits() {
-        if (this.body.getMethod().getName().equals("onCreate")) {
-            Value messageValue = StringConstant.v(A_TAG + " Activity: ");
-            Local nameLocal = this.generateGetName();
-            Value appendedMessage = this.generateAppend(messageValue, nameLocal);
-            this.generatePrint(appendedMessage);
+        SootMethod method = this.body.getMethod();
+        ProbeKind kind = ProbeKind.of(method);
+        if (kind == ProbeKind.ACTIVITY) {
+            this.generatePrint(this.generateClassNameMessage(A_TAG + " Activity: "));
         }
 
-        if (this.body.getMethod().getName().equals("onCreateView")) {
+        if (kind == ProbeKind.FRAGMENT) {
             this.generateFragmentLink();
         }
 
-        String instrumentMessage = C_TAG + " Method: " + this.body.getMethod().getSignature() + " View: ";
-        Value stringValue = StringConstant.v(instrumentMessage);
-
         Value printMessage;
-        if (this.body.getMethod().getParameterCount() >= 1 &&
-                this.body.getMethod().getParameterType(0).equals(RefType.v("android.view.View"))) {
-            Local idLocal = this.generateGetId();
-            printMessage = this.generateAppend(stringValue, idLocal);
-        } else if (this.body.getMethod().getParameterCount() >= 1 &&
-                this.body.getMethod().getParameterType(0).equals(RefType.v("android.view.MenuItem"))) {
-            Local idLocal = this.generateGetItemId();
-            printMessage = this.generateAppend(stringValue, idLocal);
+        if (kind == ProbeKind.CONTROL) {
+            Local idLocal = method.getParameterType(0).equals(this.refs.viewType) ? this.generateGetId() :
+                    this.generateGetItemId();
+            printMessage = this.generateConcat(
+                    StringConstant.v(C_TAG + " Method: " + method.getSignature() + " View: "), idLocal);
         } else {
-            printMessage = StringConstant.v(JimpleGenerator.M_TAG + " Method: " + this.body.getMethod().getSignature());
+            printMessage = StringConstant.v(JimpleGenerator.M_TAG + " Method: " + method.getSignature());
         }
 
         this.generatePrint(printMessage);
     }
 
-    private void generateFragmentLink() {
-        RefType stringType = Scene.v().getSootClass("java.lang.String").getType();
-        Local appendedString = this.generateNewLocal(stringType);
-        SootClass builderClass = Scene.v().getSootClass("java.lang.StringBuilder");
-        RefType builderType = builderClass.getType();
-        NewExpr newBuilderExpr = Jimple.v().newNewExpr(builderType);
-        Local builderLocal = this.generateNewLocal(builderType);
-        this.units.add(Jimple.v().newAssignStmt(builderLocal, newBuilderExpr));
-
-        Value message = StringConstant.v(F_TAG + " Fragment: ");
-        SootMethod initMethod = builderClass.getMethod("void <init>(java.lang.String)");
-        SpecialInvokeExpr initExpr = Jimple.v().newSpecialInvokeExpr(builderLocal, initMethod.makeRef(), message);
-        InvokeStmt initBuilderStmt = Jimple.v().newInvokeStmt(initExpr);
-        this.units.add(initBuilderStmt);
-
-        Local nameLocal = this.generateGetName();
-        SootMethodRef appendRef = builderClass.getMethod("java.lang.StringBuilder append(java.lang.String)").makeRef();
-        VirtualInvokeExpr appendExpr =
-                Jimple.v().newVirtualInvokeExpr(builderLocal, appendRef, generateToString(nameLocal));
-        Local tmpLocal = this.generateNewLocal(builderType);
-        AssignStmt builderAppendStmt = Jimple.v().newAssignStmt(tmpLocal, appendExpr);
-        this.units.add(builderAppendStmt);
-
-        SootClass superClass = null;
-        SootMethod getActivityMethod = null;
-        int ifStmtIndex = 0;
-        Local activityLocal = null;
-
-        SootClass fragment = this.body.getMethod().getDeclaringClass();
-        if (fragment.hasSuperclass()) {
-            superClass = fragment.getSuperclass();
-            outer:
-                while (superClass.hasSuperclass()) {
-                    for (SootMethod method : superClass.getMethods()) {
-                        if (method.getName().equals("getActivity")) {
-                            getActivityMethod = method;
-                            break outer;
-                        }
-                    }
-                    superClass = superClass.getSuperclass();
-                }
-        } else {
-            LOGGER.warn("Fragment class '{}' does not have superclass.", fragment.getName());
+    /**
+     * Generates the print mode probe as a single call to the injected {@link PrintRuntime}, which prints the same
+     * messages as {@link #generateInstrumentUnits()}. Only the view or menu item ID and the Activity of a Fragment are
+     * read in the method itself.
+     */
+    public void generateHelperUnits() {
+        SootMethod method = this.body.getMethod();
+        StringConstant methodMessage = StringConstant.v(M_TAG + " Method: " + method.getSignature());
+        InvokeExpr helperExpr;
+        switch (ProbeKind.of(method)) {
+            case ACTIVITY:
+                helperExpr = Jimple.v().newStaticInvokeExpr(this.refs.printEnterActivity, this.body.getThisLocal(),
+                        methodMessage);
+                break;
+            case FRAGMENT:
+                SootMethod getActivityMethod = ClassRoles.v().getActivityMethod(method.getDeclaringClass());
+                Value activity = getActivityMethod != null ? this.generateGetActivity(getActivityMethod) :
+                        NullConstant.v();
+                helperExpr = Jimple.v().newStaticInvokeExpr(this.refs.printEnterFragment, this.body.getThisLocal(),
+                        activity, methodMessage);
+                break;
+            case CONTROL:
+                Local idLocal = method.getParameterType(0).equals(this.refs.viewType) ? this.generateGetId() :
+                        this.generateGetItemId();
+                helperExpr = Jimple.v().newStaticInvokeExpr(this.refs.printEnterControl,
+                        StringConstant.v(C_TAG + " Method: " + method.getSignature() + " View: "), idLocal);
+                break;
+            default:
+                helperExpr = Jimple.v().newStaticInvokeExpr(this.refs.printEnter, methodMessage);
         }
+        this.units.add(Jimple.v().newInvokeStmt(helperExpr));
+    }
 
-        if (getActivityMethod == null) {
-            LOGGER.warn("No 'getActivity' method found for fragment '{}.", fragment.getName());
+    /**
+     * Generates a call to {@link TraceRuntime#record(int, int)} with the method ID assigned by {@link ProbeRegistry}.
+     * The recorded value is the identity hash code of the Activity for Activity onCreate methods, the identity hash
+     * code of the parent Activity for Fragment onCreateView methods (zero if the Fragment is detached), the view or
+     * menu item ID for UI listener methods, and zero for any other method.
+     */
+    public void generateTraceUnits() {
+        SootMethod method = this.body.getMethod();
+        Value value;
+        switch (ProbeKind.of(method)) {
+            case ACTIVITY:
+                value = this.generateIdentityHashCode(this.body.getThisLocal());
+                break;
+            case FRAGMENT:
+                SootMethod getActivityMethod = ClassRoles.v().getActivityMethod(method.getDeclaringClass());
+                value = getActivityMethod != null ?
+                        this.generateIdentityHashCode(this.generateGetActivity(getActivityMethod)) : IntConstant.v(0);
+                break;
+            case CONTROL:
+                value = method.getParameterType(0).equals(this.refs.viewType) ? this.generateGetId() :
+                        this.generateGetItemId();
+                break;
+            default:
+                value = IntConstant.v(0);
+        }
+
+        this.generateRecord(ProbeRegistry.v().getMethodId(method), value);
+    }
+
+    /**
+     * Generates the entry probe of profile mode, which reads {@link System#nanoTime()} into a local. The exit probes
+     * are added to the method body by {@link #generateProfileExits(Unit)} once the entry probe is inserted.
+     */
+    public void generateProfileUnits() {
+        this.startLocal = this.locals.newLocal(LongType.v());
+        this.units.add(Jimple.v().newAssignStmt(this.startLocal, Jimple.v().newStaticInvokeExpr(this.refs.nanoTime)));
+    }
+
+    /**
+     * Calls {@link ProfileRuntime#exit(int, long)} with the entry time before every return of the method body, and
+     * from a handler catching any exception thrown from the first statement after the entry probe, which rethrows the
+     * exception. The handler is the last trap, so the handlers of the method itself still catch exceptions first. In
+     * constructors the handler only starts after the call to the super or this constructor, as the uninitialised this
+     * must not be live in a handler.
+     *
+     * @param firstStmt the first statement of the method body after the entry probe.
+     * @return the number of units added to the body.
+     */
+    public int generateProfileExits(Unit firstStmt) {
+        SootMethod method = this.body.getMethod();
+        SootMethodRef exitRef = this.refs.profileExit;
+        IntConstant methodId = IntConstant.v(ProbeRegistry.v().getMethodId(method));
+        UnitPatchingChain bodyUnits = this.body.getUnits();
+        int addedUnits = 0;
+
+        List<Unit> returnStmts = new ArrayList<>();
+        Unit trapStart = firstStmt;
+        for (Unit unit : bodyUnits) {
+            if (unit instanceof ReturnStmt || unit instanceof ReturnVoidStmt) {
+                returnStmts.add(unit);
+            } else if (trapStart == firstStmt && method.isConstructor() && unit instanceof InvokeStmt &&
+                    JimpleGenerator.isConstructorCall(((InvokeStmt) unit).getInvokeExpr(), this.body.getThisLocal())) {
+                trapStart = bodyUnits.getSuccOf(unit);
+            }
+        }
+        for (Unit returnStmt : returnStmts) {
+            // Jumps to the return now jump to the exit call.
+            bodyUnits.insertBefore(Jimple.v().newInvokeStmt(
+                    Jimple.v().newStaticInvokeExpr(exitRef, methodId, this.startLocal)), returnStmt);
+            addedUnits++;
         }
 
-        if (superClass != null && getActivityMethod != null) {
-            Local thisLocal = this.body.getThisLocal();
-            VirtualInvokeExpr getActivityMethodCallExpr =
-                    Jimple.v().newVirtualInvokeExpr(thisLocal, getActivityMethod.makeRef());
-            RefType activityType = superClass.getType();
-            activityLocal = this.generateNewLocal(activityType);
-            AssignStmt activityAssignStmt = Jimple.v().newAssignStmt(activityLocal, getActivityMethodCallExpr);
-            this.units.add(activityAssignStmt);
-
-            ifStmtIndex = this.units.size();
-
-            Value messageAddition = StringConstant.v(" Activity: ");
-            appendExpr = Jimple.v().newVirtualInvokeExpr(builderLocal, appendRef, generateToString(messageAddition));
-            tmpLocal = this.generateNewLocal(builderType);
-            builderAppendStmt = Jimple.v().newAssignStmt(tmpLocal, appendExpr);
-            this.units.add(builderAppendStmt);
-
-            SootMethod getClassMethod = Scene.v().grabMethod("<java.lang.Object: java.lang.Class getClass()>");
-            VirtualInvokeExpr classCallExpr = Jimple.v().newVirtualInvokeExpr(activityLocal, getClassMethod.makeRef());
-            RefType classType = Scene.v().getSootClass("java.lang.Class").getType();
-            Local classLocal = this.generateNewLocal(classType);
-            AssignStmt classAssignStmt = Jimple.v().newAssignStmt(classLocal, classCallExpr);
-            this.units.add(classAssignStmt);
-
-            nameLocal = this.generateNewLocal(stringType);
-            SootMethod getNameMethod = Scene.v().grabMethod("<java.lang.Class: java.lang.String getName()>");
-            VirtualInvokeExpr nameMethodCallExpr = Jimple.v().newVirtualInvokeExpr(classLocal, getNameMethod.makeRef());
-            AssignStmt nameAssignStmt = Jimple.v().newAssignStmt(nameLocal, nameMethodCallExpr);
-            this.units.add(nameAssignStmt);
-
-            appendExpr = Jimple.v().newVirtualInvokeExpr(builderLocal, appendRef, generateToString(nameLocal));
-            tmpLocal = this.generateNewLocal(builderType);
-            builderAppendStmt = Jimple.v().newAssignStmt(tmpLocal, appendExpr);
-            this.units.add(builderAppendStmt);
+        if (trapStart == null || (method.isConstructor() && trapStart == firstStmt)) {
+            return addedUnits;
         }
 
-        SootMethod toStringMethod = builderClass.getMethod("java.lang.String toString()");
-        VirtualInvokeExpr builderToStringExpr = Jimple.v().newVirtualInvokeExpr(builderLocal, toStringMethod.makeRef());
-        AssignStmt builderToStringStmt = Jimple.v().newAssignStmt(appendedString, builderToStringExpr);
-        this.units.add(builderToStringStmt);
+        Local exceptionLocal = this.locals.newLocal(this.refs.throwableType);
+        Unit handlerStmt = Jimple.v().newIdentityStmt(exceptionLocal, Jimple.v().newCaughtExceptionRef());
+        bodyUnits.addLast(handlerStmt);
+        bodyUnits.addLast(Jimple.v().newInvokeStmt(
+                Jimple.v().newStaticInvokeExpr(exitRef, methodId, this.startLocal)));
+        bodyUnits.addLast(Jimple.v().newThrowStmt(exceptionLocal));
+        this.body.getTraps().addLast(
+                Jimple.v().newTrap(this.refs.throwableType.getSootClass(), trapStart, handlerStmt, handlerStmt));
+        return addedUnits + 3;
+    }
+
+    private static boolean isConstructorCall(InvokeExpr invokeExpr, Local thisLocal) {
+        return invokeExpr instanceof SpecialInvokeExpr && ((SpecialInvokeExpr) invokeExpr).getBase() == thisLocal &&
+                invokeExpr.getMethodRef().getName().equals(SootMethod.constructorName);
+    }
 
-        this.generatePrint(appendedString);
+    /**
+     * Guards the generated units with a {@link ProbePolicy}. The guard updates the counters of the method and jumps
+     * past the probe, to the first statement of the original method body, when the policy does not allow the call to
+     * be reported. Must be called after the probe units have been generated. In profile mode the guard first sets the
+     * entry time to zero, so the exits of skipped calls are not recorded.
+     */
+    public void generatePolicyGuard(ProbePolicy policy) {
+        SootMethod method = this.body.getMethod();
+        if (this.units.isEmpty() || !policy.appliesTo(method)) {
+            return;
+        }
+
+        List<Unit> guardUnits = new ArrayList<>();
+        Unit skipTarget = this.body.getFirstNonIdentityStmt();
+        IntConstant methodId = IntConstant.v(ProbeRegistry.v().getMethodId(method));
+        IntConstant limit = IntConstant.v(policy.getLimit());
+
+        Local countsLocal = this.locals.newLocal(ArrayType.v(IntType.v(), 1));
+        guardUnits.add(Jimple.v().newAssignStmt(countsLocal, Jimple.v().newStaticFieldRef(this.refs.counts)));
+        Local countLocal = this.locals.newLocal(IntType.v());
+        Local nextLocal = this.locals.newLocal(IntType.v());
+
+        switch (policy.getStrategy()) {
+            case FIRST:
+                // if (counts[id] >= limit) skip; counts[id]++;
+                guardUnits.add(Jimple.v().newAssignStmt(countLocal, Jimple.v().newArrayRef(countsLocal, methodId)));
+                guardUnits.add(Jimple.v().newIfStmt(Jimple.v().newGeExpr(countLocal, limit), skipTarget));
+                guardUnits.add(
+                        Jimple.v().newAssignStmt(nextLocal, Jimple.v().newAddExpr(countLocal, IntConstant.v(1))));
+                guardUnits.add(Jimple.v().newAssignStmt(Jimple.v().newArrayRef(countsLocal, methodId), nextLocal));
+                break;
+            case SAMPLE:
+                // count = counts[id]; counts[id] = (count + 1 < limit) ? count + 1 : 0; if (count != 0) skip;
+                guardUnits.add(Jimple.v().newAssignStmt(countLocal, Jimple.v().newArrayRef(countsLocal, methodId)));
+                guardUnits.add(
+                        Jimple.v().newAssignStmt(nextLocal, Jimple.v().newAddExpr(countLocal, IntConstant.v(1))));
+                Unit storeStmt = Jimple.v().newAssignStmt(Jimple.v().newArrayRef(countsLocal, methodId), nextLocal);
+                guardUnits.add(Jimple.v().newIfStmt(Jimple.v().newLtExpr(nextLocal, limit), storeStmt));
+                guardUnits.add(Jimple.v().newAssignStmt(nextLocal, IntConstant.v(0)));
+                guardUnits.add(storeStmt);
+                guardUnits.add(Jimple.v().newIfStmt(Jimple.v().newNeExpr(countLocal, IntConstant.v(0)), skipTarget));
+                break;
+            case RATE:
+                // window = now / length; if (windows[id] != window) { windows[id] = window; counts[id] = 0; }
+                // if (counts[id] >= limit) skip; counts[id]++;
+                Local windowLocal = this.locals.newLocal(LongType.v());
+                guardUnits.add(Jimple.v().newAssignStmt(windowLocal,
+                        Jimple.v().newStaticInvokeExpr(this.refs.currentTimeMillis)));
+                guardUnits.add(Jimple.v().newAssignStmt(windowLocal,
+                        Jimple.v().newDivExpr(windowLocal, LongConstant.v(policy.getWindowMillis()))));
+
+                Local windowsLocal = this.locals.newLocal(ArrayType.v(LongType.v(), 1));
+                guardUnits.add(
+                        Jimple.v().newAssignStmt(windowsLocal, Jimple.v().newStaticFieldRef(this.refs.windows)));
+                Local lastWindowLocal = this.locals.newLocal(LongType.v());
+                guardUnits.add(
+                        Jimple.v().newAssignStmt(lastWindowLocal, Jimple.v().newArrayRef(windowsLocal, methodId)));
+                Local compareLocal = this.locals.newLocal(IntType.v());
+                guardUnits.add(
+                        Jimple.v().newAssignStmt(compareLocal, Jimple.v().newCmpExpr(lastWindowLocal, windowLocal)));
+
+                Unit checkStmt = Jimple.v().newAssignStmt(countLocal, Jimple.v().newArrayRef(countsLocal, methodId));
+                guardUnits.add(Jimple.v().newIfStmt(Jimple.v().newEqExpr(compareLocal, IntConstant.v(0)), checkStmt));
+                guardUnits.add(Jimple.v().newAssignStmt(Jimple.v().newArrayRef(windowsLocal, methodId), windowLocal));
+                guardUnits.add(
+                        Jimple.v().newAssignStmt(Jimple.v().newArrayRef(countsLocal, methodId), IntConstant.v(0)));
+                guardUnits.add(checkStmt);
+                guardUnits.add(Jimple.v().newIfStmt(Jimple.v().newGeExpr(countLocal, limit), skipTarget));
+                guardUnits.add(
+                        Jimple.v().newAssignStmt(nextLocal, Jimple.v().newAddExpr(countLocal, IntConstant.v(1))));
+                guardUnits.add(Jimple.v().newAssignStmt(Jimple.v().newArrayRef(countsLocal, methodId), nextLocal));
+                break;
+            default:
+                return;
+        }
+
+        if (this.startLocal != null) {
+            guardUnits.add(0, Jimple.v().newAssignStmt(this.startLocal, LongConstant.v(0)));
+        }
+        this.units.addAll(0, guardUnits);
+    }
 
-        if (superClass != null && getActivityMethod != null && activityLocal != null) {
-            Value nullValue = NullConstant.v();
-            EqExpr equalExpression = Jimple.v().newEqExpr(activityLocal, nullValue);
-            IfStmt ifStatement = Jimple.v().newIfStmt(equalExpression, builderToStringStmt);
-            units.add(ifStmtIndex, ifStatement);
+    /**
+     * Generates the print of the Fragment name, followed by the name of its Activity if the Fragment is attached.
+     */
+    private void generateFragmentLink() {
+        Value fragmentMessage = this.generateClassNameMessage(F_TAG + " Fragment: ");
+        SootMethod getActivityMethod = ClassRoles.v().getActivityMethod(this.body.getMethod().getDeclaringClass());
+        if (getActivityMethod == null) {
+            this.generatePrint(fragmentMessage);
+            return;
         }
+
+        Local messageLocal = this.locals.newLocal(this.refs.stringType);
+        this.units.add(Jimple.v().newAssignStmt(messageLocal, fragmentMessage));
+        Local activityLocal = this.generateGetActivity(getActivityMethod);
+        int ifStmtIndex = this.units.size();
+
+        Value activityMessage = fragmentMessage instanceof StringConstant ?
+                StringConstant.v(((StringConstant) fragmentMessage).value + " Activity: ") :
+                this.generateConcat(messageLocal, StringConstant.v(" Activity: "));
+        Local linkLocal = this.generateConcat(activityMessage, this.generateGetName(activityLocal));
+        this.units.add(Jimple.v().newAssignStmt(messageLocal, linkLocal));
+
+        Unit printStmt = this.generatePrint(messageLocal);
+        EqExpr detachedExpr = Jimple.v().newEqExpr(activityLocal, NullConstant.v());
+        this.units.add(ifStmtIndex, Jimple.v().newIfStmt(detachedExpr, printStmt));
     }
 
-    private Local generateGetName() {
+    private Local generateGetActivity(SootMethod getActivityMethod) {
         Local thisLocal = this.body.getThisLocal();
-        SootMethod getClassMethod = Scene.v().grabMethod("<java.lang.Object: java.lang.Class getClass()>");
-        VirtualInvokeExpr classMethodCallExpr = Jimple.v().newVirtualInvokeExpr(thisLocal, getClassMethod.makeRef());
-        RefType classType = Scene.v().getSootClass("java.lang.Class").getType();
-        Local classLocal = this.generateNewLocal(classType);
+        VirtualInvokeExpr getActivityMethodCallExpr =
+                Jimple.v().newVirtualInvokeExpr(thisLocal, getActivityMethod.makeRef());
+        Local activityLocal = this.locals.newLocal(getActivityMethod.getDeclaringClass().getType());
+        AssignStmt activityAssignStmt = Jimple.v().newAssignStmt(activityLocal, getActivityMethodCallExpr);
+        this.units.add(activityAssignStmt);
+        return activityLocal;
+    }
+
+    private Local generateIdentityHashCode(Value value) {
+        StaticInvokeExpr hashCodeCallExpr = Jimple.v().newStaticInvokeExpr(this.refs.identityHashCode, value);
+        Local hashCodeLocal = this.locals.newLocal(IntType.v());
+        AssignStmt hashCodeAssignStmt = Jimple.v().newAssignStmt(hashCodeLocal, hashCodeCallExpr);
+        this.units.add(hashCodeAssignStmt);
+        return hashCodeLocal;
+    }
+
+    private void generateRecord(int methodId, Value value) {
+        StaticInvokeExpr recordCallExpr =
+                Jimple.v().newStaticInvokeExpr(this.refs.traceRecord, IntConstant.v(methodId), value);
+        this.units.add(Jimple.v().newInvokeStmt(recordCallExpr));
+    }
+
+    /**
+     * @return the message followed by the runtime class name of this, a constant if the runtime class can only be the
+     * declaring class of the method (see {@link ClassRoles#isLeafClass(SootClass)}).
+     */
+    private Value generateClassNameMessage(String message) {
+        SootClass declaringClass = this.body.getMethod().getDeclaringClass();
+        if (ClassRoles.v().isLeafClass(declaringClass)) {
+            return StringConstant.v(message + declaringClass.getName());
+        }
+        return this.generateConcat(StringConstant.v(message), this.generateGetName(this.body.getThisLocal()));
+    }
+
+    private Local generateGetName(Local object) {
+        VirtualInvokeExpr classMethodCallExpr = Jimple.v().newVirtualInvokeExpr(object, this.refs.getClass);
+        Local classLocal = this.locals.scratchLocal(this.refs.classType);
         AssignStmt classAssignStmt = Jimple.v().newAssignStmt(classLocal, classMethodCallExpr);
         this.units.add(classAssignStmt);
 
-        RefType stringType = Scene.v().getSootClass("java.lang.String").getType();
-        Local nameLocal = this.generateNewLocal(stringType);
-        SootMethod getNameMethod = Scene.v().grabMethod("<java.lang.Class: java.lang.String getName()>");
-        VirtualInvokeExpr nameMethodCallExpr = Jimple.v().newVirtualInvokeExpr(classLocal, getNameMethod.makeRef());
+        Local nameLocal = this.locals.newLocal(this.refs.stringType);
+        VirtualInvokeExpr nameMethodCallExpr = Jimple.v().newVirtualInvokeExpr(classLocal, this.refs.getName);
         AssignStmt nameAssignStmt = Jimple.v().newAssignStmt(nameLocal, nameMethodCallExpr);
         this.units.add(nameAssignStmt);
         return nameLocal;
     }
 
-    private void generatePrint(Value message) {
-        Local printLocal = this.generateNewLocal(RefType.v("java.io.PrintStream"));
-        SootField sysOutField = Scene.v().getField("<java.lang.System: java.io.PrintStream out>");
-        Value sysOutStaticFieldRef = Jimple.v().newStaticFieldRef(sysOutField.makeRef());
+    /**
+     * @return the first unit of the print.
+     */
+    private Unit generatePrint(Value message) {
+        Local printLocal = this.locals.scratchLocal(this.refs.printStreamType);
+        Value sysOutStaticFieldRef = Jimple.v().newStaticFieldRef(this.refs.systemOut);
         AssignStmt sysOutAssignStmt = Jimple.v().newAssignStmt(printLocal, sysOutStaticFieldRef);
         this.units.add(sysOutAssignStmt);
 
-        SootMethod printMethod = Scene.v().grabMethod("<java.io.PrintStream: void println(java.lang.String)>");
-        VirtualInvokeExpr printMethodExpr = Jimple.v().newVirtualInvokeExpr(printLocal, printMethod.makeRef(), message);
+        VirtualInvokeExpr printMethodExpr = Jimple.v().newVirtualInvokeExpr(printLocal, this.refs.println, message);
         InvokeStmt printlnMethodCallStmt = Jimple.v().newInvokeStmt(printMethodExpr);
         this.units.add(printlnMethodCallStmt);
+        return sysOutAssignStmt;
     }
 
     private Local generateGetId() {
         Local paramLocal = this.body.getParameterLocal(0);
-        SootMethod getIdMethod = Scene.v().grabMethod("<android.view.View: int getId()>");
-        VirtualInvokeExpr idMethodCallExpr = Jimple.v().newVirtualInvokeExpr(paramLocal, getIdMethod.makeRef());
-        Local idLocal = this.generateNewLocal(IntType.v());
+        VirtualInvokeExpr idMethodCallExpr = Jimple.v().newVirtualInvokeExpr(paramLocal, this.refs.getId);
+        Local idLocal = this.locals.newLocal(IntType.v());
         AssignStmt idAssignStmt = Jimple.v().newAssignStmt(idLocal, idMethodCallExpr);
         this.units.add(idAssignStmt);
         return idLocal;
@@ -208,74 +382,54 @@ public class JimpleGenerator {
 
     private Local generateGetItemId() {
         Local paramLocal = this.body.getParameterLocal(0);
-        SootMethod getIdMethod = Scene.v().grabMethod("<android.view.MenuItem: int getItemId()>");
-        InterfaceInvokeExpr idMethodCallExpr = Jimple.v().newInterfaceInvokeExpr(paramLocal, getIdMethod.makeRef());
-        Local idLocal = this.generateNewLocal(IntType.v());
+        InterfaceInvokeExpr idMethodCallExpr = Jimple.v().newInterfaceInvokeExpr(paramLocal, this.refs.getItemId);
+        Local idLocal = this.locals.newLocal(IntType.v());
         AssignStmt idAssignStmt = Jimple.v().newAssignStmt(idLocal, idMethodCallExpr);
         this.units.add(idAssignStmt);
         return idLocal;
     }
 
-    private Local generateAppend(Value value1, Value value2) {
-        RefType stringType = Scene.v().getSootClass("java.lang.String").getType();
-        Local appendedString = this.generateNewLocal(stringType);
-
-        SootClass builderClass = Scene.v().getSootClass("java.lang.StringBuilder");
-        RefType builderType = builderClass.getType();
-        NewExpr newBuilderExpr = Jimple.v().newNewExpr(builderType);
-        Local builderLocal = this.generateNewLocal(builderType);
-        this.units.add(Jimple.v().newAssignStmt(builderLocal, newBuilderExpr));
-
-        SootMethod initMethod = builderClass.getMethod("void <init>(java.lang.String)");
-        SpecialInvokeExpr initBuilderExpr = Jimple.v().newSpecialInvokeExpr(builderLocal, initMethod.makeRef(), value1);
-        InvokeStmt initBuilderStmt = Jimple.v().newInvokeStmt(initBuilderExpr);
-        this.units.add(initBuilderStmt);
-
-        SootMethodRef appendRef = builderClass.getMethod("java.lang.StringBuilder append(java.lang.String)").makeRef();
-        VirtualInvokeExpr appendExpr =
-                Jimple.v().newVirtualInvokeExpr(builderLocal, appendRef, generateToString(value2));
-        Local tmpLocal = generateNewLocal(builderType);
-        AssignStmt builderAppendStmt = Jimple.v().newAssignStmt(tmpLocal, appendExpr);
-        this.units.add(builderAppendStmt);
-
-        SootMethod toStringMethod = builderClass.getMethod("java.lang.String toString()");
-        VirtualInvokeExpr builderToStringExpr = Jimple.v().newVirtualInvokeExpr(builderLocal, toStringMethod.makeRef());
-        AssignStmt builderToStringStmt = Jimple.v().newAssignStmt(appendedString, builderToStringExpr);
-        this.units.add(builderToStringStmt);
-
-        return appendedString;
-    }
+    /**
+     * Joins two strings with {@link String#concat(String)}, the second value must not be null.
+     */
+    private Local generateConcat(Value value1, Value value2) {
+        Value suffix = this.generateToString(value2);
 
-    private Local generateNewLocal(Type type) {
-        LocalGenerator localGenerator = new DefaultLocalGenerator(this.body);
-        return localGenerator.generateLocal(type);
+        Local prefixLocal;
+        if (value1 instanceof Local) {
+            prefixLocal = (Local) value1;
+        } else {
+            prefixLocal = this.locals.newLocal(this.refs.stringType);
+            this.units.add(Jimple.v().newAssignStmt(prefixLocal, value1));
+        }
+
+        VirtualInvokeExpr concatExpr = Jimple.v().newVirtualInvokeExpr(prefixLocal, this.refs.concat, suffix);
+        Local concatLocal = this.locals.newLocal(this.refs.stringType);
+        this.units.add(Jimple.v().newAssignStmt(concatLocal, concatExpr));
+        return concatLocal;
     }
 
     private Value generateToString(Value value) {
-        SootClass stringClass = Scene.v().getSootClass("java.lang.String");
-        if (value.getType().equals(stringClass.getType())) {
+        Type type = value.getType();
+        if (type.equals(this.refs.stringType)) {
             return value;
         }
 
-        Type type = value.getType();
-        if (type instanceof PrimType) {
-            Local tmpLocal = this.generateNewLocal(stringClass.getType());
-            SootMethod valueOfMethod = stringClass.getMethod("java.lang.String valueOf(" + type + ")");
-            StaticInvokeExpr staticInvokeExpr = Jimple.v().newStaticInvokeExpr(valueOfMethod.makeRef(), value);
-            AssignStmt assignStmt = Jimple.v().newAssignStmt(tmpLocal, staticInvokeExpr);
-            this.units.add(assignStmt);
-            return tmpLocal;
+        InvokeExpr invokeExpr;
+        if (type instanceof IntType) {
+            invokeExpr = Jimple.v().newStaticInvokeExpr(this.refs.valueOfInt, value);
+        } else if (type instanceof PrimType) {
+            SootMethod valueOfMethod = this.refs.stringType.getSootClass().getMethod(
+                    "java.lang.String valueOf(" + type + ")");
+            invokeExpr = Jimple.v().newStaticInvokeExpr(valueOfMethod.makeRef(), value);
         } else if (value instanceof Local) {
-            Local base = (Local) value;
-            SootClass objectClass = Scene.v().getSootClass("java.lang.Object");
-            SootMethod toStrMethod = objectClass.getMethod("java.lang.String toString()");
-            Local tmpLocal = this.generateNewLocal(stringClass.getType());
-            VirtualInvokeExpr invokeExpr = Jimple.v().newVirtualInvokeExpr(base, toStrMethod.makeRef());
-            AssignStmt assignStmt = Jimple.v().newAssignStmt(tmpLocal, invokeExpr);
-            this.units.add(assignStmt);
-            return tmpLocal;
+            invokeExpr = Jimple.v().newVirtualInvokeExpr((Local) value, this.refs.toString);
         } else {
             throw new RuntimeException("Value " + value + " should be primitive or local but it's " + value.getType());
         }
+
+        Local stringLocal = this.locals.newLocal(this.refs.stringType);
+        this.units.add(Jimple.v().newAssignStmt(stringLocal, invokeExpr));
+        return stringLocal;
     }
 }
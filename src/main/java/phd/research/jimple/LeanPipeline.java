@@ -0,0 +1,98 @@
+package phd.research.jimple;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import soot.*;
+import soot.options.Options;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs only the phases instrumentation needs, in place of {@link PackManager#runPacks()}: the bodies of the
+ * application classes are jimplified (jb) and the instrumentation transform is applied, which validates the bodies it
+ * instruments. Dex emission follows as usual. Call graph construction, the whole-program packs and the body
+ * optimisation and annotation packs are skipped.
+ *
+ * @author Jordan Doyle
+ */
+
+public class LeanPipeline {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LeanPipeline.class);
+
+    private static final List<String> WHOLE_PROGRAM_PACKS = Arrays.asList("wjpp", "cg", "wjtp", "wjop", "wjap");
+    private static final List<String> BODY_PACKS = Arrays.asList("jop", "jap");
+
+    /**
+     * @return the enabled packs the full pipeline would run and the lean pipeline skips.
+     */
+    public static List<String> getSkippedPacks() {
+        List<String> packs = new ArrayList<>();
+        if (Options.v().whole_program()) {
+            packs.addAll(WHOLE_PROGRAM_PACKS);
+        }
+        packs.addAll(BODY_PACKS);
+
+        List<String> skipped = new ArrayList<>();
+        for (String pack : packs) {
+            if (PhaseOptions.getBoolean(PhaseOptions.v().getPhaseOptions(pack), "enabled")) {
+                skipped.add(pack);
+            }
+        }
+        return skipped;
+    }
+
+    public static void logPhases(Transform transform) {
+        LOGGER.info("Lean pipeline: running jb and {}, skipping {}.", transform.getPhaseName(),
+                LeanPipeline.getSkippedPacks());
+    }
+
+    /**
+     * Jimplifies and transforms the concrete methods of the application classes on the given number of threads, one
+     * class per task.
+     */
+    public static void run(Transform transform, int threads) {
+        LeanPipeline.logPhases(transform);
+        LeanPipeline.run(Scene.v().getApplicationClasses(), transform, threads);
+    }
+
+    /**
+     * Jimplifies and transforms the concrete methods of the given classes on the given number of threads, one class per
+     * task.
+     */
+    public static void run(Collection<SootClass> classes, Transform transform, int threads) {
+        List<SootClass> tasks = new ArrayList<>(classes);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, tasks.size())));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (SootClass clazz : tasks) {
+                futures.add(executor.submit(() -> LeanPipeline.runBodyPhases(clazz, transform)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while transforming bodies.", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to transform bodies: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void runBodyPhases(SootClass clazz, Transform transform) {
+        for (SootMethod method : new ArrayList<>(clazz.getMethods())) {
+            if (method.isConcrete()) {
+                transform.apply(method.retrieveActiveBody());
+            }
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package phd.research.jimple;
+
+/**
+ * Which Soot phases run. {@link #FULL} runs every enabled pack ({@link soot.PackManager#runPacks()}), including call
+ * graph construction and the whole-program packs. {@link #LEAN} only jimplifies the application classes, runs the
+ * instrumentation transform and validates the instrumented bodies (see {@link LeanPipeline}).
+ *
+ * @author Jordan Doyle
+ */
+
+public enum Pipeline {
+    FULL, LEAN
+}
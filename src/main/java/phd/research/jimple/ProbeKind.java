@@ -0,0 +1,39 @@
+package phd.research.jimple;
+
+import phd.research.singleton.ClassRoles;
+import soot.RefType;
+import soot.SootMethod;
+import soot.Type;
+
+/**
+ * The kind of probe inserted into a method body, decided from the {@link ClassRole} of the declaring class, the method
+ * name and the type of the first parameter: {@code onCreate} of an Activity, {@code onCreateView} of a Fragment, and
+ * methods taking a View or a MenuItem as first parameter in Activities, Fragments and listeners.
+ *
+ * @author Jordan Doyle
+ */
+
+public enum ProbeKind {
+    ACTIVITY, FRAGMENT, CONTROL, METHOD;
+
+    public static ProbeKind of(SootMethod method) {
+        ClassRole role = ClassRoles.v().getRole(method.getDeclaringClass());
+
+        if (role == ClassRole.ACTIVITY && !method.isStatic() && method.getName().equals("onCreate")) {
+            return ACTIVITY;
+        }
+
+        if (role == ClassRole.FRAGMENT && !method.isStatic() && method.getName().equals("onCreateView")) {
+            return FRAGMENT;
+        }
+
+        if (role != ClassRole.NONE && method.getParameterCount() >= 1) {
+            Type type = method.getParameterType(0);
+            if (type.equals(RefType.v("android.view.View")) || type.equals(RefType.v("android.view.MenuItem"))) {
+                return CONTROL;
+            }
+        }
+
+        return METHOD;
+    }
+}
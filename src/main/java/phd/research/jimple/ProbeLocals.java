@@ -0,0 +1,63 @@
+package phd.research.jimple;
+
+import soot.Body;
+import soot.Local;
+import soot.Type;
+import soot.jimple.Jimple;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Allocates the locals of the probes of one method body. The locals of the body are scanned once for names taken by
+ * earlier probes, after that names are numbered without looking at the body again, so allocating a local does not
+ * depend on the size of the body. Scratch locals hold values only used by the next statement (e.g. the print stream
+ * of a print), one scratch local of each type is shared by all probe fragments of the body.
+ *
+ * @author Jordan Doyle
+ */
+
+public class ProbeLocals {
+
+    private static final String PREFIX = "$probe";
+
+    private final Body body;
+    private final Map<Type, Local> scratchLocals;
+    private int nextIndex;
+
+    public ProbeLocals(Body body) {
+        this.body = body;
+        this.scratchLocals = new HashMap<>();
+        for (Local local : body.getLocals()) {
+            String name = local.getName();
+            if (name.startsWith(PREFIX)) {
+                try {
+                    this.nextIndex = Math.max(this.nextIndex, Integer.parseInt(name.substring(PREFIX.length())) + 1);
+                } catch (NumberFormatException ignored) {
+                    // Not named by a probe.
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a new local of the type, added to the body.
+     */
+    public Local newLocal(Type type) {
+        Local local = Jimple.v().newLocal(PREFIX + this.nextIndex++, type);
+        this.body.getLocals().add(local);
+        return local;
+    }
+
+    /**
+     * @return the scratch local of the type, its value must be used by the statement after the one assigning it.
+     */
+    public Local scratchLocal(Type type) {
+        Local local = this.scratchLocals.get(type);
+        if (local == null) {
+            local = this.newLocal(type);
+            this.scratchLocals.put(type, local);
+        }
+        return local;
+    }
+}
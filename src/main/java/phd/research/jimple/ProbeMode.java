@@ -0,0 +1,14 @@
+package phd.research.jimple;
+
+/**
+ * How probes report method entries. {@link #PRINT} prints tagged messages to standard output, {@link #TRACE} records
+ * compact integer records with the injected {@link phd.research.runtime.TraceRuntime}, {@link #PROFILE} also probes
+ * method exits and accumulates call counts and latencies with the injected
+ * {@link phd.research.runtime.ProfileRuntime}.
+ *
+ * @author Jordan Doyle
+ */
+
+public enum ProbeMode {
+    PRINT, TRACE, PROFILE
+}
@@ -0,0 +1,159 @@
+package phd.research.jimple;
+
+import soot.*;
+import soot.jimple.IntConstant;
+import soot.jimple.Jimple;
+import soot.jimple.JimpleBody;
+import soot.jimple.NewArrayExpr;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+
+/**
+ * Limits how often the probe of a method reports, so hot methods stay fast while their first calls are still
+ * recorded. Policies are applied to plain method probes ({@link ProbeKind#METHOD}), Activity, Fragment and control
+ * probes always report. A policy keeps per-method counters in static arrays of a class generated into the instrumented
+ * APK ({@value #COUNTERS_CLASS}), indexed by the method ID assigned by {@link phd.research.singleton.ProbeRegistry}.
+ * Counters are updated without synchronisation, concurrent calls of the same method may be counted once.
+ * <p>
+ * Policies are written as {@code all}, {@code first:N} (first N calls of each method), {@code sample:N} (one in N
+ * calls of each method) or {@code rate:N/MILLISECONDS} (at most N calls of each method per time window).
+ *
+ * @author Jordan Doyle
+ */
+
+public class ProbePolicy {
+
+    public static final String COUNTERS_CLASS = "phd.research.runtime.ProbeCounters";
+    public static final String COUNTS_FIELD = "counts";
+    public static final String WINDOWS_FIELD = "windows";
+
+    public static final ProbePolicy ALL = new ProbePolicy(Strategy.ALL, 0, 0);
+
+    private final Strategy strategy;
+    private final int limit;
+    private final long windowMillis;
+
+    private ProbePolicy(Strategy strategy, int limit, long windowMillis) {
+        this.strategy = strategy;
+        this.limit = limit;
+        this.windowMillis = windowMillis;
+    }
+
+    public static ProbePolicy parse(String policy) {
+        String[] parts = policy.trim().toLowerCase(Locale.ROOT).split(":", 2);
+        Strategy strategy;
+        try {
+            strategy = Strategy.valueOf(parts[0].toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown probe policy (" + policy + ").");
+        }
+
+        if (strategy == Strategy.ALL) {
+            if (parts.length != 1) {
+                throw new IllegalArgumentException("Probe policy 'all' takes no value (" + policy + ").");
+            }
+            return ALL;
+        }
+
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Probe policy '" + parts[0] + "' requires a value (" + policy + ").");
+        }
+
+        int limit;
+        long windowMillis = 0;
+        if (strategy == Strategy.RATE) {
+            String[] rate = parts[1].split("/", 2);
+            if (rate.length != 2) {
+                throw new IllegalArgumentException("Rate probe policy must be 'rate:N/MILLISECONDS' (" + policy + ").");
+            }
+            limit = Integer.parseInt(rate[0]);
+            windowMillis = Long.parseLong(rate[1]);
+            if (windowMillis < 1) {
+                throw new IllegalArgumentException("Rate probe policy window must be at least 1ms (" + policy + ").");
+            }
+        } else {
+            limit = Integer.parseInt(parts[1]);
+        }
+
+        if (limit < 1) {
+            throw new IllegalArgumentException("Probe policy limit must be at least one (" + policy + ").");
+        }
+        return new ProbePolicy(strategy, limit, windowMillis);
+    }
+
+    public Strategy getStrategy() {
+        return this.strategy;
+    }
+
+    public int getLimit() {
+        return this.limit;
+    }
+
+    public long getWindowMillis() {
+        return this.windowMillis;
+    }
+
+    public boolean appliesTo(SootMethod method) {
+        return this.strategy != Strategy.ALL && ProbeKind.of(method) == ProbeKind.METHOD;
+    }
+
+    /**
+     * Generates the counters class used by the given policies and adds it to the Scene as an application class, so it
+     * is written to the output APK. Must be called before the body packs run.
+     *
+     * @param methodCount the number of method IDs assigned, IDs start at one.
+     */
+    public static void createCountersClass(int methodCount, Collection<ProbePolicy> policies) {
+        if (policies.stream().allMatch(policy -> policy.strategy == Strategy.ALL)) {
+            return;
+        }
+
+        SootClass countersClass = new SootClass(COUNTERS_CLASS, Modifier.PUBLIC | Modifier.FINAL);
+        countersClass.setSuperclass(Scene.v().getSootClass("java.lang.Object"));
+        Scene.v().addClass(countersClass);
+        countersClass.setApplicationClass();
+
+        SootMethod clinit = new SootMethod(SootMethod.staticInitializerName, Collections.emptyList(), VoidType.v(),
+                Modifier.STATIC);
+        countersClass.addMethod(clinit);
+        JimpleBody body = Jimple.v().newBody(clinit);
+        clinit.setActiveBody(body);
+
+        ProbePolicy.addCounterArray(countersClass, body, COUNTS_FIELD, IntType.v(), methodCount + 1);
+        if (policies.stream().anyMatch(policy -> policy.strategy == Strategy.RATE)) {
+            ProbePolicy.addCounterArray(countersClass, body, WINDOWS_FIELD, LongType.v(), methodCount + 1);
+        }
+        body.getUnits().add(Jimple.v().newReturnVoidStmt());
+    }
+
+    private static void addCounterArray(SootClass countersClass, JimpleBody body, String name, Type type, int size) {
+        ArrayType arrayType = ArrayType.v(type, 1);
+        SootField field = new SootField(name, arrayType, Modifier.PUBLIC | Modifier.STATIC | Modifier.FINAL);
+        countersClass.addField(field);
+
+        Local arrayLocal = Jimple.v().newLocal(name, arrayType);
+        body.getLocals().add(arrayLocal);
+        NewArrayExpr newArrayExpr = Jimple.v().newNewArrayExpr(type, IntConstant.v(size));
+        body.getUnits().add(Jimple.v().newAssignStmt(arrayLocal, newArrayExpr));
+        body.getUnits().add(Jimple.v().newAssignStmt(Jimple.v().newStaticFieldRef(field.makeRef()), arrayLocal));
+    }
+
+    @Override
+    public String toString() {
+        switch (this.strategy) {
+            case FIRST:
+            case SAMPLE:
+                return this.strategy.name().toLowerCase(Locale.ROOT) + ":" + this.limit;
+            case RATE:
+                return "rate:" + this.limit + "/" + this.windowMillis;
+            default:
+                return "all";
+        }
+    }
+
+    public enum Strategy {
+        ALL, FIRST, SAMPLE, RATE
+    }
+}
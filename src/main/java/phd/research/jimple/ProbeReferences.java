@@ -0,0 +1,129 @@
+package phd.research.jimple;
+
+import phd.research.runtime.PrintRuntime;
+import phd.research.runtime.ProfileRuntime;
+import phd.research.runtime.TraceRuntime;
+import soot.*;
+
+/**
+ * The types, methods and fields referenced by generated probes, resolved once per Scene instead of once per probe. The
+ * table is resolved on first use after the Scene changed, the references of runtime classes and of the probe counters
+ * class are null if the class is not in the Scene at that time, so it must be resolved after the counters class is
+ * created (see {@link ProbePolicy#createCountersClass}). The table is read-only and shared by the body packs.
+ *
+ * @author Jordan Doyle
+ */
+
+public final class ProbeReferences {
+
+    private static volatile ProbeReferences instance = null;
+
+    public final RefType objectType;
+    public final RefType stringType;
+    public final RefType classType;
+    public final RefType printStreamType;
+    public final RefType throwableType;
+    public final RefType viewType;
+    public final RefType menuItemType;
+
+    public final SootFieldRef systemOut;
+    public final SootMethodRef println;
+    public final SootMethodRef getClass;
+    public final SootMethodRef getName;
+    public final SootMethodRef concat;
+    public final SootMethodRef valueOfInt;
+    public final SootMethodRef toString;
+    public final SootMethodRef getId;
+    public final SootMethodRef getItemId;
+    public final SootMethodRef identityHashCode;
+    public final SootMethodRef nanoTime;
+    public final SootMethodRef currentTimeMillis;
+
+    public final SootMethodRef traceRecord;
+    public final SootMethodRef profileExit;
+    public final SootMethodRef printEnter;
+    public final SootMethodRef printEnterActivity;
+    public final SootMethodRef printEnterFragment;
+    public final SootMethodRef printEnterControl;
+    public final SootFieldRef counts;
+    public final SootFieldRef windows;
+
+    private final Scene scene;
+
+    private ProbeReferences(Scene scene) {
+        this.scene = scene;
+
+        this.objectType = RefType.v("java.lang.Object");
+        this.stringType = RefType.v("java.lang.String");
+        this.classType = RefType.v("java.lang.Class");
+        this.printStreamType = RefType.v("java.io.PrintStream");
+        this.throwableType = RefType.v("java.lang.Throwable");
+        this.viewType = RefType.v("android.view.View");
+        this.menuItemType = RefType.v("android.view.MenuItem");
+
+        this.systemOut = scene.getField("<java.lang.System: java.io.PrintStream out>").makeRef();
+        this.println = ProbeReferences.method(scene, "<java.io.PrintStream: void println(java.lang.String)>");
+        this.getClass = ProbeReferences.method(scene, "<java.lang.Object: java.lang.Class getClass()>");
+        this.getName = ProbeReferences.method(scene, "<java.lang.Class: java.lang.String getName()>");
+        this.concat = ProbeReferences.method(scene, "<java.lang.String: java.lang.String concat(java.lang.String)>");
+        this.valueOfInt = ProbeReferences.method(scene, "<java.lang.String: java.lang.String valueOf(int)>");
+        this.toString = ProbeReferences.method(scene, "<java.lang.Object: java.lang.String toString()>");
+        this.getId = ProbeReferences.method(scene, "<android.view.View: int getId()>");
+        this.getItemId = ProbeReferences.method(scene, "<android.view.MenuItem: int getItemId()>");
+        this.identityHashCode =
+                ProbeReferences.method(scene, "<java.lang.System: int identityHashCode(java.lang.Object)>");
+        this.nanoTime = ProbeReferences.method(scene, "<java.lang.System: long nanoTime()>");
+        this.currentTimeMillis = ProbeReferences.method(scene, "<java.lang.System: long currentTimeMillis()>");
+
+        this.traceRecord = ProbeReferences.runtimeMethod(scene, TraceRuntime.class, "record");
+        this.profileExit = ProbeReferences.runtimeMethod(scene, ProfileRuntime.class, "exit");
+        this.printEnter = ProbeReferences.runtimeMethod(scene, PrintRuntime.class, "enter");
+        this.printEnterActivity = ProbeReferences.runtimeMethod(scene, PrintRuntime.class, "enterActivity");
+        this.printEnterFragment = ProbeReferences.runtimeMethod(scene, PrintRuntime.class, "enterFragment");
+        this.printEnterControl = ProbeReferences.runtimeMethod(scene, PrintRuntime.class, "enterControl");
+
+        SootClass countersClass = scene.getSootClassUnsafe(ProbePolicy.COUNTERS_CLASS, false);
+        this.counts = ProbeReferences.field(countersClass, ProbePolicy.COUNTS_FIELD);
+        this.windows = ProbeReferences.field(countersClass, ProbePolicy.WINDOWS_FIELD);
+    }
+
+    /**
+     * @return the references of the current Scene, resolved on the first call after the Scene changed.
+     */
+    public static ProbeReferences v() {
+        ProbeReferences references = instance;
+        Scene scene = Scene.v();
+        if (references == null || references.scene != scene) {
+            synchronized (ProbeReferences.class) {
+                references = instance;
+                if (references == null || references.scene != scene) {
+                    references = new ProbeReferences(scene);
+                    instance = references;
+                }
+            }
+        }
+        return references;
+    }
+
+    public static void reset() {
+        instance = null;
+    }
+
+    private static SootMethodRef method(Scene scene, String signature) {
+        SootMethod method = scene.grabMethod(signature);
+        if (method == null) {
+            throw new IllegalStateException("Probe method not resolved (" + signature + ").");
+        }
+        return method.makeRef();
+    }
+
+    private static SootMethodRef runtimeMethod(Scene scene, Class<?> runtimeClass, String name) {
+        SootClass clazz = scene.getSootClassUnsafe(runtimeClass.getName(), false);
+        return clazz != null && !clazz.isPhantom() ? clazz.getMethodByName(name).makeRef() : null;
+    }
+
+    private static SootFieldRef field(SootClass clazz, String name) {
+        SootField field = clazz != null ? clazz.getFieldByNameUnsafe(name) : null;
+        return field != null ? field.makeRef() : null;
+    }
+}
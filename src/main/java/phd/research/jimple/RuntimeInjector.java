@@ -0,0 +1,93 @@
+package phd.research.jimple;
+
+import org.apache.commons.io.FileUtils;
+import phd.research.runtime.PrintRuntime;
+import phd.research.runtime.ProfileRuntime;
+import phd.research.runtime.RuntimeFiles;
+import phd.research.runtime.TraceRuntime;
+import soot.*;
+import soot.jimple.IntConstant;
+import soot.jimple.Jimple;
+import soot.jimple.JimpleBody;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Injects the runtime support classes of a {@link ProbeMode} into the instrumented APK. The class files are copied
+ * from the DroidInstrument class path into a temporary directory on the Soot class path, loaded with their bodies and
+ * made application classes, so Soot writes them to the output dex files with the app classes. Classes of the runtime
+ * package are never instrumented, whatever the filter rules (see {@link phd.research.filter.FilterEngine}), as a probe
+ * in the runtime would call itself.
+ *
+ * @author Jordan Doyle
+ */
+
+public class RuntimeInjector {
+
+    public static final String RUNTIME_PACKAGE = "phd.research.runtime";
+
+    public static List<Class<?>> getRuntimeClasses(ProbeMode mode, boolean probeHelper) {
+        List<Class<?>> classes = new ArrayList<>();
+        if (mode == ProbeMode.PRINT && probeHelper) {
+            classes.add(PrintRuntime.class);
+        } else if (mode == ProbeMode.TRACE) {
+            RuntimeInjector.addWithNested(classes, TraceRuntime.class);
+            classes.add(RuntimeFiles.class);
+        } else if (mode == ProbeMode.PROFILE) {
+            RuntimeInjector.addWithNested(classes, ProfileRuntime.class);
+            classes.add(RuntimeFiles.class);
+        }
+        return classes;
+    }
+
+    public static File extractClassFiles(List<Class<?>> classes) throws IOException {
+        File directory = Files.createTempDirectory("droid-instrument-runtime").toFile();
+        FileUtils.forceDeleteOnExit(directory);
+
+        for (Class<?> clazz : classes) {
+            String fileName = clazz.getName().replace('.', '/') + ".class";
+            try (InputStream inputStream = RuntimeInjector.class.getClassLoader().getResourceAsStream(fileName)) {
+                if (inputStream == null) {
+                    throw new IOException("Runtime class file not found on class path (" + fileName + ").");
+                }
+                FileUtils.copyInputStreamToFile(inputStream, new File(directory, fileName));
+            }
+        }
+        return directory;
+    }
+
+    public static void addBasicClasses(List<Class<?>> classes) {
+        for (Class<?> clazz : classes) {
+            Scene.v().addBasicClass(clazz.getName(), SootClass.BODIES);
+        }
+    }
+
+    public static void inject(List<Class<?>> classes) {
+        for (Class<?> clazz : classes) {
+            Scene.v().getSootClass(clazz.getName()).setApplicationClass();
+        }
+    }
+
+    /**
+     * Sizes the per-thread arrays of the injected {@link ProfileRuntime}: replaces the body of its
+     * {@code methodCount()} method with a method returning the number of method IDs.
+     */
+    public static void setProfileMethodCount(int methodCount) {
+        SootMethod method = Scene.v().getSootClass(ProfileRuntime.class.getName()).getMethodByName("methodCount");
+        JimpleBody body = Jimple.v().newBody(method);
+        body.getUnits().add(Jimple.v().newReturnStmt(IntConstant.v(methodCount)));
+        method.setActiveBody(body);
+    }
+
+    private static void addWithNested(List<Class<?>> classes, Class<?> clazz) {
+        classes.add(clazz);
+        for (Class<?> nestedClass : clazz.getDeclaredClasses()) {
+            RuntimeInjector.addWithNested(classes, nestedClass);
+        }
+    }
+}
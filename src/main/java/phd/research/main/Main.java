@@ -4,19 +4,46 @@ import org.apache.commons.cli.*;
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import phd.research.jimple.JimpleGenerator;
+import phd.research.batch.BatchInstrument;
+import phd.research.batch.PartitionedInstrument;
+import phd.research.dex.DexPartition;
+import phd.research.dex.OutputMode;
+import phd.research.dex.SplicingDexPrinter;
+import phd.research.jimple.CostRule;
+import phd.research.jimple.InstrumentTransformer;
+import phd.research.jimple.LeanPipeline;
+import phd.research.jimple.Pipeline;
+import phd.research.jimple.ProbeMode;
+import phd.research.jimple.ProbePolicy;
+import phd.research.jimple.ProbeReferences;
+import phd.research.jimple.RuntimeInjector;
+import phd.research.metrics.Phase;
+import phd.research.singleton.ClassRoles;
+import phd.research.singleton.CostModel;
+import phd.research.singleton.DexOutput;
+import phd.research.singleton.InstrumentCache;
+import phd.research.singleton.InstrumentMetrics;
 import phd.research.singleton.InstrumentSettings;
+import phd.research.singleton.ProbeRegistry;
 import phd.research.singleton.SootAnalysis;
+import phd.research.trace.CallRates;
+import phd.research.utility.DexDigest;
 import phd.research.utility.Filter;
 import phd.research.utility.Timer;
-import soot.*;
-import soot.jimple.JimpleBody;
+import soot.PackManager;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.Transform;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.List;
-import java.util.Map;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.stream.Collectors;
 
 /**
  * @author Jordan Doyle
@@ -26,17 +53,108 @@ public class Main {
     private static final Logger LOGGER = LoggerFactory.getLogger(Main.class);
 
     public static void main(String[] args) {
+        int status = Main.run(args);
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    public static Options createOptions() {
         Options options = new Options();
-        options.addOption(Option.builder("a").longOpt("apk").required().hasArg().numberOfArgs(1).argName("FILE")
+        OptionGroup input = new OptionGroup();
+        input.addOption(Option.builder("a").longOpt("apk").hasArg().numberOfArgs(1).argName("FILE")
                 .desc("APK file to analyse.").build());
+        input.addOption(Option.builder("b").longOpt("batch").hasArg().numberOfArgs(1).argName("FILE|DIRECTORY")
+                .desc("Directory of APK files, or manifest file listing one APK per line, to analyse.").build());
+        input.setRequired(true);
+        options.addOptionGroup(input);
+        options.addOption(Option.builder("j").longOpt("jobs").hasArg().numberOfArgs(1).argName("NUMBER")
+                .desc("Number of worker JVMs used in batch mode.").build());
+        options.addOption(Option.builder().longOpt("job-timeout").hasArg().numberOfArgs(1).argName("SECONDS")
+                .desc("Seconds an APK file may take in batch mode before its worker JVM is destroyed and " +
+                        "replaced.").build());
         options.addOption(Option.builder("p").longOpt("android-platform").hasArg().numberOfArgs(1).argName("DIRECTORY")
                 .desc("Android SDK platform directory.").build());
         options.addOption(Option.builder("o").longOpt("output-directory").hasArg().numberOfArgs(1).argName("DIRECTORY")
                 .desc("Directory for output files.").build());
+        options.addOption(Option.builder().longOpt("dex-workers").hasArg().numberOfArgs(1).argName("NUMBER")
+                .desc("Instrument groups of the dex files of the APK in this many worker JVMs and merge their dex " +
+                        "files into the output APK.").build());
+        options.addOption(Option.builder().longOpt("dex-partition").hasArg().numberOfArgs(1).argName("FILES")
+                .desc("Only instrument the classes of these comma separated dex files of the APK and write their " +
+                        "dex files to the output directory (run by dex workers).").build());
+        options.addOption(Option.builder("t").longOpt("threads").hasArg().numberOfArgs(1).argName("NUMBER")
+                .desc("Number of threads used to transform method bodies (default: all cores).").build());
+        options.addOption(Option.builder().longOpt("probe-mode").hasArg().numberOfArgs(1).argName("MODE")
+                .desc("Probe mode: 'print' tagged messages to standard output (default), record a binary 'trace' " +
+                        "or 'profile' method latencies.")
+                .build());
+        options.addOption(Option.builder().longOpt("probe-helper")
+                .desc("Print mode probes call an injected helper class instead of inlining the print.").build());
+        options.addOption(Option.builder().longOpt("pipeline").hasArg().numberOfArgs(1).argName("PIPELINE")
+                .desc("Soot phases to run: 'full' (default) or 'lean' (only jimplification, instrumentation, " +
+                        "validation and dex emission).").build());
+        options.addOption(Option.builder().longOpt("stream-batch").hasArg().numberOfArgs(1).argName("CLASSES")
+                .desc("Instrument and write the application classes in batches of this size, releasing the method " +
+                        "bodies of each batch once written (lean pipeline only).").build());
+        options.addOption(Option.builder().longOpt("output-mode").hasArg().numberOfArgs(1).argName("MODE")
+                .desc("Output APK: 'full' (default) rewrites every dex file, 'partial' only rewrites the dex files " +
+                        "holding instrumented classes and copies everything else unchanged.").build());
+        options.addOption(Option.builder().longOpt("keystore").hasArg().numberOfArgs(1).argName("FILE")
+                .desc("Align and sign the output APK with a key from this keystore.").build());
+        options.addOption(Option.builder().longOpt("key-alias").hasArg().numberOfArgs(1).argName("ALIAS")
+                .desc("Alias of the signing key (default: the only key of the keystore).").build());
+        options.addOption(Option.builder().longOpt("keystore-pass").hasArg().numberOfArgs(1).argName("PASSWORD")
+                .desc("Password of the keystore and key, or 'env:NAME' to read it from an environment variable " +
+                        "(default: android).").build());
+        options.addOption(Option.builder().longOpt("check-determinism")
+                .desc("Instrument the APK again on a single thread and compare the output dex files.").build());
+        options.addOption(Option.builder().longOpt("probe-policy").hasArg().numberOfArgs(1).argName("POLICY")
+                .desc("Limit method probes: 'all' (default), 'first:N' calls, 'sample:N' (one in N calls) or " +
+                        "'rate:N/MILLISECONDS'.").build());
+        options.addOption(Option.builder().longOpt("cost-rules").hasArg().numberOfArgs(1).argName("RULES")
+                .desc("Skip or downgrade costly method probes: comma separated 'accessor', 'small:N', " +
+                        "'loop-callee' and 'hot:N' (calls per run), each optionally followed by '=skip' or " +
+                        "'=downgrade'.").build());
+        options.addOption(Option.builder().longOpt("downgrade-policy").hasArg().numberOfArgs(1).argName("POLICY")
+                .desc("Probe policy of methods downgraded by the cost rules (default: first:1).").build());
+        options.addOption(Option.builder().longOpt("scope-input").hasArgs().argName("FILE")
+                .desc("Method counts, profiles or scope reports of earlier runs, read by the 'hot:N' cost rule.")
+                .build());
+        options.addOption(Option.builder().longOpt("filter-rules").hasArgs().argName("FILE")
+                .desc("Files of include and exclude rules added to the bundled blacklists, one rule per line: " +
+                        "'<include|exclude> <package|contains|class|method|annotation> <pattern>'.").build());
+        options.addOption(Option.builder().longOpt("cache-dir").hasArg().numberOfArgs(1).argName("DIRECTORY")
+                .desc("Directory of the persistent class cache, reusing instrumented classes between runs.").build());
+        options.addOption(Option.builder().longOpt("cache-size").hasArg().numberOfArgs(1).argName("MEGABYTES")
+                .desc("Size limit of the class cache (default: 1024).").build());
+        options.addOption(Option.builder().longOpt("platform-index").hasArg().numberOfArgs(1).argName("DIRECTORY")
+                .desc("Directory of platform signature indexes, read instead of the android.jar when current.")
+                .build());
         options.addOption(Option.builder("c").longOpt("clean-directory").desc("Clean output directory.").build());
         options.addOption(Option.builder("h").longOpt("help").desc("Display help.").build());
+        return options;
+    }
+
+    public static List<String> toArguments(CommandLine cmd, Collection<String> excludedOptions) {
+        List<String> arguments = new ArrayList<>();
+        for (Option option : cmd.getOptions()) {
+            if (excludedOptions.contains(option.getLongOpt())) {
+                continue;
+            }
+
+            arguments.add("--" + option.getLongOpt());
+            if (option.hasArg()) {
+                arguments.addAll(Arrays.asList(option.getValues()));
+            }
+        }
+        return arguments;
+    }
+
+    public static int run(String[] args) {
+        Options options = Main.createOptions();
 
-        CommandLine cmd = null;
+        CommandLine cmd;
         try {
             CommandLineParser parser = new DefaultParser();
             cmd = parser.parse(options, args);
@@ -45,24 +163,241 @@ public class Main {
             final PrintWriter writer = new PrintWriter(System.out);
             formatter.printUsage(writer, 80, "DroidInstrument", options);
             writer.flush();
-            System.exit(10);
+            return 10;
         }
 
         if (cmd.hasOption("h")) {
             HelpFormatter formatter = new HelpFormatter();
             formatter.printHelp("DroidInstrument", options);
-            System.exit(0);
+            return 0;
         }
 
         Timer timer = new Timer();
         LOGGER.info("Start time: {}", timer.start());
+        ManagementFactory.getMemoryPoolMXBeans().forEach(MemoryPoolMXBean::resetPeakUsage);
 
         InstrumentSettings settings = InstrumentSettings.v();
-        try {
-            settings.setApkFile(new File(cmd.getOptionValue("a")));
-        } catch (IOException e) {
-            LOGGER.error("APK file missing: {}", e.getMessage());
-            System.exit(20);
+        if (cmd.hasOption("a")) {
+            try {
+                settings.setApkFile(new File(cmd.getOptionValue("a")));
+            } catch (IOException e) {
+                LOGGER.error("APK file missing: {}", e.getMessage());
+                return 20;
+            }
+        }
+
+        if (cmd.hasOption("b")) {
+            try {
+                settings.setBatchInput(new File(cmd.getOptionValue("b")));
+            } catch (IOException e) {
+                LOGGER.error("Batch input missing: {}", e.getMessage());
+                return 20;
+            }
+        }
+
+        if (cmd.hasOption("j")) {
+            try {
+                settings.setJobs(Integer.parseInt(cmd.getOptionValue("j")));
+            } catch (IllegalArgumentException e) {
+                LOGGER.error("Invalid number of jobs: {}", e.getMessage());
+                return 10;
+            }
+        }
+
+        if (cmd.hasOption("job-timeout")) {
+            if (!cmd.hasOption("b")) {
+                LOGGER.error("Job timeout can only be used in batch mode.");
+                return 10;
+            }
+            try {
+                settings.setJobTimeout(Long.parseLong(cmd.getOptionValue("job-timeout")));
+            } catch (IllegalArgumentException e) {
+                LOGGER.error("Invalid job timeout: {}", e.getMessage());
+                return 10;
+            }
+        }
+
+        if (cmd.hasOption("dex-workers")) {
+            if (cmd.hasOption("b")) {
+                LOGGER.error("Dex workers cannot be used in batch mode.");
+                return 10;
+            }
+            try {
+                settings.setDexWorkers(Integer.parseInt(cmd.getOptionValue("dex-workers")));
+            } catch (IllegalArgumentException e) {
+                LOGGER.error("Invalid number of dex workers: {}", e.getMessage());
+                return 10;
+            }
+        }
+
+        if (cmd.hasOption("dex-partition")) {
+            try {
+                settings.setDexPartition(Arrays.asList(cmd.getOptionValue("dex-partition").split(",")));
+            } catch (IllegalArgumentException e) {
+                LOGGER.error("Invalid dex partition: {}", e.getMessage());
+                return 10;
+            }
+        }
+
+        if (cmd.hasOption("t")) {
+            try {
+                settings.setThreads(Integer.parseInt(cmd.getOptionValue("t")));
+            } catch (IllegalArgumentException e) {
+                LOGGER.error("Invalid number of threads: {}", e.getMessage());
+                return 10;
+            }
+        }
+
+        if (cmd.hasOption("probe-mode")) {
+            try {
+                settings.setProbeMode(ProbeMode.valueOf(cmd.getOptionValue("probe-mode").toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                LOGGER.error("Invalid probe mode: {}", cmd.getOptionValue("probe-mode"));
+                return 10;
+            }
+        }
+
+        if (cmd.hasOption("probe-helper")) {
+            if (settings.getProbeMode() != ProbeMode.PRINT) {
+                LOGGER.error("The probe helper requires the print probe mode.");
+                return 10;
+            }
+            settings.setProbeHelper(true);
+        }
+
+        if (cmd.hasOption("pipeline")) {
+            try {
+                settings.setPipeline(Pipeline.valueOf(cmd.getOptionValue("pipeline").toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                LOGGER.error("Invalid pipeline: {}", cmd.getOptionValue("pipeline"));
+                return 10;
+            }
+        }
+
+        if (cmd.hasOption("stream-batch")) {
+            if (settings.getPipeline() != Pipeline.LEAN) {
+                LOGGER.error("Streaming requires the lean pipeline.");
+                return 10;
+            }
+            try {
+                settings.setStreamBatchSize(Integer.parseInt(cmd.getOptionValue("stream-batch")));
+            } catch (IllegalArgumentException e) {
+                LOGGER.error("Invalid stream batch size: {}", e.getMessage());
+                return 10;
+            }
+        }
+
+        if (cmd.hasOption("output-mode")) {
+            try {
+                settings.setOutputMode(OutputMode.valueOf(cmd.getOptionValue("output-mode").toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                LOGGER.error("Invalid output mode: {}", cmd.getOptionValue("output-mode"));
+                return 10;
+            }
+        }
+
+        if (cmd.hasOption("probe-policy")) {
+            try {
+                settings.setProbePolicy(ProbePolicy.parse(cmd.getOptionValue("probe-policy")));
+            } catch (IllegalArgumentException e) {
+                LOGGER.error("Invalid probe policy: {}", e.getMessage());
+                return 10;
+            }
+        }
+
+        if (cmd.hasOption("cost-rules")) {
+            try {
+                settings.setCostRules(CostRule.parseAll(cmd.getOptionValue("cost-rules")));
+            } catch (IllegalArgumentException e) {
+                LOGGER.error("Invalid cost rules: {}", e.getMessage());
+                return 10;
+            }
+        }
+
+        if (cmd.hasOption("downgrade-policy")) {
+            try {
+                settings.setDowngradePolicy(ProbePolicy.parse(cmd.getOptionValue("downgrade-policy")));
+            } catch (IllegalArgumentException e) {
+                LOGGER.error("Invalid downgrade policy: {}", e.getMessage());
+                return 10;
+            }
+        }
+
+        boolean hotRule = settings.getCostRules().stream().anyMatch(rule -> rule.getType() == CostRule.Type.HOT);
+        if (hotRule != cmd.hasOption("scope-input")) {
+            LOGGER.error("The 'hot' cost rule and the scope input option must be used together.");
+            return 10;
+        }
+        if (cmd.hasOption("scope-input")) {
+            List<File> scopeInputFiles = new ArrayList<>();
+            for (String scopeInputFile : cmd.getOptionValues("scope-input")) {
+                scopeInputFiles.add(new File(scopeInputFile));
+            }
+            try {
+                settings.setScopeInputFiles(scopeInputFiles);
+            } catch (IOException e) {
+                LOGGER.error("Scope input missing: {}", e.getMessage());
+                return 20;
+            }
+        }
+
+        if (cmd.hasOption("filter-rules")) {
+            List<File> ruleFiles = new ArrayList<>();
+            for (String ruleFile : cmd.getOptionValues("filter-rules")) {
+                ruleFiles.add(new File(ruleFile));
+            }
+            try {
+                settings.setFilterRuleFiles(ruleFiles);
+            } catch (IOException e) {
+                LOGGER.error("Filter rules missing: {}", e.getMessage());
+                return 20;
+            }
+        }
+
+        if (cmd.hasOption("cache-dir")) {
+            if (cmd.hasOption("dex-workers") || cmd.hasOption("dex-partition")) {
+                // Dex workers would update the cache index at the same time.
+                LOGGER.error("The class cache cannot be used with dex workers.");
+                return 10;
+            }
+            try {
+                settings.setCacheDirectory(new File(cmd.getOptionValue("cache-dir")));
+            } catch (IOException e) {
+                LOGGER.error("Cache directory missing: {}", e.getMessage());
+                return 40;
+            }
+        }
+
+        if (cmd.hasOption("platform-index")) {
+            try {
+                settings.setPlatformIndexDirectory(new File(cmd.getOptionValue("platform-index")));
+            } catch (IOException e) {
+                LOGGER.error("Platform files missing: {}", e.getMessage());
+                return 30;
+            }
+        }
+
+        if (cmd.hasOption("cache-size")) {
+            try {
+                settings.setCacheSize(Long.parseLong(cmd.getOptionValue("cache-size")) * 1024 * 1024);
+            } catch (IllegalArgumentException e) {
+                LOGGER.error("Invalid cache size: {}", e.getMessage());
+                return 10;
+            }
+        }
+
+        if (cmd.hasOption("keystore")) {
+            String password = cmd.getOptionValue("keystore-pass", "android");
+            if (password.startsWith("env:")) {
+                password = System.getenv(password.substring(4));
+            }
+            try {
+                settings.setSigningKey(new File(cmd.getOptionValue("keystore")), cmd.getOptionValue("key-alias"),
+                        password != null ? password.toCharArray() : new char[0]);
+            } catch (IOException e) {
+                LOGGER.error("Signing key unavailable: {}", e.getMessage());
+                return 20;
+            }
         }
 
         if (cmd.hasOption("p")) {
@@ -70,7 +405,7 @@ public class Main {
                 settings.setPlatformDirectory(new File(cmd.getOptionValue("p")));
             } catch (IOException e) {
                 LOGGER.error("Platform files missing: {}", e.getMessage());
-                System.exit(30);
+                return 30;
             }
         }
 
@@ -79,7 +414,7 @@ public class Main {
                 settings.setOutputDirectory(new File(cmd.getOptionValue("o")));
             } catch (IOException e) {
                 LOGGER.error("Output directory missing: {}", e.getMessage());
-                System.exit(40);
+                return 40;
             }
         }
 
@@ -87,7 +422,14 @@ public class Main {
             settings.validate();
         } catch (IOException e) {
             LOGGER.error("Files missing: {}", e.getMessage());
-            System.exit(50);
+            return 50;
+        }
+
+        try {
+            Filter.configure(settings.getFilterRuleFiles());
+        } catch (IOException | IllegalArgumentException e) {
+            LOGGER.error("Invalid filter rules: {}", e.getMessage());
+            return 10;
         }
 
         if (cmd.hasOption("c")) {
@@ -98,39 +440,204 @@ public class Main {
             }
         }
 
-        LOGGER.info("Processing: {}", InstrumentSettings.v().getApkFile());
+        if (settings.getBatchInput() != null) {
+            int status = new BatchInstrument(cmd).run();
+            LOGGER.info("End time: {}", timer.end());
+            LOGGER.info("Execution time: {} second(s).", timer.secondsDuration());
+            return status;
+        }
+
+        List<DexPartition> partitions = Collections.emptyList();
+        if (settings.getDexWorkers() > 1 && settings.getDexPartition() == null) {
+            try {
+                partitions = DexPartition.plan(settings.getApkFile(), settings.getDexWorkers());
+            } catch (IOException e) {
+                LOGGER.error("Failed to read dex files of APK: {}", e.getMessage());
+                return 50;
+            }
+            if (partitions.size() < 2) {
+                LOGGER.info("The APK has a single dex file, instrumenting it without dex workers.");
+            }
+        }
+
+        int status = partitions.size() > 1 ? new PartitionedInstrument(cmd, partitions).run() : Main.instrument();
+        if (status == 0 && cmd.hasOption("check-determinism")) {
+            status = Main.checkDeterminism(cmd);
+        }
+
+        LOGGER.info("End time: {}", timer.end());
+        LOGGER.info("Execution time: {} second(s).", timer.secondsDuration());
+        LOGGER.info("Peak heap usage: {} MB.", InstrumentMetrics.getPeakHeapUsage() / (1024 * 1024));
+        return status;
+    }
+
+    @SuppressWarnings("try")
+    private static int instrument() {
+        InstrumentSettings settings = InstrumentSettings.v();
+        LOGGER.info("Processing: {}", settings.getApkFile());
+        InstrumentMetrics metrics = InstrumentMetrics.v();
+        metrics.start(settings.getApkFile());
         if (!SootAnalysis.v().isSootInitialised()) {
-            SootAnalysis.v().initialiseSoot();
+            try {
+                SootAnalysis.v().initialiseSoot();
+            } catch (IOException e) {
+                LOGGER.error("Failed to prepare runtime classes: {}", e.getMessage());
+                return 50;
+            }
         }
 
-        PackManager.v().getPack("jtp").add(new Transform("jtp.instrument", new BodyTransformer() {
-            @Override
-            protected void internalTransform(Body b, String phaseName, Map<String, String> options) {
-                JimpleBody body = (JimpleBody) b;
-                if (!Filter.isValidMethod(body.getMethod())) {
-                    return;
-                }
+        Transform instrumentTransform;
+        int threads = settings.getThreads() > 0 ? settings.getThreads() : Runtime.getRuntime().availableProcessors();
+        try (InstrumentMetrics.PhaseTimer ignored = metrics.time(Phase.PREPARATION)) {
+            List<SootClass> applicationClasses = new ArrayList<>(Scene.v().getApplicationClasses());
+            // Probe kinds and IDs depend on every class of the APK, also in a dex worker.
+            ClassRoles.v().classify(applicationClasses);
+            ProbeRegistry.v().register(applicationClasses);
+            try {
+                DexOutput.v().prepare(applicationClasses);
+                applicationClasses = DexOutput.v().getClasses();
+                metrics.countInput(applicationClasses);
+                DexOutput.v().passThroughUninstrumented();
+                InstrumentCache.v().lookup(applicationClasses);
+            } catch (IOException e) {
+                LOGGER.error("Failed to read input classes or class cache: {}", e.getMessage());
+                return 50;
+            }
+            metrics.countReplaced(applicationClasses);
 
-                LOGGER.debug("Instrumenting {}", body.getMethod().getSignature());
-                JimpleGenerator jimpleGenerator = new JimpleGenerator(body);
-                jimpleGenerator.generateInstrumentUnits();
-                List<Unit> units = jimpleGenerator.getUnits();
-                body.getUnits().insertBefore(units, body.getFirstNonIdentityStmt());
-                body.validate();
+            // Methods of replaced classes are no longer application methods and need no rating.
+            List<SootMethod> methods = ProbeRegistry.v().getMethods().stream()
+                    .filter(method -> method.getDeclaringClass().isApplicationClass()).collect(Collectors.toList());
+            CallRates callRates;
+            try {
+                callRates = CallRates.read(settings.getScopeInputFiles());
+            } catch (IOException e) {
+                LOGGER.error("Failed to read scope input: {}", e.getMessage());
+                return 50;
             }
-        }));
+            CostModel.v().analyse(methods, settings.getCostRules(), callRates, threads);
+            // Cached probes may use the downgrade policy even if no method of this run was downgraded.
+            List<ProbePolicy> policies = new ArrayList<>(Collections.singletonList(settings.getProbePolicy()));
+            if (settings.getCostRules().stream().anyMatch(rule -> rule.getAction() == CostRule.Action.DOWNGRADE)) {
+                policies.add(settings.getDowngradePolicy());
+            }
+            ProbePolicy.createCountersClass(ProbeRegistry.v().getMethodCount(), policies);
+            if (settings.getProbeMode() == ProbeMode.PROFILE) {
+                RuntimeInjector.setProfileMethodCount(ProbeRegistry.v().getMethodCount());
+            }
+            // Resolved once the counters class exists, the body packs only read the references.
+            ProbeReferences.v();
+
+            instrumentTransform = new Transform(InstrumentTransformer.PHASE_NAME, new InstrumentTransformer());
+            PackManager.v().getPack("jtp").add(instrumentTransform);
+        }
+
+        if (settings.getStreamBatchSize() == 0) {
+            try (InstrumentMetrics.PhaseTimer ignored = metrics.time(Phase.TRANSFORMATION)) {
+                if (settings.getPipeline() == Pipeline.LEAN) {
+                    LeanPipeline.run(instrumentTransform, threads);
+                } else {
+                    PackManager.v().runPacks();
+                }
+            }
+        } else {
+            LeanPipeline.logPhases(instrumentTransform);
+            LOGGER.info("Streaming application classes to the output in batches of {}.",
+                    settings.getStreamBatchSize());
+        }
 
-        PackManager.v().runPacks();
+        try (InstrumentMetrics.PhaseTimer ignored = metrics.time(Phase.OUTPUT)) {
+            // Streamed batches are transformed while the output is written.
+            SplicingDexPrinter printer = settings.getStreamBatchSize() == 0 ? DexOutput.v().write() :
+                    DexOutput.v().write(classes -> metrics.time(Phase.TRANSFORMATION,
+                                    () -> LeanPipeline.run(classes, instrumentTransform, threads)),
+                            settings.getStreamBatchSize());
+            if (InstrumentCache.v().isEnabled()) {
+                InstrumentCache.v().store(printer);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Problem writing instrumented code to APK ({}): {}", settings.getApkFile(), e.getMessage(),
+                    e);
+            return 60;
+        }
 
+        Filter.getEngine().logSummary();
         try {
-            PackManager.v().writeOutput();
-        } catch (RuntimeException e) {
-            LOGGER.error("Problem writing instrumented code to APK ({}): {}", InstrumentSettings.v().getApkFile(),
-                    e.getMessage(), e);
-            System.exit(60);
+            try (InstrumentMetrics.PhaseTimer ignored = metrics.time(Phase.REPORTS)) {
+                // The output of a dex worker is counted once merged.
+                if (settings.getDexPartition() == null) {
+                    metrics.countOutput(settings.getOutputApkFile());
+                }
+                ProbeRegistry.v().writeDictionary(settings.getOutputArtifact("-probes.tsv"));
+                if (!settings.getCostRules().isEmpty()) {
+                    CostModel.v().writeReport(settings.getOutputArtifact("-cost-report.csv"));
+                }
+                if (!settings.getScopeInputFiles().isEmpty()) {
+                    CostModel.v().writeScopeReport(settings.getOutputArtifact("-scope-report.csv"));
+                }
+                if (!settings.getFilterRuleFiles().isEmpty()) {
+                    Filter.getEngine().writeReport(settings.getOutputArtifact("-filter-report.csv"));
+                }
+            }
+            metrics.logSummary();
+            metrics.writeReport(settings.getOutputArtifact("-metrics.json"));
+        } catch (IOException e) {
+            LOGGER.error("Problem writing instrumentation report: {}", e.getMessage());
+            return 60;
         }
 
-        LOGGER.info("End time: {}", timer.end());
-        LOGGER.info("Execution time: {} second(s).", timer.secondsDuration());
+        return 0;
+    }
+
+    /**
+     * Drops the state of the previous run, so a run in a JVM that already ran (e.g. a batch worker) starts from the
+     * same state as a fresh JVM.
+     */
+    public static void resetSingletons() {
+        InstrumentSettings.reset();
+        SootAnalysis.reset();
+        ClassRoles.reset();
+        ProbeRegistry.reset();
+        ProbeReferences.reset();
+        CostModel.reset();
+        DexOutput.reset();
+        InstrumentCache.reset();
+        InstrumentMetrics.reset();
+    }
+
+    private static int checkDeterminism(CommandLine cmd) {
+        File outputApk = InstrumentSettings.v().getOutputApkFile();
+        LOGGER.info("Checking determinism of '{}' against a single threaded run.", outputApk);
+
+        File referenceDirectory = null;
+        try {
+            referenceDirectory = Files.createTempDirectory("droid-instrument-reference").toFile();
+            // The reference run does not use the class cache, which would hand back the classes of the first run.
+            List<String> arguments = Main.toArguments(cmd, Arrays.asList("threads", "output-directory",
+                    "check-determinism", "clean-directory", "cache-dir", "cache-size"));
+            arguments.addAll(Arrays.asList("--threads", "1", "--output-directory", referenceDirectory.getPath()));
+
+            Main.resetSingletons();
+            int status = Main.run(arguments.toArray(new String[0]));
+            if (status != 0) {
+                LOGGER.error("Single threaded reference run failed with exit code {}.", status);
+                return status;
+            }
+
+            Map<String, String> expected = DexDigest.digest(InstrumentSettings.v().getOutputApkFile());
+            Map<String, String> actual = DexDigest.digest(outputApk);
+            if (!expected.equals(actual)) {
+                LOGGER.error("Output dex files differ from the single threaded run: {} != {}", actual, expected);
+                return 90;
+            }
+
+            LOGGER.info("Output dex files are identical to the single threaded run: {}", actual);
+            return 0;
+        } catch (IOException e) {
+            LOGGER.error("Failed to check determinism: {}", e.getMessage());
+            return 90;
+        } finally {
+            FileUtils.deleteQuietly(referenceDirectory);
+        }
     }
-}
\ No newline at end of file
+}
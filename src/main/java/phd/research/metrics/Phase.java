@@ -0,0 +1,18 @@
+package phd.research.metrics;
+
+import java.util.Locale;
+
+/**
+ * A phase of an instrumentation run, timed by {@link phd.research.singleton.InstrumentMetrics}. Validation is timed
+ * per method body inside the transformation phase and summed over all threads.
+ *
+ * @author Jordan Doyle
+ */
+
+public enum Phase {
+    SOOT_INITIALISATION, DEX_LOADING, PREPARATION, TRANSFORMATION, VALIDATION, OUTPUT, REPORTS;
+
+    public String getName() {
+        return this.name().toLowerCase(Locale.ROOT).replace('_', '-');
+    }
+}
@@ -0,0 +1,31 @@
+package phd.research.metrics;
+
+import jdk.jfr.*;
+
+/**
+ * Flight recorder event spanning one phase of an instrumentation run. Only loaded if the JVM supports flight recorder
+ * events (see {@link phd.research.singleton.InstrumentMetrics}).
+ *
+ * @author Jordan Doyle
+ */
+
+@Name("phd.research.Phase")
+@Label("Instrumentation Phase")
+@Category("DroidInstrument")
+@StackTrace(false)
+public class PhaseEvent extends Event {
+
+    @Label("Phase")
+    public String phase;
+
+    @Label("APK")
+    public String apk;
+
+    public static PhaseEvent start(Phase phase, String apk) {
+        PhaseEvent event = new PhaseEvent();
+        event.phase = phase.getName();
+        event.apk = apk;
+        event.begin();
+        return event;
+    }
+}
@@ -0,0 +1,29 @@
+package phd.research.metrics;
+
+import jdk.jfr.*;
+
+/**
+ * Flight recorder event spanning the validation of one instrumented method body, recorded if it takes longer than the
+ * threshold. Only loaded if the JVM supports flight recorder events (see
+ * {@link phd.research.singleton.InstrumentMetrics}).
+ *
+ * @author Jordan Doyle
+ */
+
+@Name("phd.research.Validation")
+@Label("Body Validation")
+@Category("DroidInstrument")
+@Threshold("1 ms")
+@StackTrace(false)
+public class ValidationEvent extends Event {
+
+    @Label("Method")
+    public String method;
+
+    public static ValidationEvent start(String method) {
+        ValidationEvent event = new ValidationEvent();
+        event.method = method;
+        event.begin();
+        return event;
+    }
+}
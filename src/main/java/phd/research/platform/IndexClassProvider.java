@@ -0,0 +1,114 @@
+package phd.research.platform;
+
+import com.google.common.base.Optional;
+import soot.*;
+import soot.asm.AsmUtil;
+import soot.javaToJimple.IInitialResolver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Soot class provider of the classes of a {@link PlatformIndex}. Classes are resolved to the same signatures as the
+ * class file front end resolves them from the {@code android.jar}, but from the mapped index instead of parsing the
+ * class files, and without method sources: platform methods have no bodies, which is all instrumentation needs.
+ *
+ * @author Jordan Doyle
+ */
+
+public class IndexClassProvider implements ClassProvider {
+
+    private final PlatformIndex index;
+
+    public IndexClassProvider(PlatformIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * Same outer class as Soot's class file front end gives classes without an outer class attribute.
+     */
+    private static String getOuterClassName(String className) {
+        if (className.contains("$-")) {
+            // Generated lambda classes of the Jack compiler.
+            return className.substring(0, className.indexOf("$-"));
+        }
+        return className.substring(0, className.lastIndexOf('$'));
+    }
+
+    @Override
+    public ClassSource find(String className) {
+        int offset = this.index.findClass(className);
+        return offset < 0 ? null : new IndexClassSource(className, offset);
+    }
+
+    private class IndexClassSource extends ClassSource {
+        private final int offset;
+
+        IndexClassSource(String className, int offset) {
+            super(className);
+            this.offset = offset;
+        }
+
+        @Override
+        public IInitialResolver.Dependencies resolve(SootClass sc) {
+            IInitialResolver.Dependencies dependencies = new IInitialResolver.Dependencies();
+            PlatformIndex.Record record = IndexClassProvider.this.index.getRecord(this.offset);
+
+            sc.setModifiers(record.readInt());
+            String superclass = record.readString();
+            if (superclass != null) {
+                dependencies.typesToSignature.add(RefType.v(superclass));
+                sc.setSuperclass(SootResolver.v().makeClassRef(superclass));
+            }
+
+            int interfaceCount = record.readInt();
+            for (int i = 0; i < interfaceCount; i++) {
+                String name = record.readString();
+                dependencies.typesToSignature.add(RefType.v(name));
+                SootClass interfaceClass = SootResolver.v().makeClassRef(name);
+                interfaceClass.setModifiers(interfaceClass.getModifiers() | Modifier.INTERFACE);
+                sc.addInterface(interfaceClass);
+            }
+
+            int innerClassCount = record.readInt();
+            for (int i = 0; i < innerClassCount; i++) {
+                dependencies.typesToSignature.add(RefType.v(record.readString()));
+            }
+
+            int fieldCount = record.readInt();
+            for (int i = 0; i < fieldCount; i++) {
+                int modifiers = record.readInt();
+                String name = record.readString();
+                Type type = AsmUtil.toJimpleType(record.readString(), Optional.absent());
+                dependencies.typesToSignature.add(type);
+                sc.getOrAddField(Scene.v().makeSootField(name, type, modifiers));
+            }
+
+            int methodCount = record.readInt();
+            for (int i = 0; i < methodCount; i++) {
+                int modifiers = record.readInt();
+                String name = record.readString();
+                List<Type> types = AsmUtil.toJimpleDesc(record.readString(), Optional.absent());
+                dependencies.typesToSignature.addAll(types);
+
+                int exceptionCount = record.readInt();
+                List<SootClass> exceptions = exceptionCount == 0 ? Collections.emptyList() :
+                        new ArrayList<>(exceptionCount);
+                for (int j = 0; j < exceptionCount; j++) {
+                    String exception = record.readString();
+                    dependencies.typesToSignature.add(RefType.v(exception));
+                    exceptions.add(SootResolver.v().makeClassRef(exception));
+                }
+
+                Type returnType = types.remove(types.size() - 1);
+                sc.getOrAddMethod(Scene.v().makeSootMethod(name, types, returnType, modifiers, exceptions));
+            }
+
+            if (!sc.hasOuterClass() && this.className.contains("$")) {
+                sc.setOuterClass(SootResolver.v().makeClassRef(IndexClassProvider.getOuterClassName(this.className)));
+            }
+            return dependencies;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package phd.research.platform;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only view of a platform signature index written by {@link PlatformIndexBuilder}: the class, field and method
+ * signatures of the {@code android.jar} of one API level, without code. The index file is memory-mapped and classes
+ * are looked up by binary search, nothing is read until a class is resolved. The mapping stays valid after the file is
+ * closed and is released with the index.
+ * <p>
+ * File layout (big-endian): a header ({@link #MAGIC}, {@link #VERSION}, API level, size and modification time of the
+ * indexed jar, string count, class count), the string offsets, the class table (name string and record offset of each
+ * class, sorted by name), the class records and the strings (unsigned short length and UTF-8 bytes). A class record
+ * holds the modifiers, the superclass (-1 if none), the interfaces, the inner classes, the fields (modifiers, name and
+ * descriptor) and the methods (modifiers, name, descriptor and thrown exceptions). Class names are qualified, types
+ * are JVM descriptors.
+ *
+ * @author Jordan Doyle
+ */
+
+public class PlatformIndex {
+
+    public static final int MAGIC = 0x44495049;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 36;
+
+    private final File indexFile;
+    private final ByteBuffer buffer;
+    private final int apiLevel;
+    private final long jarSize;
+    private final long jarLastModified;
+    private final int classCount;
+    private final int classTableOffset;
+    private final String[] strings;
+
+    private PlatformIndex(File indexFile, ByteBuffer buffer) throws IOException {
+        this.indexFile = indexFile;
+        this.buffer = buffer;
+
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a platform index (" + indexFile + ").");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported platform index version " + buffer.getInt(4) + " (" + indexFile +
+                    "), rebuild the index.");
+        }
+
+        this.apiLevel = buffer.getInt(8);
+        this.jarSize = buffer.getLong(12);
+        this.jarLastModified = buffer.getLong(20);
+        this.strings = new String[buffer.getInt(28)];
+        this.classCount = buffer.getInt(32);
+        this.classTableOffset = HEADER_SIZE + this.strings.length * 4;
+    }
+
+    public static PlatformIndex open(File indexFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            return new PlatformIndex(indexFile, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * @return the index file of the API level in the index directory, {@code android-<level>.index}.
+     */
+    public static File getIndexFile(File indexDirectory, int apiLevel) {
+        return new File(indexDirectory, "android-" + apiLevel + ".index");
+    }
+
+    public File getIndexFile() {
+        return this.indexFile;
+    }
+
+    public int getApiLevel() {
+        return this.apiLevel;
+    }
+
+    public int getClassCount() {
+        return this.classCount;
+    }
+
+    /**
+     * @return true if the index was built from a jar file of the same size and modification time.
+     */
+    public boolean isIndexOf(File jarFile) {
+        return jarFile.length() == this.jarSize && jarFile.lastModified() == this.jarLastModified;
+    }
+
+    /**
+     * @return the offset of the record of the class, or -1 if the class is not in the index.
+     */
+    public int findClass(String className) {
+        int low = 0;
+        int high = this.classCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int nameIndex = this.buffer.getInt(this.classTableOffset + middle * 8);
+            int comparison = this.getString(nameIndex).compareTo(className);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return this.buffer.getInt(this.classTableOffset + middle * 8 + 4);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return a reader of the class record at the offset, see {@link #findClass(String)}.
+     */
+    public Record getRecord(int offset) {
+        return new Record(offset);
+    }
+
+    /**
+     * Strings are decoded once and kept, concurrent readers may decode the same string twice.
+     */
+    public String getString(int index) {
+        if (index < 0) {
+            return null;
+        }
+
+        String string = this.strings[index];
+        if (string == null) {
+            int offset = this.buffer.getInt(HEADER_SIZE + index * 4);
+            byte[] bytes = new byte[this.buffer.getShort(offset) & 0xFFFF];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = this.buffer.get(offset + 2 + i);
+            }
+            string = new String(bytes, StandardCharsets.UTF_8);
+            this.strings[index] = string;
+        }
+        return string;
+    }
+
+    /**
+     * Sequential reader of the integers of a class record, read in the order they are written.
+     */
+    public class Record {
+        private int position;
+
+        private Record(int offset) {
+            this.position = offset;
+        }
+
+        public int readInt() {
+            int value = PlatformIndex.this.buffer.getInt(this.position);
+            this.position += 4;
+            return value;
+        }
+
+        public String readString() {
+            return PlatformIndex.this.getString(this.readInt());
+        }
+    }
+}
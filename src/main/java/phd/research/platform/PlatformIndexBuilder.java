@@ -0,0 +1,344 @@
+package phd.research.platform;
+
+import org.apache.commons.cli.*;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Command line builder of {@link PlatformIndex} files. Reads the signatures of every class of the {@code android.jar}
+ * of an API level and writes them to {@code android-<level>.index} in the output directory. Modifiers are filtered as
+ * Soot filters the modifiers of class files, so classes resolved from the index equal classes resolved from the jar
+ * (without code).
+ *
+ * @author Jordan Doyle
+ */
+
+public class PlatformIndexBuilder {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PlatformIndexBuilder.class);
+
+    private final Map<String, Integer> stringIndices;
+    private final List<String> strings;
+    private final Map<String, byte[]> records;
+
+    private PlatformIndexBuilder() {
+        this.stringIndices = new HashMap<>();
+        this.strings = new ArrayList<>();
+        this.records = new TreeMap<>();
+    }
+
+    public static void main(String[] args) {
+        int status = PlatformIndexBuilder.run(args);
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    public static Options createOptions() {
+        Options options = new Options();
+        options.addOption(Option.builder("p").longOpt("android-platform").hasArg().numberOfArgs(1).argName("DIRECTORY")
+                .desc("Android SDK platform directory.").build());
+        options.addOption(Option.builder("l").longOpt("api-level").hasArgs().valueSeparator(',').argName("LEVEL")
+                .desc("API levels to index, comma separated (default: every level of the platform directory).")
+                .build());
+        options.addOption(Option.builder("o").longOpt("output-directory").hasArg().numberOfArgs(1).argName("DIRECTORY")
+                .desc("Directory for index files.").build());
+        options.addOption(Option.builder("h").longOpt("help").desc("Display help.").build());
+        return options;
+    }
+
+    public static int run(String[] args) {
+        Options options = PlatformIndexBuilder.createOptions();
+
+        CommandLine cmd;
+        try {
+            CommandLineParser parser = new DefaultParser();
+            cmd = parser.parse(options, args);
+        } catch (ParseException e) {
+            HelpFormatter formatter = new HelpFormatter();
+            final PrintWriter writer = new PrintWriter(System.out);
+            formatter.printUsage(writer, 80, "PlatformIndexBuilder", options);
+            writer.flush();
+            return 10;
+        }
+
+        if (cmd.hasOption("h")) {
+            HelpFormatter formatter = new HelpFormatter();
+            formatter.printHelp("PlatformIndexBuilder", options);
+            return 0;
+        }
+
+        File platformDirectory = new File(cmd.getOptionValue("p", System.getenv("ANDROID_HOME") + File.separator +
+                "platforms"));
+        if (!platformDirectory.isDirectory()) {
+            LOGGER.error("Platform files missing: {}", platformDirectory);
+            return 30;
+        }
+
+        File outputDirectory = new File(cmd.getOptionValue("o", System.getProperty("user.dir")));
+        if (!outputDirectory.isDirectory()) {
+            LOGGER.error("Output directory missing: {}", outputDirectory);
+            return 40;
+        }
+
+        List<Integer> apiLevels = new ArrayList<>();
+        try {
+            if (cmd.hasOption("l")) {
+                for (String level : cmd.getOptionValues("l")) {
+                    apiLevels.add(Integer.parseInt(level.trim()));
+                }
+            } else {
+                apiLevels.addAll(PlatformIndexBuilder.findApiLevels(platformDirectory));
+            }
+        } catch (NumberFormatException e) {
+            LOGGER.error("Invalid API level: {}", e.getMessage());
+            return 10;
+        }
+
+        for (int apiLevel : apiLevels) {
+            File jarFile = new File(platformDirectory, "android-" + apiLevel + File.separator + "android.jar");
+            if (!jarFile.isFile()) {
+                LOGGER.error("Platform files missing: {}", jarFile);
+                return 30;
+            }
+
+            File indexFile = PlatformIndex.getIndexFile(outputDirectory, apiLevel);
+            try {
+                int classes = PlatformIndexBuilder.build(jarFile, apiLevel, indexFile);
+                LOGGER.info("Indexed {} class(es) of '{}' in '{}' ({} KB).", classes, jarFile, indexFile,
+                        indexFile.length() / 1024);
+            } catch (IOException e) {
+                LOGGER.error("Failed to build platform index of '{}': {}", jarFile, e.getMessage());
+                return 60;
+            }
+        }
+        return 0;
+    }
+
+    private static List<Integer> findApiLevels(File platformDirectory) {
+        List<Integer> apiLevels = new ArrayList<>();
+        File[] directories = platformDirectory.listFiles(File::isDirectory);
+        if (directories != null) {
+            for (File directory : directories) {
+                String name = directory.getName();
+                if (name.startsWith("android-") && new File(directory, "android.jar").isFile()) {
+                    try {
+                        apiLevels.add(Integer.parseInt(name.substring("android-".length())));
+                    } catch (NumberFormatException ignored) {
+                        // Preview platforms (e.g. android-TiramisuPrivacySandbox) have no API level.
+                    }
+                }
+            }
+        }
+        Collections.sort(apiLevels);
+        return apiLevels;
+    }
+
+    /**
+     * Same flags as Soot's class file front end: deprecated and record flags are dropped (and the super flag of
+     * classes).
+     */
+    private static int filterModifiers(int access) {
+        return access & ~Opcodes.ACC_DEPRECATED & ~Opcodes.ACC_RECORD;
+    }
+
+    /**
+     * @return the number of classes written to the index file.
+     */
+    public static int build(File jarFile, int apiLevel, File indexFile) throws IOException {
+        PlatformIndexBuilder builder = new PlatformIndexBuilder();
+        try (ZipFile zipFile = new ZipFile(jarFile)) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory() || !entry.getName().endsWith(".class") ||
+                        entry.getName().endsWith("module-info.class")) {
+                    continue;
+                }
+
+                try (InputStream stream = zipFile.getInputStream(entry)) {
+                    new ClassReader(stream).accept(builder.new RecordBuilder(),
+                            ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+                }
+            }
+        }
+
+        builder.write(jarFile, apiLevel, indexFile);
+        return builder.records.size();
+    }
+
+    private int getStringIndex(String string) {
+        if (string == null) {
+            return -1;
+        }
+
+        Integer index = this.stringIndices.get(string);
+        if (index == null) {
+            index = this.strings.size();
+            this.strings.add(string);
+            this.stringIndices.put(string, index);
+        }
+        return index;
+    }
+
+    private void write(File jarFile, int apiLevel, File indexFile) throws IOException {
+        int stringOffsetsSize = this.strings.size() * 4;
+        int classTableSize = this.records.size() * 8;
+        int recordsOffset = PlatformIndex.HEADER_SIZE + stringOffsetsSize + classTableSize;
+        int stringsOffset = recordsOffset + this.records.values().stream().mapToInt(record -> record.length).sum();
+
+        List<byte[]> encodedStrings = new ArrayList<>(this.strings.size());
+        for (String string : this.strings) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xFFFF) {
+                throw new IOException("String too long for platform index: " + string.substring(0, 64) + "...");
+            }
+            encodedStrings.add(bytes);
+        }
+
+        File temporaryFile = new File(indexFile.getPath() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temporaryFile), 64 * 1024))) {
+            output.writeInt(PlatformIndex.MAGIC);
+            output.writeInt(PlatformIndex.VERSION);
+            output.writeInt(apiLevel);
+            output.writeLong(jarFile.length());
+            output.writeLong(jarFile.lastModified());
+            output.writeInt(this.strings.size());
+            output.writeInt(this.records.size());
+
+            int offset = stringsOffset;
+            for (byte[] bytes : encodedStrings) {
+                output.writeInt(offset);
+                offset += 2 + bytes.length;
+            }
+
+            offset = recordsOffset;
+            for (Map.Entry<String, byte[]> record : this.records.entrySet()) {
+                output.writeInt(this.stringIndices.get(record.getKey()));
+                output.writeInt(offset);
+                offset += record.getValue().length;
+            }
+
+            for (byte[] record : this.records.values()) {
+                output.write(record);
+            }
+
+            for (byte[] bytes : encodedStrings) {
+                output.writeShort(bytes.length);
+                output.write(bytes);
+            }
+        }
+
+        if (indexFile.exists() && !indexFile.delete() || !temporaryFile.renameTo(indexFile)) {
+            throw new IOException("Failed to replace index file " + indexFile + ".");
+        }
+    }
+
+    /**
+     * Collects the signatures of one class file into its record.
+     */
+    private class RecordBuilder extends ClassVisitor {
+        private final List<int[]> fields;
+        private final List<int[]> methods;
+        private final List<Integer> innerClasses;
+        private String name;
+        private int access;
+        private int superclass;
+        private int[] interfaces;
+
+        RecordBuilder() {
+            super(Opcodes.ASM9);
+            this.fields = new ArrayList<>();
+            this.methods = new ArrayList<>();
+            this.innerClasses = new ArrayList<>();
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName,
+                String[] interfaces) {
+            this.name = name.replace('/', '.');
+            this.access = PlatformIndexBuilder.filterModifiers(access) & ~Opcodes.ACC_SUPER;
+            this.superclass = PlatformIndexBuilder.this.getStringIndex(superName == null ? null :
+                    superName.replace('/', '.'));
+            this.interfaces = new int[interfaces.length];
+            for (int i = 0; i < interfaces.length; i++) {
+                this.interfaces[i] = PlatformIndexBuilder.this.getStringIndex(interfaces[i].replace('/', '.'));
+            }
+        }
+
+        @Override
+        public void visitInnerClass(String name, String outerName, String innerName, int access) {
+            this.innerClasses.add(PlatformIndexBuilder.this.getStringIndex(name.replace('/', '.')));
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+            this.fields.add(new int[]{PlatformIndexBuilder.filterModifiers(access),
+                    PlatformIndexBuilder.this.getStringIndex(name),
+                    PlatformIndexBuilder.this.getStringIndex(descriptor)});
+            return null;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+                String[] exceptions) {
+            int exceptionCount = exceptions == null ? 0 : exceptions.length;
+            int[] method = new int[4 + exceptionCount];
+            method[0] = PlatformIndexBuilder.filterModifiers(access);
+            method[1] = PlatformIndexBuilder.this.getStringIndex(name);
+            method[2] = PlatformIndexBuilder.this.getStringIndex(descriptor);
+            method[3] = exceptionCount;
+            for (int i = 0; i < exceptionCount; i++) {
+                method[4 + i] = PlatformIndexBuilder.this.getStringIndex(exceptions[i].replace('/', '.'));
+            }
+            this.methods.add(method);
+            return null;
+        }
+
+        @Override
+        public void visitEnd() {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream record = new DataOutputStream(bytes)) {
+                record.writeInt(this.access);
+                record.writeInt(this.superclass);
+                record.writeInt(this.interfaces.length);
+                for (int value : this.interfaces) {
+                    record.writeInt(value);
+                }
+                record.writeInt(this.innerClasses.size());
+                for (int value : this.innerClasses) {
+                    record.writeInt(value);
+                }
+                record.writeInt(this.fields.size());
+                for (int[] field : this.fields) {
+                    for (int value : field) {
+                        record.writeInt(value);
+                    }
+                }
+                record.writeInt(this.methods.size());
+                for (int[] method : this.methods) {
+                    for (int value : method) {
+                        record.writeInt(value);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            PlatformIndexBuilder.this.getStringIndex(this.name);
+            PlatformIndexBuilder.this.records.put(this.name, bytes.toByteArray());
+        }
+    }
+}
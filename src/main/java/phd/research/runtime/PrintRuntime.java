@@ -0,0 +1,46 @@
+package phd.research.runtime;
+
+import phd.research.jimple.JimpleGenerator;
+
+/**
+ * Runtime support injected into the instrumented APK by print mode probes with the probe helper enabled. Each probe is
+ * a single static call to one of the entry points, which print the same messages as the inlined print mode probes.
+ * Message parts known at instrumentation time (the tag and method signature) are passed as string constants, class
+ * names are read at runtime.
+ * <p>
+ * This class runs on the device, it must only use APIs available on Android and must not use lambdas.
+ *
+ * @author Jordan Doyle
+ */
+
+public final class PrintRuntime {
+
+    private PrintRuntime() {
+    }
+
+    public static void enter(String message) {
+        System.out.println(message);
+    }
+
+    public static void enterActivity(Object activity, String message) {
+        System.out.println(JimpleGenerator.A_TAG + " Activity: " + activity.getClass().getName());
+        System.out.println(message);
+    }
+
+    /**
+     * @param activity the Activity of the Fragment, or null if the Fragment is detached or has no
+     *                 {@code getActivity} method.
+     */
+    public static void enterFragment(Object fragment, Object activity, String message) {
+        String fragmentMessage = JimpleGenerator.F_TAG + " Fragment: " + fragment.getClass().getName();
+        if (activity != null) {
+            fragmentMessage = fragmentMessage + " Activity: " + activity.getClass().getName();
+        }
+        System.out.println(fragmentMessage);
+        System.out.println(message);
+    }
+
+    public static void enterControl(String message, int viewId) {
+        System.out.println(message.concat(String.valueOf(viewId)));
+    }
+}
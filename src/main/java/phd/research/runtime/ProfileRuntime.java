@@ -0,0 +1,147 @@
+package phd.research.runtime;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runtime support injected into the instrumented APK in profile mode. Probes read {@link System#nanoTime()} on method
+ * entry and call {@link #exit(int, long)} with the method ID and the entry time before every return and when an
+ * exception leaves the method. Each thread accumulates the number of calls, the total time and the maximum time of
+ * each method in its own long array indexed by method ID, allocated once when the thread first exits a method, so exits
+ * neither lock nor allocate.
+ * <p>
+ * A background thread sums the arrays of all threads and writes them to a text file in the apps files directory
+ * ({@code files/droid-instrument/<pid>.profile}) every {@link #DUMP_INTERVAL} milliseconds and at process exit, and
+ * {@link #dump()} writes the file on demand. The file has a header line followed by one tab separated line per called
+ * method: method ID, calls, total and maximum time in nanoseconds. Totals of running threads are read without
+ * synchronisation and may miss the latest exits.
+ * <p>
+ * This class runs on the device, it must only use APIs available on Android and must not use lambdas.
+ *
+ * @author Jordan Doyle
+ */
+
+public final class ProfileRuntime {
+
+    public static final String HEADER = "id\tcalls\ttotal_ns\tmax_ns";
+
+    private static final long DUMP_INTERVAL = 5000;
+    private static final int FIELDS = 3;
+
+    private static final int METHOD_COUNT = methodCount();
+    private static final List<long[]> THREAD_STATS = new ArrayList<long[]>();
+    private static final ThreadStats STATS = new ThreadStats();
+
+    private static volatile boolean enabled = true;
+
+    static {
+        Dumper dumper = new Dumper();
+        dumper.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(dumper));
+    }
+
+    private ProfileRuntime() {
+    }
+
+    /**
+     * Replaced by the instrumenter with the number of method IDs of the instrumented APK.
+     */
+    private static int methodCount() {
+        return 0;
+    }
+
+    /**
+     * Records one call of the method. A zero entry time marks a call whose probe was skipped by a probe policy, it is
+     * not recorded.
+     */
+    public static void exit(int methodId, long startTime) {
+        if (startTime == 0) {
+            return;
+        }
+
+        long time = System.nanoTime() - startTime;
+        long[] stats = STATS.get();
+        int index = methodId * FIELDS;
+        stats[index]++;
+        stats[index + 1] += time;
+        if (time > stats[index + 2]) {
+            stats[index + 2] = time;
+        }
+    }
+
+    /**
+     * Writes the profile of all threads so far, replacing the previous profile of the process.
+     */
+    public static synchronized void dump() throws IOException {
+        long[] totals = new long[(METHOD_COUNT + 1) * FIELDS];
+        synchronized (THREAD_STATS) {
+            for (long[] stats : THREAD_STATS) {
+                for (int index = FIELDS; index < totals.length; index += FIELDS) {
+                    totals[index] += stats[index];
+                    totals[index + 1] += stats[index + 1];
+                    totals[index + 2] = Math.max(totals[index + 2], stats[index + 2]);
+                }
+            }
+        }
+
+        File file = RuntimeFiles.getFile("profile");
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(temporaryFile), 64 * 1024));
+        try {
+            writer.println(HEADER);
+            for (int methodId = 1; methodId <= METHOD_COUNT; methodId++) {
+                int index = methodId * FIELDS;
+                if (totals[index] > 0) {
+                    writer.println(methodId + "\t" + totals[index] + "\t" + totals[index + 1] + "\t" +
+                            totals[index + 2]);
+                }
+            }
+        } finally {
+            writer.close();
+        }
+        if (writer.checkError() || !temporaryFile.renameTo(file)) {
+            throw new IOException("Failed to write profile " + file);
+        }
+    }
+
+    private static final class ThreadStats extends ThreadLocal<long[]> {
+
+        @Override
+        protected long[] initialValue() {
+            long[] stats = new long[(METHOD_COUNT + 1) * FIELDS];
+            synchronized (THREAD_STATS) {
+                THREAD_STATS.add(stats);
+            }
+            return stats;
+        }
+    }
+
+    private static final class Dumper extends Thread {
+
+        Dumper() {
+            super("droid-instrument-profile");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (Thread.currentThread() == this) {
+                    while (enabled) {
+                        Thread.sleep(DUMP_INTERVAL);
+                        dump();
+                    }
+                } else if (enabled) {
+                    // Shutdown hook, write the final profile.
+                    dump();
+                }
+            } catch (InterruptedException ignored) {
+                // Process is exiting.
+            } catch (IOException e) {
+                enabled = false;
+                System.err.println("DroidInstrument profile disabled: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package phd.research.runtime;
+
+import java.io.*;
+
+/**
+ * Output files of the runtime support classes, in the apps files directory ({@code files/droid-instrument/}).
+ * <p>
+ * This class runs on the device, it must only use APIs available on Android and must not use lambdas.
+ *
+ * @author Jordan Doyle
+ */
+
+public final class RuntimeFiles {
+
+    private RuntimeFiles() {
+    }
+
+    /**
+     * @return the file {@code files/droid-instrument/<pid>.<extension>} of the current process, creating the directory
+     * if needed.
+     */
+    static File getFile(String extension) throws IOException {
+        String processName = "";
+        InputStream inputStream = new FileInputStream("/proc/self/cmdline");
+        try {
+            ByteArrayOutputStream name = new ByteArrayOutputStream();
+            for (int read = inputStream.read(); read > 0; read = inputStream.read()) {
+                name.write(read);
+            }
+            processName = name.toString("UTF-8");
+        } finally {
+            inputStream.close();
+        }
+
+        int separator = processName.indexOf(':');
+        String packageName = separator < 0 ? processName : processName.substring(0, separator);
+        File directory = new File("/data/data/" + packageName + "/files/droid-instrument");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create output directory " + directory);
+        }
+        String pid = new File("/proc/self").getCanonicalFile().getName();
+        return new File(directory, pid + "." + extension);
+    }
+}
@@ -0,0 +1,128 @@
+package phd.research.runtime;
+
+import java.io.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Runtime support injected into the instrumented APK in trace mode. Probes call {@link #record(int, int)} with the
+ * method ID assigned at instrumentation time and one value (a view ID or an identity hash code). Records are packed
+ * into a long and stored in a preallocated lock-free ring buffer, a background thread flushes the buffer in batches to
+ * a binary file in the apps files directory ({@code files/droid-instrument/<pid>.trace}).
+ * <p>
+ * The file starts with {@link #MAGIC} and {@link #VERSION}, followed by big-endian records: method ID in the high 32
+ * bits and value in the low 32 bits. Method IDs start at one, a record with method ID zero carries the number of
+ * records dropped because the buffer was full.
+ * <p>
+ * This class runs on the device, it must only use APIs available on Android and must not use lambdas.
+ *
+ * @author Jordan Doyle
+ */
+
+public final class TraceRuntime {
+
+    public static final int MAGIC = 0x44495452;
+    public static final int VERSION = 1;
+
+    private static final int CAPACITY = 1 << 16;
+    private static final int MASK = CAPACITY - 1;
+    private static final long FLUSH_INTERVAL = 250;
+
+    private static final AtomicLongArray BUFFER = new AtomicLongArray(CAPACITY);
+    private static final AtomicLong WRITE_SEQUENCE = new AtomicLong();
+    private static final AtomicLong DROPPED = new AtomicLong();
+
+    private static volatile long readSequence = 0;
+    private static volatile boolean enabled = true;
+
+    static {
+        Flusher flusher = new Flusher();
+        flusher.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(flusher));
+    }
+
+    private TraceRuntime() {
+    }
+
+    public static void record(int methodId, int value) {
+        if (!enabled) {
+            return;
+        }
+
+        long sequence;
+        do {
+            sequence = WRITE_SEQUENCE.get();
+            if (sequence - readSequence >= CAPACITY) {
+                DROPPED.incrementAndGet();
+                return;
+            }
+        } while (!WRITE_SEQUENCE.compareAndSet(sequence, sequence + 1));
+
+        BUFFER.lazySet((int) (sequence & MASK), ((long) methodId << 32) | (value & 0xFFFFFFFFL));
+    }
+
+    private static final class Flusher extends Thread {
+
+        private DataOutputStream outputStream;
+
+        Flusher() {
+            super("droid-instrument-trace");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (Thread.currentThread() == this) {
+                    File file = RuntimeFiles.getFile("trace");
+                    boolean newFile = !file.exists() || file.length() == 0;
+                    this.outputStream = new DataOutputStream(
+                            new BufferedOutputStream(new FileOutputStream(file, true), 64 * 1024));
+                    if (newFile) {
+                        this.outputStream.writeInt(MAGIC);
+                        this.outputStream.writeInt(VERSION);
+                    }
+
+                    while (true) {
+                        drain();
+                        Thread.sleep(FLUSH_INTERVAL);
+                    }
+                } else {
+                    // Shutdown hook, flush whatever is left in the buffer.
+                    drain();
+                }
+            } catch (InterruptedException ignored) {
+                // Process is exiting.
+            } catch (IOException e) {
+                enabled = false;
+                System.err.println("DroidInstrument trace disabled: " + e.getMessage());
+            }
+        }
+
+        private synchronized void drain() throws IOException {
+            if (this.outputStream == null) {
+                return;
+            }
+
+            long sequence = readSequence;
+            long end = WRITE_SEQUENCE.get();
+            while (sequence < end) {
+                int slot = (int) (sequence & MASK);
+                long record = BUFFER.get(slot);
+                if (record == 0) {
+                    // Slot is claimed but the producer has not stored its record yet.
+                    break;
+                }
+                BUFFER.set(slot, 0);
+                this.outputStream.writeLong(record);
+                readSequence = ++sequence;
+            }
+
+            long dropped = DROPPED.getAndSet(0);
+            if (dropped > 0) {
+                this.outputStream.writeLong(Math.min(dropped, 0xFFFFFFFFL));
+            }
+            this.outputStream.flush();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package phd.research.server;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import org.apache.commons.cli.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import phd.research.main.Main;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Command line client of the {@link InstrumentServer}. Submits one instrumentation job (the DroidInstrument arguments
+ * following {@code --}) and waits for it to finish, or queries the status of the server or shuts it down. The last
+ * response of the server is printed to standard output as JSON, and the client exits with the exit code of the job.
+ * Paths in the job arguments are made absolute, as the server may run in another working directory.
+ *
+ * @author Jordan Doyle
+ */
+
+public class InstrumentClient {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InstrumentClient.class);
+
+    public static final int SERVER_UNAVAILABLE = 110;
+
+    // DroidInstrument options taking file or directory arguments.
+    private static final List<String> PATH_OPTIONS = Arrays.asList("apk", "android-platform", "output-directory",
+            "keystore", "filter-rules", "cache-dir", "platform-index");
+
+    private static final Gson GSON = new Gson();
+
+    public static void main(String[] args) {
+        int status = InstrumentClient.run(args);
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    public static Options createOptions() {
+        Options options = new Options();
+        options.addOption(Option.builder().longOpt("port").hasArg().numberOfArgs(1).argName("PORT")
+                .desc("Loopback port of the server (default: " + InstrumentServer.DEFAULT_PORT + ").").build());
+        OptionGroup request = new OptionGroup();
+        request.addOption(Option.builder().longOpt("status").desc("Display the status of the server.").build());
+        request.addOption(Option.builder().longOpt("shutdown")
+                .desc("Stop the server once the queued jobs are finished.").build());
+        options.addOptionGroup(request);
+        options.addOption(Option.builder("h").longOpt("help").desc("Display help.").build());
+        return options;
+    }
+
+    public static int run(String[] args) {
+        Options options = InstrumentClient.createOptions();
+
+        CommandLine cmd;
+        try {
+            CommandLineParser parser = new DefaultParser();
+            cmd = parser.parse(options, args);
+        } catch (ParseException e) {
+            InstrumentClient.printUsage(options);
+            return 10;
+        }
+
+        if (cmd.hasOption("h")) {
+            HelpFormatter formatter = new HelpFormatter();
+            formatter.printHelp("InstrumentClient [options] -- <DroidInstrument options>", options);
+            return 0;
+        }
+
+        int port;
+        try {
+            port = Integer.parseInt(cmd.getOptionValue("port", String.valueOf(InstrumentServer.DEFAULT_PORT)));
+        } catch (NumberFormatException e) {
+            LOGGER.error("Invalid port: {}", e.getMessage());
+            return 10;
+        }
+
+        JsonObject request = new JsonObject();
+        if (cmd.hasOption("status")) {
+            request.addProperty("type", "status");
+        } else if (cmd.hasOption("shutdown")) {
+            request.addProperty("type", "shutdown");
+        } else {
+            if (cmd.getArgList().isEmpty()) {
+                InstrumentClient.printUsage(options);
+                return 10;
+            }
+
+            JsonArray arguments = new JsonArray();
+            try {
+                InstrumentClient.toJobArguments(cmd.getArgList()).forEach(arguments::add);
+            } catch (ParseException e) {
+                LOGGER.error("Invalid job arguments: {}", e.getMessage());
+                return 10;
+            }
+            request.addProperty("type", "instrument");
+            request.add("arguments", arguments);
+        }
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+             BufferedReader reader = new BufferedReader(
+                     new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter writer = new PrintWriter(new BufferedWriter(
+                     new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)))) {
+            writer.println(GSON.toJson(request));
+            writer.flush();
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                JsonObject response = JsonParser.parseString(line).getAsJsonObject();
+                String state = response.get("state").getAsString();
+                if (state.equals("queued")) {
+                    LOGGER.debug("Job {} queued behind {} job(s).", response.get("job").getAsLong(),
+                            response.get("queued").getAsInt() - 1);
+                    continue;
+                }
+
+                System.out.println(line);
+                return response.has("exitCode") ? response.get("exitCode").getAsInt() : 0;
+            }
+            LOGGER.error("Server closed the connection without a response.");
+            return SERVER_UNAVAILABLE;
+        } catch (IOException e) {
+            LOGGER.error("Failed to reach server on port {}: {}", port, e.getMessage());
+            return SERVER_UNAVAILABLE;
+        } catch (JsonParseException | IllegalStateException | NullPointerException e) {
+            LOGGER.error("Malformed server response: {}", e.getMessage());
+            return SERVER_UNAVAILABLE;
+        }
+    }
+
+    private static void printUsage(Options options) {
+        HelpFormatter formatter = new HelpFormatter();
+        final PrintWriter writer = new PrintWriter(System.out);
+        formatter.printUsage(writer, 80, "InstrumentClient [options] -- <DroidInstrument options>", options);
+        writer.flush();
+    }
+
+    /**
+     * Parses the job arguments as DroidInstrument options and makes the paths of file and directory options absolute.
+     */
+    private static List<String> toJobArguments(List<String> jobArgs) throws ParseException {
+        CommandLine job = new DefaultParser().parse(Main.createOptions(), jobArgs.toArray(new String[0]));
+
+        List<String> arguments = new ArrayList<>();
+        for (Option option : job.getOptions()) {
+            arguments.add("--" + option.getLongOpt());
+            if (option.hasArg()) {
+                for (String value : option.getValues()) {
+                    arguments.add(PATH_OPTIONS.contains(option.getLongOpt()) ?
+                            new File(value).getAbsolutePath() : value);
+                }
+            }
+        }
+        if (!job.hasOption("output-directory")) {
+            // Same default as a local run, relative to the working directory of the client.
+            arguments.add("--output-directory");
+            arguments.add(new File(System.getProperty("user.dir"), "output").getAbsolutePath());
+        }
+        return arguments;
+    }
+}
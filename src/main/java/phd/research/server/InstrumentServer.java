@@ -0,0 +1,458 @@
+package phd.research.server;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import org.apache.commons.cli.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import phd.research.batch.BatchInstrument;
+import phd.research.batch.JobStatus;
+import phd.research.batch.Worker;
+import phd.research.batch.WorkerProcess;
+import phd.research.main.Main;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long-running instrumentation server keeping a pool of warm {@link Worker} JVMs, so clients (see
+ * {@link InstrumentClient}) do not pay JVM startup and JIT warmup for every APK file. The server listens on a loopback
+ * port and reads one JSON request per line:
+ * <ul>
+ *     <li>{@code {"type": "instrument", "arguments": [...]}} queues a job with DroidInstrument arguments for a single
+ *     APK file. The server answers with a {@code queued} line, and with a {@code done} line holding the exit code, the
+ *     queue and run times, the output APK and the metrics report once the job finished. If the queue is full the job
+ *     is {@code rejected} with exit code {@value #QUEUE_FULL}. A job running longer than the job timeout is done with
+ *     exit code {@value Worker#JOB_TIMEOUT}.</li>
+ *     <li>{@code {"type": "status"}} answers with the number of workers and of queued, running, completed and failed
+ *     jobs.</li>
+ *     <li>{@code {"type": "shutdown"}} stops accepting connections, the queued jobs are finished before the server
+ *     exits.</li>
+ * </ul>
+ * Relative paths in job arguments are resolved against the working directory of the server.
+ *
+ * @author Jordan Doyle
+ */
+
+public class InstrumentServer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InstrumentServer.class);
+
+    public static final int DEFAULT_PORT = 7420;
+    public static final int QUEUE_FULL = 100;
+
+    // Options of a job the server decides on: jobs instrument one APK file on one worker, and must not delete the
+    // output of other jobs.
+    private static final List<String> SERVER_OPTIONS = Arrays.asList("batch", "jobs", "job-timeout", "clean-directory",
+            "help");
+
+    private static final Gson GSON = new Gson();
+
+    private final ServerSocket serverSocket;
+    private final BlockingQueue<ServerJob> queue;
+    private final int capacity;
+    private final int workers;
+    private final long jobTimeout;
+    private final File logDirectory;
+    private final ExecutorService connections;
+    private final AtomicLong jobIds;
+    private final AtomicInteger running;
+    private final AtomicInteger completed;
+    private final AtomicInteger failed;
+    private final Set<File> outputApkFiles;
+    private volatile boolean stopping;
+
+    /**
+     * @param jobTimeout seconds a job may run before its worker is destroyed and replaced, zero for no limit.
+     */
+    public InstrumentServer(ServerSocket serverSocket, int workers, int capacity, long jobTimeout, File logDirectory) {
+        this.serverSocket = serverSocket;
+        this.workers = workers;
+        this.capacity = capacity;
+        this.jobTimeout = jobTimeout;
+        this.logDirectory = logDirectory;
+        // Shutdown adds one end of queue marker per worker on top of a full queue.
+        this.queue = new ArrayBlockingQueue<>(capacity + workers);
+        this.connections = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "server-connection");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.jobIds = new AtomicLong();
+        this.running = new AtomicInteger();
+        this.completed = new AtomicInteger();
+        this.failed = new AtomicInteger();
+        this.outputApkFiles = new HashSet<>();
+    }
+
+    public static void main(String[] args) {
+        int status = InstrumentServer.run(args);
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    public static Options createOptions() {
+        Options options = new Options();
+        options.addOption(Option.builder().longOpt("port").hasArg().numberOfArgs(1).argName("PORT")
+                .desc("Loopback port to listen on (default: " + DEFAULT_PORT + ", 0 for any free port).").build());
+        options.addOption(Option.builder("j").longOpt("jobs").hasArg().numberOfArgs(1).argName("NUMBER")
+                .desc("Number of worker JVMs, i.e. jobs running at the same time (default: all cores).").build());
+        options.addOption(Option.builder().longOpt("queue-size").hasArg().numberOfArgs(1).argName("NUMBER")
+                .desc("Number of jobs waiting for a worker before new jobs are rejected (default: 64).").build());
+        options.addOption(Option.builder().longOpt("job-timeout").hasArg().numberOfArgs(1).argName("SECONDS")
+                .desc("Seconds a job may run before its worker JVM is destroyed and replaced (default: 0, no " +
+                        "limit).").build());
+        options.addOption(Option.builder().longOpt("log-directory").hasArg().numberOfArgs(1).argName("DIRECTORY")
+                .desc("Directory for worker logs (default: logs).").build());
+        options.addOption(Option.builder("h").longOpt("help").desc("Display help.").build());
+        return options;
+    }
+
+    public static int run(String[] args) {
+        Options options = InstrumentServer.createOptions();
+
+        CommandLine cmd;
+        try {
+            CommandLineParser parser = new DefaultParser();
+            cmd = parser.parse(options, args);
+        } catch (ParseException e) {
+            HelpFormatter formatter = new HelpFormatter();
+            final PrintWriter writer = new PrintWriter(System.out);
+            formatter.printUsage(writer, 80, "InstrumentServer", options);
+            writer.flush();
+            return 10;
+        }
+
+        if (cmd.hasOption("h")) {
+            HelpFormatter formatter = new HelpFormatter();
+            formatter.printHelp("InstrumentServer", options);
+            return 0;
+        }
+
+        int port;
+        int jobs;
+        int capacity;
+        long jobTimeout;
+        try {
+            port = Integer.parseInt(cmd.getOptionValue("port", String.valueOf(DEFAULT_PORT)));
+            jobs = Integer.parseInt(
+                    cmd.getOptionValue("j", String.valueOf(Runtime.getRuntime().availableProcessors())));
+            capacity = Integer.parseInt(cmd.getOptionValue("queue-size", "64"));
+            jobTimeout = Long.parseLong(cmd.getOptionValue("job-timeout", "0"));
+            if (port < 0 || jobs < 1 || capacity < 1 || jobTimeout < 0) {
+                throw new NumberFormatException("must be at least 1 (port and job timeout at least 0)");
+            }
+        } catch (NumberFormatException e) {
+            LOGGER.error("Invalid port, number of jobs, queue size or job timeout: {}", e.getMessage());
+            return 10;
+        }
+
+        File logDirectory = new File(cmd.getOptionValue("log-directory", "logs")).getAbsoluteFile();
+        try (ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            return new InstrumentServer(serverSocket, jobs, capacity, jobTimeout, logDirectory).serve();
+        } catch (IOException e) {
+            LOGGER.error("Failed to listen on port {}: {}", port, e.getMessage());
+            return 40;
+        }
+    }
+
+    /**
+     * Accepts connections until a shutdown request arrives, then waits for the queued jobs to finish.
+     */
+    public int serve() {
+        LOGGER.info("Listening on {}:{} with {} worker(s) and a queue of {} job(s).",
+                this.serverSocket.getInetAddress().getHostAddress(), this.serverSocket.getLocalPort(), this.workers,
+                this.capacity);
+
+        ExecutorService workerThreads = Executors.newFixedThreadPool(this.workers);
+        for (int i = 0; i < this.workers; i++) {
+            final int id = i;
+            workerThreads.execute(() -> this.work(id));
+        }
+
+        while (!this.stopping) {
+            try {
+                Socket socket = this.serverSocket.accept();
+                this.connections.execute(() -> this.handle(socket));
+            } catch (IOException e) {
+                if (!this.stopping) {
+                    LOGGER.error("Failed to accept connection: {}", e.getMessage());
+                }
+            }
+        }
+
+        workerThreads.shutdown();
+        try {
+            workerThreads.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } catch (InterruptedException e) {
+            workerThreads.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        this.connections.shutdownNow();
+        LOGGER.info("Server stopped: {} job(s) completed, {} failed.", this.completed.get(), this.failed.get());
+        return 0;
+    }
+
+    private void work(int id) {
+        File workerLogs = new File(this.logDirectory, "worker-" + id);
+        WorkerProcess worker = null;
+
+        while (true) {
+            ServerJob job;
+            try {
+                job = this.queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (job.getArguments() == null) {
+                break;
+            }
+
+            job.start();
+            this.running.incrementAndGet();
+            JobStatus status;
+            try {
+                if (worker == null || !worker.isAlive()) {
+                    worker = new WorkerProcess(id, workerLogs);
+                    worker.start();
+                }
+                LOGGER.info("Worker {} processing job {} ('{}').", id, job.getId(), job.getApkFile());
+                // A job running past the timeout has its worker destroyed, the next job starts a new one.
+                status = worker.submit(job.getApkFile(), job.getArguments(), this.jobTimeout);
+            } catch (IOException e) {
+                status = new JobStatus(job.getApkFile(), Worker.UNEXPECTED_ERROR, 0, "Worker failed: " +
+                        e.getMessage());
+                if (worker != null) {
+                    worker.stop();
+                }
+                worker = null;
+            } catch (InterruptedException e) {
+                this.release(job);
+                job.getStatus().complete(new JobStatus(job.getApkFile(), Worker.UNEXPECTED_ERROR, 0,
+                        "Server interrupted."));
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                this.running.decrementAndGet();
+            }
+
+            (status.isSuccess() ? this.completed : this.failed).incrementAndGet();
+            this.release(job);
+            job.getStatus().complete(status);
+        }
+
+        if (worker != null) {
+            worker.stop();
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (Socket connection = socket;
+             BufferedReader reader = new BufferedReader(
+                     new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter writer = new PrintWriter(new BufferedWriter(
+                     new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8)))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+
+                String type;
+                JsonObject request;
+                try {
+                    request = JsonParser.parseString(line).getAsJsonObject();
+                    type = request.has("type") ? request.get("type").getAsString() : "";
+                } catch (JsonParseException | IllegalStateException | UnsupportedOperationException e) {
+                    InstrumentServer.send(writer, InstrumentServer.error(10, "Malformed request: " + e.getMessage()));
+                    continue;
+                }
+
+                switch (type) {
+                    case "instrument":
+                        this.instrument(request, writer);
+                        break;
+                    case "status":
+                        InstrumentServer.send(writer, this.status());
+                        break;
+                    case "shutdown":
+                        InstrumentServer.send(writer, this.shutdown());
+                        return;
+                    default:
+                        InstrumentServer.send(writer, InstrumentServer.error(10, "Unknown request type: " + type));
+                }
+            }
+        } catch (SocketException e) {
+            LOGGER.debug("Connection closed: {}", e.getMessage());
+        } catch (IOException e) {
+            LOGGER.warn("Connection failed: {}", e.getMessage());
+        }
+    }
+
+    private void instrument(JsonObject request, PrintWriter writer) {
+        ServerJob job;
+        try {
+            job = this.createJob(request);
+        } catch (ParseException | ClassCastException | IllegalStateException | UnsupportedOperationException e) {
+            InstrumentServer.send(writer, InstrumentServer.error(10, "Invalid job arguments: " + e.getMessage()));
+            return;
+        }
+
+        if (!this.offer(job)) {
+            this.release(job);
+            JsonObject response = InstrumentServer.error(QUEUE_FULL, this.stopping ? "Server is stopping." :
+                    "Job queue is full (" + this.capacity + " job(s)).");
+            response.addProperty("state", "rejected");
+            InstrumentServer.send(writer, response);
+            return;
+        }
+
+        JsonObject queued = new JsonObject();
+        queued.addProperty("job", job.getId());
+        queued.addProperty("state", "queued");
+        queued.addProperty("queued", this.queue.size());
+        InstrumentServer.send(writer, queued);
+
+        JobStatus status;
+        try {
+            status = job.getStatus().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            status = new JobStatus(job.getApkFile(), Worker.UNEXPECTED_ERROR, 0, e.getCause().getMessage());
+        }
+
+        JsonObject done = new JsonObject();
+        done.addProperty("job", job.getId());
+        done.addProperty("state", "done");
+        done.addProperty("exitCode", status.getExitCode());
+        done.addProperty("description", BatchInstrument.describeExitCode(status.getExitCode()));
+        done.addProperty("message", status.getMessage());
+        done.addProperty("queueSeconds", job.getQueueNanos() / 1e9);
+        done.addProperty("seconds", status.getNanoseconds() / 1e9);
+        if (status.isSuccess()) {
+            done.addProperty("outputApk", job.getOutputApkFile().getAbsolutePath());
+            done.add("report", InstrumentServer.readReport(job.getMetricsFile()));
+        }
+        InstrumentServer.send(writer, done);
+    }
+
+    /**
+     * Queues the job unless the server is stopping or the queue holds as many jobs as its capacity. The queue itself
+     * has room for the end of queue markers added on shutdown, which must be the last entries of the queue.
+     */
+    private synchronized boolean offer(ServerJob job) {
+        return !this.stopping && this.queue.size() < this.capacity && this.queue.offer(job);
+    }
+
+    private ServerJob createJob(JsonObject request) throws ParseException {
+        List<String> arguments = new ArrayList<>();
+        JsonArray array = request.getAsJsonArray("arguments");
+        if (array == null) {
+            throw new ParseException("missing arguments");
+        }
+        for (JsonElement element : array) {
+            arguments.add(element.getAsString());
+        }
+
+        CommandLine cmd = new DefaultParser().parse(Main.createOptions(), arguments.toArray(new String[0]));
+        if (!cmd.hasOption("a")) {
+            throw new ParseException("a job instruments a single APK file (--apk)");
+        }
+        for (String option : SERVER_OPTIONS) {
+            if (cmd.hasOption(option)) {
+                throw new ParseException("option --" + option + " is not supported in jobs");
+            }
+        }
+
+        File apkFile = new File(cmd.getOptionValue("a")).getAbsoluteFile();
+        File outputDirectory = new File(cmd.getOptionValue("o",
+                System.getProperty("user.dir") + File.separator + "output")).getAbsoluteFile();
+        ServerJob job = new ServerJob(this.jobIds.incrementAndGet(), apkFile, outputDirectory, arguments);
+        synchronized (this.outputApkFiles) {
+            if (!this.outputApkFiles.add(job.getOutputApkFile())) {
+                throw new ParseException("output APK " + job.getOutputApkFile() + " is written by a queued or " +
+                        "running job");
+            }
+        }
+        return job;
+    }
+
+    /**
+     * Allows new jobs to write the output APK of a job that finished or was rejected.
+     */
+    private void release(ServerJob job) {
+        synchronized (this.outputApkFiles) {
+            this.outputApkFiles.remove(job.getOutputApkFile());
+        }
+    }
+
+    private JsonObject status() {
+        JsonObject status = new JsonObject();
+        status.addProperty("state", "status");
+        status.addProperty("workers", this.workers);
+        status.addProperty("capacity", this.capacity);
+        status.addProperty("queued", this.queue.size());
+        status.addProperty("running", this.running.get());
+        status.addProperty("completed", this.completed.get());
+        status.addProperty("failed", this.failed.get());
+        return status;
+    }
+
+    private synchronized JsonObject shutdown() {
+        if (!this.stopping) {
+            LOGGER.info("Shutdown requested, finishing {} queued job(s).", this.queue.size());
+            this.stopping = true;
+            for (int i = 0; i < this.workers; i++) {
+                // End of queue marker, the queue has room for one per worker.
+                this.queue.add(new ServerJob(0, null, null, null));
+            }
+            try {
+                this.serverSocket.close();
+            } catch (IOException e) {
+                LOGGER.warn("Failed to close server socket: {}", e.getMessage());
+            }
+        }
+
+        JsonObject response = this.status();
+        response.addProperty("state", "stopping");
+        return response;
+    }
+
+    private static JsonElement readReport(File reportFile) {
+        try (Reader reader = new InputStreamReader(new FileInputStream(reportFile), StandardCharsets.UTF_8)) {
+            return JsonParser.parseReader(reader);
+        } catch (IOException | JsonParseException e) {
+            LOGGER.warn("Failed to read metrics report ({}): {}", reportFile, e.getMessage());
+            return null;
+        }
+    }
+
+    private static JsonObject error(int exitCode, String message) {
+        JsonObject response = new JsonObject();
+        response.addProperty("state", "error");
+        response.addProperty("exitCode", exitCode);
+        response.addProperty("message", message);
+        return response;
+    }
+
+    private static void send(PrintWriter writer, JsonObject response) {
+        writer.println(GSON.toJson(response));
+        writer.flush();
+    }
+}
@@ -0,0 +1,76 @@
+package phd.research.server;
+
+import phd.research.batch.JobStatus;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * An instrumentation job queued by the {@link InstrumentServer}: the DroidInstrument arguments of a single APK file and
+ * the status the worker answered with.
+ *
+ * @author Jordan Doyle
+ */
+
+public class ServerJob {
+
+    private final long id;
+    private final File apkFile;
+    private final File outputDirectory;
+    private final List<String> arguments;
+    private final CompletableFuture<JobStatus> status;
+    private final long queuedNanos;
+    private long startedNanos;
+
+    public ServerJob(long id, File apkFile, File outputDirectory, List<String> arguments) {
+        this.id = id;
+        this.apkFile = apkFile;
+        this.outputDirectory = outputDirectory;
+        this.arguments = arguments;
+        this.status = new CompletableFuture<>();
+        this.queuedNanos = System.nanoTime();
+    }
+
+    public long getId() {
+        return this.id;
+    }
+
+    public File getApkFile() {
+        return this.apkFile;
+    }
+
+    public List<String> getArguments() {
+        return this.arguments;
+    }
+
+    public CompletableFuture<JobStatus> getStatus() {
+        return this.status;
+    }
+
+    public File getOutputApkFile() {
+        return new File(this.outputDirectory, this.apkFile.getName());
+    }
+
+    /**
+     * @return the metrics report written next to the output APK (see {@link phd.research.singleton.InstrumentMetrics}).
+     */
+    public File getMetricsFile() {
+        String name = this.apkFile.getName();
+        if (name.toLowerCase().endsWith(".apk")) {
+            name = name.substring(0, name.length() - 4);
+        }
+        return new File(this.outputDirectory, name + "-metrics.json");
+    }
+
+    public void start() {
+        this.startedNanos = System.nanoTime();
+    }
+
+    /**
+     * @return the time the job waited in the queue, or has waited so far if it has not been started.
+     */
+    public long getQueueNanos() {
+        return (this.startedNanos != 0 ? this.startedNanos : System.nanoTime()) - this.queuedNanos;
+    }
+}
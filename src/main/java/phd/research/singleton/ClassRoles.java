@@ -0,0 +1,182 @@
+package phd.research.singleton;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import phd.research.jimple.ClassRole;
+import soot.RefType;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.Type;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves the {@link ClassRole} of each application class once, from its superclass chain and the interfaces it
+ * implements: a subclass of the framework, support library or AndroidX Activity or Fragment, or an implementation of a
+ * listener interface declaring a method that takes a View or a MenuItem as first parameter. The {@code getActivity}
+ * method of each Fragment is cached as well, and which classes are extended by other application classes. Classes are
+ * classified before the body packs run, classes looked up later (e.g. generated classes) are classified on first use.
+ *
+ * @author Jordan Doyle
+ */
+
+public class ClassRoles {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClassRoles.class);
+
+    private static final Set<String> ACTIVITY_CLASSES = Collections.singleton("android.app.Activity");
+    private static final Set<String> FRAGMENT_CLASSES = new HashSet<>(Arrays.asList("android.app.Fragment",
+            "android.support.v4.app.Fragment", "androidx.fragment.app.Fragment"));
+
+    private static ClassRoles instance = null;
+
+    private final Map<SootClass, ClassRole> roles;
+    private final Map<SootClass, ClassRole> listenerRoles;
+    private final Map<SootClass, Optional<SootMethod>> getActivityMethods;
+    private final Set<SootClass> classifiedClasses;
+    private final Set<SootClass> extendedClasses;
+
+    private ClassRoles() {
+        this.classifiedClasses = new HashSet<>();
+        this.extendedClasses = new HashSet<>();
+        this.roles = new ConcurrentHashMap<>();
+        this.listenerRoles = new ConcurrentHashMap<>();
+        this.getActivityMethods = new ConcurrentHashMap<>();
+    }
+
+    public static ClassRoles v() {
+        if (instance == null) {
+            instance = new ClassRoles();
+        }
+        return instance;
+    }
+
+    public static void reset() {
+        instance = null;
+    }
+
+    /**
+     * Classifies the classes, and finds the {@code getActivity} method of the Fragments, replacing the roles of the
+     * previous run.
+     */
+    public void classify(Collection<SootClass> classes) {
+        this.roles.clear();
+        this.listenerRoles.clear();
+        this.getActivityMethods.clear();
+        this.classifiedClasses.clear();
+        this.extendedClasses.clear();
+        this.classifiedClasses.addAll(classes);
+
+        Map<ClassRole, Integer> counts = new EnumMap<>(ClassRole.class);
+        for (SootClass clazz : classes) {
+            if (clazz.hasSuperclass()) {
+                this.extendedClasses.add(clazz.getSuperclass());
+            }
+            ClassRole role = this.getRole(clazz);
+            counts.merge(role, 1, Integer::sum);
+            if (role == ClassRole.FRAGMENT) {
+                this.getActivityMethod(clazz);
+            }
+        }
+        LOGGER.info("Classified {} class(es): {}", classes.size(), counts);
+    }
+
+    /**
+     * @return true if the class is final, or was classified and no classified class extends it. Instances of the class
+     * then have the class itself as runtime class, unless classes are loaded dynamically.
+     */
+    public boolean isLeafClass(SootClass clazz) {
+        return clazz.isFinal() || !clazz.isInterface() && this.classifiedClasses.contains(clazz) &&
+                !this.extendedClasses.contains(clazz);
+    }
+
+    public ClassRole getRole(SootClass clazz) {
+        return this.roles.computeIfAbsent(clazz, this::resolveRole);
+    }
+
+    private ClassRole resolveRole(SootClass clazz) {
+        if (clazz.isInterface()) {
+            return ClassRole.NONE;
+        }
+
+        ClassRole listenerRole = ClassRole.NONE;
+        for (SootClass current = clazz; current != null; current = current.hasSuperclass() ?
+                current.getSuperclass() : null) {
+            if (ACTIVITY_CLASSES.contains(current.getName())) {
+                return ClassRole.ACTIVITY;
+            }
+            if (FRAGMENT_CLASSES.contains(current.getName())) {
+                return ClassRole.FRAGMENT;
+            }
+
+            for (SootClass interfaceClass : new ArrayList<>(current.getInterfaces())) {
+                ClassRole role = this.getListenerRole(interfaceClass);
+                if (role.compareTo(listenerRole) < 0) {
+                    listenerRole = role;
+                }
+            }
+        }
+        return listenerRole;
+    }
+
+    /**
+     * @return the listener role of the interface and its superinterfaces, {@link ClassRole#NONE} if none of them
+     * declares a method taking a View or a MenuItem as first parameter.
+     */
+    private ClassRole getListenerRole(SootClass interfaceClass) {
+        ClassRole cachedRole = this.listenerRoles.get(interfaceClass);
+        if (cachedRole != null) {
+            return cachedRole;
+        }
+
+        Type viewType = RefType.v("android.view.View");
+        Type menuItemType = RefType.v("android.view.MenuItem");
+        ClassRole role = ClassRole.NONE;
+        Set<SootClass> visited = new HashSet<>();
+        Deque<SootClass> interfaces = new ArrayDeque<>(Collections.singletonList(interfaceClass));
+        while (!interfaces.isEmpty() && role != ClassRole.VIEW_LISTENER) {
+            SootClass current = interfaces.poll();
+            if (!visited.add(current)) {
+                continue;
+            }
+
+            // Copy the method list, other threads may add phantom methods to library classes meanwhile.
+            for (SootMethod method : new ArrayList<>(current.getMethods())) {
+                if (method.getParameterCount() >= 1) {
+                    if (method.getParameterType(0).equals(viewType)) {
+                        role = ClassRole.VIEW_LISTENER;
+                    } else if (method.getParameterType(0).equals(menuItemType) && role == ClassRole.NONE) {
+                        role = ClassRole.MENU_LISTENER;
+                    }
+                }
+            }
+            interfaces.addAll(current.getInterfaces());
+        }
+
+        this.listenerRoles.put(interfaceClass, role);
+        return role;
+    }
+
+    /**
+     * @return the first {@code getActivity} method of the Fragment or its superclasses, or null if there is none.
+     */
+    public SootMethod getActivityMethod(SootClass fragment) {
+        return this.getActivityMethods.computeIfAbsent(fragment, ClassRoles::findGetActivityMethod).orElse(null);
+    }
+
+    private static Optional<SootMethod> findGetActivityMethod(SootClass fragment) {
+        // The Fragment classes of the support library and AndroidX may be application classes themselves.
+        for (SootClass current = fragment; current.hasSuperclass(); current = current.getSuperclass()) {
+            // Copy the method list, other threads may add phantom methods to library classes meanwhile.
+            for (SootMethod method : new ArrayList<>(current.getMethods())) {
+                if (method.getName().equals("getActivity") && method.getParameterCount() == 0 && !method.isStatic()) {
+                    return Optional.of(method);
+                }
+            }
+        }
+
+        LOGGER.warn("No 'getActivity' method found for fragment '{}'.", fragment.getName());
+        return Optional.empty();
+    }
+}
@@ -0,0 +1,288 @@
+package phd.research.singleton;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import phd.research.jimple.CostRule;
+import phd.research.jimple.ProbeKind;
+import phd.research.trace.CallRates;
+import phd.research.utility.Csv;
+import phd.research.utility.Filter;
+import soot.*;
+import soot.jimple.*;
+import soot.jimple.toolkits.annotation.logic.Loop;
+import soot.jimple.toolkits.annotation.logic.LoopFinder;
+import soot.toolkits.graph.BriefUnitGraph;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Static pre-pass deciding which probes cost more than they tell. Each registered method is rated against the
+ * configured {@link CostRule}s before the body packs run, the first matching rule decides whether the probe is skipped
+ * or downgraded. Methods with an Activity, Fragment or control probe are never matched, methods overriding a framework
+ * method (lifecycle methods and listener callbacks, e.g. {@code onDraw} or {@code getView}) are only matched by the
+ * hot rule. Loop callees are found from the statically resolved targets of calls inside loops, calls dispatched to
+ * overriding methods are not followed. Hot methods are found from the calls per run of earlier runs (see
+ * {@link CallRates}), methods no run has seen keep their probe. The methods matched by the hot rule are written to a
+ * scope report, which is given with the next call summaries so the scope of repeated instrument and run cycles only
+ * narrows.
+ * <p>
+ * Decisions are read by the body packs and must not change while they run.
+ *
+ * @author Jordan Doyle
+ */
+
+public class CostModel {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CostModel.class);
+
+    private static CostModel instance = null;
+
+    private final Map<SootMethod, Decision> decisions;
+
+    private CostModel() {
+        this.decisions = new HashMap<>();
+    }
+
+    public static CostModel v() {
+        if (instance == null) {
+            instance = new CostModel();
+        }
+        return instance;
+    }
+
+    public static void reset() {
+        instance = null;
+    }
+
+    private static boolean isAccessor(List<Unit> statements) {
+        if (statements.size() != 2 || !(statements.get(0) instanceof AssignStmt)) {
+            return false;
+        }
+
+        AssignStmt assignStmt = (AssignStmt) statements.get(0);
+        Unit returnStmt = statements.get(1);
+        if (assignStmt.getRightOp() instanceof FieldRef && assignStmt.getLeftOp() instanceof Local) {
+            // Getter: x = this.field; return x;
+            return returnStmt instanceof ReturnStmt && ((ReturnStmt) returnStmt).getOp() == assignStmt.getLeftOp();
+        }
+
+        if (assignStmt.getLeftOp() instanceof FieldRef && assignStmt.getRightOp() instanceof Immediate) {
+            // Setter: this.field = x; return;
+            return returnStmt instanceof ReturnVoidStmt;
+        }
+        return false;
+    }
+
+    private static boolean isFrameworkCallback(SootMethod method) {
+        String subSignature = method.getSubSignature();
+        Deque<SootClass> types = new ArrayDeque<>();
+        Set<SootClass> visited = new HashSet<>();
+        types.add(method.getDeclaringClass());
+
+        while (!types.isEmpty()) {
+            SootClass type = types.poll();
+            if (!visited.add(type)) {
+                continue;
+            }
+
+            // Application classes taken from the class cache are library classes by now, the registry still knows them.
+            if (type != method.getDeclaringClass() && !type.getName().equals("java.lang.Object") &&
+                    (!ProbeRegistry.v().isRegistered(type) || !Filter.isValidClass(type)) &&
+                    type.declaresMethod(subSignature)) {
+                return true;
+            }
+
+            if (type.hasSuperclass()) {
+                types.add(type.getSuperclass());
+            }
+            types.addAll(type.getInterfaces());
+        }
+        return false;
+    }
+
+    /**
+     * Rates the registered methods against the cost rules, retrieving their bodies on the given number of threads.
+     */
+    public void analyse(List<SootMethod> methods, List<CostRule> rules, CallRates callRates, int threads) {
+        this.decisions.clear();
+        if (rules.isEmpty()) {
+            return;
+        }
+
+        Set<SootMethod> registered = new HashSet<>(methods);
+        boolean findLoopCallees = rules.stream().anyMatch(rule -> rule.getType() == CostRule.Type.LOOP_CALLEE);
+        Map<SootMethod, MethodFacts> facts = new ConcurrentHashMap<>();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (SootMethod method : methods) {
+                futures.add(executor.submit(() -> facts.put(method, new MethodFacts(method, findLoopCallees))));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while rating methods.", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to rate methods: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Resolving may build the class hierarchy or add phantom methods, so calls are resolved on this thread.
+        Set<SootMethod> loopCallees = new HashSet<>();
+        for (SootMethod method : methods) {
+            MethodFacts methodFacts = facts.get(method);
+            for (SootMethodRef calleeRef : methodFacts.loopCalls) {
+                SootMethod callee = calleeRef.getDeclaringClass().isApplicationClass() ? calleeRef.tryResolve() : null;
+                if (callee != null && callee != method && registered.contains(callee)) {
+                    loopCallees.add(callee);
+                }
+            }
+        }
+
+        for (SootMethod method : methods) {
+            if (ProbeKind.of(method) != ProbeKind.METHOD) {
+                continue;
+            }
+
+            MethodFacts methodFacts = facts.get(method);
+            // Callbacks are small and called from the framework, only their measured calls count against them.
+            boolean callback = CostModel.isFrameworkCallback(method);
+            long calls = callRates.getCalls(method.getSignature());
+            for (CostRule rule : rules) {
+                boolean matches;
+                switch (rule.getType()) {
+                    case ACCESSOR:
+                        matches = !callback && methodFacts.accessor;
+                        break;
+                    case SMALL:
+                        matches = !callback && methodFacts.statements < rule.getThreshold();
+                        break;
+                    case LOOP_CALLEE:
+                        matches = !callback && loopCallees.contains(method);
+                        break;
+                    case HOT:
+                        matches = calls > rule.getThreshold();
+                        break;
+                    default:
+                        matches = false;
+                }
+
+                if (matches) {
+                    this.decisions.put(method, new Decision(rule, methodFacts.statements, calls));
+                    break;
+                }
+            }
+        }
+
+        Map<String, Integer> counts = new TreeMap<>();
+        this.decisions.values().forEach(decision -> counts.merge(decision.rule.toString(), 1, Integer::sum));
+        LOGGER.info("Cost model matched {} of {} method(s): {}", this.decisions.size(), methods.size(), counts);
+    }
+
+    /**
+     * @return the action for the probe of the method, or null if the method is probed as usual.
+     */
+    public CostRule.Action getAction(SootMethod method) {
+        Decision decision = this.decisions.get(method);
+        return decision != null ? decision.rule.getAction() : null;
+    }
+
+    public void writeReport(File reportFile) throws IOException {
+        List<Map.Entry<SootMethod, Decision>> entries = new ArrayList<>(this.decisions.entrySet());
+        entries.sort(Comparator.comparing(entry -> entry.getKey().getSignature()));
+
+        try (PrintWriter writer = new PrintWriter(
+                new OutputStreamWriter(new FileOutputStream(reportFile), StandardCharsets.UTF_8))) {
+            writer.println("signature,rule,action,statements");
+            for (Map.Entry<SootMethod, Decision> entry : entries) {
+                Decision decision = entry.getValue();
+                writer.println(String.join(",", Csv.escape(entry.getKey().getSignature()),
+                        decision.rule.getName(),
+                        decision.rule.getAction().name().toLowerCase(Locale.ROOT),
+                        String.valueOf(decision.statements)));
+            }
+        }
+
+        LOGGER.info("Cost report written to '{}'.", reportFile.getAbsolutePath());
+    }
+
+    /**
+     * Writes the methods matched by the hot rule with their calls per run, in the format read by {@link CallRates}.
+     */
+    public void writeScopeReport(File reportFile) throws IOException {
+        List<Map.Entry<SootMethod, Decision>> entries = new ArrayList<>();
+        for (Map.Entry<SootMethod, Decision> entry : this.decisions.entrySet()) {
+            if (entry.getValue().rule.getType() == CostRule.Type.HOT) {
+                entries.add(entry);
+            }
+        }
+        entries.sort(Comparator.comparing(entry -> entry.getKey().getSignature()));
+
+        try (PrintWriter writer = new PrintWriter(
+                new OutputStreamWriter(new FileOutputStream(reportFile), StandardCharsets.UTF_8))) {
+            writer.println(CallRates.SCOPE_REPORT_HEADER);
+            for (Map.Entry<SootMethod, Decision> entry : entries) {
+                Decision decision = entry.getValue();
+                writer.println(String.join(",", Csv.escape(entry.getKey().getSignature()),
+                        String.valueOf(decision.calls),
+                        decision.rule.getAction().name().toLowerCase(Locale.ROOT)));
+            }
+        }
+
+        LOGGER.info("Scope report of {} hot method(s) written to '{}'.", entries.size(), reportFile.getAbsolutePath());
+    }
+
+    private static class MethodFacts {
+        private final int statements;
+        private final boolean accessor;
+        private final List<SootMethodRef> loopCalls;
+
+        MethodFacts(SootMethod method, boolean findLoopCallees) {
+            this.loopCalls = new ArrayList<>();
+
+            Body body = method.retrieveActiveBody();
+            List<Unit> statements = new ArrayList<>();
+            for (Unit unit : body.getUnits()) {
+                if (!(unit instanceof IdentityStmt)) {
+                    statements.add(unit);
+                }
+            }
+            this.statements = statements.size();
+            this.accessor = CostModel.isAccessor(statements);
+
+            if (findLoopCallees) {
+                for (Loop loop : new LoopFinder().getLoops(new BriefUnitGraph(body))) {
+                    for (Stmt stmt : loop.getLoopStatements()) {
+                        if (stmt.containsInvokeExpr()) {
+                            this.loopCalls.add(stmt.getInvokeExpr().getMethodRef());
+                        }
+                    }
+                }
+            }
+
+            if (InstrumentSettings.v().getStreamBatchSize() > 0) {
+                // Streamed classes are jimplified again with their batch, rather than every body staying in memory.
+                method.releaseActiveBody();
+            }
+        }
+    }
+
+    private static class Decision {
+        private final CostRule rule;
+        private final int statements;
+        private final long calls;
+
+        Decision(CostRule rule, int statements, long calls) {
+            this.rule = rule;
+            this.statements = statements;
+            this.calls = calls;
+        }
+    }
+}
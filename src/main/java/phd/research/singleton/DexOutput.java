@@ -0,0 +1,376 @@
+package phd.research.singleton;
+
+import org.apache.commons.io.FileUtils;
+import org.jf.dexlib2.DexFileFactory;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.DexFile;
+import org.jf.dexlib2.iface.MultiDexContainer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import phd.research.dex.ApkRepacker;
+import phd.research.dex.DexPartition;
+import phd.research.dex.OutputMode;
+import phd.research.dex.SplicingDexPrinter;
+import phd.research.utility.Filter;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootMethod;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * The classes written to the output APK. Application classes that need no transformation (classes without a method to
+ * instrument, and classes taken from the class cache) are made library classes before the body packs run, so Soot
+ * neither jimplifies, transforms nor writes them, and a ready-made dex class definition is written in their place.
+ * Classes without a method to instrument are written exactly as they are in the input APK.
+ * <p>
+ * In the {@link OutputMode#PARTIAL} output mode only the dex files of the input APK holding a modified class are
+ * written again, the other dex files are copied unchanged (see {@link ApkRepacker}).
+ * <p>
+ * Classes can be streamed to the output: the classes to write are transformed in batches just before they are written,
+ * and their method bodies are released once written, so the bodies of only one batch are held in memory.
+ * <p>
+ * A dex worker only writes the classes of the dex files of its {@link DexPartition}, the classes of the other dex files
+ * are made library classes, and writes dex files to merge instead of an APK.
+ *
+ * @author Jordan Doyle
+ */
+
+public class DexOutput {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DexOutput.class);
+
+    private static DexOutput instance = null;
+
+    private final List<SootClass> classes;
+    private final Map<SootClass, ClassDef> replacements;
+    private final Map<String, ClassDef> inputClasses;
+    private final Map<String, List<ClassDef>> dexEntries;
+    private Opcodes opcodes;
+
+    private DexOutput() {
+        this.classes = new ArrayList<>();
+        this.replacements = new HashMap<>();
+        this.inputClasses = new HashMap<>();
+        this.dexEntries = new HashMap<>();
+    }
+
+    public static DexOutput v() {
+        if (instance == null) {
+            instance = new DexOutput();
+        }
+        return instance;
+    }
+
+    public static void reset() {
+        instance = null;
+    }
+
+    /**
+     * @return the dex type of the class, e.g. {@code Lcom/example/Main;}.
+     */
+    public static String getType(SootClass clazz) {
+        return "L" + clazz.getName().replace('.', '/') + ";";
+    }
+
+    /**
+     * Records the application classes in the order Soot would write them and reads the class definitions of the input
+     * APK. Must be called before any class is replaced. In a dex worker the application classes outside the partition
+     * become library classes, see {@link #getClasses()}.
+     */
+    public void prepare(Collection<SootClass> applicationClasses) throws IOException {
+        this.classes.clear();
+        this.replacements.clear();
+        this.inputClasses.clear();
+        this.dexEntries.clear();
+        this.opcodes = SplicingDexPrinter.getOpcodes();
+
+        List<String> partition = InstrumentSettings.v().getDexPartition();
+        Set<String> partitionTypes = new HashSet<>();
+        MultiDexContainer<? extends DexFile> container = DexFileFactory.loadDexContainer(
+                InstrumentSettings.v().getApkFile(), this.opcodes);
+        for (String entryName : container.getDexEntryNames()) {
+            MultiDexContainer.DexEntry<? extends DexFile> entry = container.getEntry(entryName);
+            if (entry != null) {
+                boolean inPartition = partition == null || partition.contains(entryName);
+                List<ClassDef> entryClasses = new ArrayList<>();
+                for (ClassDef classDef : entry.getDexFile().getClasses()) {
+                    this.inputClasses.putIfAbsent(classDef.getType(), classDef);
+                    entryClasses.add(classDef);
+                    if (inPartition) {
+                        partitionTypes.add(classDef.getType());
+                    }
+                }
+                if (ApkRepacker.getDexIndex(entryName) > 0 && inPartition) {
+                    this.dexEntries.put(entryName, entryClasses);
+                }
+            }
+        }
+
+        if (partition == null) {
+            this.classes.addAll(applicationClasses);
+            return;
+        }
+        if (!this.dexEntries.keySet().containsAll(partition)) {
+            throw new IOException("Dex partition " + partition + " is not in the APK (" +
+                    InstrumentSettings.v().getApkFile() + ").");
+        }
+
+        // Classes generated by the instrumentation are only written by the primary partition.
+        boolean primary = DexPartition.isPrimary(partition);
+        for (SootClass clazz : applicationClasses) {
+            String type = DexOutput.getType(clazz);
+            if (partitionTypes.contains(type) || (primary && !this.inputClasses.containsKey(type))) {
+                this.classes.add(clazz);
+            } else {
+                clazz.setLibraryClass();
+            }
+        }
+        LOGGER.info("Instrumenting {} of {} class(es) in dex partition {}.", this.classes.size(),
+                applicationClasses.size(), partition);
+    }
+
+    /**
+     * @return the application classes to write, recorded by {@link #prepare(Collection)}.
+     */
+    public List<SootClass> getClasses() {
+        return Collections.unmodifiableList(this.classes);
+    }
+
+    /**
+     * Replaces every input class without a method to instrument by its input class definition.
+     */
+    public void passThroughUninstrumented() {
+        int count = 0;
+        for (SootClass clazz : this.classes) {
+            ClassDef inputClass = this.getInputClass(clazz);
+            if (inputClass != null && !this.replacements.containsKey(clazz) &&
+                    clazz.getMethods().stream().noneMatch(DexOutput::isInstrumented)) {
+                this.replace(clazz, inputClass);
+                count++;
+            }
+        }
+        LOGGER.info("Passing {} of {} class(es) without a method to instrument through unchanged.", count,
+                this.classes.size());
+    }
+
+    private static boolean isInstrumented(SootMethod method) {
+        return method.isConcrete() && Filter.isValidMethod(method);
+    }
+
+    public Opcodes getOpcodes() {
+        return this.opcodes;
+    }
+
+    public Map<String, ClassDef> getInputClasses() {
+        return Collections.unmodifiableMap(this.inputClasses);
+    }
+
+    /**
+     * @return the class definition of the class in the input APK, or null if the class was generated.
+     */
+    public ClassDef getInputClass(SootClass clazz) {
+        return this.inputClasses.get(DexOutput.getType(clazz));
+    }
+
+    public boolean isReplaced(SootClass clazz) {
+        return this.replacements.containsKey(clazz);
+    }
+
+    /**
+     * Writes the class definition in place of the class, which becomes a library class.
+     */
+    public void replace(SootClass clazz, ClassDef classDef) {
+        this.replacements.put(clazz, classDef);
+        clazz.setLibraryClass();
+    }
+
+    /**
+     * @return true if the class is written differently than in the input APK, or is not in the input APK.
+     */
+    private boolean isModified(SootClass clazz) {
+        ClassDef replacement = this.replacements.get(clazz);
+        return replacement != null ? replacement != this.getInputClass(clazz) : clazz.isApplicationClass();
+    }
+
+    /**
+     * @return the application classes to write, in the order Soot would write them.
+     */
+    private Set<SootClass> getOutputClasses() {
+        // Classes generated after the classes were recorded (e.g. the policy counters) are written last, as by Soot.
+        Set<SootClass> outputClasses = new LinkedHashSet<>(this.classes);
+        List<String> partition = InstrumentSettings.v().getDexPartition();
+        if (partition == null || DexPartition.isPrimary(partition)) {
+            outputClasses.addAll(Scene.v().getApplicationClasses());
+        }
+        return outputClasses;
+    }
+
+    /**
+     * Writes the output APK from the classes transformed by Soot and the replaced classes, in the order Soot would
+     * write them. The entries of the input APK that are not rewritten are copied unchanged (see {@link ApkRepacker}).
+     *
+     * @return the printer, which holds the class definitions built for the classes transformed by Soot.
+     */
+    public SplicingDexPrinter write() throws IOException {
+        return this.write(null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Writes the output APK as {@link #write()}, streaming the classes to transform: they are handed to the transformer
+     * in batches of the given size, in the order they are written, and their bodies are released once written. Cache
+     * misses are stored after each batch, so the printer only holds the class definitions of the last batch.
+     *
+     * @param transformer transforms a batch of classes, or null if every class was transformed already.
+     */
+    public SplicingDexPrinter write(Consumer<List<SootClass>> transformer, int batchSize) throws IOException {
+        File dexDirectory = Files.createTempDirectory("droid-instrument-dex").toFile();
+        try {
+            SplicingDexPrinter printer = new SplicingDexPrinter(InstrumentSettings.v().getApkFile().getAbsoluteFile(),
+                    dexDirectory);
+            OutputQueue queue = new OutputQueue(printer, transformer, batchSize);
+            Set<String> rewrittenEntries;
+            if (InstrumentSettings.v().getOutputMode() == OutputMode.PARTIAL) {
+                rewrittenEntries = this.addModifiedEntries(queue);
+            } else {
+                rewrittenEntries = this.dexEntries.keySet();
+                for (SootClass clazz : this.getOutputClasses()) {
+                    if (this.replacements.containsKey(clazz) || clazz.isApplicationClass()) {
+                        queue.add(clazz);
+                    }
+                }
+            }
+            queue.flush();
+            if (transformer != null) {
+                LOGGER.info("Streamed {} class(es) to the output in {} batch(es).", queue.streamedClasses,
+                        queue.batches);
+            }
+
+            if (InstrumentSettings.v().getDexPartition() != null) {
+                DexPartition.writeOutput(InstrumentSettings.v().getOutputDirectory(), rewrittenEntries,
+                        printer.writeDexFiles());
+            } else {
+                ApkRepacker.repack(InstrumentSettings.v().getApkFile(), InstrumentSettings.v().getOutputApkFile(),
+                        rewrittenEntries, printer.writeDexFiles(), InstrumentSettings.v().getApkSigning());
+            }
+            return printer;
+        } finally {
+            FileUtils.deleteQuietly(dexDirectory);
+        }
+    }
+
+    /**
+     * Adds the classes of every input dex file holding a modified class, and the generated classes, to the printer.
+     *
+     * @return the names of the input dex files the printer rewrites.
+     */
+    private Set<String> addModifiedEntries(OutputQueue queue) throws IOException {
+        Map<String, SootClass> modifiedClasses = new LinkedHashMap<>();
+        for (SootClass clazz : this.getOutputClasses()) {
+            if (this.isModified(clazz)) {
+                modifiedClasses.put(DexOutput.getType(clazz), clazz);
+            }
+        }
+        int modifiedCount = modifiedClasses.size();
+
+        List<String> entryNames = new ArrayList<>(this.dexEntries.keySet());
+        entryNames.sort(Comparator.comparingInt(ApkRepacker::getDexIndex));
+        Set<String> rewrittenEntries = new LinkedHashSet<>();
+        for (String entryName : entryNames) {
+            List<ClassDef> entryClasses = this.dexEntries.get(entryName);
+            if (entryClasses.stream().anyMatch(classDef -> modifiedClasses.containsKey(classDef.getType()))) {
+                rewrittenEntries.add(entryName);
+                for (ClassDef classDef : entryClasses) {
+                    SootClass clazz = modifiedClasses.remove(classDef.getType());
+                    if (clazz != null) {
+                        queue.add(clazz);
+                    } else {
+                        queue.addClassDef(classDef);
+                    }
+                }
+            }
+        }
+        for (SootClass clazz : modifiedClasses.values()) {
+            queue.add(clazz);
+        }
+        LOGGER.info("Rewriting {} of {} dex file(s) holding {} modified class(es).", rewrittenEntries.size(),
+                entryNames.size(), modifiedCount);
+        return rewrittenEntries;
+    }
+
+    /**
+     * Adds classes to the printer in order. Classes still to be transformed are held back with everything added after
+     * them until a batch is full, then the batch is transformed, added and its method bodies released.
+     */
+    private class OutputQueue {
+        private final SplicingDexPrinter printer;
+        private final Consumer<List<SootClass>> transformer;
+        private final int batchSize;
+        private final List<Runnable> pendingAdditions;
+        private final List<SootClass> pendingClasses;
+        private int streamedClasses;
+        private int batches;
+
+        OutputQueue(SplicingDexPrinter printer, Consumer<List<SootClass>> transformer, int batchSize) {
+            this.printer = printer;
+            this.transformer = transformer;
+            this.batchSize = batchSize;
+            this.pendingAdditions = new ArrayList<>();
+            this.pendingClasses = new ArrayList<>();
+        }
+
+        void add(SootClass clazz) throws IOException {
+            ClassDef replacement = DexOutput.this.replacements.get(clazz);
+            if (replacement != null) {
+                this.addClassDef(replacement);
+            } else if (this.transformer == null) {
+                this.printer.add(clazz);
+            } else {
+                this.pendingAdditions.add(() -> this.printer.add(clazz));
+                this.pendingClasses.add(clazz);
+                if (this.pendingClasses.size() >= this.batchSize) {
+                    this.flush();
+                }
+            }
+        }
+
+        void addClassDef(ClassDef classDef) {
+            if (this.pendingAdditions.isEmpty()) {
+                this.printer.addClassDef(classDef);
+            } else {
+                this.pendingAdditions.add(() -> this.printer.addClassDef(classDef));
+            }
+        }
+
+        void flush() throws IOException {
+            if (this.pendingClasses.isEmpty()) {
+                return;
+            }
+
+            this.transformer.accept(Collections.unmodifiableList(this.pendingClasses));
+            this.pendingAdditions.forEach(Runnable::run);
+            for (SootClass clazz : this.pendingClasses) {
+                for (SootMethod method : clazz.getMethods()) {
+                    if (method.hasActiveBody()) {
+                        method.releaseActiveBody();
+                    }
+                }
+            }
+            if (InstrumentCache.v().isEnabled()) {
+                InstrumentCache.v().storeWritten(this.printer);
+            }
+            this.printer.clearWrittenClasses();
+
+            this.streamedClasses += this.pendingClasses.size();
+            this.batches++;
+            LOGGER.debug("Wrote batch {} of {} class(es).", this.batches, this.pendingClasses.size());
+            this.pendingAdditions.clear();
+            this.pendingClasses.clear();
+        }
+    }
+}
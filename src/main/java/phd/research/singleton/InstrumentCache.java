@@ -0,0 +1,243 @@
+package phd.research.singleton;
+
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.iface.ClassDef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import phd.research.cache.ClassCache;
+import phd.research.cache.ClassHasher;
+import phd.research.dex.SplicingDexPrinter;
+import phd.research.filter.FilterRule;
+import phd.research.jimple.CostRule;
+import phd.research.jimple.ProbeMode;
+import phd.research.jimple.ProbePolicy;
+import phd.research.utility.Filter;
+import soot.Scene;
+import soot.SootClass;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Incremental instrumentation backed by a persistent {@link ClassCache}. Each application class of the input APK is
+ * looked up under a key made of the content hash of its dex class definition, the content hashes of its ancestors in
+ * the APK, a fingerprint of the instrumenter build and of the instrumentation settings (including the filter rules),
+ * and its first method ID when method IDs are compiled into probes. Classes found in the cache are replaced by their
+ * cached dex class definitions (see {@link DexOutput}), the other classes are stored in the cache once written.
+ * <p>
+ * The cache is not used with the loop callee cost rule, which rates a method by the code of other classes, nor with
+ * the hot cost rule, which rates a method by earlier runs of the whole APK.
+ *
+ * @author Jordan Doyle
+ */
+
+public class InstrumentCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InstrumentCache.class);
+
+    private static InstrumentCache instance = null;
+
+    private final Map<SootClass, String> missedKeys;
+    private ClassCache classCache;
+
+    private InstrumentCache() {
+        this.missedKeys = new LinkedHashMap<>();
+    }
+
+    public static InstrumentCache v() {
+        if (instance == null) {
+            instance = new InstrumentCache();
+        }
+        return instance;
+    }
+
+    public static void reset() {
+        instance = null;
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not supported by this JVM.", e);
+        }
+    }
+
+    private static void update(MessageDigest digest, Object value) {
+        digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    /**
+     * Fingerprints the jar file or class directory a class was loaded from by the names, sizes and modification times
+     * of its files, so a rebuilt instrumenter does not reuse entries of an older build.
+     */
+    private static void updateCodeSource(MessageDigest digest, Class<?> clazz) throws IOException {
+        CodeSource codeSource = clazz.getProtectionDomain().getCodeSource();
+        if (codeSource == null || codeSource.getLocation() == null) {
+            InstrumentCache.update(digest, clazz.getName());
+            return;
+        }
+
+        Path location;
+        try {
+            location = new File(codeSource.getLocation().toURI()).toPath();
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            throw new IOException("Unsupported code source of " + clazz.getName() + ".", e);
+        }
+
+        List<Path> files;
+        try (Stream<Path> paths = Files.walk(location)) {
+            files = paths.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            InstrumentCache.update(digest, location.relativize(file));
+            InstrumentCache.update(digest, Files.size(file));
+            InstrumentCache.update(digest, Files.getLastModifiedTime(file).toMillis());
+        }
+    }
+
+    public boolean isEnabled() {
+        return this.classCache != null;
+    }
+
+    /**
+     * Looks up the application classes of the output that have not been replaced yet in the cache, the classes found
+     * replace their Soot classes (see {@link DexOutput}). Must be called after the probe registry assigned method IDs
+     * and before the cost model and the body packs run.
+     */
+    public void lookup(Collection<SootClass> classes) throws IOException {
+        InstrumentSettings settings = InstrumentSettings.v();
+        this.classCache = null;
+        this.missedKeys.clear();
+
+        if (settings.getCacheDirectory() == null) {
+            return;
+        }
+        if (settings.getCostRules().stream().anyMatch(rule -> rule.getType() == CostRule.Type.LOOP_CALLEE)) {
+            LOGGER.warn("Class cache is not used with the loop-callee cost rule.");
+            return;
+        }
+        if (settings.getCostRules().stream().anyMatch(rule -> rule.getType() == CostRule.Type.HOT)) {
+            LOGGER.warn("Class cache is not used with the hot cost rule.");
+            return;
+        }
+
+        Opcodes opcodes = DexOutput.v().getOpcodes();
+        this.classCache = new ClassCache(settings.getCacheDirectory(), settings.getCacheSize(), opcodes);
+
+        MessageDigest fingerprint = InstrumentCache.createDigest();
+        InstrumentCache.updateCodeSource(fingerprint, InstrumentCache.class);
+        InstrumentCache.updateCodeSource(fingerprint, Scene.class);
+        InstrumentCache.update(fingerprint, settings.getProbeMode());
+        InstrumentCache.update(fingerprint, settings.isProbeHelper());
+        InstrumentCache.update(fingerprint, settings.getProbePolicy());
+        InstrumentCache.update(fingerprint, settings.getDowngradePolicy());
+        InstrumentCache.update(fingerprint, settings.getCostRules());
+        InstrumentCache.update(fingerprint, opcodes.api);
+        for (FilterRule rule : Filter.getEngine().getRules()) {
+            InstrumentCache.update(fingerprint, rule);
+        }
+        byte[] prefix = fingerprint.digest();
+
+        // Probes refer to method IDs in trace and profile mode and to the policy counters, so cached probes are only
+        // valid if the IDs of the class did not move.
+        boolean idsInProbes = settings.getProbeMode() != ProbeMode.PRINT ||
+                settings.getProbePolicy() != ProbePolicy.ALL || !settings.getCostRules().isEmpty();
+
+        Map<String, ClassDef> inputClasses = DexOutput.v().getInputClasses();
+        Map<String, String> hashes = new HashMap<>();
+        ClassHasher hasher = new ClassHasher();
+
+        for (SootClass clazz : classes) {
+            String type = DexOutput.getType(clazz);
+            if (!inputClasses.containsKey(type) || DexOutput.v().isReplaced(clazz)) {
+                // Generated by the instrumenter, or passed through unchanged.
+                continue;
+            }
+
+            MessageDigest key = InstrumentCache.createDigest();
+            key.update(prefix);
+            for (String ancestor : InstrumentCache.getAncestors(type, inputClasses)) {
+                InstrumentCache.update(key, ancestor);
+                InstrumentCache.update(key, hashes.computeIfAbsent(ancestor, t -> hasher.hash(inputClasses.get(t))));
+            }
+            if (idsInProbes) {
+                InstrumentCache.update(key, ProbeRegistry.v().getFirstMethodId(clazz));
+            }
+            // Probes name the class as a constant only while no other class extends it.
+            InstrumentCache.update(key, ClassRoles.v().isLeafClass(clazz));
+            String keyHex = ClassHasher.toHex(key.digest());
+
+            ClassDef cachedClass = this.classCache.load(keyHex);
+            if (cachedClass != null) {
+                DexOutput.v().replace(clazz, cachedClass);
+            } else {
+                this.missedKeys.put(clazz, keyHex);
+            }
+        }
+
+        LOGGER.info("Class cache: {} hit(s), {} miss(es).", this.classCache.getHits(), this.classCache.getMisses());
+    }
+
+    /**
+     * @return the type and its ancestors (superclasses and interfaces) defined in the input APK, in a fixed order.
+     */
+    private static List<String> getAncestors(String type, Map<String, ClassDef> inputClasses) {
+        List<String> ancestors = new ArrayList<>();
+        Set<String> visited = new HashSet<>();
+        Deque<String> types = new ArrayDeque<>();
+        types.add(type);
+
+        while (!types.isEmpty()) {
+            String current = types.poll();
+            ClassDef classDef = inputClasses.get(current);
+            if (classDef == null || !visited.add(current)) {
+                continue;
+            }
+
+            ancestors.add(current);
+            if (classDef.getSuperclass() != null) {
+                types.add(classDef.getSuperclass());
+            }
+            types.addAll(classDef.getInterfaces());
+        }
+        return ancestors;
+    }
+
+    /**
+     * Stores the classes missed by the lookup that the printer has written so far, for classes streamed to the output.
+     */
+    public void storeWritten(SplicingDexPrinter printer) throws IOException {
+        Iterator<Map.Entry<SootClass, String>> entries = this.missedKeys.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<SootClass, String> entry = entries.next();
+            ClassDef writtenClass = printer.getWrittenClass(DexOutput.getType(entry.getKey()));
+            if (writtenClass != null) {
+                this.classCache.store(entry.getValue(), writtenClass);
+                entries.remove();
+            }
+        }
+    }
+
+    /**
+     * Stores the classes missed by the lookup, as written by the printer, and evicts old entries.
+     */
+    public void store(SplicingDexPrinter printer) throws IOException {
+        this.storeWritten(printer);
+        this.classCache.evict();
+
+        LOGGER.info("Class cache: {} hit(s), {} miss(es), {} stored, {} evicted.", this.classCache.getHits(),
+                this.classCache.getMisses(), this.classCache.getStores(), this.classCache.getEvictions());
+    }
+}
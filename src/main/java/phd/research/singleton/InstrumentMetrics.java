@@ -0,0 +1,409 @@
+package phd.research.singleton;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+import jdk.jfr.Event;
+import org.jf.dexlib2.DexFileFactory;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.dexbacked.raw.HeaderItem;
+import org.jf.dexlib2.iface.MultiDexContainer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import phd.research.jimple.ProbeKind;
+import phd.research.metrics.Phase;
+import phd.research.metrics.PhaseEvent;
+import phd.research.metrics.ValidationEvent;
+import phd.research.utility.Filter;
+import soot.SootClass;
+import soot.SootMethod;
+
+import java.io.*;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of an instrumentation run: the time spent in each {@link Phase}, the classes and methods seen, filtered and
+ * instrumented, the probes and units inserted, the size of the output dex files, and the peak heap usage and garbage
+ * collection time. Each phase is also recorded as a flight recorder event if the JVM supports them. A phase timed
+ * inside another phase (the transformation of streamed batches inside the output) is not counted in the outer phase.
+ * Probes and validation times are recorded by the body packs on several threads, everything else is recorded on the
+ * main thread. The metrics of dex workers are added to the metrics of the run from their reports.
+ *
+ * @author Jordan Doyle
+ */
+
+public class InstrumentMetrics {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InstrumentMetrics.class);
+
+    private static final boolean FLIGHT_RECORDER_EVENTS = InstrumentMetrics.isFlightRecorderAvailable();
+
+    private static InstrumentMetrics instance = null;
+
+    private final Map<Phase, LongAdder> phaseNanos;
+    private final Map<ProbeKind, LongAdder> probes;
+    private final Set<SootClass> instrumentedClasses;
+    private final LongAdder skippedMethods;
+    private final LongAdder insertedUnits;
+    private PhaseTimer currentTimer;
+    private String apk;
+    private long startNanos;
+    private long startCollectionMillis;
+    private long startCollections;
+    private int classes;
+    private int filteredClasses;
+    private int replacedClasses;
+    private int methods;
+    private int filteredMethods;
+    private int workerInstrumentedClasses;
+    private int outputDexFiles;
+    private long outputDexBytes;
+    private long outputMethodIds;
+    private long outputFieldIds;
+
+    private InstrumentMetrics() {
+        this.phaseNanos = new EnumMap<>(Phase.class);
+        this.probes = new EnumMap<>(ProbeKind.class);
+        this.instrumentedClasses = ConcurrentHashMap.newKeySet();
+        this.skippedMethods = new LongAdder();
+        this.insertedUnits = new LongAdder();
+        this.start(null);
+    }
+
+    public static InstrumentMetrics v() {
+        if (instance == null) {
+            instance = new InstrumentMetrics();
+        }
+        return instance;
+    }
+
+    public static void reset() {
+        instance = null;
+    }
+
+    /**
+     * Flight recorder events are available from Java 11 and Java 8 update 262.
+     */
+    private static boolean isFlightRecorderAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the sum of the peak usage of the heap memory pools since their peak usage was last reset.
+     */
+    public static long getPeakHeapUsage() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static long getCollectionMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(collector.getCollectionTime(), 0);
+        }
+        return millis;
+    }
+
+    private static long getCollections() {
+        long collections = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            collections += Math.max(collector.getCollectionCount(), 0);
+        }
+        return collections;
+    }
+
+    private static void commit(Object event) {
+        if (event != null) {
+            ((Event) event).commit();
+        }
+    }
+
+    /**
+     * Clears the metrics of the previous run and starts timing a run of the given APK file.
+     */
+    public void start(File apkFile) {
+        this.apk = apkFile != null ? apkFile.getAbsolutePath() : null;
+        this.phaseNanos.clear();
+        for (Phase phase : Phase.values()) {
+            this.phaseNanos.put(phase, new LongAdder());
+        }
+        this.probes.clear();
+        for (ProbeKind kind : ProbeKind.values()) {
+            this.probes.put(kind, new LongAdder());
+        }
+        this.instrumentedClasses.clear();
+        this.skippedMethods.reset();
+        this.insertedUnits.reset();
+        this.classes = 0;
+        this.filteredClasses = 0;
+        this.replacedClasses = 0;
+        this.methods = 0;
+        this.filteredMethods = 0;
+        this.workerInstrumentedClasses = 0;
+        this.outputDexFiles = 0;
+        this.outputDexBytes = 0;
+        this.outputMethodIds = 0;
+        this.outputFieldIds = 0;
+
+        this.startNanos = System.nanoTime();
+        this.startCollectionMillis = InstrumentMetrics.getCollectionMillis();
+        this.startCollections = InstrumentMetrics.getCollections();
+    }
+
+    /**
+     * Times a phase of the run until the returned timer is closed, on the main thread. The time of the phase is not
+     * counted in the phase timed by an enclosing timer.
+     */
+    public PhaseTimer time(Phase phase) {
+        PhaseTimer timer = new PhaseTimer(phase, FLIGHT_RECORDER_EVENTS ? PhaseEvent.start(phase, this.apk) : null,
+                this.currentTimer);
+        this.currentTimer = timer;
+        return timer;
+    }
+
+    /**
+     * Times a phase of the run while the task runs, on the main thread (see {@link #time(Phase)}).
+     */
+    @SuppressWarnings("try")
+    public void time(Phase phase, Runnable task) {
+        try (PhaseTimer ignored = this.time(phase)) {
+            task.run();
+        }
+    }
+
+    /**
+     * Times the validation of a method body until the returned timer is closed, may be called from several threads.
+     */
+    public PhaseTimer timeValidation(SootMethod method) {
+        return new PhaseTimer(Phase.VALIDATION, FLIGHT_RECORDER_EVENTS ? ValidationEvent.start(method.getSignature()) :
+                null, null);
+    }
+
+    /**
+     * Counts the application classes and their concrete methods, and how many of them the filter rejects.
+     */
+    public void countInput(Collection<SootClass> applicationClasses) {
+        for (SootClass clazz : applicationClasses) {
+            this.classes++;
+            if (!Filter.isValidClass(clazz)) {
+                this.filteredClasses++;
+            }
+
+            for (SootMethod method : clazz.getMethods()) {
+                if (method.isConcrete()) {
+                    this.methods++;
+                    if (!Filter.isValidMethod(method)) {
+                        this.filteredMethods++;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts the application classes copied to the output unchanged or taken from the class cache.
+     */
+    public void countReplaced(Collection<SootClass> applicationClasses) {
+        this.replacedClasses = (int) applicationClasses.stream().filter(DexOutput.v()::isReplaced).count();
+    }
+
+    /**
+     * Counts the dex files of the output APK, their size and their method and field references (limited to 65536 per
+     * dex file).
+     */
+    public void countOutput(File outputApk) throws IOException {
+        MultiDexContainer<? extends DexBackedDexFile> container = DexFileFactory.loadDexContainer(outputApk,
+                Opcodes.getDefault());
+        for (String entryName : container.getDexEntryNames()) {
+            MultiDexContainer.DexEntry<? extends DexBackedDexFile> entry = container.getEntry(entryName);
+            if (entry == null) {
+                continue;
+            }
+
+            DexBackedDexFile dexFile = entry.getDexFile();
+            this.outputDexFiles++;
+            this.outputDexBytes += dexFile.getBuffer().readSmallUint(HeaderItem.FILE_SIZE_OFFSET);
+            this.outputMethodIds += dexFile.getMethodSection().size();
+            this.outputFieldIds += dexFile.getFieldSection().size();
+        }
+    }
+
+    public void recordProbe(SootMethod method, ProbeKind kind, int units) {
+        this.probes.get(kind).increment();
+        this.insertedUnits.add(units);
+        this.instrumentedClasses.add(method.getDeclaringClass());
+    }
+
+    public void recordSkipped() {
+        this.skippedMethods.increment();
+    }
+
+    /**
+     * Adds the counts and phase times of a dex worker, read from its metrics report, to the metrics of the run.
+     */
+    public void addWorkerReport(File reportFile) throws IOException {
+        JsonObject report;
+        try (Reader reader = new InputStreamReader(new FileInputStream(reportFile), StandardCharsets.UTF_8)) {
+            report = JsonParser.parseReader(reader).getAsJsonObject();
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed metrics report " + reportFile + ": " + e.getMessage(), e);
+        }
+
+        JsonObject phases = report.getAsJsonObject("phaseNanos");
+        for (Phase phase : Phase.values()) {
+            this.phaseNanos.get(phase).add(phases.get(phase.getName()).getAsLong());
+        }
+        JsonObject classCounts = report.getAsJsonObject("classes");
+        this.classes += classCounts.get("seen").getAsInt();
+        this.filteredClasses += classCounts.get("filtered").getAsInt();
+        this.replacedClasses += classCounts.get("replaced").getAsInt();
+        this.workerInstrumentedClasses += classCounts.get("instrumented").getAsInt();
+        JsonObject methodCounts = report.getAsJsonObject("methods");
+        this.methods += methodCounts.get("seen").getAsInt();
+        this.filteredMethods += methodCounts.get("filtered").getAsInt();
+        this.skippedMethods.add(methodCounts.get("skipped").getAsLong());
+        JsonObject probeCounts = report.getAsJsonObject("probes");
+        for (ProbeKind kind : ProbeKind.values()) {
+            this.probes.get(kind).add(probeCounts.get(kind.name().toLowerCase(Locale.ROOT)).getAsLong());
+        }
+        this.insertedUnits.add(report.get("insertedUnits").getAsLong());
+    }
+
+    public int getInstrumentedClasses() {
+        return this.instrumentedClasses.size() + this.workerInstrumentedClasses;
+    }
+
+    public long getPhaseNanos(Phase phase) {
+        return this.phaseNanos.get(phase).sum();
+    }
+
+    public long getInstrumentedMethods() {
+        return this.probes.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
+    public void logSummary() {
+        StringJoiner phases = new StringJoiner(", ");
+        for (Phase phase : Phase.values()) {
+            phases.add(phase.getName() + " " + TimeUnit.NANOSECONDS.toMillis(this.getPhaseNanos(phase)) + " ms");
+        }
+        LOGGER.info("Phase times: {}.", phases);
+        LOGGER.info("Instrumented {} method(s) of {} class(es), inserting {} unit(s).", this.getInstrumentedMethods(),
+                this.getInstrumentedClasses(), this.insertedUnits.sum());
+        LOGGER.info("Output: {} dex file(s), {} byte(s), {} method and {} field reference(s).", this.outputDexFiles,
+                this.outputDexBytes, this.outputMethodIds, this.outputFieldIds);
+    }
+
+    /**
+     * Writes the metrics of the run as a JSON document, the totals are taken when the report is written.
+     */
+    public void writeReport(File reportFile) throws IOException {
+        long totalNanos = System.nanoTime() - this.startNanos;
+        InstrumentSettings settings = InstrumentSettings.v();
+
+        try (JsonWriter writer = new JsonWriter(new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(reportFile), StandardCharsets.UTF_8)))) {
+            writer.setIndent("  ");
+            writer.beginObject();
+            writer.name("apk").value(this.apk);
+            writer.name("outputApk").value(settings.getOutputApkFile().getAbsolutePath());
+            writer.name("probeMode").value(settings.getProbeMode().name().toLowerCase(Locale.ROOT));
+            writer.name("pipeline").value(settings.getPipeline().name().toLowerCase(Locale.ROOT));
+            writer.name("outputMode").value(settings.getOutputMode().name().toLowerCase(Locale.ROOT));
+            writer.name("threads").value(settings.getThreads() > 0 ? settings.getThreads() :
+                    Runtime.getRuntime().availableProcessors());
+            writer.name("totalNanos").value(totalNanos);
+
+            writer.name("phaseNanos").beginObject();
+            for (Phase phase : Phase.values()) {
+                writer.name(phase.getName()).value(this.getPhaseNanos(phase));
+            }
+            writer.endObject();
+
+            writer.name("classes").beginObject();
+            writer.name("seen").value(this.classes);
+            writer.name("filtered").value(this.filteredClasses);
+            writer.name("replaced").value(this.replacedClasses);
+            writer.name("instrumented").value(this.getInstrumentedClasses());
+            writer.endObject();
+
+            writer.name("methods").beginObject();
+            writer.name("seen").value(this.methods);
+            writer.name("filtered").value(this.filteredMethods);
+            writer.name("skipped").value(this.skippedMethods.sum());
+            writer.name("instrumented").value(this.getInstrumentedMethods());
+            writer.endObject();
+
+            writer.name("probes").beginObject();
+            for (ProbeKind kind : ProbeKind.values()) {
+                writer.name(kind.name().toLowerCase(Locale.ROOT)).value(this.probes.get(kind).sum());
+            }
+            writer.endObject();
+
+            writer.name("insertedUnits").value(this.insertedUnits.sum());
+
+            writer.name("output").beginObject();
+            writer.name("dexFiles").value(this.outputDexFiles);
+            writer.name("dexBytes").value(this.outputDexBytes);
+            writer.name("methodIds").value(this.outputMethodIds);
+            writer.name("fieldIds").value(this.outputFieldIds);
+            writer.endObject();
+
+            writer.name("peakHeapBytes").value(InstrumentMetrics.getPeakHeapUsage());
+            writer.name("gcMillis").value(InstrumentMetrics.getCollectionMillis() - this.startCollectionMillis);
+            writer.name("gcCount").value(InstrumentMetrics.getCollections() - this.startCollections);
+            writer.endObject();
+        }
+
+        LOGGER.info("Metrics report written to '{}'.", reportFile.getAbsolutePath());
+    }
+
+    /**
+     * Adds the time from its creation to its closing to a phase, and commits the flight recorder event of the phase.
+     */
+    public class PhaseTimer implements AutoCloseable {
+        private final Phase phase;
+        private final Object event;
+        private final PhaseTimer parent;
+        private final long startNanos;
+        private long nestedNanos;
+
+        private PhaseTimer(Phase phase, Object event, PhaseTimer parent) {
+            this.phase = phase;
+            this.event = event;
+            this.parent = parent;
+            this.startNanos = System.nanoTime();
+        }
+
+        @Override
+        public void close() {
+            long nanos = System.nanoTime() - this.startNanos;
+            InstrumentMetrics.this.phaseNanos.get(this.phase).add(nanos - this.nestedNanos);
+            InstrumentMetrics.commit(this.event);
+            if (InstrumentMetrics.this.currentTimer == this) {
+                InstrumentMetrics.this.currentTimer = this.parent;
+                if (this.parent != null) {
+                    this.parent.nestedNanos += nanos;
+                }
+            }
+        }
+    }
+}
@@ -2,9 +2,18 @@ package phd.research.singleton;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import phd.research.dex.ApkSigning;
+import phd.research.dex.OutputMode;
+import phd.research.jimple.CostRule;
+import phd.research.jimple.Pipeline;
+import phd.research.jimple.ProbeMode;
+import phd.research.jimple.ProbePolicy;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * @author Jordan Doyle
@@ -19,10 +28,41 @@ public class InstrumentSettings {
     private File androidPlatformDirectory;
     private File outputDirectory;
     private File apkFile;
+    private File batchInput;
+    private int jobs;
+    private long jobTimeout;
+    private int threads;
+    private int streamBatchSize;
+    private int dexWorkers;
+    private List<String> dexPartition;
+    private ProbeMode probeMode;
+    private boolean probeHelper;
+    private Pipeline pipeline;
+    private OutputMode outputMode;
+    private ApkSigning apkSigning;
+    private ProbePolicy probePolicy;
+    private ProbePolicy downgradePolicy;
+    private List<CostRule> costRules;
+    private File cacheDirectory;
+    private long cacheSize;
+    private File platformIndexDirectory;
+    private List<File> filterRuleFiles;
+    private List<File> scopeInputFiles;
     private boolean loggerActive;
 
     private InstrumentSettings() {
         this.loggerActive = true;
+        this.jobs = Runtime.getRuntime().availableProcessors();
+        this.dexWorkers = 1;
+        this.probeMode = ProbeMode.PRINT;
+        this.pipeline = Pipeline.FULL;
+        this.outputMode = OutputMode.FULL;
+        this.probePolicy = ProbePolicy.ALL;
+        this.downgradePolicy = ProbePolicy.parse("first:1");
+        this.costRules = Collections.emptyList();
+        this.cacheSize = 1024L * 1024 * 1024;
+        this.filterRuleFiles = Collections.emptyList();
+        this.scopeInputFiles = Collections.emptyList();
         this.androidPlatformDirectory = new File(System.getenv("ANDROID_HOME") + File.separator + "platforms");
         this.outputDirectory = new File(System.getProperty("user.dir") + File.separator + "output");
     }
@@ -34,11 +74,19 @@ public class InstrumentSettings {
         return instance;
     }
 
+    public static void reset() {
+        instance = null;
+    }
+
     public void validate() throws IOException {
         this.loggerActive = false;
         setPlatformDirectory(this.androidPlatformDirectory);
         setOutputDirectory(this.outputDirectory);
-        setApkFile(this.apkFile);
+        if (this.batchInput != null) {
+            setBatchInput(this.batchInput);
+        } else {
+            setApkFile(this.apkFile);
+        }
         this.loggerActive = true;
     }
 
@@ -58,6 +106,323 @@ public class InstrumentSettings {
         }
     }
 
+    public File getBatchInput() {
+        return this.batchInput;
+    }
+
+    public void setBatchInput(File batchInput) throws IOException {
+        if (batchInput == null || !batchInput.exists()) {
+            throw new IOException("Batch input does not exist (" + batchInput + ").");
+        }
+
+        this.batchInput = batchInput;
+
+        if (this.loggerActive) {
+            LOGGER.info("Batch input set as '{}'.", batchInput.getAbsolutePath());
+        }
+    }
+
+    public int getJobs() {
+        return this.jobs;
+    }
+
+    public void setJobs(int jobs) {
+        if (jobs < 1) {
+            throw new IllegalArgumentException("Number of jobs must be at least one (" + jobs + ").");
+        }
+
+        this.jobs = jobs;
+
+        if (this.loggerActive) {
+            LOGGER.info("Number of jobs set as '{}'.", jobs);
+        }
+    }
+
+    public long getJobTimeout() {
+        return this.jobTimeout;
+    }
+
+    public void setJobTimeout(long jobTimeout) {
+        if (jobTimeout < 1) {
+            throw new IllegalArgumentException("Job timeout must be at least one second (" + jobTimeout + ").");
+        }
+
+        this.jobTimeout = jobTimeout;
+
+        if (this.loggerActive) {
+            LOGGER.info("Job timeout set as '{}' second(s).", jobTimeout);
+        }
+    }
+
+    public int getThreads() {
+        return this.threads;
+    }
+
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of threads must be at least one (" + threads + ").");
+        }
+
+        this.threads = threads;
+
+        if (this.loggerActive) {
+            LOGGER.info("Number of threads set as '{}'.", threads);
+        }
+    }
+
+    /**
+     * @return the number of application classes instrumented and written per batch, or 0 if classes are not streamed.
+     */
+    public int getStreamBatchSize() {
+        return this.streamBatchSize;
+    }
+
+    public void setStreamBatchSize(int streamBatchSize) {
+        if (streamBatchSize < 1) {
+            throw new IllegalArgumentException("Stream batch size must be at least one class (" + streamBatchSize +
+                    ").");
+        }
+
+        this.streamBatchSize = streamBatchSize;
+
+        if (this.loggerActive) {
+            LOGGER.info("Stream batch size set as '{}'.", streamBatchSize);
+        }
+    }
+
+    /**
+     * @return the number of worker JVMs instrumenting the dex files of the APK, 1 if the APK is instrumented in this
+     * JVM.
+     */
+    public int getDexWorkers() {
+        return this.dexWorkers;
+    }
+
+    public void setDexWorkers(int dexWorkers) {
+        if (dexWorkers < 1) {
+            throw new IllegalArgumentException("Number of dex workers must be at least one (" + dexWorkers + ").");
+        }
+
+        this.dexWorkers = dexWorkers;
+
+        if (this.loggerActive) {
+            LOGGER.info("Number of dex workers set as '{}'.", dexWorkers);
+        }
+    }
+
+    /**
+     * @return the names of the dex files of the APK instrumented by this dex worker, or null if every dex file is
+     * instrumented.
+     */
+    public List<String> getDexPartition() {
+        return this.dexPartition;
+    }
+
+    public void setDexPartition(List<String> dexPartition) {
+        if (dexPartition.isEmpty()) {
+            throw new IllegalArgumentException("Dex partition must name at least one dex file.");
+        }
+
+        this.dexPartition = Collections.unmodifiableList(new ArrayList<>(dexPartition));
+
+        if (this.loggerActive) {
+            LOGGER.info("Dex partition set as '{}'.", String.join(",", dexPartition));
+        }
+    }
+
+    public ProbeMode getProbeMode() {
+        return this.probeMode;
+    }
+
+    public void setProbeMode(ProbeMode probeMode) {
+        this.probeMode = probeMode;
+
+        if (this.loggerActive) {
+            LOGGER.info("Probe mode set as '{}'.", probeMode);
+        }
+    }
+
+    public boolean isProbeHelper() {
+        return this.probeHelper;
+    }
+
+    public void setProbeHelper(boolean probeHelper) {
+        this.probeHelper = probeHelper;
+
+        if (this.loggerActive) {
+            LOGGER.info("Probe helper set as '{}'.", probeHelper);
+        }
+    }
+
+    public Pipeline getPipeline() {
+        return this.pipeline;
+    }
+
+    public void setPipeline(Pipeline pipeline) {
+        this.pipeline = pipeline;
+
+        if (this.loggerActive) {
+            LOGGER.info("Pipeline set as '{}'.", pipeline);
+        }
+    }
+
+    public OutputMode getOutputMode() {
+        return this.outputMode;
+    }
+
+    public void setOutputMode(OutputMode outputMode) {
+        this.outputMode = outputMode;
+
+        if (this.loggerActive) {
+            LOGGER.info("Output mode set as '{}'.", outputMode);
+        }
+    }
+
+    /**
+     * @return the key output APKs are signed with, or null if they are not signed.
+     */
+    public ApkSigning getApkSigning() {
+        return this.apkSigning;
+    }
+
+    /**
+     * @param alias the alias of the key, or null if the keystore holds exactly one key.
+     */
+    public void setSigningKey(File keystoreFile, String alias, char[] password) throws IOException {
+        if (!keystoreFile.isFile()) {
+            throw new IOException("Keystore does not exist or is not a file (" + keystoreFile + ").");
+        }
+
+        this.apkSigning = ApkSigning.load(keystoreFile, alias, password);
+
+        if (this.loggerActive) {
+            LOGGER.info("Signing key set as '{}' from '{}'", this.apkSigning.getAlias(),
+                    keystoreFile.getAbsolutePath());
+        }
+    }
+
+    public ProbePolicy getProbePolicy() {
+        return this.probePolicy;
+    }
+
+    public void setProbePolicy(ProbePolicy probePolicy) {
+        this.probePolicy = probePolicy;
+
+        if (this.loggerActive) {
+            LOGGER.info("Probe policy set as '{}'.", probePolicy);
+        }
+    }
+
+    public ProbePolicy getDowngradePolicy() {
+        return this.downgradePolicy;
+    }
+
+    public void setDowngradePolicy(ProbePolicy downgradePolicy) {
+        this.downgradePolicy = downgradePolicy;
+
+        if (this.loggerActive) {
+            LOGGER.info("Downgrade probe policy set as '{}'.", downgradePolicy);
+        }
+    }
+
+    public List<CostRule> getCostRules() {
+        return this.costRules;
+    }
+
+    public void setCostRules(List<CostRule> costRules) {
+        this.costRules = costRules;
+
+        if (this.loggerActive) {
+            LOGGER.info("Cost rules set as '{}'.", costRules);
+        }
+    }
+
+    public File getCacheDirectory() {
+        return this.cacheDirectory;
+    }
+
+    public void setCacheDirectory(File cacheDirectory) throws IOException {
+        if (!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs()) {
+            throw new IOException("Cache directory could not be created or is not a directory (" + cacheDirectory +
+                    ").");
+        }
+
+        this.cacheDirectory = cacheDirectory;
+
+        if (this.loggerActive) {
+            LOGGER.info("Cache directory set as '{}'.", cacheDirectory.getAbsolutePath());
+        }
+    }
+
+    public File getPlatformIndexDirectory() {
+        return this.platformIndexDirectory;
+    }
+
+    public void setPlatformIndexDirectory(File platformIndexDirectory) throws IOException {
+        if (!platformIndexDirectory.isDirectory()) {
+            throw new IOException("Platform index directory does not exist or is not a directory (" +
+                    platformIndexDirectory + ").");
+        }
+
+        this.platformIndexDirectory = platformIndexDirectory;
+
+        if (this.loggerActive) {
+            LOGGER.info("Platform index directory set as '{}'.", platformIndexDirectory.getAbsolutePath());
+        }
+    }
+
+    public long getCacheSize() {
+        return this.cacheSize;
+    }
+
+    public void setCacheSize(long cacheSize) {
+        if (cacheSize < 1) {
+            throw new IllegalArgumentException("Cache size must be at least one byte (" + cacheSize + ").");
+        }
+
+        this.cacheSize = cacheSize;
+
+        if (this.loggerActive) {
+            LOGGER.info("Cache size set as '{}' byte(s).", cacheSize);
+        }
+    }
+
+    public List<File> getFilterRuleFiles() {
+        return this.filterRuleFiles;
+    }
+
+    public void setFilterRuleFiles(List<File> filterRuleFiles) throws IOException {
+        for (File filterRuleFile : filterRuleFiles) {
+            if (!filterRuleFile.isFile()) {
+                throw new IOException("Filter rule file does not exist or is not a file (" + filterRuleFile + ").");
+            }
+        }
+
+        this.filterRuleFiles = filterRuleFiles;
+
+        if (this.loggerActive) {
+            LOGGER.info("Filter rule files set as '{}'.", filterRuleFiles);
+        }
+    }
+
+    public List<File> getScopeInputFiles() {
+        return this.scopeInputFiles;
+    }
+
+    public void setScopeInputFiles(List<File> scopeInputFiles) throws IOException {
+        for (File scopeInputFile : scopeInputFiles) {
+            if (!scopeInputFile.isFile()) {
+                throw new IOException("Scope input file does not exist or is not a file (" + scopeInputFile + ").");
+            }
+        }
+
+        this.scopeInputFiles = scopeInputFiles;
+
+        if (this.loggerActive) {
+            LOGGER.info("Scope input files set as '{}'.", scopeInputFiles);
+        }
+    }
+
     public File getPlatformDirectory() {
         return this.androidPlatformDirectory;
     }
@@ -74,6 +439,18 @@ public class InstrumentSettings {
         }
     }
 
+    public File getOutputApkFile() {
+        return new File(this.outputDirectory, this.apkFile.getName());
+    }
+
+    public File getOutputArtifact(String suffix) {
+        String name = this.apkFile.getName();
+        if (name.toLowerCase().endsWith(".apk")) {
+            name = name.substring(0, name.length() - 4);
+        }
+        return new File(this.outputDirectory, name + suffix);
+    }
+
     public File getOutputDirectory() {
         return this.outputDirectory;
     }
@@ -0,0 +1,125 @@
+package phd.research.singleton;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import phd.research.jimple.ProbeKind;
+import phd.research.utility.Filter;
+import soot.SootClass;
+import soot.SootMethod;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Assigns a compact integer ID to every method that receives a probe. IDs are assigned in class name order before the
+ * body packs run, so they do not depend on the number of threads transforming bodies. The registry is read-only while
+ * the body packs run.
+ *
+ * @author Jordan Doyle
+ */
+
+public class ProbeRegistry {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProbeRegistry.class);
+
+    private static ProbeRegistry instance = null;
+
+    private final Map<SootMethod, Integer> methodIds;
+    private final List<SootMethod> methods;
+    private final Set<SootClass> classes;
+
+    private ProbeRegistry() {
+        this.methodIds = new HashMap<>();
+        this.methods = new ArrayList<>();
+        this.classes = new HashSet<>();
+    }
+
+    public static ProbeRegistry v() {
+        if (instance == null) {
+            instance = new ProbeRegistry();
+        }
+        return instance;
+    }
+
+    public static void reset() {
+        instance = null;
+    }
+
+    public void register(Collection<SootClass> classes) {
+        this.methodIds.clear();
+        this.methods.clear();
+        this.classes.clear();
+        this.classes.addAll(classes);
+
+        List<SootClass> sortedClasses = new ArrayList<>(classes);
+        sortedClasses.sort(Comparator.comparing(SootClass::getName));
+        for (SootClass clazz : sortedClasses) {
+            for (SootMethod method : clazz.getMethods()) {
+                if (method.isConcrete() && Filter.isValidMethod(method)) {
+                    this.methods.add(method);
+                    this.methodIds.put(method, this.methods.size());
+                }
+            }
+        }
+
+        LOGGER.info("Registered {} method(s) for instrumentation.", this.methods.size());
+    }
+
+    public int getMethodId(SootMethod method) {
+        Integer id = this.methodIds.get(method);
+        if (id == null) {
+            throw new IllegalStateException("Method has not been registered (" + method.getSignature() + ").");
+        }
+        return id;
+    }
+
+    /**
+     * @return the ID of the first registered method of the class, or zero if the class has no registered method.
+     */
+    public int getFirstMethodId(SootClass clazz) {
+        for (SootMethod method : clazz.getMethods()) {
+            Integer id = this.methodIds.get(method);
+            if (id != null) {
+                return id;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return true if the class was passed to the registry, whether or not any of its methods were registered.
+     */
+    public boolean isRegistered(SootClass clazz) {
+        return this.classes.contains(clazz);
+    }
+
+    /**
+     * @return true if the method was registered. Methods Soot adds to a class after registration, such as methods
+     * created for unresolved references while loading other bodies, are not registered.
+     */
+    public boolean isRegistered(SootMethod method) {
+        return this.methodIds.containsKey(method);
+    }
+
+    public List<SootMethod> getMethods() {
+        return Collections.unmodifiableList(this.methods);
+    }
+
+    public int getMethodCount() {
+        return this.methods.size();
+    }
+
+    public void writeDictionary(File dictionaryFile) throws IOException {
+        try (PrintWriter writer = new PrintWriter(
+                new OutputStreamWriter(new FileOutputStream(dictionaryFile), StandardCharsets.UTF_8))) {
+            writer.println("id\tkind\tsignature");
+            for (int i = 0; i < this.methods.size(); i++) {
+                SootMethod method = this.methods.get(i);
+                writer.println((i + 1) + "\t" + ProbeKind.of(method) + "\t" + method.getSignature());
+            }
+        }
+
+        LOGGER.info("Probe dictionary written to '{}'.", dictionaryFile.getAbsolutePath());
+    }
+}
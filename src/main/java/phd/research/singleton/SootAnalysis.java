@@ -1,11 +1,21 @@
 package phd.research.singleton;
 
-import soot.G;
-import soot.Scene;
-import soot.SootClass;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import phd.research.jimple.Pipeline;
+import phd.research.jimple.RuntimeInjector;
+import phd.research.metrics.Phase;
+import phd.research.platform.IndexClassProvider;
+import phd.research.platform.PlatformIndex;
+import soot.*;
+import soot.asm.AsmClassProvider;
 import soot.options.Options;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 
 /**
  * @author Jordan Doyle
@@ -13,6 +23,8 @@ import java.util.Collections;
 
 public class SootAnalysis {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(SootAnalysis.class);
+
     private static SootAnalysis instance = null;
 
     private boolean sootInitialised;
@@ -28,18 +40,41 @@ public class SootAnalysis {
         return instance;
     }
 
+    public static void reset() {
+        instance = null;
+    }
 
     @SuppressWarnings("BooleanMethodIsAlwaysInverted")
     public boolean isSootInitialised() {
         return this.sootInitialised;
     }
 
-    public void initialiseSoot() {
+    @SuppressWarnings("try")
+    public void initialiseSoot() throws IOException {
+        List<Class<?>> runtimeClasses;
+        try (InstrumentMetrics.PhaseTimer ignored = InstrumentMetrics.v().time(Phase.SOOT_INITIALISATION)) {
+            runtimeClasses = SootAnalysis.configureSoot();
+        }
+
+        try (InstrumentMetrics.PhaseTimer ignored = InstrumentMetrics.v().time(Phase.DEX_LOADING)) {
+            Scene.v().loadNecessaryClasses();
+            RuntimeInjector.inject(runtimeClasses);
+        }
+
+        this.sootInitialised = true;
+    }
+
+    /**
+     * @return the runtime support classes of the probe mode, added to the Soot classpath as basic classes.
+     */
+    private static List<Class<?>> configureSoot() throws IOException {
         G.reset();
 
         Options.v().set_allow_phantom_refs(true);
         Options.v().set_whole_program(true);
         Options.v().set_prepend_classpath(true);
+        // Zero leaves the choice to Soot, which uses one thread per core for any value below one.
+        Options.v().set_num_threads(InstrumentSettings.v().getThreads() > 0 ? InstrumentSettings.v().getThreads() : -1);
 
         // Read (APK Dex-to-Jimple) Options
         Options.v().set_android_jars(InstrumentSettings.v().getPlatformDirectory().getAbsolutePath());
@@ -47,16 +82,75 @@ public class SootAnalysis {
         Options.v().set_process_dir(Collections.singletonList(InstrumentSettings.v().getApkFile().getAbsolutePath()));
         Options.v().set_process_multiple_dex(true);
         Options.v().set_include_all(true);
+        if (InstrumentSettings.v().getStreamBatchSize() > 0) {
+            // Streamed classes released by the cost model are jimplified again from their method sources.
+            Options.v().set_drop_bodies_after_load(false);
+        }
 
         // Write (APK Generation) Options
         Options.v().set_output_format(Options.output_format_dex);
         Options.v().set_output_dir(InstrumentSettings.v().getOutputDirectory().getAbsolutePath());
 
-        // Resolve required classes
+        // Resolve required classes up front, body packs run on several threads and must only read these classes.
         Scene.v().addBasicClass("java.io.PrintStream", SootClass.SIGNATURES);
         Scene.v().addBasicClass("java.lang.System", SootClass.SIGNATURES);
-        Scene.v().loadNecessaryClasses();
+        Scene.v().addBasicClass("java.lang.Object", SootClass.SIGNATURES);
+        Scene.v().addBasicClass("java.lang.Class", SootClass.SIGNATURES);
+        Scene.v().addBasicClass("java.lang.String", SootClass.SIGNATURES);
+        Scene.v().addBasicClass("java.lang.StringBuilder", SootClass.SIGNATURES);
+        Scene.v().addBasicClass("android.view.View", SootClass.SIGNATURES);
+        Scene.v().addBasicClass("android.view.MenuItem", SootClass.SIGNATURES);
+
+        // Runtime support classes of the probe mode are loaded from DroidInstrument and written to the output APK.
+        List<Class<?>> runtimeClasses = RuntimeInjector.getRuntimeClasses(InstrumentSettings.v().getProbeMode(),
+                InstrumentSettings.v().isProbeHelper());
+        if (!runtimeClasses.isEmpty()) {
+            File runtimeDirectory = RuntimeInjector.extractClassFiles(runtimeClasses);
+            Options.v().set_soot_classpath(runtimeDirectory.getAbsolutePath());
+            RuntimeInjector.addBasicClasses(runtimeClasses);
+        }
 
-        this.sootInitialised = true;
+        if (InstrumentSettings.v().getPlatformIndexDirectory() != null) {
+            if (InstrumentSettings.v().getPipeline() == Pipeline.LEAN) {
+                SootAnalysis.usePlatformIndex(InstrumentSettings.v().getPlatformIndexDirectory());
+            } else {
+                // Call graph construction of the full pipeline needs the bodies of platform methods.
+                LOGGER.warn("Platform index is only used by the lean pipeline, reading '{}'.",
+                        Options.v().android_jars());
+            }
+        }
+        return runtimeClasses;
+    }
+
+    /**
+     * Resolves platform classes from the index of the API level Soot picks for the APK, ahead of the class files of
+     * the android.jar. Falls back to the android.jar if the index is missing, stale or unreadable.
+     */
+    private static void usePlatformIndex(File indexDirectory) {
+        File jarFile = new File(Scene.v().getAndroidJarPath(Options.v().android_jars(),
+                InstrumentSettings.v().getApkFile().getAbsolutePath()));
+        File indexFile = PlatformIndex.getIndexFile(indexDirectory, Scene.v().getAndroidAPIVersion());
+        if (!indexFile.isFile()) {
+            LOGGER.warn("No platform index '{}', reading '{}'.", indexFile, jarFile);
+            return;
+        }
+
+        PlatformIndex index;
+        try {
+            index = PlatformIndex.open(indexFile);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to read platform index '{}', reading '{}': {}", indexFile, jarFile, e.getMessage());
+            return;
+        }
+        if (!index.isIndexOf(jarFile)) {
+            LOGGER.warn("Platform index '{}' is out of date, reading '{}'. Rebuild the index.", indexFile, jarFile);
+            return;
+        }
+
+        // Default providers of APK sources, with the index ahead of the class files.
+        SourceLocator.v().setClassProviders(Arrays.asList(new DexClassProvider(), new IndexClassProvider(index),
+                Options.v().coffi() ? new CoffiClassProvider() : new AsmClassProvider(), new JavaClassProvider(),
+                new JimpleClassProvider()));
+        LOGGER.info("Resolving platform classes from '{}' ({} classes).", indexFile, index.getClassCount());
     }
 }
@@ -0,0 +1,64 @@
+package phd.research.trace;
+
+import phd.research.runtime.TraceRuntime;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Decodes records written by {@link TraceRuntime}. Each record is a big-endian long with the method ID in the high 32
+ * bits and the recorded value in the low 32 bits, a record with method ID zero carries a count of dropped records.
+ *
+ * @author Jordan Doyle
+ */
+
+public class BinaryTraceChunk extends TraceChunk {
+
+    public static final int HEADER_SIZE = 8;
+    public static final int RECORD_SIZE = 8;
+
+    private final ProbeDictionary dictionary;
+
+    public BinaryTraceChunk(File file, long start, long end, ProbeDictionary dictionary) {
+        super(file, start, end);
+        this.dictionary = dictionary;
+    }
+
+    @Override
+    protected void decode(TraceSummary summary) throws IOException {
+        MappedByteBuffer buffer = TraceChunk.map(this.file, this.start, this.end - this.start);
+        while (buffer.remaining() >= RECORD_SIZE) {
+            long record = buffer.getLong();
+            int methodId = (int) (record >>> 32);
+            int value = (int) record;
+
+            if (methodId == 0) {
+                summary.countDropped(value & 0xFFFFFFFFL);
+                continue;
+            }
+
+            if (!this.dictionary.contains(methodId)) {
+                summary.countMalformed();
+                continue;
+            }
+
+            summary.countRecord();
+            String signature = this.dictionary.getSignature(methodId);
+            summary.countMethod(signature);
+            switch (this.dictionary.getKind(methodId)) {
+                case ACTIVITY:
+                    summary.addActivityInstance(value, ProbeDictionary.getClassName(signature));
+                    break;
+                case FRAGMENT:
+                    summary.linkFragment(value, ProbeDictionary.getClassName(signature));
+                    break;
+                case CONTROL:
+                    summary.addControlEvent(signature, value);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+}
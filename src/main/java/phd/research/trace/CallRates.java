@@ -0,0 +1,105 @@
+package phd.research.trace;
+
+import phd.research.utility.Csv;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Calls per run of each method, read from the call summaries of earlier runs of an instrumented APK: the method counts
+ * of the {@link TraceDecoder} ({@value TraceReport#METHOD_COUNTS_FILE}), the profiles of the {@link ProfileReport}
+ * ({@value ProfileReport#PROFILE_FILE}) and earlier scope reports (see {@link phd.research.singleton.CostModel}). The
+ * calls of a method are its mean calls over the trace and profile summaries, or the calls given by a scope report if
+ * higher. Calls of a method whose probe was sampled or skipped are under counted in later summaries, the scope report
+ * keeps such a method demoted while it is given with them.
+ *
+ * @author Jordan Doyle
+ */
+
+public class CallRates {
+
+    public static final String SCOPE_REPORT_HEADER = "signature,calls,action";
+
+    private static final String COUNTS_HEADER = "signature,count";
+    private static final String PROFILE_HEADER = "signature,kind,calls,total_ms,mean_us,max_us";
+
+    private final Map<String, Long> summaryCalls;
+    private final Map<String, Long> scopeCalls;
+    private int summaries;
+
+    public CallRates() {
+        this.summaryCalls = new HashMap<>();
+        this.scopeCalls = new HashMap<>();
+    }
+
+    public static CallRates read(List<File> files) throws IOException {
+        CallRates callRates = new CallRates();
+        for (File file : files) {
+            callRates.read(file);
+        }
+        return callRates;
+    }
+
+    /**
+     * Adds the calls of a method count, profile or scope report file, recognised by its header.
+     */
+    public void read(File file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            int callsColumn;
+            Map<String, Long> calls;
+            if (COUNTS_HEADER.equals(header)) {
+                callsColumn = 1;
+                calls = this.summaryCalls;
+            } else if (PROFILE_HEADER.equals(header)) {
+                callsColumn = 2;
+                calls = this.summaryCalls;
+            } else if (SCOPE_REPORT_HEADER.equals(header)) {
+                callsColumn = 1;
+                calls = this.scopeCalls;
+            } else {
+                throw new IOException("Not a method count, profile or scope report file (" + file + ").");
+            }
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                List<String> values = Csv.split(line);
+                if (values.size() <= callsColumn) {
+                    throw new IOException("Malformed line in " + file + ": " + line);
+                }
+                long count = Long.parseLong(values.get(callsColumn));
+                if (calls == this.scopeCalls) {
+                    calls.merge(values.get(0), count, Math::max);
+                } else {
+                    calls.merge(values.get(0), count, Long::sum);
+                }
+            }
+            if (calls == this.summaryCalls) {
+                this.summaries++;
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed call count in " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the calls per run of the method, zero if no summary has seen it.
+     */
+    public long getCalls(String signature) {
+        long calls = this.summaries > 0 ? this.summaryCalls.getOrDefault(signature, 0L) / this.summaries : 0;
+        return Math.max(calls, this.scopeCalls.getOrDefault(signature, 0L));
+    }
+
+    /**
+     * @return the number of methods seen by a summary or scope report.
+     */
+    public int size() {
+        Set<String> signatures = new HashSet<>(this.summaryCalls.keySet());
+        signatures.addAll(this.scopeCalls.keySet());
+        return signatures.size();
+    }
+}
@@ -0,0 +1,77 @@
+package phd.research.trace;
+
+import phd.research.jimple.ProbeKind;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The method ID dictionary written next to an APK instrumented in trace mode (see
+ * {@link phd.research.singleton.ProbeRegistry#writeDictionary(File)}).
+ *
+ * @author Jordan Doyle
+ */
+
+public class ProbeDictionary {
+
+    private final List<String> signatures;
+    private final List<ProbeKind> kinds;
+
+    private ProbeDictionary() {
+        this.signatures = new ArrayList<>();
+        this.kinds = new ArrayList<>();
+        // Method IDs start at one.
+        this.signatures.add(null);
+        this.kinds.add(null);
+    }
+
+    public static ProbeDictionary load(File dictionaryFile) throws IOException {
+        ProbeDictionary dictionary = new ProbeDictionary();
+        try (BufferedReader reader = Files.newBufferedReader(dictionaryFile.toPath(), StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (line == null || !line.startsWith("id\t")) {
+                throw new IOException("Missing dictionary header in " + dictionaryFile + ".");
+            }
+
+            while ((line = reader.readLine()) != null) {
+                String[] columns = line.split("\t", 3);
+                if (columns.length != 3) {
+                    throw new IOException("Malformed dictionary line in " + dictionaryFile + ": " + line);
+                }
+
+                int id = Integer.parseInt(columns[0]);
+                if (id != dictionary.signatures.size()) {
+                    throw new IOException(
+                            "Dictionary IDs are not consecutive in " + dictionaryFile + " at " + id + ".");
+                }
+                dictionary.kinds.add(ProbeKind.valueOf(columns[1]));
+                dictionary.signatures.add(columns[2]);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Malformed dictionary " + dictionaryFile + ": " + e.getMessage(), e);
+        }
+        return dictionary;
+    }
+
+    public static String getClassName(String signature) {
+        int separator = signature.indexOf(':');
+        return signature.startsWith("<") && separator > 0 ? signature.substring(1, separator) : signature;
+    }
+
+    public boolean contains(int methodId) {
+        return methodId > 0 && methodId < this.signatures.size();
+    }
+
+    public String getSignature(int methodId) {
+        return this.signatures.get(methodId);
+    }
+
+    public ProbeKind getKind(int methodId) {
+        return this.kinds.get(methodId);
+    }
+}
@@ -0,0 +1,163 @@
+package phd.research.trace;
+
+import org.apache.commons.cli.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import phd.research.runtime.ProfileRuntime;
+import phd.research.utility.Csv;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Command line report of the profiles written by {@link ProfileRuntime} in profile mode. Profiles of several processes
+ * or runs of the same instrumented APK are merged, method IDs are resolved with the probe dictionary and the methods
+ * are written to {@value #PROFILE_FILE} by descending total time, with their probe kind, number of calls, total, mean
+ * and maximum time.
+ *
+ * @author Jordan Doyle
+ */
+
+public class ProfileReport {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProfileReport.class);
+
+    public static final String PROFILE_FILE = "method-profile.csv";
+
+    private final ProbeDictionary dictionary;
+    private final Map<Integer, long[]> methods;
+
+    public ProfileReport(ProbeDictionary dictionary) {
+        this.dictionary = dictionary;
+        this.methods = new HashMap<>();
+    }
+
+    public static void main(String[] args) {
+        int status = ProfileReport.run(args);
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    public static Options createOptions() {
+        Options options = new Options();
+        options.addOption(Option.builder("i").longOpt("input").required().hasArgs().argName("FILE")
+                .desc("Profile files written by profile mode probes.").build());
+        options.addOption(Option.builder("d").longOpt("dictionary").required().hasArg().numberOfArgs(1)
+                .argName("FILE").desc("Probe dictionary of the instrumented APK.").build());
+        options.addOption(Option.builder("o").longOpt("output-directory").hasArg().numberOfArgs(1).argName("DIRECTORY")
+                .desc("Directory for output files.").build());
+        options.addOption(Option.builder("h").longOpt("help").desc("Display help.").build());
+        return options;
+    }
+
+    public static int run(String[] args) {
+        Options options = ProfileReport.createOptions();
+
+        CommandLine cmd;
+        try {
+            CommandLineParser parser = new DefaultParser();
+            cmd = parser.parse(options, args);
+        } catch (ParseException e) {
+            HelpFormatter formatter = new HelpFormatter();
+            final PrintWriter writer = new PrintWriter(System.out);
+            formatter.printUsage(writer, 80, "ProfileReport", options);
+            writer.flush();
+            return 10;
+        }
+
+        if (cmd.hasOption("h")) {
+            HelpFormatter formatter = new HelpFormatter();
+            formatter.printHelp("ProfileReport", options);
+            return 0;
+        }
+
+        List<File> inputFiles = new ArrayList<>();
+        for (String input : cmd.getOptionValues("i")) {
+            File inputFile = new File(input);
+            if (!inputFile.isFile()) {
+                LOGGER.error("Profile file missing: {}", inputFile);
+                return 20;
+            }
+            inputFiles.add(inputFile);
+        }
+
+        File outputDirectory = new File(cmd.getOptionValue("o", System.getProperty("user.dir")));
+        if (!outputDirectory.isDirectory()) {
+            LOGGER.error("Output directory missing: {}", outputDirectory);
+            return 40;
+        }
+
+        ProfileReport report;
+        try {
+            report = new ProfileReport(ProbeDictionary.load(new File(cmd.getOptionValue("d"))));
+            for (File inputFile : inputFiles) {
+                report.read(inputFile);
+            }
+        } catch (IOException e) {
+            LOGGER.error("Failed to read profile input: {}", e.getMessage());
+            return 50;
+        }
+
+        try {
+            report.writeCsv(new File(outputDirectory, PROFILE_FILE));
+        } catch (IOException e) {
+            LOGGER.error("Failed to write profile report: {}", e.getMessage());
+            return 60;
+        }
+        LOGGER.info("Merged {} profile(s) of {} method(s) into '{}'.", inputFiles.size(), report.methods.size(),
+                new File(outputDirectory, PROFILE_FILE));
+        return 0;
+    }
+
+    /**
+     * Adds the calls and times of a profile file to the report.
+     */
+    public void read(File profileFile) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(profileFile.toPath(), StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (line == null || !line.equals(ProfileRuntime.HEADER)) {
+                throw new IOException("Missing profile header in " + profileFile + ".");
+            }
+
+            while ((line = reader.readLine()) != null) {
+                String[] columns = line.split("\t");
+                if (columns.length != 4) {
+                    throw new IOException("Malformed profile line in " + profileFile + ": " + line);
+                }
+
+                int methodId = Integer.parseInt(columns[0]);
+                if (!this.dictionary.contains(methodId)) {
+                    throw new IOException(
+                            "Method ID " + methodId + " of " + profileFile + " is not in the dictionary.");
+                }
+                long[] stats = this.methods.computeIfAbsent(methodId, id -> new long[3]);
+                stats[0] += Long.parseLong(columns[1]);
+                stats[1] += Long.parseLong(columns[2]);
+                stats[2] = Math.max(stats[2], Long.parseLong(columns[3]));
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed profile " + profileFile + ": " + e.getMessage(), e);
+        }
+    }
+
+    public void writeCsv(File outputFile) throws IOException {
+        List<Map.Entry<Integer, long[]>> entries = new ArrayList<>(this.methods.entrySet());
+        entries.sort(Comparator.comparing((Map.Entry<Integer, long[]> entry) -> entry.getValue()[1]).reversed()
+                .thenComparing(Map.Entry::getKey));
+
+        try (PrintWriter writer = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(outputFile), StandardCharsets.UTF_8)))) {
+            writer.println("signature,kind,calls,total_ms,mean_us,max_us");
+            for (Map.Entry<Integer, long[]> entry : entries) {
+                long[] stats = entry.getValue();
+                writer.println(Csv.escape(this.dictionary.getSignature(entry.getKey())) + "," +
+                        this.dictionary.getKind(entry.getKey()) + "," + stats[0] + "," +
+                        String.format(Locale.ROOT, "%.3f,%.3f,%.3f", stats[1] / 1e6, stats[1] / 1e3 / stats[0],
+                                stats[2] / 1e3));
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package phd.research.trace;
+
+import phd.research.jimple.JimpleGenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes the tagged lines printed by probes in print mode (see {@link JimpleGenerator}) from a text capture, usually
+ * a logcat dump. Lines without a tag are skipped, the tag may be preceded by any logcat prefix. A chunk decodes every
+ * line that starts inside its byte range, the line that crosses the end of the range is read to its end.
+ *
+ * @author Jordan Doyle
+ */
+
+public class TextTraceChunk extends TraceChunk {
+
+    private static final byte[] ACTIVITY = (JimpleGenerator.A_TAG + " Activity: ").getBytes(StandardCharsets.UTF_8);
+    private static final byte[] FRAGMENT = (JimpleGenerator.F_TAG + " Fragment: ").getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CONTROL = (JimpleGenerator.C_TAG + " Method: ").getBytes(StandardCharsets.UTF_8);
+    private static final byte[] METHOD = (JimpleGenerator.M_TAG + " Method: ").getBytes(StandardCharsets.UTF_8);
+
+    private static final String FRAGMENT_ACTIVITY = " Activity: ";
+    private static final String CONTROL_VIEW = " View: ";
+
+    private final long fileSize;
+    private byte[] line;
+
+    public TextTraceChunk(File file, long start, long end, long fileSize) {
+        super(file, start, end);
+        this.fileSize = fileSize;
+        this.line = new byte[1024];
+    }
+
+    private static boolean matches(byte[] line, int position, int length, byte[] tag) {
+        if (length - position < tag.length) {
+            return false;
+        }
+
+        for (int i = 0; i < tag.length; i++) {
+            if (line[position + i] != tag[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected void decode(TraceSummary summary) throws IOException {
+        // Map from the byte before the range to see if the range starts a line. The mapping runs past the end of the
+        // range, as far as a single mapping allows, so the last line can be finished. Pages are only read on use.
+        long mapStart = Math.max(0, this.start - 1);
+        long mapSize = Math.min(this.fileSize - mapStart, Integer.MAX_VALUE);
+        MappedByteBuffer buffer = TraceChunk.map(this.file, mapStart, mapSize);
+        int limit = (int) (this.end - mapStart);
+
+        int position = 0;
+        if (this.start > 0) {
+            // The line containing the first byte of the range belongs to the previous chunk.
+            while (position < buffer.limit() && buffer.get(position++) != '\n') {
+                // Skip to the start of the next line.
+            }
+        }
+
+        while (position < limit && position < buffer.limit()) {
+            int length = 0;
+            while (position < buffer.limit()) {
+                byte b = buffer.get(position++);
+                if (b == '\n') {
+                    break;
+                }
+                if (length == this.line.length) {
+                    byte[] grown = new byte[this.line.length * 2];
+                    System.arraycopy(this.line, 0, grown, 0, length);
+                    this.line = grown;
+                }
+                this.line[length++] = b;
+            }
+
+            if (length > 0 && this.line[length - 1] == '\r') {
+                length--;
+            }
+            this.decodeLine(summary, length);
+        }
+    }
+
+    private void decodeLine(TraceSummary summary, int length) throws IOException {
+        for (int i = 0; i < length; i++) {
+            if (this.line[i] != '<') {
+                continue;
+            }
+
+            if (TextTraceChunk.matches(this.line, i, length, METHOD)) {
+                summary.countRecord();
+                summary.countMethod(this.text(i + METHOD.length, length));
+                return;
+            } else if (TextTraceChunk.matches(this.line, i, length, CONTROL)) {
+                summary.countRecord();
+                this.decodeControl(summary, this.text(i + CONTROL.length, length));
+                return;
+            } else if (TextTraceChunk.matches(this.line, i, length, FRAGMENT)) {
+                summary.countRecord();
+                this.decodeFragment(summary, this.text(i + FRAGMENT.length, length));
+                return;
+            } else if (TextTraceChunk.matches(this.line, i, length, ACTIVITY)) {
+                // The Activity onCreate method also prints a method line, which is counted instead.
+                summary.countRecord();
+                return;
+            }
+        }
+    }
+
+    private void decodeControl(TraceSummary summary, String message) throws IOException {
+        int separator = message.lastIndexOf(CONTROL_VIEW);
+        if (separator < 0) {
+            summary.countMalformed();
+            return;
+        }
+
+        String signature = message.substring(0, separator);
+        summary.countMethod(signature);
+        try {
+            summary.addControlEvent(signature, Integer.parseInt(message.substring(separator + CONTROL_VIEW.length())));
+        } catch (NumberFormatException e) {
+            summary.countMalformed();
+        }
+    }
+
+    private void decodeFragment(TraceSummary summary, String message) {
+        int separator = message.indexOf(FRAGMENT_ACTIVITY);
+        if (separator < 0) {
+            summary.linkFragment("", message);
+        } else {
+            summary.linkFragment(message.substring(separator + FRAGMENT_ACTIVITY.length()),
+                    message.substring(0, separator));
+        }
+    }
+
+    private String text(int from, int to) {
+        return new String(this.line, from, to - from, StandardCharsets.UTF_8).trim();
+    }
+}
@@ -0,0 +1,54 @@
+package phd.research.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Callable;
+
+/**
+ * A byte range of a trace file decoded on its own into a {@link TraceSummary}. The range is memory-mapped, so a chunk
+ * never reads more of the file than it decodes and the chunks of a file can be decoded in parallel.
+ *
+ * @author Jordan Doyle
+ */
+
+public abstract class TraceChunk implements Callable<TraceSummary> {
+
+    protected final File file;
+    protected final long start;
+    protected final long end;
+
+    protected TraceChunk(File file, long start, long end) {
+        this.file = file;
+        this.start = start;
+        this.end = end;
+    }
+
+    protected static MappedByteBuffer map(File file, long position, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        }
+    }
+
+    @Override
+    public TraceSummary call() throws IOException {
+        TraceSummary summary = new TraceSummary();
+        try {
+            this.decode(summary);
+            summary.finish();
+        } catch (IOException | RuntimeException e) {
+            summary.close();
+            throw e;
+        }
+        return summary;
+    }
+
+    protected abstract void decode(TraceSummary summary) throws IOException;
+
+    @Override
+    public String toString() {
+        return this.file + "[" + this.start + ", " + this.end + ")";
+    }
+}
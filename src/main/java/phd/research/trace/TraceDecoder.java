@@ -0,0 +1,245 @@
+package phd.research.trace;
+
+import org.apache.commons.cli.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import phd.research.runtime.TraceRuntime;
+import phd.research.utility.Timer;
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Command line decoder for traces captured from instrumented apps. Reads text captures of print mode probes (e.g. a
+ * logcat dump) and binary trace files written in trace mode, and reports per-method call counts, Activity to Fragment
+ * links and the sequence of control (view ID) events as CSV files or JSON.
+ * <p>
+ * Input files are split into chunks that are memory-mapped and decoded in parallel. At most two chunks per thread are
+ * decoded or waiting to be merged at any time, and chunk summaries are merged in file order, so memory use does not
+ * grow with the size of the input.
+ *
+ * @author Jordan Doyle
+ */
+
+public class TraceDecoder {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TraceDecoder.class);
+
+    private static final long DEFAULT_CHUNK_MEGABYTES = 64;
+
+    public static void main(String[] args) {
+        int status = TraceDecoder.run(args);
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    public static Options createOptions() {
+        Options options = new Options();
+        options.addOption(Option.builder("i").longOpt("input").required().hasArgs().argName("FILE")
+                .desc("Trace files to decode: text captures of print mode probes or binary trace mode files.").build());
+        options.addOption(Option.builder("d").longOpt("dictionary").hasArg().numberOfArgs(1).argName("FILE")
+                .desc("Probe dictionary of the instrumented APK (required for binary traces).").build());
+        options.addOption(Option.builder("o").longOpt("output-directory").hasArg().numberOfArgs(1).argName("DIRECTORY")
+                .desc("Directory for output files.").build());
+        options.addOption(Option.builder("f").longOpt("format").hasArg().numberOfArgs(1).argName("FORMAT")
+                .desc("Output format: 'csv' (default) or 'json'.").build());
+        options.addOption(Option.builder("t").longOpt("threads").hasArg().numberOfArgs(1).argName("NUMBER")
+                .desc("Number of threads decoding chunks (default: all cores).").build());
+        options.addOption(Option.builder().longOpt("chunk-size").hasArg().numberOfArgs(1).argName("MEGABYTES")
+                .desc("Size of the chunks decoded in parallel (default: " + DEFAULT_CHUNK_MEGABYTES + ").").build());
+        options.addOption(Option.builder("h").longOpt("help").desc("Display help.").build());
+        return options;
+    }
+
+    public static int run(String[] args) {
+        Options options = TraceDecoder.createOptions();
+
+        CommandLine cmd;
+        try {
+            CommandLineParser parser = new DefaultParser();
+            cmd = parser.parse(options, args);
+        } catch (ParseException e) {
+            HelpFormatter formatter = new HelpFormatter();
+            final PrintWriter writer = new PrintWriter(System.out);
+            formatter.printUsage(writer, 80, "TraceDecoder", options);
+            writer.flush();
+            return 10;
+        }
+
+        if (cmd.hasOption("h")) {
+            HelpFormatter formatter = new HelpFormatter();
+            formatter.printHelp("TraceDecoder", options);
+            return 0;
+        }
+
+        String format = cmd.getOptionValue("f", "csv").toLowerCase(Locale.ROOT);
+        if (!format.equals("csv") && !format.equals("json")) {
+            LOGGER.error("Invalid output format: {}", format);
+            return 10;
+        }
+
+        int threads;
+        long chunkSize;
+        try {
+            threads = Integer.parseInt(
+                    cmd.getOptionValue("t", String.valueOf(Runtime.getRuntime().availableProcessors())));
+            chunkSize = Long.parseLong(cmd.getOptionValue("chunk-size", String.valueOf(DEFAULT_CHUNK_MEGABYTES))) *
+                    1024 * 1024;
+            if (threads < 1 || chunkSize < 1) {
+                throw new NumberFormatException("must be at least 1");
+            }
+        } catch (NumberFormatException e) {
+            LOGGER.error("Invalid number of threads or chunk size: {}", e.getMessage());
+            return 10;
+        }
+
+        List<File> inputFiles = new ArrayList<>();
+        for (String input : cmd.getOptionValues("i")) {
+            File inputFile = new File(input);
+            if (!inputFile.isFile()) {
+                LOGGER.error("Trace file missing: {}", inputFile);
+                return 20;
+            }
+            inputFiles.add(inputFile);
+        }
+
+        File outputDirectory = new File(cmd.getOptionValue("o", System.getProperty("user.dir")));
+        if (!outputDirectory.isDirectory()) {
+            LOGGER.error("Output directory missing: {}", outputDirectory);
+            return 40;
+        }
+
+        Timer timer = new Timer();
+        LOGGER.info("Start time: {}", timer.start());
+
+        List<TraceChunk> chunks = new ArrayList<>();
+        try {
+            ProbeDictionary dictionary = cmd.hasOption("d") ? ProbeDictionary.load(new File(cmd.getOptionValue("d"))) :
+                    null;
+            for (File inputFile : inputFiles) {
+                chunks.addAll(TraceDecoder.createChunks(inputFile, chunkSize, dictionary));
+            }
+        } catch (IOException e) {
+            LOGGER.error("Failed to read trace input: {}", e.getMessage());
+            return 50;
+        }
+
+        LOGGER.info("Decoding {} trace file(s) in {} chunk(s) with {} thread(s).", inputFiles.size(), chunks.size(),
+                threads);
+        try (TraceSummary summary = TraceDecoder.decode(chunks, threads)) {
+            summary.resolveLinks();
+            LOGGER.info("Decoded {} record(s): {} method(s), {} control event(s), {} dropped, {} malformed.",
+                    summary.getRecords(), summary.getMethodCounts().size(), summary.getControlEvents(),
+                    summary.getDropped(), summary.getMalformed());
+
+            TraceReport report = new TraceReport(summary);
+            try {
+                if (format.equals("json")) {
+                    report.writeJson(outputDirectory);
+                } else {
+                    report.writeCsv(outputDirectory);
+                }
+            } catch (IOException e) {
+                LOGGER.error("Failed to write trace report: {}", e.getMessage());
+                return 60;
+            }
+        } catch (IOException e) {
+            LOGGER.error("Failed to decode trace: {}", e.getMessage());
+            return 50;
+        }
+
+        LOGGER.info("End time: {}", timer.end());
+        LOGGER.info("Execution time: {} second(s).", timer.secondsDuration());
+        return 0;
+    }
+
+    public static List<TraceChunk> createChunks(File inputFile, long chunkSize, ProbeDictionary dictionary)
+            throws IOException {
+        long fileSize = inputFile.length();
+        List<TraceChunk> chunks = new ArrayList<>();
+
+        if (TraceDecoder.isBinaryTrace(inputFile)) {
+            if (dictionary == null) {
+                throw new IOException("Binary trace " + inputFile + " requires a probe dictionary.");
+            }
+
+            // Chunks of a binary trace hold whole records.
+            long recordsSize = chunkSize - chunkSize % BinaryTraceChunk.RECORD_SIZE;
+            long recordsEnd = fileSize - (fileSize - BinaryTraceChunk.HEADER_SIZE) % BinaryTraceChunk.RECORD_SIZE;
+            for (long start = BinaryTraceChunk.HEADER_SIZE; start < recordsEnd; start += recordsSize) {
+                chunks.add(new BinaryTraceChunk(inputFile, start, Math.min(recordsEnd, start + recordsSize),
+                        dictionary));
+            }
+        } else {
+            for (long start = 0; start < fileSize; start += chunkSize) {
+                chunks.add(new TextTraceChunk(inputFile, start, Math.min(fileSize, start + chunkSize), fileSize));
+            }
+        }
+        return chunks;
+    }
+
+    private static boolean isBinaryTrace(File inputFile) throws IOException {
+        if (inputFile.length() < BinaryTraceChunk.HEADER_SIZE) {
+            return false;
+        }
+
+        try (DataInputStream inputStream = new DataInputStream(new FileInputStream(inputFile))) {
+            if (inputStream.readInt() != TraceRuntime.MAGIC) {
+                return false;
+            }
+
+            int version = inputStream.readInt();
+            if (version != TraceRuntime.VERSION) {
+                throw new IOException("Unsupported trace version " + version + " in " + inputFile + ".");
+            }
+            return true;
+        }
+    }
+
+    private static TraceSummary decode(List<TraceChunk> chunks, int threads) throws IOException {
+        TraceSummary summary = new TraceSummary();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Deque<Future<TraceSummary>> pending = new ArrayDeque<>();
+        try {
+            for (TraceChunk chunk : chunks) {
+                if (pending.size() >= threads * 2) {
+                    TraceDecoder.merge(summary, pending.poll());
+                }
+                pending.add(executor.submit(chunk));
+            }
+
+            while (!pending.isEmpty()) {
+                TraceDecoder.merge(summary, pending.poll());
+            }
+        } catch (IOException | RuntimeException e) {
+            for (Future<TraceSummary> future : pending) {
+                future.cancel(true);
+            }
+            summary.close();
+            throw e;
+        } finally {
+            executor.shutdownNow();
+        }
+        return summary;
+    }
+
+    private static void merge(TraceSummary summary, Future<TraceSummary> future) throws IOException {
+        try (TraceSummary chunkSummary = future.get()) {
+            summary.merge(chunkSummary);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while decoding trace.", e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+}
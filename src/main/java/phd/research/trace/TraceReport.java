@@ -0,0 +1,113 @@
+package phd.research.trace;
+
+import com.google.gson.stream.JsonWriter;
+import phd.research.utility.Csv;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Writes a merged {@link TraceSummary} as CSV files or as a single JSON document. Control events are streamed from the
+ * spill files of the summary, so writing the report does not hold the event sequence in memory.
+ *
+ * @author Jordan Doyle
+ */
+
+public class TraceReport {
+
+    public static final String METHOD_COUNTS_FILE = "method-counts.csv";
+    public static final String FRAGMENT_LINKS_FILE = "fragment-links.csv";
+    public static final String CONTROL_EVENTS_FILE = "control-events.csv";
+    public static final String JSON_FILE = "trace-summary.json";
+
+    private final TraceSummary summary;
+
+    public TraceReport(TraceSummary summary) {
+        this.summary = summary;
+    }
+
+    private static PrintWriter createWriter(File file) throws IOException {
+        return new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 64 * 1024));
+    }
+
+    public void writeCsv(File outputDirectory) throws IOException {
+        try (PrintWriter writer = TraceReport.createWriter(new File(outputDirectory, METHOD_COUNTS_FILE))) {
+            writer.println("signature,count");
+            for (Map.Entry<String, Long> entry : this.summary.getMethodCounts()) {
+                writer.println(Csv.escape(entry.getKey()) + "," + entry.getValue());
+            }
+        }
+
+        try (PrintWriter writer = TraceReport.createWriter(new File(outputDirectory, FRAGMENT_LINKS_FILE))) {
+            writer.println("activity,fragment,count");
+            for (Map.Entry<String, Map<String, Long>> activity : this.summary.getFragmentLinks().entrySet()) {
+                for (Map.Entry<String, Long> fragment : activity.getValue().entrySet()) {
+                    writer.println(Csv.escape(activity.getKey()) + "," + Csv.escape(fragment.getKey()) + "," +
+                            fragment.getValue());
+                }
+            }
+        }
+
+        try (PrintWriter writer = TraceReport.createWriter(new File(outputDirectory, CONTROL_EVENTS_FILE))) {
+            writer.println("sequence,method,view_id");
+            long[] sequence = {0};
+            this.forEachControlEvent(
+                    (method, viewId) -> writer.println(sequence[0]++ + "," + Csv.escape(method) + "," + viewId));
+        }
+    }
+
+    public void writeJson(File outputDirectory) throws IOException {
+        try (JsonWriter writer = new JsonWriter(TraceReport.createWriter(new File(outputDirectory, JSON_FILE)))) {
+            writer.setIndent("  ");
+            writer.beginObject();
+            writer.name("records").value(this.summary.getRecords());
+            writer.name("dropped").value(this.summary.getDropped());
+            writer.name("malformed").value(this.summary.getMalformed());
+
+            writer.name("methods").beginArray();
+            for (Map.Entry<String, Long> entry : this.summary.getMethodCounts()) {
+                writer.beginObject().name("signature").value(entry.getKey()).name("count").value(entry.getValue())
+                        .endObject();
+            }
+            writer.endArray();
+
+            writer.name("fragmentLinks").beginArray();
+            for (Map.Entry<String, Map<String, Long>> activity : this.summary.getFragmentLinks().entrySet()) {
+                for (Map.Entry<String, Long> fragment : activity.getValue().entrySet()) {
+                    writer.beginObject().name("activity").value(activity.getKey()).name("fragment")
+                            .value(fragment.getKey()).name("count").value(fragment.getValue()).endObject();
+                }
+            }
+            writer.endArray();
+
+            writer.name("controlEvents").beginArray();
+            this.forEachControlEvent((method, viewId) -> writer.beginObject().name("method").value(method)
+                    .name("viewId").value(viewId).endObject());
+            writer.endArray();
+            writer.endObject();
+        }
+    }
+
+    private void forEachControlEvent(ControlEventConsumer consumer) throws IOException {
+        for (File file : this.summary.getControlEventFiles()) {
+            try (DataInputStream inputStream = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+                while (true) {
+                    String method;
+                    try {
+                        method = inputStream.readUTF();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    consumer.accept(method, inputStream.readInt());
+                }
+            }
+        }
+    }
+
+    private interface ControlEventConsumer {
+        void accept(String method, int viewId) throws IOException;
+    }
+}
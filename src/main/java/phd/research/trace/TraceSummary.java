@@ -0,0 +1,187 @@
+package phd.research.trace;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Aggregates decoded from one chunk of a trace, or from a whole trace once the chunk summaries are merged in order.
+ * Per-method call counts and Activity to Fragment links are kept in memory, their size is bounded by the number of
+ * instrumented methods and classes. Control events are an ordered sequence as long as the trace itself, so they are
+ * spilled to temporary files (one per chunk) and streamed back when the report is written.
+ * <p>
+ * Binary traces link a Fragment to the identity hash code of its Activity, the Activity class is only known from an
+ * earlier Activity record that may be in another chunk. These links are kept unresolved until every chunk has been
+ * merged (see {@link #resolveLinks()}).
+ *
+ * @author Jordan Doyle
+ */
+
+public class TraceSummary implements Closeable {
+
+    public static final String UNKNOWN_ACTIVITY = "unknown@";
+
+    private final Map<String, Long> methodCounts;
+    private final Map<String, Map<String, Long>> fragmentLinks;
+    private final Map<Integer, String> activityInstances;
+    private final Map<Integer, Map<String, Long>> unresolvedLinks;
+    private final List<File> controlEventFiles;
+
+    private DataOutputStream controlEventStream;
+    private long records;
+    private long controlEvents;
+    private long dropped;
+    private long malformed;
+
+    public TraceSummary() {
+        this.methodCounts = new HashMap<>();
+        this.fragmentLinks = new TreeMap<>();
+        this.activityInstances = new HashMap<>();
+        this.unresolvedLinks = new HashMap<>();
+        this.controlEventFiles = new ArrayList<>();
+    }
+
+    private static void increment(Map<String, Long> counts, String key, long count) {
+        counts.merge(key, count, Long::sum);
+    }
+
+    public void countRecord() {
+        this.records++;
+    }
+
+    public void countMethod(String signature) {
+        TraceSummary.increment(this.methodCounts, signature, 1);
+    }
+
+    public void countDropped(long dropped) {
+        this.dropped += dropped;
+    }
+
+    public void countMalformed() {
+        this.malformed++;
+    }
+
+    public void addActivityInstance(int identityHashCode, String activity) {
+        this.activityInstances.putIfAbsent(identityHashCode, activity);
+    }
+
+    public void linkFragment(String activity, String fragment) {
+        TraceSummary.increment(this.fragmentLinks.computeIfAbsent(activity, k -> new TreeMap<>()), fragment, 1);
+    }
+
+    public void linkFragment(int activityIdentityHashCode, String fragment) {
+        if (activityIdentityHashCode == 0) {
+            // Fragment was not attached to an Activity.
+            this.linkFragment("", fragment);
+        } else {
+            TraceSummary.increment(
+                    this.unresolvedLinks.computeIfAbsent(activityIdentityHashCode, k -> new HashMap<>()), fragment, 1);
+        }
+    }
+
+    public void addControlEvent(String signature, int viewId) throws IOException {
+        if (this.controlEventStream == null) {
+            File file = Files.createTempFile("droid-instrument-controls", ".bin").toFile();
+            this.controlEventFiles.add(file);
+            this.controlEventStream =
+                    new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        }
+        this.controlEventStream.writeUTF(signature);
+        this.controlEventStream.writeInt(viewId);
+        this.controlEvents++;
+    }
+
+    /**
+     * Finishes writing the control events of this summary, must be called before the summary is merged.
+     */
+    public void finish() throws IOException {
+        if (this.controlEventStream != null) {
+            this.controlEventStream.close();
+            this.controlEventStream = null;
+        }
+    }
+
+    /**
+     * Adds the aggregates of a summary decoded from a later chunk. Control events of the other summary are appended
+     * after the control events of this summary.
+     */
+    public void merge(TraceSummary other) {
+        other.methodCounts.forEach((signature, count) -> TraceSummary.increment(this.methodCounts, signature, count));
+        other.fragmentLinks.forEach((activity, fragments) -> fragments.forEach(
+                (fragment, count) -> TraceSummary.increment(
+                        this.fragmentLinks.computeIfAbsent(activity, k -> new TreeMap<>()), fragment, count)));
+        other.activityInstances.forEach(this.activityInstances::putIfAbsent);
+        other.unresolvedLinks.forEach((hashCode, fragments) -> fragments.forEach(
+                (fragment, count) -> TraceSummary.increment(
+                        this.unresolvedLinks.computeIfAbsent(hashCode, k -> new HashMap<>()), fragment, count)));
+        this.controlEventFiles.addAll(other.controlEventFiles);
+        other.controlEventFiles.clear();
+
+        this.records += other.records;
+        this.controlEvents += other.controlEvents;
+        this.dropped += other.dropped;
+        this.malformed += other.malformed;
+    }
+
+    /**
+     * Links Fragments recorded in binary traces to the class of the Activity instance they were attached to. Activity
+     * instances without an Activity record in the trace are reported as {@value #UNKNOWN_ACTIVITY} and the hash code.
+     */
+    public void resolveLinks() {
+        this.unresolvedLinks.forEach((hashCode, fragments) -> {
+            String activity = this.activityInstances.getOrDefault(hashCode,
+                    UNKNOWN_ACTIVITY + Integer.toHexString(hashCode));
+            fragments.forEach((fragment, count) -> TraceSummary.increment(
+                    this.fragmentLinks.computeIfAbsent(activity, k -> new TreeMap<>()), fragment, count));
+        });
+        this.unresolvedLinks.clear();
+    }
+
+    /**
+     * @return method signatures and call counts, most called first.
+     */
+    public List<Map.Entry<String, Long>> getMethodCounts() {
+        List<Map.Entry<String, Long>> counts = new ArrayList<>(this.methodCounts.entrySet());
+        counts.sort(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+        return counts;
+    }
+
+    /**
+     * @return Activity class to Fragment class to count, sorted by class name. Fragments that were not attached to an
+     * Activity are listed under the empty string.
+     */
+    public Map<String, Map<String, Long>> getFragmentLinks() {
+        return this.fragmentLinks;
+    }
+
+    public List<File> getControlEventFiles() {
+        return this.controlEventFiles;
+    }
+
+    public long getRecords() {
+        return this.records;
+    }
+
+    public long getControlEvents() {
+        return this.controlEvents;
+    }
+
+    public long getDropped() {
+        return this.dropped;
+    }
+
+    public long getMalformed() {
+        return this.malformed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.finish();
+        for (File file : this.controlEventFiles) {
+            FileUtils.deleteQuietly(file);
+        }
+        this.controlEventFiles.clear();
+    }
+}
@@ -0,0 +1,72 @@
+package phd.research.utility;
+
+import org.jf.dexlib2.DexFileFactory;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.iface.DexFile;
+import org.jf.dexlib2.iface.MethodImplementation;
+import org.jf.dexlib2.iface.MultiDexContainer;
+import org.jf.dexlib2.immutable.ImmutableMethodImplementation;
+import org.jf.dexlib2.rewriter.DexRewriter;
+import org.jf.dexlib2.rewriter.Rewriter;
+import org.jf.dexlib2.rewriter.RewriterModule;
+import org.jf.dexlib2.rewriter.Rewriters;
+import org.jf.dexlib2.writer.io.MemoryDataStore;
+import org.jf.dexlib2.writer.pool.DexPool;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Computes a SHA-256 digest of each dex file in an APK. Debug information is removed before the digest is taken, as
+ * Soot's register allocator does not order local variable end markers consistently between runs, even on a single
+ * thread. The digest therefore covers the classes, their code and their annotations.
+ *
+ * @author Jordan Doyle
+ */
+
+public class DexDigest {
+
+    public static Map<String, String> digest(File apkFile) throws IOException {
+        DexRewriter rewriter = new DexRewriter(new RewriterModule() {
+            @Override
+            public Rewriter<MethodImplementation> getMethodImplementationRewriter(Rewriters rewriters) {
+                return value -> new ImmutableMethodImplementation(value.getRegisterCount(), value.getInstructions(),
+                        value.getTryBlocks(), null);
+            }
+        });
+
+        Map<String, String> digests = new TreeMap<>();
+        MultiDexContainer<? extends DexFile> container = DexFileFactory.loadDexContainer(apkFile,
+                Opcodes.getDefault());
+        for (String entryName : container.getDexEntryNames()) {
+            MultiDexContainer.DexEntry<? extends DexFile> entry = container.getEntry(entryName);
+            if (entry == null) {
+                continue;
+            }
+
+            MemoryDataStore dataStore = new MemoryDataStore();
+            DexPool.writeTo(dataStore, rewriter.getDexFileRewriter().rewrite(entry.getDexFile()));
+            digests.put(entryName, DexDigest.sha256(dataStore.getData()));
+        }
+        return digests;
+    }
+
+    private static String sha256(byte[] data) throws IOException {
+        MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 not supported by this JVM.", e);
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : messageDigest.digest(data)) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
@@ -2,17 +2,21 @@ package phd.research.utility;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import phd.research.filter.FilterEngine;
+import phd.research.filter.FilterRule;
 import soot.SootClass;
 import soot.SootMethod;
 
-import java.io.BufferedReader;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
+ * Decides which classes and methods are instrumented. The bundled blacklists (package prefixes, or package name parts
+ * starting with a dot, and class name prefixes) are always applied, rule files given on the command line are added to
+ * them (see {@link FilterRule}).
+ *
  * @author Jordan Doyle
  */
 
@@ -20,40 +24,74 @@ public class Filter {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Filter.class);
 
-    private static final List<String> PACKAGE_BLACKLIST = Filter.loadBlacklist("package_blacklist");
-    private static final List<String> CLASS_BLACKLIST = Filter.loadBlacklist("class_blacklist");
+    private static final List<FilterRule> DEFAULT_RULES = Filter.loadDefaultRules();
+
+    private static volatile FilterEngine engine = FilterEngine.compile(DEFAULT_RULES);
 
     public static boolean isValidMethod(SootMethod method) {
-        if (Filter.isValidClass(method.getDeclaringClass())) {
-            return !method.getName().startsWith("access$");
-        }
-        return false;
+        return Filter.engine.isValidMethod(method);
     }
 
     public static boolean isValidClass(SootClass clazz) {
-        if (!Filter.isValidPackage(clazz.getPackageName())) {
-            return false;
-        }
+        return Filter.engine.isValidClass(clazz);
+    }
 
-        if (clazz.getShortName().equals("R")) {
-            return false;
+    /**
+     * Compiles the bundled rules and the rules of the given files, replacing the rules (and memoized decisions) of the
+     * previous run. Must not be called while the body packs run.
+     */
+    public static void configure(List<File> ruleFiles) throws IOException {
+        List<FilterRule> rules = new ArrayList<>();
+        for (FilterRule rule : DEFAULT_RULES) {
+            rules.add(new FilterRule(rule.getAction(), rule.getKind(), rule.getPattern(), rule.getSource()));
+        }
+        for (File ruleFile : ruleFiles) {
+            List<FilterRule> fileRules = FilterEngine.load(ruleFile);
+            LOGGER.info("Loaded {} filter rule(s) from '{}'", fileRules.size(), ruleFile);
+            rules.addAll(fileRules);
         }
+        Filter.engine = FilterEngine.compile(rules);
+    }
 
-        return Filter.CLASS_BLACKLIST.stream()
-                .noneMatch(blacklistedClass -> clazz.getShortName().startsWith(blacklistedClass));
+    public static FilterEngine getEngine() {
+        return Filter.engine;
     }
 
-    private static boolean isValidPackage(String packageName) {
-        return Filter.PACKAGE_BLACKLIST.stream().noneMatch(
-                blacklistedPackage -> blacklistedPackage.startsWith(".") ? packageName.contains(blacklistedPackage) :
-                        packageName.startsWith(blacklistedPackage));
+    private static List<FilterRule> loadDefaultRules() {
+        List<FilterRule> rules = new ArrayList<>();
+        for (String packageName : Filter.loadBlacklist("package_blacklist")) {
+            rules.add(new FilterRule(FilterRule.Action.EXCLUDE,
+                    packageName.startsWith(".") ? FilterRule.Kind.CONTAINS : FilterRule.Kind.PACKAGE, packageName,
+                    "package_blacklist"));
+        }
+        for (String className : Filter.loadBlacklist("class_blacklist")) {
+            rules.add(new FilterRule(FilterRule.Action.EXCLUDE, FilterRule.Kind.CLASS, className + "*",
+                    "class_blacklist"));
+        }
+        rules.add(new FilterRule(FilterRule.Action.EXCLUDE, FilterRule.Kind.CLASS, "R", "default"));
+        rules.add(new FilterRule(FilterRule.Action.EXCLUDE, FilterRule.Kind.METHOD, "access$*", "default"));
+        return rules;
     }
 
     private static List<String> loadBlacklist(String fileName) {
         LOGGER.info("Loading blacklist from resource file '{}'", fileName);
+        List<String> entries = new ArrayList<>();
         InputStream resourceStream = Filter.class.getClassLoader().getResourceAsStream(fileName);
-        return resourceStream != null ?
-                new BufferedReader(new InputStreamReader(resourceStream)).lines().collect(Collectors.toList()) :
-                new ArrayList<>();
+        if (resourceStream == null) {
+            return entries;
+        }
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(resourceStream,
+                StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    entries.add(line.trim());
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.error("Failed to read blacklist '{}': {}", fileName, e.getMessage());
+        }
+        return entries;
     }
 }
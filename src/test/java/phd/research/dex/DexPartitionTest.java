@@ -0,0 +1,84 @@
+package phd.research.dex;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Jordan Doyle
+ */
+
+public class DexPartitionTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File writeApk(Object... entries) throws IOException {
+        File apkFile = this.folder.newFile("app.apk");
+        try (ZipArchiveOutputStream apk = new ZipArchiveOutputStream(apkFile)) {
+            for (int i = 0; i < entries.length; i += 2) {
+                apk.putArchiveEntry(new ZipArchiveEntry((String) entries[i]));
+                apk.write(new byte[(Integer) entries[i + 1]]);
+                apk.closeArchiveEntry();
+            }
+        }
+        return apkFile;
+    }
+
+    @Test
+    public void balancesLargestDexFilesFirst() throws IOException {
+        File apkFile = this.writeApk("AndroidManifest.xml", 500, "classes3.dex", 50, "classes.dex", 100,
+                "classes10.dex", 40, "classes2.dex", 60, "lib/classes4.dex", 1000);
+
+        List<DexPartition> plan = DexPartition.plan(apkFile, 2);
+        assertEquals(2, plan.size());
+        assertEquals(Arrays.asList("classes.dex", "classes10.dex"), plan.get(0).getEntryNames());
+        assertEquals(140, plan.get(0).getSize());
+        assertEquals(Arrays.asList("classes2.dex", "classes3.dex"), plan.get(1).getEntryNames());
+        assertEquals(110, plan.get(1).getSize());
+    }
+
+    @Test
+    public void ordersPartitionsByFirstDexFile() throws IOException {
+        File apkFile = this.writeApk("classes.dex", 10, "classes2.dex", 30, "classes3.dex", 20);
+
+        List<DexPartition> plan = DexPartition.plan(apkFile, 3);
+        assertEquals(3, plan.size());
+        assertEquals(Arrays.asList("classes.dex"), plan.get(0).getEntryNames());
+        assertEquals(Arrays.asList("classes2.dex"), plan.get(1).getEntryNames());
+        assertEquals(Arrays.asList("classes3.dex"), plan.get(2).getEntryNames());
+    }
+
+    @Test
+    public void plansNoMorePartitionsThanDexFiles() throws IOException {
+        File apkFile = this.writeApk("classes.dex", 10, "classes2.dex", 10);
+
+        List<DexPartition> plan = DexPartition.plan(apkFile, 8);
+        assertEquals(2, plan.size());
+        assertEquals(Arrays.asList("classes.dex"), plan.get(0).getEntryNames());
+        assertEquals(Arrays.asList("classes2.dex"), plan.get(1).getEntryNames());
+    }
+
+    @Test
+    public void breaksSizeTiesByDexIndex() throws IOException {
+        File apkFile = this.writeApk("classes3.dex", 10, "classes2.dex", 10, "classes.dex", 10, "classes4.dex", 10);
+
+        List<DexPartition> plan = DexPartition.plan(apkFile, 2);
+        assertEquals(Arrays.asList("classes.dex", "classes3.dex"), plan.get(0).getEntryNames());
+        assertEquals(Arrays.asList("classes2.dex", "classes4.dex"), plan.get(1).getEntryNames());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsApkWithoutDexFiles() throws IOException {
+        DexPartition.plan(this.writeApk("AndroidManifest.xml", 10), 2);
+    }
+}
@@ -0,0 +1,157 @@
+package phd.research.filter;
+
+import org.junit.Before;
+import org.junit.Test;
+import soot.G;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.VoidType;
+import soot.tagkit.AnnotationConstants;
+import soot.tagkit.AnnotationTag;
+import soot.tagkit.VisibilityAnnotationTag;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Jordan Doyle
+ */
+
+public class FilterEngineTest {
+
+    private static FilterEngine compile(String... rules) {
+        List<FilterRule> parsed = new ArrayList<>();
+        for (int i = 0; i < rules.length; i++) {
+            parsed.add(FilterRule.parse(rules[i], "test:" + (i + 1)));
+        }
+        return FilterEngine.compile(parsed);
+    }
+
+    private static SootMethod addMethod(SootClass clazz, String name) {
+        SootMethod method = new SootMethod(name, Collections.emptyList(), VoidType.v());
+        clazz.addMethod(method);
+        return method;
+    }
+
+    private static void annotate(soot.tagkit.Host host, String type) {
+        VisibilityAnnotationTag tag = new VisibilityAnnotationTag(AnnotationConstants.RUNTIME_VISIBLE);
+        tag.addAnnotation(new AnnotationTag(type));
+        host.addTag(tag);
+    }
+
+    @Before
+    public void resetSoot() {
+        G.reset();
+    }
+
+    @Test
+    public void matchesPackagePrefixesFromTheTrie() {
+        FilterEngine engine = compile("exclude package androidx.", "exclude package com.google.");
+
+        assertFalse(engine.isValidClass(new SootClass("androidx.core.app.ActivityCompat")));
+        assertFalse(engine.isValidClass(new SootClass("com.google.gson.Gson")));
+        assertTrue(engine.isValidClass(new SootClass("androidxy.Main")));
+        assertTrue(engine.isValidClass(new SootClass("com.example.Main")));
+        assertTrue(engine.isValidClass(new SootClass("Main")));
+    }
+
+    @Test
+    public void matchesContainsAtEveryPackageSegment() {
+        FilterEngine engine = compile("exclude contains .databinding");
+
+        assertFalse(engine.isValidClass(new SootClass("com.example.databinding.MainBinding")));
+        assertFalse(engine.isValidClass(new SootClass("com.example.app.databinding.sub.ItemBinding")));
+        assertTrue(engine.isValidClass(new SootClass("com.exampledatabinding.Main")));
+    }
+
+    @Test
+    public void includeWinsAmongPackageRules() {
+        FilterEngine engine = compile("exclude package androidx.", "include package androidx.fragment.app.");
+
+        assertTrue(engine.isValidClass(new SootClass("androidx.fragment.app.Fragment")));
+        assertFalse(engine.isValidClass(new SootClass("androidx.core.app.ActivityCompat")));
+    }
+
+    @Test
+    public void classRulesDecideBeforePackageRules() {
+        FilterEngine engine = compile("include package androidx.fragment.app.", "exclude class R$*",
+                "exclude class androidx.fragment.app.FragmentManager");
+
+        assertTrue(engine.isValidClass(new SootClass("androidx.fragment.app.Fragment")));
+        assertFalse(engine.isValidClass(new SootClass("androidx.fragment.app.R$id")));
+        assertFalse(engine.isValidClass(new SootClass("androidx.fragment.app.FragmentManager")));
+    }
+
+    @Test
+    public void methodRulesDecideBeforeClassRules() {
+        FilterEngine engine = compile("include package androidx.fragment.app.", "exclude method access$*",
+                "exclude package com.example.generated.", "include method onCreate");
+
+        SootClass fragment = new SootClass("androidx.fragment.app.Fragment");
+        assertTrue(engine.isValidMethod(addMethod(fragment, "onResume")));
+        assertFalse(engine.isValidMethod(addMethod(fragment, "access$000")));
+
+        SootClass generated = new SootClass("com.example.generated.Helper");
+        assertFalse(engine.isValidMethod(addMethod(generated, "run")));
+        assertTrue(engine.isValidMethod(addMethod(generated, "onCreate")));
+    }
+
+    @Test
+    public void matchesClassAndMethodAnnotations() {
+        FilterEngine engine = compile("exclude annotation kotlin.Metadata", "exclude annotation a.Generated");
+
+        SootClass kotlin = new SootClass("com.example.Model");
+        annotate(kotlin, "Lkotlin/Metadata;");
+        assertFalse(engine.isValidClass(kotlin));
+
+        SootClass main = new SootClass("com.example.Main");
+        SootMethod generated = addMethod(main, "generated");
+        annotate(generated, "La/Generated;");
+        assertTrue(engine.isValidClass(main));
+        assertFalse(engine.isValidMethod(generated));
+        assertTrue(engine.isValidMethod(addMethod(main, "plain")));
+    }
+
+    @Test
+    public void neverIncludesRuntimeClasses() {
+        FilterEngine engine = compile("include package phd.", "include class *", "include method *");
+
+        SootClass runtime = new SootClass("phd.research.runtime.TraceRuntime");
+        SootClass nested = new SootClass("phd.research.runtime.TraceRuntime$Flusher");
+        assertFalse(engine.isValidClass(runtime));
+        assertFalse(engine.isValidClass(nested));
+        assertFalse(engine.isValidMethod(addMethod(runtime, "record")));
+        assertFalse(engine.isValidMethod(addMethod(nested, "run")));
+        for (FilterRule rule : engine.getRules()) {
+            assertEquals(0, rule.getClassCount());
+            assertEquals(0, rule.getMethodCount());
+        }
+        assertTrue(engine.isValidClass(new SootClass("phd.research.runtimes.Main")));
+    }
+
+    @Test
+    public void countsEachClassAndMethodOnce() {
+        FilterEngine engine = compile("exclude package androidx.", "exclude method access$*");
+        FilterRule packageRule = engine.getRules().get(0);
+        FilterRule methodRule = engine.getRules().get(1);
+
+        SootClass clazz = new SootClass("androidx.core.Util");
+        SootMethod accessor = addMethod(clazz, "access$100");
+        SootMethod other = addMethod(clazz, "apply");
+        engine.isValidClass(clazz);
+        engine.isValidClass(clazz);
+        engine.isValidMethod(accessor);
+        engine.isValidMethod(accessor);
+        engine.isValidMethod(other);
+
+        assertEquals(1, packageRule.getClassCount());
+        assertEquals(2, packageRule.getMethodCount());
+        assertEquals(0, methodRule.getClassCount());
+        assertEquals(1, methodRule.getMethodCount());
+    }
+}
@@ -0,0 +1,74 @@
+package phd.research.filter;
+
+import org.junit.Test;
+
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Jordan Doyle
+ */
+
+public class FilterRuleTest {
+
+    @Test
+    public void parsesActionKindAndPattern() {
+        FilterRule rule = FilterRule.parse("  Exclude   PACKAGE  androidx. ", "rules.txt:3");
+        assertEquals(FilterRule.Action.EXCLUDE, rule.getAction());
+        assertEquals(FilterRule.Kind.PACKAGE, rule.getKind());
+        assertEquals("androidx.", rule.getPattern());
+        assertEquals("rules.txt:3", rule.getSource());
+        assertEquals("exclude package androidx.", rule.toString());
+    }
+
+    @Test
+    public void convertsAnnotationsToTypeDescriptors() {
+        assertEquals("Lkotlin/Metadata;", FilterRule.parse("exclude annotation kotlin.Metadata", "test").getPattern());
+        assertEquals("Lkotlin/Metadata;",
+                FilterRule.parse("exclude annotation Lkotlin/Metadata;", "test").getPattern());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsContainsWithoutDot() {
+        FilterRule.parse("exclude contains databinding", "test");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMissingPattern() {
+        FilterRule.parse("exclude package", "test");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsExtraParts() {
+        FilterRule.parse("exclude package androidx. support.", "test");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownKind() {
+        FilterRule.parse("exclude field mValue", "test");
+    }
+
+    @Test
+    public void compilesGlobsWithQuotedLiterals() {
+        Pattern accessor = FilterRule.compileGlob("access$*");
+        assertTrue(accessor.matcher("access$000").matches());
+        assertTrue(accessor.matcher("access$").matches());
+        assertFalse(accessor.matcher("xaccess$0").matches());
+
+        Pattern resources = FilterRule.compileGlob("R$?");
+        assertTrue(resources.matcher("R$a").matches());
+        assertFalse(resources.matcher("R$id").matches());
+
+        Pattern dotted = FilterRule.compileGlob("com.a.*Binding");
+        assertTrue(dotted.matcher("com.a.MainBinding").matches());
+        assertFalse(dotted.matcher("comxa.MainBinding").matches());
+    }
+
+    @Test
+    public void detectsGlobs() {
+        assertTrue(FilterRule.isGlob("R$*"));
+        assertTrue(FilterRule.isGlob("get?"));
+        assertFalse(FilterRule.isGlob("onCreate"));
+    }
+}
@@ -0,0 +1,97 @@
+package phd.research.jimple;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Jordan Doyle
+ */
+
+public class CostRuleTest {
+
+    @Test
+    public void appliesDefaultActions() {
+        List<CostRule> rules = CostRule.parseAll("accessor,small:3,loop-callee");
+        assertEquals(3, rules.size());
+
+        assertEquals(CostRule.Type.ACCESSOR, rules.get(0).getType());
+        assertEquals(CostRule.Action.SKIP, rules.get(0).getAction());
+
+        assertEquals(CostRule.Type.SMALL, rules.get(1).getType());
+        assertEquals(3, rules.get(1).getThreshold());
+        assertEquals(CostRule.Action.SKIP, rules.get(1).getAction());
+
+        assertEquals(CostRule.Type.LOOP_CALLEE, rules.get(2).getType());
+        assertEquals(CostRule.Action.DOWNGRADE, rules.get(2).getAction());
+    }
+
+    @Test
+    public void overridesActions() {
+        List<CostRule> rules = CostRule.parseAll("Accessor=downgrade, loop-callee=SKIP");
+        assertEquals(CostRule.Action.DOWNGRADE, rules.get(0).getAction());
+        assertEquals(CostRule.Action.SKIP, rules.get(1).getAction());
+    }
+
+    @Test
+    public void skipsEmptyEntries() {
+        assertTrue(CostRule.parseAll("").isEmpty());
+        assertEquals(2, CostRule.parseAll(" accessor, ,small:2,").size());
+    }
+
+    @Test
+    public void printsAsWritten() {
+        CostRule small = CostRule.parse("small:4");
+        assertEquals("small:4", small.getName());
+        assertEquals("small:4=skip", small.toString());
+        assertEquals("loop-callee=downgrade", CostRule.parse("loop-callee").toString());
+    }
+
+    @Test
+    public void parsesHotCallCount() {
+        CostRule hot = CostRule.parse("hot:1000");
+        assertEquals(CostRule.Type.HOT, hot.getType());
+        assertEquals(1000, hot.getThreshold());
+        assertEquals(CostRule.Action.DOWNGRADE, hot.getAction());
+        assertEquals("hot:1000=downgrade", hot.toString());
+        assertEquals(0, CostRule.parse("hot:0=skip").getThreshold());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsHotWithoutCallCount() {
+        CostRule.parse("hot");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeHotCallCount() {
+        CostRule.parse("hot:-1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownRule() {
+        CostRule.parse("large:3");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownAction() {
+        CostRule.parse("accessor=remove");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSmallWithoutSize() {
+        CostRule.parse("small");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSmallBelowOne() {
+        CostRule.parse("small:0");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsValueOnAccessor() {
+        CostRule.parse("accessor:2");
+    }
+}
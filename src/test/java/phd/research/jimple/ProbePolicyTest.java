@@ -0,0 +1,74 @@
+package phd.research.jimple;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author Jordan Doyle
+ */
+
+public class ProbePolicyTest {
+
+    @Test
+    public void parsesAllAsTheSharedPolicy() {
+        assertSame(ProbePolicy.ALL, ProbePolicy.parse("all"));
+        assertSame(ProbePolicy.ALL, ProbePolicy.parse(" ALL "));
+    }
+
+    @Test
+    public void parsesFirstAndSample() {
+        ProbePolicy first = ProbePolicy.parse("first:3");
+        assertEquals(ProbePolicy.Strategy.FIRST, first.getStrategy());
+        assertEquals(3, first.getLimit());
+
+        ProbePolicy sample = ProbePolicy.parse("Sample:100");
+        assertEquals(ProbePolicy.Strategy.SAMPLE, sample.getStrategy());
+        assertEquals(100, sample.getLimit());
+        assertEquals(0, sample.getWindowMillis());
+    }
+
+    @Test
+    public void parsesRateWithWindow() {
+        ProbePolicy rate = ProbePolicy.parse("rate:5/250");
+        assertEquals(ProbePolicy.Strategy.RATE, rate.getStrategy());
+        assertEquals(5, rate.getLimit());
+        assertEquals(250, rate.getWindowMillis());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownStrategy() {
+        ProbePolicy.parse("every:2");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsValueForAll() {
+        ProbePolicy.parse("all:1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMissingValue() {
+        ProbePolicy.parse("first");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroLimit() {
+        ProbePolicy.parse("sample:0");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonNumericLimit() {
+        ProbePolicy.parse("first:many");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsRateWithoutWindow() {
+        ProbePolicy.parse("rate:5");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsRateWithEmptyWindow() {
+        ProbePolicy.parse("rate:5/0");
+    }
+}
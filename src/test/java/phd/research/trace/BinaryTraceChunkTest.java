@@ -0,0 +1,75 @@
+package phd.research.trace;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Jordan Doyle
+ */
+
+public class BinaryTraceChunkTest {
+
+    private static final String METHOD = "<com.example.A: void m()>";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static long record(int methodId, int value) {
+        return ((long) methodId << 32) | (value & 0xFFFFFFFFL);
+    }
+
+    private File writeTrace(long... records) throws IOException {
+        File file = this.folder.newFile();
+        try (DataOutputStream output = new DataOutputStream(new FileOutputStream(file))) {
+            output.writeLong(0);
+            for (long record : records) {
+                output.writeLong(record);
+            }
+        }
+        return file;
+    }
+
+    private ProbeDictionary loadDictionary() throws IOException {
+        File file = this.folder.newFile();
+        Files.write(file.toPath(), Arrays.asList("id\tkind\tsignature", "1\tMETHOD\t" + METHOD),
+                StandardCharsets.UTF_8);
+        return ProbeDictionary.load(file);
+    }
+
+    @Test
+    public void countsDroppedRecordsAsUnsigned() throws IOException {
+        File file = this.writeTrace(BinaryTraceChunkTest.record(1, 7), BinaryTraceChunkTest.record(0, 3),
+                BinaryTraceChunkTest.record(1, 8), BinaryTraceChunkTest.record(0, -1));
+
+        TraceSummary summary = new BinaryTraceChunk(file, BinaryTraceChunk.HEADER_SIZE, file.length(),
+                this.loadDictionary()).call();
+
+        assertEquals(2, summary.getRecords());
+        assertEquals(3 + 0xFFFFFFFFL, summary.getDropped());
+        assertEquals(0, summary.getMalformed());
+        assertEquals(Long.valueOf(2), summary.getMethodCounts().get(0).getValue());
+    }
+
+    @Test
+    public void countsUnknownMethodIdsAsMalformed() throws IOException {
+        File file = this.writeTrace(BinaryTraceChunkTest.record(2, 0), BinaryTraceChunkTest.record(1, 0));
+
+        TraceSummary summary = new BinaryTraceChunk(file, BinaryTraceChunk.HEADER_SIZE, file.length(),
+                this.loadDictionary()).call();
+
+        assertEquals(1, summary.getRecords());
+        assertEquals(1, summary.getMalformed());
+        assertEquals(0, summary.getDropped());
+    }
+}
@@ -0,0 +1,94 @@
+package phd.research.trace;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Jordan Doyle
+ */
+
+public class CallRatesTest {
+
+    private static final String ON_CREATE = "\"<a.Main: void onCreate(android.os.Bundle)>\"";
+    private static final String ADD = "\"<a.Util: int add(int,int)>\"";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File writeFile(String name, String... lines) throws IOException {
+        File file = this.folder.newFile(name);
+        Files.write(file.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+        return file;
+    }
+
+    @Test
+    public void readsMethodCounts() throws IOException {
+        CallRates callRates = CallRates.read(Collections.singletonList(
+                this.writeFile("method-counts.csv", "signature,count", ON_CREATE + ",1", ADD + ",250")));
+
+        assertEquals(2, callRates.size());
+        assertEquals(1, callRates.getCalls("<a.Main: void onCreate(android.os.Bundle)>"));
+        assertEquals(250, callRates.getCalls("<a.Util: int add(int,int)>"));
+        assertEquals(0, callRates.getCalls("<a.Util: void unknown()>"));
+    }
+
+    @Test
+    public void averagesCountsAndProfiles() throws IOException {
+        File counts = this.writeFile("method-counts.csv", "signature,count", ADD + ",300", ON_CREATE + ",3");
+        File profile = this.writeFile("app.profile.csv", "signature,kind,calls,total_ms,mean_us,max_us",
+                ADD + ",METHOD,100,1.5,15.0,40.0");
+
+        CallRates callRates = CallRates.read(Arrays.asList(counts, profile));
+        assertEquals(200, callRates.getCalls("<a.Util: int add(int,int)>"));
+        assertEquals(1, callRates.getCalls("<a.Main: void onCreate(android.os.Bundle)>"));
+    }
+
+    @Test
+    public void keepsHigherScopeReportCalls() throws IOException {
+        File counts = this.writeFile("method-counts.csv", "signature,count", ADD + ",10", ON_CREATE + ",5");
+        File firstReport = this.writeFile("first-scope-report.csv", CallRates.SCOPE_REPORT_HEADER,
+                ADD + ",4000,downgrade");
+        File secondReport = this.writeFile("second-scope-report.csv", CallRates.SCOPE_REPORT_HEADER,
+                ADD + ",5000,downgrade", ON_CREATE + ",2,downgrade");
+
+        CallRates callRates = CallRates.read(Arrays.asList(counts, firstReport, secondReport));
+        assertEquals(2, callRates.size());
+        assertEquals(5000, callRates.getCalls("<a.Util: int add(int,int)>"));
+        assertEquals(5, callRates.getCalls("<a.Main: void onCreate(android.os.Bundle)>"));
+    }
+
+    @Test
+    public void readsScopeReportWithoutSummaries() throws IOException {
+        CallRates callRates = CallRates.read(Collections.singletonList(
+                this.writeFile("scope-report.csv", CallRates.SCOPE_REPORT_HEADER, ADD + ",1200,skip")));
+
+        assertEquals(1200, callRates.getCalls("<a.Util: int add(int,int)>"));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsUnknownHeader() throws IOException {
+        CallRates.read(Collections.singletonList(this.writeFile("calls.csv", "method,calls", ADD + ",1")));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsMissingColumn() throws IOException {
+        CallRates.read(Collections.singletonList(
+                this.writeFile("app.profile.csv", "signature,kind,calls,total_ms,mean_us,max_us", ADD + ",METHOD")));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsMalformedCount() throws IOException {
+        CallRates.read(Collections.singletonList(
+                this.writeFile("method-counts.csv", "signature,count", ADD + ",many")));
+    }
+}
@@ -0,0 +1,88 @@
+package phd.research.trace;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Jordan Doyle
+ */
+
+public class TextTraceChunkTest {
+
+    private static final String FIRST = "<com.example.A: void first()>";
+    private static final String SECOND = "<com.example.B: void second(int)>";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Map<String, Long> getCounts(TraceSummary summary) {
+        Map<String, Long> counts = new HashMap<>();
+        summary.getMethodCounts().forEach(entry -> counts.put(entry.getKey(), entry.getValue()));
+        return counts;
+    }
+
+    private File write(String content) throws IOException {
+        File file = this.folder.newFile();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static TraceSummary decode(File file, long start, long end) throws IOException {
+        return new TextTraceChunk(file, start, end, file.length()).call();
+    }
+
+    @Test
+    public void decodesTaggedLinesAfterAnyPrefix() throws IOException {
+        File file = this.write("I/System.out( 123): <METHOD> Method: " + FIRST + "\n" + "unrelated line\n" +
+                "<METHOD> Method: " + FIRST + "\r\n" + "12-01 10:00:00.000 I/tag: <METHOD> Method: " + SECOND);
+
+        TraceSummary summary = TextTraceChunkTest.decode(file, 0, file.length());
+
+        assertEquals(3, summary.getRecords());
+        assertEquals(0, summary.getMalformed());
+        Map<String, Long> counts = TextTraceChunkTest.getCounts(summary);
+        assertEquals(2, counts.size());
+        assertEquals(Long.valueOf(2), counts.get(FIRST));
+        assertEquals(Long.valueOf(1), counts.get(SECOND));
+    }
+
+    @Test
+    public void decodesEveryLineOnceWhereverTheChunksSplit() throws IOException {
+        String content = "<METHOD> Method: " + FIRST + "\n" + "\n" + "prefix <METHOD> Method: " + SECOND + "\n" +
+                "<ACTIVITY> Activity: com.example.A\n" + "<METHOD> Method: " + FIRST + "\n";
+        File file = this.write(content);
+        Map<String, Long> expected = TextTraceChunkTest.getCounts(TextTraceChunkTest.decode(file, 0, file.length()));
+
+        for (long split = 1; split < file.length(); split++) {
+            TraceSummary summary = TextTraceChunkTest.decode(file, 0, split);
+            summary.merge(TextTraceChunkTest.decode(file, split, file.length()));
+
+            assertEquals("split at " + split, 4, summary.getRecords());
+            assertEquals("split at " + split, expected, TextTraceChunkTest.getCounts(summary));
+        }
+    }
+
+    @Test
+    public void growsTheLineBufferForLongLines() throws IOException {
+        StringBuilder signature = new StringBuilder("<com.example.A: void m(");
+        for (int i = 0; i < 500; i++) {
+            signature.append("java.lang.String,");
+        }
+        signature.append("int)>");
+        File file = this.write("<METHOD> Method: " + signature + "\n");
+
+        TraceSummary summary = TextTraceChunkTest.decode(file, 0, file.length());
+
+        assertEquals(Long.valueOf(1), TextTraceChunkTest.getCounts(summary).get(signature.toString()));
+    }
+}